@@ -1,9 +1,15 @@
 package com.replication;
 
 import com.replication.model.LogEntry;
+import com.replication.node.AdmissionController;
+import com.replication.store.HotKeyTracker.HotKey;
+import com.replication.store.StoreSnapshot;
+import com.replication.system.FailoverEvent;
+import com.replication.system.HedgedReader;
 import com.replication.system.ReplicationSystem;
 
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -22,6 +28,9 @@ public class Main {
         // Start the failure simulator with moderate probabilities
         // 10% chance of failure, 30% chance of recovery per 5 seconds
         system.startFailureSimulator(0.1, 0.3, 5);
+
+        // Promote the most up-to-date slave if the master is down for two 50 ms checks
+        system.startAutomaticFailover(50, 2);
         
         // // Demo the system
         // try {
@@ -122,7 +131,8 @@ public class Main {
         String input;
         
         System.out.println("\n--- Interactive Mode ---");
-        System.out.println("Commands: write <key> <value> | read <key> | delete <key> | show | logs | status | exit");
+        System.out.println("Commands: write <key> <value> | writettl <key> <ttlMillis> <value> | read <key> | " +
+                "delete <key> | addslave <id> | removeslave <id> | show | logs | status | exit");
         
         while (true) {
             System.out.print("> ");
@@ -131,13 +141,14 @@ public class Main {
             if (input.equals("exit")) {
                 break;
             } else if (input.equals("show")) {
-                Map<String, String> dataStore = system.getDataStore();
-                if (dataStore != null) {
-                    System.out.println("\n--- Current Data Store ---");
-                    if (dataStore.isEmpty()) {
-                        System.out.println("(empty)");
-                    } else {
-                        dataStore.forEach((k, v) -> System.out.println(k + " = " + v));
+                try (StoreSnapshot snapshot = system.snapshot()) {
+                    if (snapshot != null) {
+                        System.out.println("\n--- Current Data Store (as of log #" + snapshot.getIndex() + ") ---");
+                        Iterator<Map.Entry<String, String>> entries = snapshot.iterator();
+                        if (!entries.hasNext()) {
+                            System.out.println("(empty)");
+                        }
+                        entries.forEachRemaining(e -> System.out.println(e.getKey() + " = " + e.getValue()));
                     }
                 }
             } else if (input.equals("logs")) {
@@ -156,9 +167,31 @@ public class Main {
                 }
             } else if (input.equals("status")) {
                 Map<String, Boolean> nodeStatus = system.getNodesStatus();
+                Map<String, Double> suspicion = system.getNodesSuspicion();
                 System.out.println("\n--- Node Status ---");
                 nodeStatus.forEach((nodeId, isUp) -> 
-                        System.out.println(nodeId + ": " + (isUp ? "UP" : "DOWN")));
+                        System.out.println(nodeId + ": " + (isUp ? "UP" : "DOWN") +
+                                String.format(" (phi=%.2f)", suspicion.getOrDefault(nodeId, 0.0))));
+                AdmissionController admission = system.getAdmissionController();
+                if (admission != null) {
+                    System.out.println("Admission: " + admission);
+                }
+                HedgedReader hedged = system.getHedgedReader();
+                if (hedged != null) {
+                    System.out.println("Hedged reads: " + hedged);
+                }
+                Map<String, List<HotKey>> hotReads = system.getHotReadKeys(5);
+                Map<String, List<HotKey>> hotWrites = system.getHotWriteKeys(5);
+                system.getDiskStores().forEach((nodeId, store) -> System.out.println("Disk store on " + nodeId + ": " + store));
+                hotReads.forEach((nodeId, keys) -> {
+                    if (!keys.isEmpty() || !hotWrites.get(nodeId).isEmpty()) {
+                        System.out.println("Hot keys on " + nodeId + ": reads " + keys + ", writes " + hotWrites.get(nodeId));
+                    }
+                });
+                for (FailoverEvent event : system.getFailoverEvents()) {
+                    System.out.println("Failover " + event.getOldMasterId() + " -> " + event.getNewMasterId() +
+                            ": writes unavailable for " + event.getUnavailableMillis() + " ms");
+                }
             } else if (input.startsWith("read ")) {
                 String key = input.substring(5).trim();
                 String value = system.read(key);
@@ -173,6 +206,28 @@ public class Main {
                 } else {
                     System.out.println("Delete failed (key not found or master down)");
                 }
+            } else if (input.startsWith("addslave ")) {
+                String id = input.substring(9).trim();
+                if (system.addSlave(id) != null) {
+                    System.out.println("Slave " + id + " added");
+                }
+            } else if (input.startsWith("removeslave ")) {
+                String id = input.substring(12).trim();
+                if (system.removeSlave(id)) {
+                    System.out.println("Slave " + id + " removed");
+                }
+            } else if (input.startsWith("writettl ")) {
+                String[] parts = input.substring(9).trim().split("\\s+", 3);
+                if (parts.length >= 3 && parts[1].matches("\\d+")) {
+                    boolean success = system.write(parts[0], parts[2], Long.parseLong(parts[1]));
+                    if (success) {
+                        System.out.println("Write successful, expires in " + parts[1] + " ms");
+                    } else {
+                        System.out.println("Write failed (master down?)");
+                    }
+                } else {
+                    System.out.println("Usage: writettl <key> <ttlMillis> <value>");
+                }
             } else if (input.startsWith("write ")) {
                 String[] parts = input.substring(6).trim().split("\\s+", 2);
                 if (parts.length >= 2) {
@@ -186,7 +241,7 @@ public class Main {
                     System.out.println("Usage: write <key> <value>");
                 }
             } else {
-                System.out.println("Unknown command. Use write, read, delete, show, logs, status, or exit");
+                System.out.println("Unknown command. Use write, writettl, read, delete, addslave, removeslave, show, logs, status, or exit");
             }
         }
 
@@ -0,0 +1,119 @@
+package com.replication.Test;
+
+import com.replication.node.AdmissionController;
+import com.replication.node.AdmissionController.Policy;
+import com.replication.node.SlaveNode;
+import com.replication.system.ReplicationSystem;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class AdmissionControlTest {
+
+    private static final long MICROS = 1_000L;
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void testThrottleHalvesRateAboveTargetAndRaisesItBelow() {
+        AtomicLong clock = new AtomicLong();
+        AtomicLong lag = new AtomicLong();
+        // No waiting allowed, so every write beyond the current rate is rejected rather than paced
+        AdmissionController controller = new AdmissionController(Policy.THROTTLE, 100, 0, lag::get, clock::get);
+
+        // 50,000 writes per second while the slaves keep up: nothing is limited
+        for (int i = 0; i < 500; i++) {
+            assertTrue(controller.admit());
+            clock.addAndGet(20 * MICROS);
+        }
+        assertEquals(-1.0, controller.getRateLimit());
+
+        // The slaves fall behind: the rate is cut to half of what was admitted
+        lag.set(500);
+        assertTrue(controller.admit());
+        assertEquals(25_000.0, controller.getRateLimit(), 1.0);
+        assertFalse(controller.admit());
+        clock.addAndGet(40 * MICROS);
+        assertTrue(controller.admit());
+
+        // Writes arriving at the limit are admitted; once caught up the rate grows additively
+        for (int i = 0; i < 248; i++) {
+            clock.addAndGet(40 * MICROS);
+            assertTrue(controller.admit());
+        }
+        lag.set(10);
+        clock.addAndGet(40 * MICROS);
+        assertTrue(controller.admit());
+        assertEquals(27_000.0, controller.getRateLimit(), 1.0);
+
+        // With the load gone and the lag well under target, the limit is lifted
+        clock.addAndGet(10 * MILLIS);
+        assertTrue(controller.admit());
+        assertEquals(-1.0, controller.getRateLimit());
+        assertEquals(1, controller.getRejected());
+        assertEquals(10, controller.getLastLag());
+    }
+
+    @Test
+    public void testQueueWaitsForLagOrRejectsAtDeadline() {
+        AtomicLong clock = new AtomicLong();
+        AtomicLong lag = new AtomicLong(50);
+        // Each measurement happens a millisecond after the last, and the slaves catch up by 10 entries
+        AdmissionController controller = new AdmissionController(Policy.QUEUE, 20, 5, () -> {
+            clock.addAndGet(MILLIS);
+            return lag.getAndAdd(-10);
+        }, clock::get);
+
+        assertTrue(controller.admit());
+        assertEquals(1, controller.getDelayed());
+        assertEquals(2.0, controller.getAverageDelayMillis(), 0.001);
+
+        // The slaves stop catching up, so the writer gives up after 5 ms
+        AdmissionController stuck = new AdmissionController(Policy.QUEUE, 20, 5, () -> {
+            clock.addAndGet(MILLIS);
+            return 50;
+        }, clock::get);
+        assertFalse(stuck.admit());
+        assertEquals(1, stuck.getRejected());
+        assertEquals(0, stuck.getWaiting());
+    }
+
+    @Test
+    public void testRejectPolicyProtectsLaggingSlaves() throws InterruptedException {
+        ReplicationSystem system = new ReplicationSystem(1);
+        try {
+            system.enableAdmissionControl(Policy.REJECT, 5, 0);
+            SlaveNode slave = system.getSlaves().get(0);
+            slave.setResponseDelayMillis(100);
+
+            int accepted = 0;
+            for (int i = 0; i < 50; i++) {
+                if (system.write("key-" + i, "value-" + i)) {
+                    accepted++;
+                }
+            }
+            AdmissionController controller = system.getAdmissionController();
+            assertTrue(accepted < 50);
+            assertEquals(accepted, controller.getAdmitted());
+            assertEquals(50 - accepted, controller.getRejected());
+
+            // Once the slave has caught up, writes are admitted again
+            slave.setResponseDelayMillis(0);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (system.getMaster().getReplicationLag() > 0 && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+            assertTrue(system.write("after", "value"));
+
+            system.disableAdmissionControl();
+            assertNull(system.getAdmissionController());
+        } finally {
+            system.shutdown();
+        }
+    }
+}
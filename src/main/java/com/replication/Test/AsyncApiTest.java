@@ -0,0 +1,108 @@
+package com.replication.Test;
+
+import com.replication.node.SlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.system.PendingWrite;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class AsyncApiTest {
+
+    private SimulationRuntime runtime;
+    private ReplicationSystem system;
+
+    @Before
+    public void setup() {
+        runtime = new SimulationRuntime(13);
+        system = new ReplicationSystem(2, runtime);
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+    }
+
+    private void settle() {
+        runtime.getScheduler().runFor(200, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testPipelinedWritesApplyInOrderAndReplicate() {
+        List<PendingWrite> writes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            writes.add(system.writeAsync("key-" + (i % 20), "value-" + i));
+        }
+        writes.add(system.deleteAsync("key-0"));
+        assertFalse(writes.get(0).applied().isDone());
+
+        CompletableFuture<Boolean> allReplicated = CompletableFuture.allOf(
+                writes.stream().map(PendingWrite::replicated).toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> writes.stream().allMatch(w -> w.replicated().join()));
+        CompletableFuture<String> readAfter = allReplicated.thenCompose(ignored -> system.readAsync("key-7"));
+        settle();
+
+        for (PendingWrite write : writes) {
+            assertTrue(write.applied().join());
+        }
+        assertTrue(allReplicated.join());
+        // Later writes to a key were applied after earlier ones
+        assertEquals("value-187", readAfter.join());
+        for (SlaveNode slave : system.getSlaves()) {
+            assertNull(slave.read("key-0"));
+            assertEquals("value-199", slave.read("key-19"));
+        }
+    }
+
+    @Test
+    public void testReplicatedWaitsForSlaves() {
+        for (SlaveNode slave : system.getSlaves()) {
+            slave.goDown();
+        }
+        PendingWrite write = system.writeAsync("key", "value", 60_000);
+        settle();
+        assertTrue(write.applied().join());
+        assertFalse(write.replicated().isDone());
+
+        system.getSlaves().get(0).goUp();
+        settle();
+        assertTrue(write.replicated().join());
+        CompletableFuture<String> read = system.readAsync("key");
+        settle();
+        assertEquals("value", read.join());
+    }
+
+    @Test
+    public void testReplicatedGivesUpWhenNoSlaveCatchesUp() {
+        for (SlaveNode slave : system.getSlaves()) {
+            slave.goDown();
+        }
+        PendingWrite write = system.writeAsync("key", "value");
+        settle();
+        assertTrue(write.applied().join());
+        assertFalse(write.replicated().isDone());
+
+        runtime.getScheduler().runFor(11, TimeUnit.SECONDS);
+        assertFalse(write.replicated().join());
+    }
+
+    @Test
+    public void testRejectedWriteCompletesBothStagesWithFalse() {
+        system.getMaster().goDown();
+        PendingWrite write = system.writeAsync("key", "value");
+        settle();
+        assertFalse(write.applied().join());
+        assertFalse(write.replicated().join());
+    }
+}
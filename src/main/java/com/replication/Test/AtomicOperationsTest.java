@@ -0,0 +1,136 @@
+package com.replication.Test;
+
+import com.replication.model.LogEntry;
+import com.replication.node.SlaveNode;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class AtomicOperationsTest {
+
+    private ReplicationSystem system;
+
+    @Before
+    public void setup() {
+        system = new ReplicationSystem(2);
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+    }
+
+    @Test
+    public void testConcurrentIncrementsLoseNoUpdates() throws InterruptedException {
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 250; i++) {
+                    system.increment("counter", 1);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Long.valueOf(1999), system.decrement("counter", 1));
+        TimeUnit.SECONDS.sleep(1);
+
+        // Slaves receive the resolved values as plain writes and never evaluate anything
+        for (SlaveNode slave : system.getSlaves()) {
+            assertEquals("1999", slave.read("counter"));
+        }
+        List<LogEntry> log = system.getLogs();
+        assertEquals(2001, log.size());
+        for (LogEntry entry : log) {
+            assertEquals(LogEntry.OperationType.WRITE, entry.getOperationType());
+        }
+        assertEquals("2000", log.get(1999).getValue());
+    }
+
+    @Test
+    public void testCompareAndSetByValueAndVersion() {
+        assertTrue(system.compareAndSet("key", 0, "first"));
+        assertFalse(system.compareAndSet("key", 0, "again"));
+
+        long version = system.getVersion("key");
+        assertEquals(1, version);
+        assertTrue(system.compareAndSet("key", "first", "second"));
+        assertFalse(system.compareAndSet("key", "first", "third"));
+        // The value changed since the version was read, so the stale version is refused
+        assertFalse(system.compareAndSet("key", version, "third"));
+        assertTrue(system.compareAndSet("key", system.getVersion("key"), "third"));
+
+        assertTrue(system.delete("key"));
+        assertEquals(0, system.getVersion("key"));
+        assertTrue(system.compareAndSet("key", null, "recreated"));
+        assertEquals("recreated", system.getMaster().read("key"));
+    }
+
+    @Test
+    public void testIncrementAndAppendKeepTtlAndRejectNonIntegers() {
+        assertTrue(system.write("text", "abc"));
+        assertNull(system.increment("text", 1));
+        assertEquals(6, system.append("text", "def"));
+        assertEquals(3, system.append("new", "xyz"));
+        assertEquals("abcdef", system.getMaster().read("text"));
+
+        assertTrue(system.write("limited", "41", 60_000));
+        long expiresAt = expiresAt("limited");
+        assertTrue(expiresAt > 0);
+        assertEquals(Long.valueOf(42), system.increment("limited", 1));
+        assertEquals(expiresAt, expiresAt("limited"));
+        assertEquals(Long.valueOf(-8), system.decrement("fresh", 8));
+
+        assertTrue(system.write("max", Long.toString(Long.MAX_VALUE)));
+        assertNull(system.increment("max", 1));
+    }
+
+    @Test
+    public void testEveryAtomicOperationKeepsTtl() {
+        assertTrue(system.write("by-value", "a", 60_000));
+        long byValue = expiresAt("by-value");
+        assertTrue(system.compareAndSet("by-value", "a", "b"));
+        assertEquals(byValue, expiresAt("by-value"));
+
+        assertTrue(system.write("by-version", "a", 60_000));
+        long byVersion = expiresAt("by-version");
+        assertTrue(system.compareAndSet("by-version", system.getVersion("by-version"), "b"));
+        assertEquals(byVersion, expiresAt("by-version"));
+
+        assertTrue(system.write("counter", "1", 60_000));
+        long counter = expiresAt("counter");
+        assertEquals(Long.valueOf(2), system.increment("counter", 1));
+        assertEquals(counter, expiresAt("counter"));
+
+        assertTrue(system.write("text", "a", 60_000));
+        long text = expiresAt("text");
+        assertEquals(2, system.append("text", "b"));
+        assertEquals(text, expiresAt("text"));
+
+        // A key created by compare-and-set has no TTL to keep
+        assertTrue(system.compareAndSet("created", 0, "new"));
+        assertEquals(0, expiresAt("created"));
+        assertTrue(byValue > 0 && byVersion > 0 && counter > 0 && text > 0);
+    }
+
+    private long expiresAt(String key) {
+        List<LogEntry> log = system.getLogs();
+        for (int i = log.size() - 1; i >= 0; i--) {
+            if (log.get(i).getKey().equals(key)) {
+                return log.get(i).getExpiresAtMillis();
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,151 @@
+package com.replication.Test;
+
+import com.replication.model.Bytes;
+import com.replication.model.LogEntry;
+import com.replication.node.SlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.storage.WriteAheadLog;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import static org.junit.Assert.assertArrayEquals;
+
+public class BinaryValuesTest {
+
+    private Path directory;
+    private SimulationRuntime runtime;
+    private ReplicationSystem system;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("binary-values-test");
+        runtime = new SimulationRuntime(17);
+        system = new ReplicationSystem(2, runtime);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        system.shutdown();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private void settle() {
+        runtime.getScheduler().runFor(500, TimeUnit.MILLISECONDS);
+    }
+
+    private static byte[] everyByte(int offset) {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i + offset);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testEveryByteValueIsReplicated() {
+        byte[] key = {0, (byte) 0xff, '\r', '\n', (byte) 0x80};
+        byte[] value = everyByte(0);
+        assertTrue(system.write(key, value));
+        assertTrue(system.write("text", "plain"));
+        settle();
+
+        for (SlaveNode slave : system.getSlaves()) {
+            assertArrayEquals(value, slave.read(key));
+        }
+        assertArrayEquals(value, system.read(key));
+        assertArrayEquals("plain".getBytes(), system.read("text".getBytes()));
+        assertNull(system.read(new byte[]{0, (byte) 0xff}));
+
+        LogEntry entry = system.getLogs().get(0);
+        assertArrayEquals(key, entry.getKeyBytes());
+        assertArrayEquals(value, entry.getValueBytes());
+        // Keys that differ only in a high byte are distinct
+        assertTrue(Bytes.asString(new byte[]{1, (byte) 0x81}).hashCode() != Bytes.asString(new byte[]{1, 1}).hashCode());
+
+        assertTrue(system.delete(key));
+        settle();
+        assertNull(system.read(key));
+        assertEquals(system.getMaster().getMerkleTree().getRootHash(),
+                system.getSlaves().get(0).getMerkleTree().getRootHash());
+    }
+
+    @Test
+    public void testTextWithoutBinaryFormIsNotCorrupted() {
+        assertTrue(system.write("name", "ключ"));
+        settle();
+        try {
+            system.read("name".getBytes());
+            fail("Text beyond one byte per character should not read back as other bytes");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertEquals("ключ", system.read("name"));
+        assertArrayEquals(new byte[]{'c', (byte) 0xe9}, Bytes.asBytes("c\u00e9"));
+    }
+
+    @Test
+    public void testBinaryValuesSurviveRestartAtRawSize() throws IOException {
+        assertTrue(system.enablePersistence(directory, 3600));
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            values.add(everyByte(i));
+            system.write(new byte[]{(byte) i, (byte) 0xfe}, values.get(i));
+        }
+        settle();
+        assertTrue(system.getSlaves().get(0).checkpoint());
+        for (int i = 0; i < 50; i += 2) {
+            values.set(i, everyByte(i + 128));
+            system.write(new byte[]{(byte) i, (byte) 0xfe}, values.get(i));
+        }
+        settle();
+
+        SlaveNode restarted = system.restartSlave("slave-0");
+        settle();
+        for (int i = 0; i < 50; i++) {
+            assertArrayEquals(values.get(i), restarted.read(new byte[]{(byte) i, (byte) 0xfe}));
+        }
+    }
+
+    @Test
+    public void testLogWritesBinaryAndTextCompactly() throws IOException {
+        byte[] value = new byte[1000];
+        Arrays.fill(value, (byte) 0xe9);
+        try (WriteAheadLog wal = new WriteAheadLog(directory)) {
+            wal.append(new LogEntry(1, "binary", Bytes.asString(value)));
+            wal.append(new LogEntry(2, "text", "värde ключ"));
+        }
+        long size;
+        try (Stream<Path> files = Files.list(directory)) {
+            size = files.mapToLong(path -> path.toFile().length()).sum();
+        }
+        // Written as UTF-8, each of the thousand high bytes would take two
+        assertTrue(size < 1200);
+
+        List<LogEntry> replayed = new ArrayList<>();
+        try (WriteAheadLog wal = new WriteAheadLog(directory)) {
+            wal.replay(0, replayed::add);
+        }
+        assertArrayEquals(value, replayed.get(0).getValueBytes());
+        assertEquals("värde ключ", replayed.get(1).getValue());
+    }
+}
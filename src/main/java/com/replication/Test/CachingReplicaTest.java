@@ -0,0 +1,119 @@
+package com.replication.Test;
+
+import com.replication.node.CachingSlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.store.ResidentSet;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class CachingReplicaTest {
+
+    private SimulationRuntime runtime;
+    private ReplicationSystem system;
+    private CachingSlaveNode replica;
+    private long entryBytes;
+
+    @Before
+    public void setup() {
+        runtime = new SimulationRuntime(5);
+        system = new ReplicationSystem(1, runtime);
+        entryBytes = ResidentSet.estimateSize("key-000", "value-000");
+        // Room for about 50 keys
+        replica = system.addCachingReplica("cache-0", 50 * entryBytes);
+        for (int i = 0; i < 1000; i++) {
+            system.write(key(i), "value-" + i);
+        }
+        settle();
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+    }
+
+    private static String key(int i) {
+        return String.format("key-%03d", i);
+    }
+
+    private void settle() {
+        runtime.getScheduler().runFor(200, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testMissesFetchThroughAndStayWithinBudget() {
+        assertEquals(1000, replica.getLastLogIndex());
+        assertEquals(0, replica.getResidentSet().size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value-" + i, replica.read(key(i)));
+        }
+        assertNull(replica.read("missing"));
+
+        assertTrue(replica.getResidentSet().getUsedBytes() <= 50 * entryBytes);
+        assertTrue(replica.getResidentSet().size() > 0);
+        assertEquals(1001, replica.getMisses());
+    }
+
+    @Test
+    public void testHotKeysSurviveAScan() {
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 20; i++) {
+                assertEquals("value-" + i, replica.read(key(i)));
+            }
+        }
+        // A one-off scan over cold keys, while the hot keys stay in use
+        for (int i = 100; i < 1000; i++) {
+            replica.read(key(i));
+            if (i % 50 == 0) {
+                for (int j = 0; j < 20; j++) {
+                    replica.read(key(j));
+                }
+            }
+        }
+
+        long hitsBefore = replica.getHits();
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value-" + i, replica.read(key(i)));
+        }
+        assertEquals(20, replica.getHits() - hitsBefore);
+        assertTrue(replica.getResidentSet().getRejections() > 0);
+    }
+
+    @Test
+    public void testUpdatesToResidentKeysApplyAndOthersAreDropped() {
+        replica.read(key(1));
+        replica.read(key(2));
+        long droppedBefore = replica.getDroppedEntries();
+
+        system.write(key(1), "updated");
+        system.write(key(500), "updated");
+        system.getMaster().delete(key(2));
+        settle();
+
+        assertEquals(1003, replica.getLastLogIndex());
+        assertEquals(droppedBefore + 1, replica.getDroppedEntries());
+        long hitsBefore = replica.getHits();
+        assertEquals("updated", replica.read(key(1)));
+        assertEquals(hitsBefore + 1, replica.getHits());
+        assertFalse(replica.getResidentSet().contains(key(2)));
+        assertNull(replica.read(key(2)));
+        assertEquals("updated", replica.read(key(500)));
+    }
+
+    @Test
+    public void testAntiEntropyLeavesCachingReplicaAlone() {
+        replica.read(key(1));
+        assertEquals(0, system.runAntiEntropy());
+        assertEquals(1, replica.getResidentSet().size());
+        assertEquals(1000, replica.getDataStore().size());
+    }
+}
@@ -0,0 +1,223 @@
+package com.replication.Test;
+
+import com.replication.model.LogEntry;
+import com.replication.node.MasterNode;
+import com.replication.node.SlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.system.ChangeFeed;
+import com.replication.system.RebootstrapRequiredException;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class ChangeFeedTest {
+
+    private SimulationRuntime runtime;
+    private ReplicationSystem system;
+
+    /**
+     * Records what it is sent, and requests batches only when the test says so.
+     */
+    private static class RecordingSubscriber implements Flow.Subscriber<List<LogEntry>> {
+        final List<LogEntry> entries = new ArrayList<>();
+        int batches;
+        Throwable error;
+        Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(List<LogEntry> batch) {
+            batches++;
+            entries.addAll(batch);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        long lastIndex() {
+            return entries.isEmpty() ? 0 : entries.get(entries.size() - 1).getId();
+        }
+    }
+
+    @Before
+    public void setup() {
+        runtime = new SimulationRuntime(11);
+        system = new ReplicationSystem(2, runtime);
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+    }
+
+    private void settle() {
+        runtime.getScheduler().runFor(500, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testBatchesFollowDemandAndResumeFromCheckpoint() {
+        for (int i = 0; i < 600; i++) {
+            system.write("key-" + i, "value-" + i);
+        }
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        system.changesAfter(0).subscribe(subscriber);
+        settle();
+        assertEquals(0, subscriber.batches);
+
+        // Nothing is sent beyond what was asked for
+        subscriber.subscription.request(2);
+        settle();
+        assertEquals(2, subscriber.batches);
+        assertEquals(512, subscriber.entries.size());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        system.write("late-key", "late-value");
+        settle();
+        assertEquals(601, subscriber.entries.size());
+        for (int i = 0; i < subscriber.entries.size(); i++) {
+            assertEquals(i + 1, subscriber.entries.get(i).getId());
+        }
+
+        // A consumer that saved its position resumes right after it
+        subscriber.subscription.cancel();
+        RecordingSubscriber resumed = new RecordingSubscriber();
+        system.changesAfter(450).subscribe(resumed);
+        resumed.subscription.request(Long.MAX_VALUE);
+        settle();
+        assertEquals(451, resumed.entries.get(0).getId());
+        assertEquals(601, resumed.lastIndex());
+        assertEquals(1, system.getChangeFeed().getSubscriberCount());
+    }
+
+    @Test
+    public void testLaggingSubscriberIsToldToRebootstrap() {
+        ChangeFeed feed = new ChangeFeed(system::getMaster, runtime, 10, 50, 20);
+        try {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            feed.after(0).subscribe(subscriber);
+            subscriber.subscription.request(1);
+            for (int i = 0; i < 10; i++) {
+                system.write("key-" + i, "value-" + i);
+            }
+            settle();
+            assertEquals(1, subscriber.batches);
+
+            // The subscriber stops asking while the master moves on
+            for (int i = 0; i < 100; i++) {
+                system.write("more-" + i, "value-" + i);
+            }
+            settle();
+            subscriber.subscription.request(1);
+            settle();
+            assertTrue(subscriber.error instanceof RebootstrapRequiredException);
+            assertEquals(10, ((RebootstrapRequiredException) subscriber.error).getPosition());
+            assertEquals(0, feed.getSubscriberCount());
+        } finally {
+            feed.shutdown();
+        }
+    }
+
+    @Test
+    public void testEntriesLostInFailoverForceRebootstrap() {
+        system.startAutomaticFailover(50, 2);
+        for (int i = 0; i < 10; i++) {
+            system.write("key-" + i, "value-" + i);
+        }
+        settle();
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        system.changesAfter(0).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        // The subscriber sees writes no slave received, which the next master will not have
+        for (SlaveNode slave : system.getSlaves()) {
+            slave.goDown();
+        }
+        for (int i = 0; i < 5; i++) {
+            system.write("unreplicated-" + i, "value");
+        }
+        settle();
+        assertEquals(15, subscriber.lastIndex());
+
+        MasterNode oldMaster = system.getMaster();
+        oldMaster.goDown();
+        for (SlaveNode slave : system.getSlaves()) {
+            slave.goUp();
+        }
+        runtime.getScheduler().runFor(2, TimeUnit.SECONDS);
+        assertNotSame(oldMaster, system.getMaster());
+        assertEquals(10, system.getMaster().getLastLogIndex());
+        system.write("after-failover", "value");
+        settle();
+
+        assertTrue(subscriber.error instanceof RebootstrapRequiredException);
+        assertEquals(15, subscriber.lastIndex());
+
+        // A consumer that re-bootstrapped from the new master's history is fine
+        RecordingSubscriber rebootstrapped = new RecordingSubscriber();
+        system.changesAfter(10).subscribe(rebootstrapped);
+        rebootstrapped.subscription.request(Long.MAX_VALUE);
+        settle();
+        assertNull(rebootstrapped.error);
+        assertEquals("after-failover", rebootstrapped.entries.get(0).getKey());
+    }
+
+    @Test
+    public void testErrorsAreSignalledAfterTheBatchBeingDelivered() {
+        system.write("key", "value");
+        List<String> signals = new ArrayList<>();
+        Flow.Subscriber<List<LogEntry>> subscriber = new Flow.Subscriber<List<LogEntry>>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                signals.add("subscribe");
+                subscription.request(1);
+                signals.add("subscribed");
+            }
+
+            @Override
+            public void onNext(List<LogEntry> batch) {
+                signals.add("next");
+                // An invalid request made while handling a batch fails the subscription afterwards
+                subscription.request(0);
+                signals.add("handled");
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                signals.add("error");
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+        system.changesAfter(0).subscribe(subscriber);
+        settle();
+
+        assertEquals(List.of("subscribe", "subscribed", "next", "handled", "error"), signals);
+    }
+}
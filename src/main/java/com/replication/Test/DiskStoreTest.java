@@ -0,0 +1,262 @@
+package com.replication.Test;
+
+import com.replication.model.LogEntry;
+import com.replication.model.ReplicationLog;
+import com.replication.node.MasterNode;
+import com.replication.node.SlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.storage.LogArchive;
+import com.replication.storage.LsmStore;
+import com.replication.store.StoreSnapshot;
+import com.replication.store.VersionedStore;
+import com.replication.store.VersionedValue;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class DiskStoreTest {
+    /**
+     * A slave that can lose keys behind the log's back, like a replica with a faulty disk.
+     */
+    private static class DivergingSlave extends SlaveNode {
+        DivergingSlave(String id, MasterNode master, SlaveNode source) {
+            super(id, master, source);
+        }
+
+        void lose(String key) {
+            dataStore.overwrite(key, null);
+        }
+    }
+
+
+    private Path directory;
+    private ExecutorService background;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("disk-store-test");
+        background = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        background.shutdownNow();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testLsmStoreSurvivesFlushesAndCompactions() throws IOException {
+        try (LsmStore store = new LsmStore(directory, 8 << 10, 64 << 10, background)) {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 2000; i++) {
+                    store.put(String.format("key-%05d", i), "value-" + round + "-" + i, round * 2000 + i + 1, 0);
+                }
+            }
+            for (int i = 0; i < 2000; i += 10) {
+                store.delete(String.format("key-%05d", i));
+            }
+            store.flush();
+
+            assertTrue(store.getCompactions() > 0);
+            assertTrue(store.getTablesPerLevel().size() > 1);
+            assertNull(store.get("key-00000"));
+            VersionedValue version = store.get("key-01234");
+            assertEquals("value-2-1234", version.getValue());
+            assertEquals(4000 + 1235, version.getLogId());
+            assertNull(store.get("missing"));
+
+            // A scan returns every present key once, in order, with its latest version
+            int count = 0;
+            String previous = "";
+            Iterator<Map.Entry<String, VersionedValue>> entries = store.scan();
+            while (entries.hasNext()) {
+                Map.Entry<String, VersionedValue> entry = entries.next();
+                assertTrue(entry.getKey().compareTo(previous) > 0);
+                assertTrue(entry.getValue().getValue().startsWith("value-2-"));
+                previous = entry.getKey();
+                count++;
+            }
+            assertEquals(1800, count);
+        }
+    }
+
+    @Test
+    public void testInterruptedReaderDoesNotBreakTheTable() throws IOException {
+        try (LsmStore store = new LsmStore(directory, 8 << 10, 64 << 10, background)) {
+            for (int i = 0; i < 2000; i++) {
+                store.put(String.format("key-%05d", i), "value-" + i, i + 1, 0);
+            }
+            store.flush();
+
+            // An interrupted read closes the file underneath; the table reopens it
+            Thread.currentThread().interrupt();
+            try {
+                assertEquals("value-0", store.get("key-00000").getValue());
+            } finally {
+                assertTrue(Thread.interrupted());
+            }
+            assertEquals("value-1999", store.get("key-01999").getValue());
+        }
+    }
+
+    @Test
+    public void testColdKeysReadAndSnapshotLikeHotOnes() throws IOException {
+        VersionedStore store = new VersionedStore();
+        try (LsmStore cold = new LsmStore(directory, 8 << 10, 64 << 10, background)) {
+            store.spillTo(cold, 20_000, new Random(1));
+            for (int i = 1; i <= 1000; i++) {
+                store.put("key-" + i, "value-" + i, i);
+            }
+            assertTrue(store.getResidentKeys() < 100);
+            assertTrue(cold.getApproximateKeys() > 900);
+
+            StoreSnapshot snapshot = store.snapshot();
+            store.put("key-1", "rewritten", 1001);
+            store.remove("key-2", 1002);
+
+            assertEquals("rewritten", store.get("key-1"));
+            assertNull(store.get("key-2"));
+            assertEquals("value-500", store.get("key-500"));
+            assertEquals("value-1", store.read("key-1", 1000));
+            assertEquals(1000, store.getVersion("key-1000"));
+
+            // The snapshot still sees every key as it was, whether it is in memory or on disk
+            Map<String, String> seen = new HashMap<>();
+            snapshot.forEach(seen::put);
+            assertEquals(1000, seen.size());
+            assertEquals("value-1", seen.get("key-1"));
+            assertEquals("value-2", seen.get("key-2"));
+            assertEquals("value-777", seen.get("key-777"));
+            snapshot.close();
+
+            // Once nobody can see the old versions, the rewritten key can leave memory again
+            store.collectGarbage();
+            assertEquals("rewritten", store.get("key-1"));
+            assertNull(store.get("key-2"));
+        }
+    }
+
+    @Test
+    public void testReplicasKeepColdKeysOnDisk() {
+        SimulationRuntime runtime = new SimulationRuntime(5);
+        ReplicationSystem system = new ReplicationSystem(1, runtime);
+        try {
+            assertTrue(system.enableDiskStore(directory, 50_000));
+            for (int i = 0; i < 3000; i++) {
+                system.write("key-" + i, "value-" + i);
+            }
+            system.delete("key-7");
+            runtime.getScheduler().runFor(500, TimeUnit.MILLISECONDS);
+
+            SlaveNode slave = system.getSlaves().get(0);
+            assertTrue(slave.getDiskStore().getApproximateKeys() > 2000);
+            for (int i = 0; i < 3000; i += 97) {
+                assertEquals(i == 7 ? null : "value-" + i, slave.read("key-" + i));
+            }
+            assertNull(slave.read("key-7"));
+            assertEquals(system.getMaster().getMerkleTree().getRootHash(), slave.getMerkleTree().getRootHash());
+        } finally {
+            system.shutdown();
+        }
+    }
+
+    @Test
+    public void testLogReadersRaceTruncation() throws Exception {
+        ReplicationLog log = new ReplicationLog();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            for (int r = 0; r < 4; r++) {
+                readers.execute(() -> {
+                    Random random = new Random();
+                    while (running.get() && failure.get() == null) {
+                        // Just past the truncation point, where a reader can lose the race
+                        long afterId = log.getTruncatedId() + random.nextInt(4096);
+                        try {
+                            List<LogEntry> entries = log.entriesAfter(afterId, 16);
+                            if (entries != null && !entries.isEmpty() && entries.get(0).getId() != afterId + 1) {
+                                failure.set("Read after " + afterId + " started at " + entries.get(0).getId());
+                            }
+                        } catch (RuntimeException e) {
+                            failure.set("Read after " + afterId + " failed: " + e);
+                        }
+                    }
+                });
+            }
+
+            // Truncate as each chunk fills, so readers keep racing the move of the first position
+            long deadline = System.currentTimeMillis() + 1000;
+            for (long id = 1; System.currentTimeMillis() < deadline && failure.get() == null; id++) {
+                log.append(new LogEntry(id, "key", "value-" + id));
+                if (id % 4096 == 0) {
+                    log.truncateThrough(id);
+                }
+            }
+        } finally {
+            running.set(false);
+            readers.shutdown();
+            readers.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        assertNull(failure.get(), failure.get());
+        assertTrue(log.getTruncatedId() > 0);
+    }
+
+    @Test
+    public void testLogMovesToDiskWithTheColdKeys() throws IOException {
+        SimulationRuntime runtime = new SimulationRuntime(7);
+        ReplicationSystem system = new ReplicationSystem(1, runtime);
+        try {
+            assertTrue(system.enableDiskStore(directory, 50_000));
+            int writes = 3 * LogArchive.DEFAULT_RETAINED_ENTRIES;
+            for (int i = 0; i < writes; i++) {
+                system.write("key-" + (i % 5000), "value-" + i);
+            }
+            runtime.getScheduler().runFor(500, TimeUnit.MILLISECONDS);
+
+            // The oldest entries were archived and are read back from disk
+            MasterNode master = system.getMaster();
+            try (Stream<Path> segments = Files.list(directory.resolve(master.getId()).resolve("log"))) {
+                assertTrue(segments.count() > 0);
+            }
+            List<LogEntry> oldest = master.getLogEntriesAfter(0, 10);
+            assertEquals(10, oldest.size());
+            assertEquals(1, oldest.get(0).getId());
+            assertEquals(writes, master.getLogEntriesAfter(0).size());
+
+            // Anti-entropy finds the keys of a differing leaf without the master's per-leaf key sets
+            DivergingSlave slave = new DivergingSlave("diverging", master, system.getSlaves().get(0));
+            slave.lose("key-7");
+            assertEquals(1, master.runAntiEntropy());
+            assertEquals(master.read("key-7"), slave.read("key-7"));
+            assertEquals(master.getMerkleTree().getRootHash(), slave.getMerkleTree().getRootHash());
+        } finally {
+            system.shutdown();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.replication.Test;
+
+import com.replication.model.LogEntry;
+import com.replication.node.SlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.store.TimingWheel;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class ExpiryTest {
+
+    private SimulationRuntime runtime;
+    private ReplicationSystem system;
+
+    @Before
+    public void setup() {
+        runtime = new SimulationRuntime(11);
+        system = new ReplicationSystem(2, runtime);
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+    }
+
+    @Test
+    public void testTimingWheelFiresOnTimeAcrossLevels() {
+        TimingWheel<Long> wheel = new TimingWheel<>(10, 0);
+        long[] deadlines = {5, 10, 639, 640, 12_345, 40_960, 3_000_000, 50_000_000};
+        for (long deadline : deadlines) {
+            wheel.add(deadline, deadline);
+        }
+        assertEquals(deadlines.length, wheel.size());
+
+        // Step in uneven increments; each timer fires within one tick after its deadline
+        List<Long> fired = new ArrayList<>();
+        for (long now = 0; now < 50_000_000 + 7_919; now += 7_919) {
+            for (long deadline : wheel.advance(now)) {
+                assertTrue("Fired " + deadline + " early at " + now, deadline <= now);
+                assertTrue("Fired " + deadline + " late at " + now, now - deadline < 7_919 + 10);
+                fired.add(deadline);
+            }
+        }
+        Collections.sort(fired);
+        assertEquals(deadlines.length, fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testExpiredKeysAreHiddenThenDeletedThroughTheLog() {
+        assertTrue(system.write("session", "abc", 1_000));
+        assertTrue(system.write("permanent", "value"));
+        runtime.getScheduler().runFor(500, TimeUnit.MILLISECONDS);
+        assertEquals("abc", system.read("session"));
+
+        runtime.getScheduler().runFor(1, TimeUnit.SECONDS);
+        assertNull(system.read("session"));
+        assertEquals("value", system.read("permanent"));
+
+        // The expiry went out as an ordinary DELETE entry that every slave applied
+        List<LogEntry> logs = system.getLogs();
+        assertEquals(3, logs.size());
+        assertEquals(1_000, logs.get(0).getExpiresAtMillis());
+        assertTrue(logs.get(2).isDelete());
+        for (SlaveNode slave : system.getSlaves()) {
+            assertEquals(3, slave.getLastLogIndex());
+            assertEquals(1, slave.getDataStore().size());
+        }
+        assertEquals(0, system.getMaster().getPendingExpiries());
+    }
+
+    @Test
+    public void testRewriteCancelsEarlierExpiry() {
+        assertTrue(system.write("key", "short-lived", 100));
+        assertTrue(system.write("key", "kept"));
+        runtime.getScheduler().runFor(1, TimeUnit.SECONDS);
+
+        assertEquals("kept", system.read("key"));
+        assertEquals(2, system.getMaster().getLastLogIndex());
+    }
+
+    @Test
+    public void testReplicaHidesExpiredValueBeforeDeleteArrives() {
+        assertTrue(system.write("key", "value", 200));
+        runtime.getScheduler().runFor(100, TimeUnit.MILLISECONDS);
+
+        // Cut a slave off, so only lazy expiry can hide the value there
+        SlaveNode slave = system.getSlaves().get(0);
+        slave.goDown();
+        runtime.getScheduler().runFor(1, TimeUnit.SECONDS);
+        assertEquals(2, system.getMaster().getLastLogIndex());
+        slave.goUp();
+        assertEquals(1, slave.getLastLogIndex());
+        assertNull(slave.read("key"));
+    }
+}
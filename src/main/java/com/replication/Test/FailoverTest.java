@@ -0,0 +1,109 @@
+package com.replication.Test;
+
+import com.replication.node.MasterNode;
+import com.replication.node.SlaveNode;
+import com.replication.system.FailoverEvent;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertTrue;
+
+public class FailoverTest {
+
+    private ReplicationSystem system;
+
+    @Before
+    public void setup() {
+        system = new ReplicationSystem(3);
+        system.startAutomaticFailover(50, 2);
+    }
+
+    @After
+    public void tearDown() {
+        if (system != null) {
+            system.shutdown();
+        }
+    }
+
+    @Test
+    public void testMasterFailoverPromotesSlave() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(system.write("pre-key-" + i, "pre-value-" + i));
+        }
+        TimeUnit.SECONDS.sleep(1);
+
+        MasterNode oldMaster = system.getMaster();
+        oldMaster.goDown();
+        assertFalse(system.write("during-failure", "value"));
+
+        // Wait for a new master to be promoted
+        long deadline = System.currentTimeMillis() + 2000;
+        while (system.getMaster() == oldMaster && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        MasterNode newMaster = system.getMaster();
+        assertNotSame(oldMaster, newMaster);
+        assertEquals(10, newMaster.getLastLogIndex());
+
+        // Writes resume on the new master and continue the log
+        assertTrue(system.write("post-key", "post-value"));
+        assertEquals(11, newMaster.getLastLogIndex());
+        TimeUnit.SECONDS.sleep(1);
+        assertEquals("post-value", system.read("post-key"));
+        assertEquals("pre-value-3", system.read("pre-key-3"));
+
+        List<FailoverEvent> events = system.getFailoverEvents();
+        assertEquals(1, events.size());
+        assertTrue("Writes unavailable for " + events.get(0).getUnavailableMillis() + " ms",
+                events.get(0).getUnavailableMillis() < 500);
+    }
+
+    @Test
+    public void testOldMasterIsFencedAndRejoins() throws InterruptedException {
+        assertTrue(system.write("key", "value"));
+        TimeUnit.SECONDS.sleep(1);
+
+        MasterNode oldMaster = system.getMaster();
+        oldMaster.goDown();
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertTrue(oldMaster.isFenced());
+
+        // The returning master must not accept writes behind the new master's back
+        oldMaster.goUp();
+        assertFalse(oldMaster.write("stale", "write"));
+
+        // It rejoins as a slave, and takes no reads before it has caught up
+        SlaveNode rejoined = null;
+        long deadline = System.currentTimeMillis() + 2000;
+        while (rejoined == null && System.currentTimeMillis() < deadline) {
+            for (SlaveNode slave : system.getSlaves()) {
+                if (slave.getId().equals(oldMaster.getId())) {
+                    rejoined = slave;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        assertNotNull(rejoined);
+        assertTrue(!rejoined.isCaughtUp() || "value".equals(rejoined.read("key")));
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value", system.read("key"));
+        }
+        TimeUnit.SECONDS.sleep(1);
+        assertTrue(rejoined.isCaughtUp());
+        assertEquals("value", rejoined.read("key"));
+        Map<String, Boolean> status = system.getNodesStatus();
+        assertEquals(Boolean.TRUE, status.get(oldMaster.getId()));
+        assertEquals(3, system.getAllUpSlaveNodes().size());
+        assertTrue(system.write("after-rejoin", "value"));
+    }
+}
@@ -0,0 +1,107 @@
+package com.replication.Test;
+
+import com.replication.health.PhiAccrualFailureDetector;
+import com.replication.node.SlaveNode;
+import com.replication.system.ReplicationSystem;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class FailureDetectorTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void testPhiRisesWithSilence() {
+        AtomicLong clock = new AtomicLong();
+        PhiAccrualFailureDetector detector =
+                new PhiAccrualFailureDetector(2.0, 8.0, 100, 5.0, 0.0, clock::get);
+
+        // Unknown nodes are trusted
+        assertEquals(0.0, detector.phi("node"));
+
+        // Regular heartbeats every 50 ms
+        for (int i = 0; i < 20; i++) {
+            detector.heartbeat("node");
+            clock.addAndGet(50 * MILLIS);
+        }
+        assertTrue(detector.phi("node") < 1.0);
+        assertFalse(detector.isDegraded("node"));
+
+        // A late heartbeat first makes the node degraded, then failed
+        clock.addAndGet(15 * MILLIS);
+        assertTrue(detector.isDegraded("node"));
+        assertTrue(detector.isAvailable("node"));
+        clock.addAndGet(100 * MILLIS);
+        assertFalse(detector.isAvailable("node"));
+
+        // A heartbeat brings it back
+        detector.heartbeat("node");
+        assertTrue(detector.isAvailable("node"));
+    }
+
+    @Test
+    public void testReadsAvoidSlowSlave() throws InterruptedException {
+        ReplicationSystem system = new ReplicationSystem(2);
+        try {
+            system.write("key", "value");
+            TimeUnit.SECONDS.sleep(1);
+
+            SlaveNode slow = system.getAllUpSlaveNodes().get(0);
+            slow.setResponseDelayMillis(1000);
+
+            // The slow slave stays up, but its late heartbeats make it suspected
+            long deadline = System.currentTimeMillis() + 3000;
+            while (!system.getFailureDetector().isDegraded(slow.getId()) && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertTrue(slow.isUp());
+            assertTrue(system.getFailureDetector().isDegraded(slow.getId()));
+
+            // So reads are steered to the other slave and stay fast
+            long start = System.nanoTime();
+            assertEquals("value", system.read("key"));
+            assertTrue(System.nanoTime() - start < 500 * MILLIS);
+        } finally {
+            system.shutdown();
+        }
+    }
+
+    @Test
+    public void testSkippedSlaveCatchesUpWhenSuspicionClears() throws InterruptedException {
+        ReplicationSystem system = new ReplicationSystem(2);
+        try {
+            system.write("key", "value");
+            TimeUnit.SECONDS.sleep(1);
+
+            SlaveNode slow = system.getAllUpSlaveNodes().get(0);
+            slow.setResponseDelayMillis(1000);
+            long deadline = System.currentTimeMillis() + 3000;
+            while (system.getFailureDetector().isAvailable(slow.getId()) && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertFalse(system.getFailureDetector().isAvailable(slow.getId()));
+
+            // The write skips the suspected slave, which stops serving reads
+            system.write("key", "updated");
+            TimeUnit.MILLISECONDS.sleep(200);
+            assertFalse(slow.isCaughtUp());
+
+            // Once its heartbeats return it catches up without any further write
+            slow.setResponseDelayMillis(0);
+            deadline = System.currentTimeMillis() + 5000;
+            while (!slow.isCaughtUp() && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertTrue(slow.isCaughtUp());
+            assertEquals("updated", slow.read("key"));
+        } finally {
+            system.shutdown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.replication.Test;
+
+import com.replication.model.KeyFilter;
+import com.replication.model.LogEntry;
+import com.replication.node.FilteredSlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class FilteredReplicationTest {
+
+    private SimulationRuntime runtime;
+    private ReplicationSystem system;
+
+    @Before
+    public void setup() {
+        runtime = new SimulationRuntime(7);
+        system = new ReplicationSystem(1, runtime);
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+    }
+
+    private void settle() {
+        runtime.getScheduler().runFor(200, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testPrefixFilterMatchesNestedAndDistinctPrefixes() {
+        KeyFilter filter = KeyFilter.prefixes("tenant-b:", "tenant-a:", "tenant-a:users:");
+        assertEquals(2, filter.getPrefixes().size());
+        assertTrue(filter.matches("tenant-a:users:1"));
+        assertTrue(filter.matches("tenant-a:orders:1"));
+        assertTrue(filter.matches("tenant-b:"));
+        assertFalse(filter.matches("tenant-a"));
+        assertFalse(filter.matches("tenant-ab:1"));
+        assertFalse(filter.matches("tenant-c:1"));
+    }
+
+    @Test
+    public void testOnlyMatchingEntriesAreShipped() {
+        FilteredSlaveNode replica = system.addFilteredReplica("tenant-a", KeyFilter.prefixes("a:"));
+        for (int i = 0; i < 20; i++) {
+            system.write((i % 2 == 0 ? "a:" : "b:") + i, "value-" + i);
+        }
+        system.delete("a:0");
+        system.delete("b:1");
+        settle();
+
+        assertNull(replica.read("a:0"));
+        assertEquals("value-2", replica.read("a:2"));
+        assertNull(replica.read("b:3"));
+        assertEquals(11, replica.getLogEntriesAfter(0).size());
+        for (LogEntry entry : replica.getLogEntriesAfter(0)) {
+            assertTrue(entry.getKey().startsWith("a:"));
+        }
+
+        // The last entry was filtered out, yet the replica is not counted as behind
+        assertEquals(21, replica.getLastLogIndex());
+        assertEquals(Long.valueOf(0), system.getReplicationLag().get("tenant-a"));
+        assertTrue(system.getMaster().getEntriesFiltered() >= 11);
+
+        // Routed reads never land on the filtered replica
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value-3", system.read("b:3"));
+        }
+    }
+
+    @Test
+    public void testRecoveryShipsOnlyMatchingEntries() {
+        FilteredSlaveNode replica = system.addFilteredReplica("tenant-a", KeyFilter.prefixes("a:"));
+        system.write("a:before", "value");
+        settle();
+
+        replica.goDown();
+        for (int i = 0; i < 10; i++) {
+            system.write("b:" + i, "value-" + i);
+            system.write("a:" + i, "value-" + i);
+        }
+        settle();
+        replica.goUp();
+        settle();
+
+        assertEquals("value-9", replica.read("a:9"));
+        assertNull(replica.read("b:9"));
+        assertEquals(21, replica.getLastLogIndex());
+        assertEquals(11, replica.getLogEntriesAfter(0).size());
+
+        // Live replication carries on from where recovery left off
+        system.write("b:after", "value");
+        system.write("a:after", "value");
+        settle();
+        assertEquals("value", replica.read("a:after"));
+        assertEquals(23, replica.getLastLogIndex());
+    }
+
+    @Test
+    public void testHashRangesSplitKeysBetweenReplicasWithCoalescing() {
+        system.enableWriteCoalescing(20);
+        FilteredSlaveNode low = system.addFilteredReplica("low", KeyFilter.hashRange(0, 8, 16));
+        FilteredSlaveNode high = system.addFilteredReplica("high", KeyFilter.hashRange(8, 16, 16));
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                system.write("key-" + i, "value-" + round);
+            }
+        }
+        settle();
+
+        int lowKeys = 0;
+        for (int i = 0; i < 100; i++) {
+            String key = "key-" + i;
+            boolean inLow = KeyFilter.bucketOf(key, 16) < 8;
+            assertEquals(inLow ? "value-2" : null, low.read(key));
+            assertEquals(inLow ? null : "value-2", high.read(key));
+            lowKeys += inLow ? 1 : 0;
+        }
+        assertTrue(lowKeys > 0 && lowKeys < 100);
+        // Each replica stops at the last entry it was sent, which counts as caught up
+        assertEquals(300, Math.max(low.getLastLogIndex(), high.getLastLogIndex()));
+        assertEquals(Long.valueOf(0), system.getReplicationLag().get("low"));
+        assertEquals(Long.valueOf(0), system.getReplicationLag().get("high"));
+    }
+}
@@ -0,0 +1,101 @@
+package com.replication.Test;
+
+import com.replication.node.MasterNode;
+import com.replication.node.SlaveNode;
+import com.replication.runtime.NodeRuntime;
+import com.replication.system.HedgedReader;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class HedgedReadTest {
+
+    private MasterNode master;
+    private SlaveNode slow;
+    private SlaveNode fast;
+    private HedgedReader reader;
+
+    @Before
+    public void setup() throws InterruptedException {
+        master = new MasterNode("master");
+        slow = new SlaveNode("slow", master);
+        fast = new SlaveNode("fast", master);
+        master.write("key", "value");
+        TimeUnit.MILLISECONDS.sleep(200);
+        slow.setResponseDelayMillis(300);
+    }
+
+    @After
+    public void tearDown() {
+        if (reader != null) {
+            reader.shutdown();
+        }
+        master.shutdown();
+        slow.shutdown();
+        fast.shutdown();
+    }
+
+    private HedgedReader newReader(double budget) {
+        // Reads always go to the slow replica first, so every one of them is a candidate for hedging
+        return new HedgedReader(excluded -> excluded == null ? slow : excluded == slow ? fast : null,
+                NodeRuntime.REAL, 4, budget);
+    }
+
+    @Test
+    public void testSlowReplicaIsHedged() {
+        reader = newReader(1.0);
+        long start = System.nanoTime();
+        assertEquals("value", reader.read("key"));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(250));
+        assertEquals(1, reader.getHedged());
+        assertEquals(1, reader.getHedgeWins());
+        assertEquals(1.0, reader.getHedgeRate());
+    }
+
+    @Test
+    public void testBudgetLimitsHedges() {
+        reader = newReader(0.0);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("value", reader.read("key"));
+        }
+        // Only the hedge the reader starts out with is sent
+        assertEquals(1, reader.getHedged());
+        assertEquals(2, reader.getOverBudget());
+        assertEquals(3, reader.getReads());
+    }
+
+    @Test
+    public void testDelayAdaptsToReplicaLatency() {
+        reader = new HedgedReader(excluded -> excluded == null ? fast : null, NodeRuntime.REAL, 4, 0.05);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value", reader.read("key"));
+        }
+        assertTrue(reader.getHedgeDelayMillis("fast") < 10);
+        assertTrue(reader.getHedgeDelayMillis("fast") >= 0.1);
+        assertEquals(0, reader.getHedged());
+    }
+
+    @Test
+    public void testSystemRoutesReadsThroughHedging() throws InterruptedException {
+        ReplicationSystem system = new ReplicationSystem(2);
+        try {
+            system.write("key", "value");
+            TimeUnit.MILLISECONDS.sleep(200);
+            system.enableHedgedReads(0.05);
+            for (int i = 0; i < 20; i++) {
+                assertEquals("value", system.read("key"));
+            }
+            assertNotNull(system.getHedgedReader());
+            assertEquals(20, system.getHedgedReader().getReads());
+        } finally {
+            system.shutdown();
+        }
+    }
+}
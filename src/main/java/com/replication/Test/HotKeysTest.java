@@ -0,0 +1,91 @@
+package com.replication.Test;
+
+import com.replication.node.SlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.store.HotKeyTracker;
+import com.replication.store.HotKeyTracker.HotKey;
+import com.replication.system.ReplicationSystem;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class HotKeysTest {
+
+    @Test
+    public void testCountsExactlyWhileKeysFit() {
+        HotKeyTracker tracker = new HotKeyTracker(8, 1);
+        for (int i = 0; i < 100; i++) {
+            tracker.record("a");
+            if (i % 2 == 0) {
+                tracker.record("b");
+            }
+            if (i % 10 == 0) {
+                tracker.record("c");
+            }
+        }
+
+        List<HotKey> top = tracker.top(2);
+        assertEquals(2, top.size());
+        assertEquals("a", top.get(0).getKey());
+        assertEquals(100, top.get(0).getCount());
+        assertEquals(0, top.get(0).getError());
+        assertEquals(100.0 / 160, top.get(0).getShare(), 1e-9);
+        assertEquals("b", top.get(1).getKey());
+        assertEquals(50, top.get(1).getCount());
+    }
+
+    @Test
+    public void testHeavyHitterSurvivesManyColdKeys() {
+        HotKeyTracker tracker = new HotKeyTracker(4, 1);
+        for (int i = 0; i < 1000; i++) {
+            tracker.record("hot");
+            tracker.record("cold-" + i);
+        }
+
+        HotKey hottest = tracker.top(1).get(0);
+        assertEquals("hot", hottest.getKey());
+        // The count is never an underestimate, and never off by more than the error bound
+        assertTrue(hottest.getCount() >= 1000);
+        assertTrue(hottest.getCount() - hottest.getError() <= 1000);
+    }
+
+    @Test
+    public void testOldCountsDecay() {
+        HotKeyTracker tracker = new HotKeyTracker(2, 1);
+        for (int i = 0; i < 1999; i++) {
+            tracker.record("old");
+        }
+        tracker.record("new");
+        assertEquals(999, tracker.top(1).get(0).getCount());
+    }
+
+    @Test
+    public void testNodesReportHotReadsAndWrites() {
+        SimulationRuntime runtime = new SimulationRuntime(3);
+        ReplicationSystem system = new ReplicationSystem(1, runtime);
+        try {
+            for (int i = 0; i < 2000; i++) {
+                system.write(i % 2 == 0 ? "counter" : "key-" + i, "value-" + i);
+            }
+            runtime.getScheduler().runFor(200, TimeUnit.MILLISECONDS);
+            SlaveNode slave = system.getSlaves().get(0);
+            for (int i = 0; i < 2000; i++) {
+                slave.read(i % 2 == 0 ? "profile" : "key-" + (i + 1));
+            }
+
+            Map<String, List<HotKey>> reads = system.getHotReadKeys(3);
+            assertEquals("profile", reads.get(slave.getId()).get(0).getKey());
+            assertTrue(reads.get("master").isEmpty());
+            Map<String, List<HotKey>> writes = system.getHotWriteKeys(3);
+            assertEquals("counter", writes.get("master").get(0).getKey());
+            assertEquals("counter", writes.get(slave.getId()).get(0).getKey());
+        } finally {
+            system.shutdown();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.replication.Test;
+
+import com.replication.node.SlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class MembershipTest {
+
+    private SimulationRuntime runtime;
+    private ReplicationSystem system;
+
+    @Before
+    public void setup() {
+        runtime = new SimulationRuntime(11);
+        system = new ReplicationSystem(2, runtime);
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+    }
+
+    private void settle() {
+        runtime.getScheduler().runFor(200, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testAddedSlaveBootstrapsFromPeerAndFollowsMaster() {
+        for (int i = 0; i < 500; i++) {
+            system.write("key-" + i, "value-" + i, i == 3 ? 60_000 : 0);
+        }
+        system.delete("key-7");
+        settle();
+        // Not replicated yet, so the peer is behind and the master supplies the tail
+        system.write("key-late", "late");
+
+        SlaveNode added = system.addSlave("slave-new");
+        assertTrue(added.isCaughtUp());
+        assertEquals(system.getMaster().getLastLogIndex(), added.getLastLogIndex());
+        assertEquals("late", added.read("key-late"));
+        assertNull(added.read("key-7"));
+        assertEquals(system.getMaster().getMerkleTree().getRootHash(), added.getMerkleTree().getRootHash());
+        assertEquals(3, system.getSlaves().size());
+
+        // Live replication picks up from where the bootstrap left off
+        system.write("key-after", "after");
+        system.delete("key-1");
+        settle();
+        assertEquals("after", added.read("key-after"));
+        assertNull(added.read("key-1"));
+        assertEquals(Long.valueOf(0), system.getReplicationLag().get("slave-new"));
+
+        // The TTL came along with the copied value
+        runtime.getScheduler().runFor(61, TimeUnit.SECONDS);
+        assertNull(added.read("key-3"));
+        assertEquals(system.getMaster().getMerkleTree().getRootHash(), added.getMerkleTree().getRootHash());
+    }
+
+    @Test
+    public void testAddedSlaveTakesALongMasterTailOutsideTheLock() {
+        system.write("key-0", "value-0");
+        settle();
+        // Far more than one batch that the peer has not received yet
+        for (int i = 1; i <= 2500; i++) {
+            system.write("key-" + i, "value-" + i);
+        }
+
+        SlaveNode added = system.addSlave("slave-new");
+        assertTrue(added.isCaughtUp());
+        assertEquals(system.getMaster().getLastLogIndex(), added.getLastLogIndex());
+        assertEquals("value-2500", added.read("key-2500"));
+        settle();
+        assertEquals(system.getMaster().getMerkleTree().getRootHash(), added.getMerkleTree().getRootHash());
+    }
+
+    @Test
+    public void testAddedSlaveRecoversFromMasterWithoutPeers() {
+        for (SlaveNode slave : system.getSlaves()) {
+            slave.goDown();
+        }
+        for (int i = 0; i < 50; i++) {
+            system.write("key-" + i, "value-" + i);
+        }
+
+        SlaveNode added = system.addSlave("slave-new");
+        // Empty until recovery has run, so it takes no reads yet
+        assertFalse(added.isCaughtUp());
+        settle();
+        assertTrue(added.isCaughtUp());
+        assertEquals(system.getMaster().getLastLogIndex(), added.getLastLogIndex());
+        assertEquals("value-49", added.read("key-49"));
+        assertEquals("value-49", system.read("key-49"));
+        assertNull(system.addSlave("slave-new"));
+        assertNull(system.addSlave("master"));
+    }
+
+    @Test
+    public void testRemovedSlaveStopsReceivingEntries() {
+        SlaveNode removed = system.getSlaves().get(0);
+        assertTrue(system.removeSlave(removed.getId()));
+        assertFalse(system.removeSlave(removed.getId()));
+        assertEquals(1, system.getSlaves().size());
+        assertFalse(system.getNodesStatus().containsKey(removed.getId()));
+
+        system.write("key", "value");
+        settle();
+        assertFalse(removed.isUp());
+        assertFalse(system.getReplicationLag().containsKey(removed.getId()));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("value", system.read("key"));
+        }
+    }
+}
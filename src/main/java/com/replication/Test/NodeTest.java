@@ -3,13 +3,16 @@ package com.replication.Test;
 import com.replication.model.LogEntry;
 import com.replication.node.MasterNode;
 import com.replication.node.SlaveNode;
+import com.replication.store.StoreSnapshot;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
@@ -19,14 +22,27 @@ import static junit.framework.TestCase.assertTrue;
 
 public class NodeTest {
 
+    /**
+     * A slave that can lose keys behind the log's back, like a replica with a faulty disk.
+     */
+    private static class DivergingSlave extends SlaveNode {
+        DivergingSlave(String id, MasterNode master) {
+            super(id, master);
+        }
+
+        void lose(String key) {
+            dataStore.overwrite(key, null);
+        }
+    }
+
     private MasterNode master;
-    private SlaveNode slave1;
+    private DivergingSlave slave1;
     private SlaveNode slave2;
 
     @Before
     public void setup() {
         master = new MasterNode("test-master");
-        slave1 = new SlaveNode("test-slave-1", master);
+        slave1 = new DivergingSlave("test-slave-1", master);
         slave2 = new SlaveNode("test-slave-2", master);
     }
 
@@ -185,4 +201,143 @@ public class NodeTest {
         // Slave should have the same log index
         assertEquals(2, slave1.getLastLogIndex());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSnapshotIsolation() {
+        master.write("snap-key-1", "v1");
+        master.write("snap-key-2", "v2");
+
+        StoreSnapshot snapshot = master.snapshot();
+        assertNotNull(snapshot);
+        assertEquals(2, snapshot.getIndex());
+
+        // Changes after the snapshot index must not be visible through it
+        master.write("snap-key-1", "v1-updated");
+        master.delete("snap-key-2");
+        master.write("snap-key-3", "v3");
+
+        assertEquals("v1", snapshot.get("snap-key-1"));
+        assertEquals("v2", snapshot.get("snap-key-2"));
+        assertNull(snapshot.get("snap-key-3"));
+        assertEquals(2, snapshot.parallelStream().count());
+
+        // An older index stays readable while it is pinned
+        StoreSnapshot older = master.snapshot(2);
+        assertNotNull(older);
+        assertEquals("v2", older.get("snap-key-2"));
+        older.close();
+        snapshot.close();
+
+        // Once released, further writes drop the old versions
+        master.write("snap-key-1", "v1-final");
+        assertNull(master.snapshot(2));
+        assertEquals("v1-final", master.read("snap-key-1"));
+    }
+
+    @Test
+    public void testHotKeyWriteCoalescing() throws InterruptedException {
+        master.enableWriteCoalescing(200);
+
+        for (int i = 1; i <= 50; i++) {
+            master.write("hot-counter", String.valueOf(i));
+        }
+        master.write("cold-key", "cold-value");
+        master.delete("hot-counter");
+        master.write("hot-counter", "final");
+
+        TimeUnit.SECONDS.sleep(1);
+
+        // Slaves end up at the master's log position and state despite the skipped IDs
+        assertEquals(53, slave1.getLastLogIndex());
+        assertEquals(53, slave2.getLastLogIndex());
+        assertEquals("final", slave1.read("hot-counter"));
+        assertEquals("cold-value", slave2.read("cold-key"));
+
+        // Only the last write for each key in each window was shipped
+        assertEquals(53, master.getCoalescer().getEntriesReceived());
+        assertTrue(master.getCoalescer().getEntriesShipped() < 10);
+        assertTrue(master.getCoalescer().getSavedRatio() > 0.9);
+        assertTrue(slave1.getLogEntriesAfter(0).get(0).isCoalesced());
+    }
+
+    @Test
+    public void testAntiEntropyRepairsOnlyDivergedKeys() throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            master.write("key-" + i, "value-" + i);
+        }
+        TimeUnit.SECONDS.sleep(1);
+        assertEquals(master.getMerkleTree().getRootHash(), slave1.getMerkleTree().getRootHash());
+        assertEquals(0, master.runAntiEntropy());
+
+        // Diverge slave 1 behind the log's back
+        slave1.lose("key-7");
+        slave1.lose("key-300");
+        assertEquals(2, master.getMerkleTree().differingLeaves(slave1.getMerkleTree()).size());
+        assertTrue(master.getMerkleTree().differingLeaves(slave2.getMerkleTree()).isEmpty());
+        StoreSnapshot diverged = slave1.snapshot();
+
+        assertEquals(2, master.runAntiEntropy());
+        assertEquals("value-7", slave1.read("key-7"));
+        // Repairs are not visible to snapshots opened before them
+        assertNull(diverged.get("key-7"));
+        diverged.close();
+        assertEquals("value-300", slave1.read("key-300"));
+        assertEquals(master.getDataStore(), slave1.getDataStore());
+        assertEquals(master.getMerkleTree().getRootHash(), slave1.getMerkleTree().getRootHash());
+        assertEquals(2, master.getKeysRepaired());
+    }
+
+    @Test
+    public void testAntiEntropyKeepsLocalDeletes() throws InterruptedException {
+        master.write("deleted", "value");
+        master.write("rewritten", "value");
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertTrue(slave1.delete("deleted"));
+        assertTrue(slave1.delete("rewritten"));
+
+        // A key deleted on the slave alone stays deleted
+        assertEquals(0, master.runAntiEntropy());
+        assertNull(slave1.read("deleted"));
+
+        // Until the master writes it again, after which losing it is a divergence
+        master.write("rewritten", "new-value");
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertEquals("new-value", slave1.read("rewritten"));
+        slave1.lose("rewritten");
+        assertEquals(1, master.runAntiEntropy());
+        assertEquals("new-value", slave1.read("rewritten"));
+        assertNull(slave1.read("deleted"));
+    }
+
+    @Test
+    public void testConcurrentDeletesOfOneKeySucceedOnce() throws InterruptedException {
+        master.write("contended", "value");
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        AtomicInteger deleted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (slave1.delete("contended")) {
+                    deleted.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // The existence check and the removal happen under the key's lock, so only one delete wins
+        assertEquals(1, deleted.get());
+        assertNull(slave1.read("contended"));
+        assertEquals("value", slave2.read("contended"));
+    }
+}
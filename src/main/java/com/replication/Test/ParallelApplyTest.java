@@ -0,0 +1,134 @@
+package com.replication.Test;
+
+import com.replication.model.LogEntry;
+import com.replication.node.MasterNode;
+import com.replication.node.ParallelApplier;
+import com.replication.node.SlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.store.VersionedStore;
+import com.replication.system.ReplicationSystem;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class ParallelApplyTest {
+
+    private static final int KEYS = 8;
+    private static final int ENTRIES = 40;
+
+    private static String expectedAt(List<LogEntry> entries, String key, long index) {
+        String value = null;
+        for (LogEntry entry : entries) {
+            if (entry.getId() <= index && entry.getKey().equals(key)) {
+                value = entry.getValue();
+            }
+        }
+        return value;
+    }
+
+    @Test
+    public void testReadsSeeAPrefixWhileStripesFinishOutOfOrder() {
+        boolean outOfOrder = false;
+        for (long seed = 1; seed <= 10; seed++) {
+            SimulationRuntime runtime = new SimulationRuntime(seed);
+            VersionedStore store = new VersionedStore();
+            ParallelApplier applier = new ParallelApplier("test", 4, runtime, store, 0);
+
+            List<LogEntry> entries = new ArrayList<>();
+            for (int i = 1; i <= ENTRIES; i++) {
+                LogEntry entry = new LogEntry(i, "key-" + (i * 7 % KEYS), "value-" + i);
+                entries.add(entry);
+                applier.dispatch(entry);
+            }
+
+            // One stripe task at a time, checking what readers see after each
+            while (!runtime.getScheduler().runUntilIdle(1)) {
+                long watermark = applier.getWatermark();
+                outOfOrder |= applier.getApplied() > watermark;
+                assertEquals(watermark, store.getAppliedIndex());
+                for (int k = 0; k < KEYS; k++) {
+                    assertEquals(expectedAt(entries, "key-" + k, watermark), store.get("key-" + k));
+                }
+            }
+
+            assertEquals(ENTRIES, applier.getWatermark());
+            assertEquals(0, applier.getBacklog());
+            for (int k = 0; k < KEYS; k++) {
+                assertEquals(expectedAt(entries, "key-" + k, ENTRIES), store.get("key-" + k));
+            }
+        }
+        // Otherwise the stripes never finished out of order and the test proved nothing
+        assertTrue(outOfOrder);
+    }
+
+    @Test
+    public void testQueuedEntriesCountAsLag() {
+        SimulationRuntime runtime = new SimulationRuntime(3);
+        MasterNode master = new MasterNode("master", runtime);
+        SlaveNode slave = new SlaveNode("slave", master);
+        try {
+            assertTrue(slave.enableParallelApply(4));
+            for (int i = 0; i < 20; i++) {
+                master.write("key-" + i, "value-" + i);
+            }
+
+            // Handed to the stripes, whose threads have not run yet
+            ReadWriteLock lock = new ReentrantReadWriteLock();
+            for (LogEntry entry : master.getLogEntriesAfter(0)) {
+                assertTrue(slave.applyLogEntry(entry, lock));
+            }
+            assertEquals(20, slave.getReceivedLogIndex());
+            assertEquals(0, slave.getLastLogIndex());
+            assertEquals(20, master.getReplicationLag(slave));
+
+            runtime.getScheduler().runUntilIdle(10_000);
+            assertEquals(20, slave.getLastLogIndex());
+            assertEquals(0, master.getReplicationLag(slave));
+            assertEquals("value-19", slave.read("key-19"));
+        } finally {
+            master.shutdown();
+            slave.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelSlavesMatchMasterAndCanBePromoted() {
+        SimulationRuntime runtime = new SimulationRuntime(7);
+        ReplicationSystem system = new ReplicationSystem(2, runtime);
+        try {
+            assertEquals(2, system.enableParallelApply(4));
+            for (int i = 0; i < 300; i++) {
+                system.write("key-" + (i % 50), "value-" + i);
+                if (i % 10 == 0) {
+                    system.delete("key-" + (i % 50 + 1));
+                }
+            }
+            runtime.getScheduler().runFor(500, TimeUnit.MILLISECONDS);
+
+            MasterNode master = system.getMaster();
+            for (SlaveNode slave : system.getSlaves()) {
+                assertEquals(master.getLastLogIndex(), slave.getParallelApplier().getWatermark());
+                assertEquals(master.getMerkleTree().getRootHash(), slave.getMerkleTree().getRootHash());
+                assertEquals("value-299", slave.read("key-49"));
+            }
+
+            // Promotion applies whatever is still queued before the new master takes over
+            SlaveNode slave = system.getSlaves().get(0);
+            long lastIndex = master.getLastLogIndex();
+            master.goDown();
+            MasterNode promoted = new MasterNode(slave);
+            assertEquals(lastIndex, promoted.getLastLogIndex());
+            assertEquals("value-298", promoted.read("key-48"));
+            promoted.shutdown();
+        } finally {
+            system.shutdown();
+        }
+    }
+}
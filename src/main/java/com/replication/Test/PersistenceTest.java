@@ -0,0 +1,139 @@
+package com.replication.Test;
+
+import com.replication.model.LogEntry;
+import com.replication.model.ReplicationLog;
+import com.replication.node.SlaveNode;
+import com.replication.sim.SimulationRuntime;
+import com.replication.storage.NodeStorage;
+import com.replication.storage.WriteAheadLog;
+import com.replication.store.VersionedStore;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class PersistenceTest {
+
+    private Path directory;
+    private SimulationRuntime runtime;
+    private ReplicationSystem system;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("persistence-test");
+        runtime = new SimulationRuntime(3);
+        system = new ReplicationSystem(2, runtime);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        system.shutdown();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private void settle() {
+        runtime.getScheduler().runFor(500, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testTornLogRecordEndsReplay() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(directory)) {
+            for (int i = 1; i <= 3; i++) {
+                wal.append(new LogEntry(i, "key-" + i, "value-" + i));
+            }
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().get();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        List<LogEntry> replayed = new ArrayList<>();
+        try (WriteAheadLog wal = new WriteAheadLog(directory)) {
+            assertEquals(2, wal.replay(0, replayed::add));
+        }
+        assertEquals(2, replayed.size());
+        assertEquals("value-2", replayed.get(1).getValue());
+    }
+
+    @Test
+    public void testRecoveryFromSnapshotAndLogTail() throws IOException {
+        for (int i = 0; i < 200; i++) {
+            system.write("key-" + i, "value-" + i);
+        }
+        settle();
+        assertTrue(system.enablePersistence(directory, 3600));
+
+        // After the snapshot: overwrites, deletes and new keys, all only in the log tail
+        for (int i = 0; i < 50; i++) {
+            system.write("key-" + i, "updated-" + i);
+        }
+        for (int i = 50; i < 60; i++) {
+            system.delete("key-" + i);
+        }
+        system.write("new-key", "new-value", 60_000);
+        settle();
+
+        SlaveNode slave = system.getSlaves().get(0);
+        VersionedStore store = new VersionedStore();
+        try (NodeStorage storage = new NodeStorage(directory.resolve(slave.getId()), 3)) {
+            assertEquals(1, storage.snapshotIndexes().size());
+            assertEquals(261, storage.recover(store, new ReplicationLog()));
+        }
+        assertEquals(191, store.size());
+        assertEquals("updated-7", store.get("key-7"));
+        assertNull(store.get("key-55"));
+        assertEquals("value-100", store.get("key-100"));
+        assertTrue(store.getExpiresAtMillis("new-key") > 0);
+        assertEquals(system.getMaster().getMerkleTree().getRootHash(), store.getMerkleTree().getRootHash());
+    }
+
+    @Test
+    public void testRestartedSlaveCatchesUpBeforeServingReads() {
+        for (int i = 0; i < 100; i++) {
+            system.write("key-" + i, "value-" + i);
+        }
+        settle();
+        assertTrue(system.enablePersistence(directory, 3600));
+        system.write("key-0", "after-checkpoint");
+        settle();
+
+        SlaveNode restarted = system.restartSlave("slave-0");
+        assertNotNull(restarted);
+        assertEquals(101, restarted.getLastLogIndex());
+        assertFalse(restarted.isCaughtUp());
+
+        // Writes made while it restarts arrive through recovery
+        system.write("key-1", "during-restart");
+        settle();
+
+        assertTrue(restarted.isCaughtUp());
+        assertEquals(102, restarted.getLastLogIndex());
+        assertEquals("after-checkpoint", restarted.read("key-0"));
+        assertEquals("during-restart", restarted.read("key-1"));
+        assertEquals(system.getMaster().getMerkleTree().getRootHash(), restarted.getMerkleTree().getRootHash());
+        assertEquals(2, system.getSlaves().size());
+    }
+}
@@ -0,0 +1,178 @@
+package com.replication.Test;
+
+import com.replication.server.ReplicationClient;
+import com.replication.server.ReplicationServer;
+import com.replication.server.RespProtocol;
+import com.replication.system.ReplicationSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class ServerTest {
+
+    private ReplicationSystem system;
+    private ReplicationServer server;
+    private ReplicationClient client;
+
+    @Before
+    public void setup() throws IOException {
+        system = new ReplicationSystem(2);
+        server = new ReplicationServer(system, 0, 2);
+        server.start();
+        client = new ReplicationClient("localhost", server.getPort(), 4);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+        system.shutdown();
+    }
+
+    @Test
+    public void testCommandsThroughPooledClient() throws IOException, InterruptedException {
+        assertTrue(client.ping());
+        assertTrue(client.set("key-1", "value-1"));
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("key-2", "value-2");
+        entries.put("key-3", "värde-3");
+        assertTrue(client.setAll(entries));
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        assertEquals("value-1", client.get("key-1"));
+        assertEquals("värde-3", client.get("key-3"));
+        Map<String, String> values = client.getAll(Arrays.asList("key-1", "missing", "key-2"));
+        assertEquals(2, values.size());
+        assertEquals("value-2", values.get("key-2"));
+
+        assertEquals(2, client.delete("key-1", "key-2", "missing"));
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertNull(client.get("key-1"));
+
+        assertEquals(Long.valueOf(5), client.increment("counter", 5));
+        assertEquals(Long.valueOf(3), client.increment("counter", -2));
+        assertTrue(client.compareAndSet("counter", "3", "10"));
+        assertFalse(client.compareAndSet("counter", client.getVersion("counter") - 1, "11"));
+        assertEquals(4, client.append("counter", "00"));
+        assertNull(client.increment("key-3", 1));
+
+        // Errors come back as errors, and the connection stays usable
+        assertFalse(client.set("key", "value", -5));
+        assertTrue(client.call("NOSUCH") instanceof RespProtocol.ErrorReply);
+        assertTrue(client.ping());
+    }
+
+    @Test
+    public void testPipelinedRepliesKeepCommandOrder() throws IOException {
+        List<List<String>> commands = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            commands.add(Arrays.asList("SET", "key-" + i, "value-" + i));
+            commands.add(Arrays.asList("PING", "echo-" + i));
+        }
+        List<Object> replies = client.pipeline(commands);
+        assertEquals(1000, replies.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals("OK", replies.get(2 * i));
+            assertEquals("echo-" + i, replies.get(2 * i + 1));
+        }
+        assertEquals(1, client.getOpenConnections());
+        assertEquals(1000, server.getCommandsServed());
+    }
+
+    @Test
+    public void testCommandsSplitAcrossReadsAndInlineCommands() throws IOException {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+
+            // One byte at a time, so the server sees every possible partial command
+            byte[] command = "*3\r\n$3\r\nSET\r\n$5\r\nsplit\r\n$5\r\nvalue\r\n".getBytes(StandardCharsets.UTF_8);
+            for (byte b : command) {
+                out.write(b);
+                out.flush();
+            }
+            assertEquals("OK", RespProtocol.readReply(in));
+
+            out.write("PING\r\n\r\nping hello\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals("PONG", RespProtocol.readReply(in));
+            assertEquals("hello", RespProtocol.readReply(in));
+
+            // A protocol error is answered and then the connection is closed
+            out.write("*1\r\n+PING\r\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertTrue(RespProtocol.readReply(in) instanceof RespProtocol.ErrorReply);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testScanPagesThroughKeysInOrder() throws IOException, InterruptedException {
+        for (int i = 0; i < 25; i++) {
+            client.set(String.format("user:%02d", i), "value-" + i);
+        }
+        client.set("other", "value");
+        // Scans read a slave's snapshot
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        List<String> keys = new ArrayList<>();
+        String cursor = "";
+        int pages = 0;
+        do {
+            ReplicationClient.ScanPage page = client.scan(cursor, "user:", 10);
+            keys.addAll(page.getEntries().keySet());
+            cursor = page.getCursor();
+            pages++;
+        } while (!cursor.isEmpty());
+
+        assertEquals(3, pages);
+        assertEquals(25, keys.size());
+        assertEquals("user:00", keys.get(0));
+        assertEquals("user:24", keys.get(24));
+    }
+
+    @Test
+    public void testScanContinuesFromAnotherConnectionsCursor() throws IOException, InterruptedException {
+        for (int i = 0; i < 25; i++) {
+            client.set(String.format("user:%02d", i), "value-" + i);
+        }
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        try (ReplicationClient single = new ReplicationClient("localhost", server.getPort(), 1);
+             ReplicationClient other = new ReplicationClient("localhost", server.getPort(), 1)) {
+            ReplicationClient.ScanPage first = single.scan("", "user:", 10);
+            assertEquals("user:09", first.getCursor());
+
+            // Pages after the first come from the same snapshot
+            client.set("user:10", "changed");
+            TimeUnit.MILLISECONDS.sleep(500);
+            ReplicationClient.ScanPage second = single.scan(first.getCursor(), "user:", 10);
+            assertEquals("value-10", second.getEntries().get("user:10"));
+
+            // A cursor this connection did not hand out starts a new walk from it
+            ReplicationClient.ScanPage rest = other.scan(first.getCursor(), "user:", 100);
+            assertEquals("", rest.getCursor());
+            assertEquals(15, rest.getEntries().size());
+            assertEquals("changed", rest.getEntries().get("user:10"));
+        }
+    }
+}
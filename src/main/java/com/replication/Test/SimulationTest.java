@@ -0,0 +1,66 @@
+package com.replication.Test;
+
+import com.replication.sim.Simulation;
+import com.replication.sim.SimulationReport;
+import com.replication.sim.SimulationScheduler;
+import com.replication.workload.WorkloadSpec;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class SimulationTest {
+
+    private static WorkloadSpec spec(long seed) {
+        return new WorkloadSpec()
+                .seed(seed)
+                .recordCount(500)
+                .mix(50, 40, 10)
+                .targetOpsPerSecond(5_000)
+                .durationSeconds(20)
+                .failures(0.3, 0.5, 1);
+    }
+
+    @Test
+    public void testVirtualClockJumpsToNextTask() {
+        SimulationScheduler scheduler = new SimulationScheduler(1);
+        ScheduledExecutorService executor = scheduler.newExecutor("test");
+        List<Long> ranAt = new ArrayList<>();
+
+        executor.schedule(() -> ranAt.add(scheduler.nanoTime()), 1, TimeUnit.HOURS);
+        executor.scheduleAtFixedRate(() -> ranAt.add(scheduler.nanoTime()), 10, 10, TimeUnit.MINUTES);
+        scheduler.runFor(1, TimeUnit.HOURS);
+
+        // Six periodic runs, then the one-shot task, an hour of virtual time in no real time
+        assertEquals(7, ranAt.size());
+        assertEquals(TimeUnit.MINUTES.toNanos(10), (long) ranAt.get(0));
+        assertEquals(TimeUnit.HOURS.toNanos(1), scheduler.nanoTime());
+    }
+
+    @Test
+    public void testSameSeedReplaysExactly() {
+        SimulationReport first = new Simulation(spec(7), 3).run();
+        SimulationReport second = new Simulation(spec(7), 3).run();
+
+        assertEquals(first.getFinalLogIndex(), second.getFinalLogIndex());
+        assertEquals(first.getUnsuccessfulOperations(), second.getUnsuccessfulOperations());
+        assertEquals(first.getTasksRun(), second.getTasksRun());
+        assertEquals(first.getViolations(), second.getViolations());
+    }
+
+    @Test
+    public void testSlavesConvergeUnderInjectedFailures() {
+        for (long seed = 1; seed <= 5; seed++) {
+            SimulationReport report = new Simulation(spec(seed), 3).run();
+            assertEquals(100_000, report.getOperations());
+            // Some operations must have hit downed slaves for the run to mean anything
+            assertTrue(report.getUnsuccessfulOperations() > 0);
+            assertTrue(report.toString(), report.isConsistent());
+        }
+    }
+}
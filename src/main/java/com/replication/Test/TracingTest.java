@@ -0,0 +1,126 @@
+package com.replication.Test;
+
+import com.replication.node.SlaveNode;
+import com.replication.system.ReplicationSystem;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class TracingTest {
+
+    private ReplicationSystem system;
+    private Recording recording;
+
+    @Before
+    public void setup() {
+        recording = new Recording();
+        for (String event : new String[]{"Write", "ReplicationEnqueued", "ReplicationTask", "Apply", "Recovery"}) {
+            recording.enable("com.replication." + event);
+        }
+        recording.start();
+        system = new ReplicationSystem(2);
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+        recording.close();
+    }
+
+    private List<RecordedEvent> stopAndRead() throws IOException {
+        recording.stop();
+        Path file = Files.createTempFile("replication", ".jfr");
+        try {
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> find(List<RecordedEvent> events, String name, long logId) {
+        List<RecordedEvent> found = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("com.replication." + name) && event.getLong("logId") == logId) {
+                found.add(event);
+            }
+        }
+        return found;
+    }
+
+    @Test
+    public void testWriteFanOutCanBeReconstructed() throws IOException, InterruptedException {
+        assertTrue(system.write("key", "value"));
+        assertTrue(system.delete("key"));
+        TimeUnit.MILLISECONDS.sleep(500);
+        List<RecordedEvent> events = stopAndRead();
+
+        List<RecordedEvent> writes = find(events, "Write", 2);
+        assertEquals(1, writes.size());
+        assertEquals("DELETE", writes.get(0).getString("operation"));
+        assertEquals("key", writes.get(0).getString("key"));
+
+        // Tasks run concurrently, so an entry may arrive out of order and reach the slave through
+        // recovery instead; either way the slave applies it exactly once
+        for (SlaveNode slave : system.getSlaves()) {
+            assertEquals(1, forSlave(find(events, "ReplicationEnqueued", 2), slave).size());
+            List<RecordedEvent> tasks = forSlave(find(events, "ReplicationTask", 2), slave);
+            assertEquals(1, tasks.size());
+            assertTrue(tasks.get(0).getDuration("queueWait").toNanos() >= 0);
+            int applied = 0;
+            for (RecordedEvent event : forSlave(find(events, "Apply", 2), slave)) {
+                if (event.getString("outcome").equals("applied")) {
+                    applied++;
+                }
+            }
+            assertEquals(1, applied);
+        }
+    }
+
+    private static List<RecordedEvent> forSlave(List<RecordedEvent> events, SlaveNode slave) {
+        List<RecordedEvent> matching = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getString("slave").equals(slave.getId())) {
+                matching.add(event);
+            }
+        }
+        return matching;
+    }
+
+    @Test
+    public void testRecoveryIsTraced() throws IOException, InterruptedException {
+        SlaveNode slave = system.getSlaves().get(0);
+        slave.goDown();
+        for (int i = 0; i < 5; i++) {
+            system.write("key-" + i, "value-" + i);
+        }
+        // Let the replication tasks find the slave down before it comes back
+        TimeUnit.MILLISECONDS.sleep(200);
+        slave.goUp();
+        TimeUnit.MILLISECONDS.sleep(500);
+        List<RecordedEvent> events = stopAndRead();
+
+        // The slave caught up from the start of the log in one recovery after coming back up
+        boolean caughtUpFromStart = false;
+        for (RecordedEvent recovery : forSlave(find(events, "Recovery", 5), slave)) {
+            assertEquals("master", recovery.getString("master"));
+            if (recovery.getLong("fromLogId") == 0 && recovery.getLong("entries") == 5) {
+                caughtUpFromStart = true;
+            }
+        }
+        assertTrue(caughtUpFromStart);
+    }
+}
@@ -0,0 +1,172 @@
+package com.replication.Test;
+
+import com.replication.store.StoreSnapshot;
+import com.replication.store.VersionUnavailableException;
+import com.replication.store.VersionedStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class VersionedStoreTest {
+
+    private VersionedStore store;
+
+    @Before
+    public void setup() {
+        // Keep the last 10 log indexes readable without a snapshot
+        store = new VersionedStore(10);
+    }
+
+    @Test
+    public void testReadAsOfIndex() {
+        store.put("a", "a1", 1);
+        store.put("b", "b1", 2);
+        store.put("a", "a2", 3);
+        store.remove("b", 4);
+
+        assertEquals("a1", store.read("a", 1));
+        assertNull(store.read("b", 1));
+        assertEquals("b1", store.read("b", 3));
+        assertEquals("a2", store.read("a", 4));
+        assertNull(store.read("b", 4));
+        assertEquals("a2", store.get("a"));
+        assertFalse(store.containsKey("b"));
+    }
+
+    @Test
+    public void testConsistentMultiKeyRead() {
+        store.put("x", "x1", 1);
+        store.put("y", "y1", 2);
+        store.put("x", "x2", 3);
+
+        Map<String, String> atTwo = store.readAll(Arrays.asList("x", "y", "z"), 2);
+        assertEquals(2, atTwo.size());
+        assertEquals("x1", atTwo.get("x"));
+        assertEquals("y1", atTwo.get("y"));
+
+        Map<String, String> latest = store.readAll(Arrays.asList("x", "y"));
+        assertEquals("x2", latest.get("x"));
+        assertEquals("y1", latest.get("y"));
+    }
+
+    @Test
+    public void testFutureIndexIsRejected() {
+        store.put("a", "a1", 1);
+        try {
+            store.read("a", 5);
+            fail("Reading a log index that has not been applied should fail");
+        } catch (VersionUnavailableException e) {
+            assertEquals(5, e.getRequestedIndex());
+        }
+    }
+
+    @Test
+    public void testGarbageCollectionBelowLowWaterMark() {
+        for (long i = 1; i <= 30; i++) {
+            store.put("counter", "v" + i, i);
+        }
+        store.remove("gone", 31);
+        store.put("gone", "g", 32);
+        store.remove("gone", 33);
+
+        // Versions outside the retention window were trimmed as the key was rewritten
+        assertEquals(23, store.getLowWaterMark());
+        assertTrue(store.getOldestReadableIndex() > 1);
+        try {
+            store.read("counter", 5);
+            fail("Version below the low-water mark should have been collected");
+        } catch (VersionUnavailableException expected) {
+            // expected
+        }
+        assertEquals("v25", store.read("counter", 25));
+
+        // Advance past the window and sweep; the deleted key disappears entirely
+        store.put("other", "o", 60);
+        store.collectGarbage();
+        assertEquals(2, store.size());
+        assertEquals("v30", store.get("counter"));
+    }
+
+    @Test
+    public void testSnapshotHoldsVersionsPastTheWindow() {
+        store.setRetentionWindow(0);
+        store.put("k", "old", 1);
+        StoreSnapshot snapshot = store.snapshot();
+        for (long i = 2; i <= 50; i++) {
+            store.put("k", "new-" + i, i);
+        }
+        store.collectGarbage();
+
+        assertEquals(1, store.getLowWaterMark());
+        assertEquals("old", snapshot.get("k"));
+        assertEquals("old", store.read("k", 1));
+        snapshot.close();
+
+        store.collectGarbage();
+        assertEquals(50, store.getLowWaterMark());
+        assertEquals("new-50", store.get("k"));
+    }
+
+    @Test
+    public void testLocalChangesStayOutOfOpenSnapshots() {
+        store.setRetentionWindow(0);
+        store.put("a", "a1", 1);
+        store.put("b", "b1", 2);
+        StoreSnapshot before = store.snapshot();
+
+        store.overwrite("a", null);
+        store.overwrite("b", "b-repaired");
+        StoreSnapshot after = store.snapshot();
+        store.overwrite("b", "b-again");
+        store.collectGarbage();
+
+        // Latest reads see the changes at once; snapshots and reads as of the index do not
+        assertNull(store.get("a"));
+        assertEquals("b-again", store.get("b"));
+        assertEquals("a1", before.get("a"));
+        assertEquals("b1", before.get("b"));
+        assertEquals("a1", store.read("a", 2));
+        assertNull(after.get("a"));
+        assertEquals("b-repaired", after.get("b"));
+        before.close();
+        after.close();
+
+        // The next entry sees the changes like any earlier write
+        store.put("c", "c1", 3);
+        assertNull(store.read("a", 3));
+        assertEquals("b-again", store.read("b", 3));
+    }
+
+    @Test
+    public void testMerkleTreeTracksLatestValues() {
+        VersionedStore other = new VersionedStore();
+        for (long i = 1; i <= 100; i++) {
+            store.put("k" + i, "v" + i, i);
+            other.put("k" + i, "v" + i, i);
+        }
+        assertEquals(store.getMerkleTree().getRootHash(), other.getMerkleTree().getRootHash());
+
+        // A different value and a missing key each show up as exactly their own leaf
+        other.put("k5", "changed", 101);
+        other.remove("k60", 102);
+        assertEquals(Arrays.asList(
+                Math.min(store.getMerkleTree().leafOf("k5"), store.getMerkleTree().leafOf("k60")),
+                Math.max(store.getMerkleTree().leafOf("k5"), store.getMerkleTree().leafOf("k60"))),
+                store.getMerkleTree().differingLeaves(other.getMerkleTree()));
+        assertTrue(store.getMerkleTree().keysInLeaf(store.getMerkleTree().leafOf("k60")).contains("k60"));
+        assertFalse(other.getMerkleTree().keysInLeaf(other.getMerkleTree().leafOf("k60")).contains("k60"));
+
+        // Putting the same state back makes the trees equal again
+        other.put("k5", "v5", 103);
+        other.put("k60", "v60", 104);
+        assertTrue(store.getMerkleTree().differingLeaves(other.getMerkleTree()).isEmpty());
+    }
+}
@@ -0,0 +1,62 @@
+package com.replication.Test;
+
+import com.replication.workload.LatencyHistogram;
+import com.replication.workload.WorkloadGenerator;
+import com.replication.workload.WorkloadSpec;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class WorkloadGeneratorTest {
+
+    @Test
+    public void testSameSeedSameOperations() {
+        WorkloadSpec spec = new WorkloadSpec().recordCount(1000).mix(50, 40, 10).seed(7)
+                .valueSize(WorkloadSpec.ValueSizeDistribution.UNIFORM, 5, 50);
+        WorkloadGenerator first = new WorkloadGenerator(spec, 0);
+        WorkloadGenerator second = new WorkloadGenerator(spec, 0);
+
+        for (int i = 0; i < 1000; i++) {
+            WorkloadGenerator.Operation a = first.next();
+            WorkloadGenerator.Operation b = second.next();
+            assertEquals(a.getType(), b.getType());
+            assertEquals(a.getKey(), b.getKey());
+            assertEquals(a.getValue(), b.getValue());
+            if (a.getValue() != null) {
+                assertTrue(a.getValue().length() >= 5 && a.getValue().length() <= 50);
+            }
+        }
+    }
+
+    @Test
+    public void testZipfianKeysAreSkewed() {
+        WorkloadSpec spec = new WorkloadSpec().recordCount(10_000).mix(1, 0, 0);
+        WorkloadGenerator generator = new WorkloadGenerator(spec, 0);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            counts.merge(generator.next().getKey(), 1, Integer::sum);
+        }
+        int hottest = counts.values().stream().max(Integer::compare).orElse(0);
+
+        // The hottest key of a 0.99 Zipfian over 10k items gets several percent of all requests
+        assertTrue("Hottest key only got " + hottest + " requests", hottest > 5_000);
+    }
+
+    @Test
+    public void testLatencyHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1_000);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000, histogram.getMaxNanos());
+        assertEquals(5_000_000, histogram.getPercentileNanos(50), 5_000_000 * 0.02);
+        assertEquals(9_900_000, histogram.getPercentileNanos(99), 9_900_000 * 0.02);
+    }
+}
@@ -0,0 +1,94 @@
+package com.replication.health;
+
+import com.replication.node.AbstractNode;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Sends periodic heartbeats to every node and feeds the acknowledgements into a
+ * {@link PhiAccrualFailureDetector}. Heartbeats are answered on the node's own
+ * replication executor, so a node that is backed up answers late and its suspicion
+ * level rises before it fails outright. At most one heartbeat per node is outstanding,
+ * so a slow node is not buried under a queue of pings that would all be answered at once.
+ */
+public class HeartbeatMonitor {
+    private final PhiAccrualFailureDetector detector;
+    private final Supplier<List<? extends AbstractNode>> nodes;
+    private final long intervalMillis;
+    private final Set<String> outstanding = ConcurrentHashMap.newKeySet();
+    private volatile Consumer<AbstractNode> availabilityListener;
+    private ScheduledFuture<?> task;
+
+    /**
+     * Creates a heartbeat monitor.
+     * @param detector the detector that records acknowledgements
+     * @param nodes supplies the nodes to send heartbeats to, looked up on every round
+     * @param intervalMillis the time between heartbeat rounds
+     */
+    public HeartbeatMonitor(PhiAccrualFailureDetector detector, Supplier<List<? extends AbstractNode>> nodes,
+                            long intervalMillis) {
+        this.detector = detector;
+        this.nodes = nodes;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Sets a callback for nodes whose heartbeat arrives while they are suspected of having
+     * failed, and that are therefore available again once it is recorded.
+     * @param listener receives each such node, or null for none
+     */
+    public void setAvailabilityListener(Consumer<AbstractNode> listener) {
+        this.availabilityListener = listener;
+    }
+
+    /**
+     * Starts sending heartbeats on the given scheduler.
+     * @param scheduler the scheduler to send heartbeats on
+     */
+    public synchronized void start(ScheduledExecutorService scheduler) {
+        task = scheduler.scheduleAtFixedRate(this::sendHeartbeats, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sending heartbeats.
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Sends one round of heartbeats.
+     */
+    public void sendHeartbeats() {
+        for (AbstractNode node : nodes.get()) {
+            if (!outstanding.add(node.getId())) {
+                continue;
+            }
+            node.heartbeat().thenAccept(alive -> {
+                outstanding.remove(node.getId());
+                if (alive) {
+                    boolean wasSuspected = !detector.isAvailable(node.getId());
+                    detector.heartbeat(node.getId());
+                    Consumer<AbstractNode> listener = availabilityListener;
+                    if (wasSuspected && listener != null) {
+                        listener.accept(node);
+                    }
+                }
+            });
+        }
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+}
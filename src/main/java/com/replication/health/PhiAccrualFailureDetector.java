@@ -0,0 +1,187 @@
+package com.replication.health;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Phi-accrual failure detector.
+ * Instead of a yes/no liveness flag it keeps the recent heartbeat inter-arrival times of each
+ * node and turns the time since the last heartbeat into a suspicion level, phi. A phi of 1 means
+ * about a 10% chance the node is still fine and the heartbeat is just late, 2 means 1%, 3 means
+ * 0.1% and so on. Nodes that slow down show a rising phi well before they stop responding.
+ */
+public class PhiAccrualFailureDetector {
+    private final double degradedThreshold;
+    private final double failureThreshold;
+    private final int windowSize;
+    private final double minStdDeviationMillis;
+    private final double acceptablePauseMillis;
+    private final LongSupplier nanoClock;
+    private final Map<String, HeartbeatHistory> histories = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a detector with thresholds suited to heartbeats every few tens of milliseconds.
+     */
+    public PhiAccrualFailureDetector() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * Creates a detector with the default thresholds that reads time from the given clock.
+     * @param nanoClock the time source, in nanoseconds
+     */
+    public PhiAccrualFailureDetector(LongSupplier nanoClock) {
+        this(2.0, 8.0, 100, 20.0, 0.0, nanoClock);
+    }
+
+    /**
+     * Creates a failure detector.
+     * @param degradedThreshold phi at which a node is considered degraded and avoided if possible
+     * @param failureThreshold phi at which a node is considered failed
+     * @param windowSize how many inter-arrival times are kept per node
+     * @param minStdDeviationMillis lower bound on the standard deviation, so perfectly regular
+     *                              heartbeats do not make the detector hair-triggered
+     * @param acceptablePauseMillis extra delay that is tolerated on top of the observed mean
+     * @param nanoClock the time source, in nanoseconds
+     */
+    public PhiAccrualFailureDetector(double degradedThreshold, double failureThreshold, int windowSize,
+                                     double minStdDeviationMillis, double acceptablePauseMillis,
+                                     LongSupplier nanoClock) {
+        this.degradedThreshold = degradedThreshold;
+        this.failureThreshold = failureThreshold;
+        this.windowSize = windowSize;
+        this.minStdDeviationMillis = minStdDeviationMillis;
+        this.acceptablePauseMillis = acceptablePauseMillis;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Records a heartbeat from a node.
+     * @param nodeId the node the heartbeat came from
+     */
+    public void heartbeat(String nodeId) {
+        double now = nowMillis();
+        histories.computeIfAbsent(nodeId, id -> new HeartbeatHistory(windowSize)).record(now);
+    }
+
+    /**
+     * Gets the current suspicion level of a node.
+     * @param nodeId the node to check
+     * @return phi, or 0 if no heartbeat has been seen from the node yet
+     */
+    public double phi(String nodeId) {
+        HeartbeatHistory history = histories.get(nodeId);
+        if (history == null) {
+            return 0.0;
+        }
+        return history.phi(nowMillis(), minStdDeviationMillis, acceptablePauseMillis);
+    }
+
+    /**
+     * Gets the time since the last heartbeat from a node.
+     * @param nodeId the node to check
+     * @return the elapsed time in milliseconds, or 0 if no heartbeat has been seen yet
+     */
+    public double millisSinceLastHeartbeat(String nodeId) {
+        HeartbeatHistory history = histories.get(nodeId);
+        if (history == null) {
+            return 0.0;
+        }
+        return history.elapsed(nowMillis());
+    }
+
+    /**
+     * Checks if a node's suspicion level is below the failure threshold.
+     * @param nodeId the node to check
+     * @return true if the node is considered available
+     */
+    public boolean isAvailable(String nodeId) {
+        return phi(nodeId) < failureThreshold;
+    }
+
+    /**
+     * Checks if a node is slow enough that traffic should be steered elsewhere.
+     * @param nodeId the node to check
+     * @return true if the node's suspicion level is at or above the degraded threshold
+     */
+    public boolean isDegraded(String nodeId) {
+        return phi(nodeId) >= degradedThreshold;
+    }
+
+    /**
+     * Forgets everything about a node, e.g. after it has been replaced.
+     * @param nodeId the node to forget
+     */
+    public void remove(String nodeId) {
+        histories.remove(nodeId);
+    }
+
+    public double getDegradedThreshold() {
+        return degradedThreshold;
+    }
+
+    public double getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    private double nowMillis() {
+        return nanoClock.getAsLong() / 1_000_000.0;
+    }
+
+    /**
+     * Sliding window of heartbeat inter-arrival times for one node.
+     */
+    private static class HeartbeatHistory {
+        private final double[] intervals;
+        private int count = 0;
+        private int next = 0;
+        private double sum = 0;
+        private double sumOfSquares = 0;
+        private double lastArrival = -1;
+
+        HeartbeatHistory(int windowSize) {
+            this.intervals = new double[windowSize];
+        }
+
+        synchronized void record(double now) {
+            if (lastArrival >= 0) {
+                double interval = now - lastArrival;
+                if (count == intervals.length) {
+                    double evicted = intervals[next];
+                    sum -= evicted;
+                    sumOfSquares -= evicted * evicted;
+                } else {
+                    count++;
+                }
+                intervals[next] = interval;
+                next = (next + 1) % intervals.length;
+                sum += interval;
+                sumOfSquares += interval * interval;
+            }
+            lastArrival = now;
+        }
+
+        synchronized double elapsed(double now) {
+            return lastArrival < 0 ? 0.0 : now - lastArrival;
+        }
+
+        synchronized double phi(double now, double minStdDeviation, double acceptablePause) {
+            if (count == 0) {
+                return 0.0;
+            }
+            double mean = sum / count;
+            double variance = Math.max(0.0, sumOfSquares / count - mean * mean);
+            double stdDeviation = Math.max(Math.sqrt(variance), minStdDeviation);
+
+            double elapsed = now - lastArrival;
+            double y = (elapsed - mean - acceptablePause) / stdDeviation;
+            // Logistic approximation of the normal CDF's upper tail
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (elapsed > mean + acceptablePause) {
+                return -Math.log10(e / (1.0 + e));
+            }
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+}
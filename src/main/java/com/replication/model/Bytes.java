@@ -0,0 +1,63 @@
+package com.replication.model;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Carries binary keys and values through the system's string-typed store, log and replication.
+ * A byte array is held as the string with one character per byte, each between 0 and 255
+ * (ISO-8859-1). The JVM stores such strings in compact form, one byte per character, so a
+ * binary value takes its raw size in memory rather than the third more of a base64 encoding,
+ * and converting either way is a single array copy. {@link String#equals} and
+ * {@link String#hashCode} then compare and hash the raw bytes, and on disk these strings are
+ * written byte for byte as well.
+ * <p>
+ * Text written through the String API reads back through the binary API as its ISO-8859-1
+ * bytes, which for ASCII are the same as its UTF-8 bytes. Characters beyond that range have no
+ * byte of their own, so reading such text through the binary API fails rather than handing
+ * back different bytes; text using them should stay on the String API.
+ */
+public final class Bytes {
+
+    private Bytes() {
+    }
+
+    /**
+     * Gets the string that carries a byte array.
+     * @param bytes the bytes, or null
+     * @return the string with one character per byte, or null if the bytes are null
+     */
+    public static String asString(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the bytes a string carries.
+     * @param value a string from {@link #asString}, or null
+     * @return the bytes, or null if the string is null
+     * @throws IllegalArgumentException if the string has a character above 255, which no byte carries
+     */
+    public static byte[] asBytes(String value) {
+        if (value == null) {
+            return null;
+        }
+        if (!isSingleByte(value)) {
+            throw new IllegalArgumentException("Text with characters above 255 has no binary form; read it as a String");
+        }
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Checks if every character of a string fits in one byte, so it can be written byte for
+     * byte rather than as UTF-8.
+     * @param value the string
+     * @return true if every character is between 0 and 255
+     */
+    public static boolean isSingleByte(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xff) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package com.replication.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Selects the keys a partial replica receives: either every key starting with one of a set
+ * of prefixes, or every key whose hash falls in a range of buckets. Filters are immutable.
+ */
+public final class KeyFilter {
+    // Sorted, with every prefix that another prefix already covers removed
+    private final TreeSet<String> prefixes;
+    private final int fromBucket;
+    private final int toBucket;
+    private final int buckets;
+
+    private KeyFilter(TreeSet<String> prefixes, int fromBucket, int toBucket, int buckets) {
+        this.prefixes = prefixes;
+        this.fromBucket = fromBucket;
+        this.toBucket = toBucket;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Creates a filter that matches keys starting with any of the given prefixes.
+     * @param prefixes the key prefixes, e.g. one per tenant
+     * @return the filter
+     */
+    public static KeyFilter prefixes(String... prefixes) {
+        if (prefixes.length == 0) {
+            throw new IllegalArgumentException("A prefix filter needs at least one prefix");
+        }
+        TreeSet<String> sorted = new TreeSet<>(Arrays.asList(prefixes));
+        // Keeping only the shortest of nested prefixes lets the floor lookup in matches() find the one that applies
+        TreeSet<String> minimal = new TreeSet<>();
+        for (String prefix : sorted) {
+            String floor = minimal.floor(prefix);
+            if (floor == null || !prefix.startsWith(floor)) {
+                minimal.add(prefix);
+            }
+        }
+        return new KeyFilter(minimal, 0, 0, 0);
+    }
+
+    /**
+     * Creates a filter that matches keys whose hash bucket is in a range.
+     * @param fromBucket the first bucket matched
+     * @param toBucket the bucket after the last one matched
+     * @param buckets the number of buckets the hash space is divided into
+     * @return the filter
+     */
+    public static KeyFilter hashRange(int fromBucket, int toBucket, int buckets) {
+        if (buckets < 1 || fromBucket < 0 || fromBucket >= toBucket || toBucket > buckets) {
+            throw new IllegalArgumentException("Invalid bucket range [" + fromBucket + ", " + toBucket +
+                    ") of " + buckets);
+        }
+        return new KeyFilter(null, fromBucket, toBucket, buckets);
+    }
+
+    /**
+     * Gets the hash bucket of a key, as used by {@link #hashRange}.
+     * @param key the key
+     * @param buckets the number of buckets
+     * @return the bucket, from 0 to buckets - 1
+     */
+    public static int bucketOf(String key, int buckets) {
+        int hash = key.hashCode();
+        // Spread the high bits down, since string hashes of similar keys differ mostly at the bottom
+        return Math.floorMod(hash ^ (hash >>> 16), buckets);
+    }
+
+    /**
+     * Checks if a key passes this filter. Costs O(log p) for p prefixes.
+     * @param key the key
+     * @return true if the key is replicated to replicas with this filter
+     */
+    public boolean matches(String key) {
+        if (prefixes == null) {
+            int bucket = bucketOf(key, buckets);
+            return bucket >= fromBucket && bucket < toBucket;
+        }
+        String floor = prefixes.floor(key);
+        return floor != null && key.startsWith(floor);
+    }
+
+    /**
+     * Gets the prefixes this filter matches.
+     * @return the prefixes in order, or an empty list for a hash range filter
+     */
+    public List<String> getPrefixes() {
+        return prefixes == null ? new ArrayList<>() : new ArrayList<>(prefixes);
+    }
+
+    @Override
+    public String toString() {
+        return prefixes != null ? "KeyFilter{prefixes=" + prefixes + '}' :
+                "KeyFilter{buckets=[" + fromBucket + ", " + toBucket + ") of " + buckets + '}';
+    }
+}
@@ -21,6 +21,8 @@ public class LogEntry implements Serializable {
     private final String value;
     private final long timestamp;
     private final OperationType operationType;
+    private final long firstCoveredId;
+    private final long expiresAtMillis;
 
     /**
      * Creates a new log entry for a write operation.
@@ -34,6 +36,8 @@ public class LogEntry implements Serializable {
         this.value = value;
         this.timestamp = System.currentTimeMillis();
         this.operationType = OperationType.WRITE;
+        this.firstCoveredId = id;
+        this.expiresAtMillis = 0;
     }
     
     /**
@@ -44,11 +48,47 @@ public class LogEntry implements Serializable {
      * @param operationType the type of operation
      */
     public LogEntry(long id, String key, String value, OperationType operationType) {
+        this(id, key, value, operationType, 0);
+    }
+
+    /**
+     * Creates a new log entry for a write that expires. Replicas hide the value once the
+     * expiry time has passed; the master later deletes it with a normal DELETE entry.
+     * @param id the log entry ID
+     * @param key the key being operated on
+     * @param value the value (for write operations, null for delete operations)
+     * @param operationType the type of operation
+     * @param expiresAtMillis when the value expires, in the master's clock, or 0 for never
+     */
+    public LogEntry(long id, String key, String value, OperationType operationType, long expiresAtMillis) {
         this.id = id;
         this.key = key;
         this.value = value;
         this.timestamp = System.currentTimeMillis();
         this.operationType = operationType;
+        this.firstCoveredId = id;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    private LogEntry(LogEntry entry, long firstCoveredId) {
+        this.id = entry.id;
+        this.key = entry.key;
+        this.value = entry.value;
+        this.timestamp = entry.timestamp;
+        this.operationType = entry.operationType;
+        this.firstCoveredId = firstCoveredId;
+        this.expiresAtMillis = entry.expiresAtMillis;
+    }
+
+    /**
+     * Creates a copy of this entry that stands in for every log entry from
+     * {@code firstCoveredId} up to this entry's ID. Used when superseded writes are
+     * coalesced away before replication, so replicas can still check log continuity.
+     * @param firstCoveredId the lowest log ID this entry replaces
+     * @return the covering log entry
+     */
+    public LogEntry coveringFrom(long firstCoveredId) {
+        return firstCoveredId == this.firstCoveredId ? this : new LogEntry(this, firstCoveredId);
     }
 
     public long getId() {
@@ -63,9 +103,52 @@ public class LogEntry implements Serializable {
         return value;
     }
 
+    /**
+     * Gets the key as bytes, for entries written through the binary API.
+     * @return the bytes the key carries
+     * @see Bytes
+     */
+    public byte[] getKeyBytes() {
+        return Bytes.asBytes(key);
+    }
+
+    /**
+     * Gets the value as bytes, for entries written through the binary API.
+     * @return the bytes the value carries, or null for a delete
+     * @see Bytes
+     */
+    public byte[] getValueBytes() {
+        return Bytes.asBytes(value);
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
+
+    /**
+     * Gets when the written value expires.
+     * @return the expiry time in milliseconds of the master's clock, or 0 if the value never expires
+     */
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    /**
+     * Gets the lowest log ID this entry accounts for. It equals the entry's own ID
+     * unless earlier entries were coalesced into it.
+     * @return the first covered log ID
+     */
+    public long getFirstCoveredId() {
+        return firstCoveredId;
+    }
+
+    /**
+     * Checks if this entry replaces earlier, coalesced log entries.
+     * @return true if this entry covers more than its own ID
+     */
+    public boolean isCoalesced() {
+        return firstCoveredId != id;
+    }
     
     /**
      * Gets the operation type of this log entry.
@@ -90,6 +173,8 @@ public class LogEntry implements Serializable {
                 ", key='" + key + '\'' +
                 ", value='" + value + '\'' +
                 ", operationType=" + operationType +
+                (isCoalesced() ? ", coveredFrom=" + firstCoveredId : "") +
+                (expiresAtMillis != 0 ? ", expiresAt=" + expiresAtMillis : "") +
                 ", timestamp=" + timestamp +
                 '}';
     }
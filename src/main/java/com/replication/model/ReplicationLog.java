@@ -0,0 +1,180 @@
+package com.replication.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only log of replicated entries, in increasing log ID order.
+ * Entries are stored in fixed-size chunks, so appending never copies what is already
+ * in the log, and readers can look entries up without locking while one writer appends.
+ * Log IDs may skip values (a coalesced entry stands in for the entries it replaced),
+ * so lookups by ID use a binary search over positions.
+ * <p>
+ * A node that keeps an archive of its log on disk can drop the oldest chunks from memory.
+ * Positions do not change when chunks are dropped; reads of dropped entries must go to
+ * the archive instead.
+ */
+public class ReplicationLog {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile LogEntry[][] chunks = new LogEntry[1][];
+    private volatile int size = 0;
+    // Both written before the chunks they describe are published
+    private volatile int firstPosition = 0;
+    private volatile long truncatedId = 0;
+
+    /**
+     * Appends an entry to the end of the log. Nodes only append while holding the write lock
+     * of the node that drives the log; the monitor keeps appends apart from truncation.
+     * @param entry the entry to append, with an ID greater than every ID in the log
+     */
+    public synchronized void append(LogEntry entry) {
+        int position = size;
+        int chunk = position >>> CHUNK_SHIFT;
+        LogEntry[][] current = chunks;
+        if (chunk == current.length) {
+            LogEntry[][] grown = new LogEntry[current.length * 2][];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new LogEntry[CHUNK_SIZE];
+        }
+        current[chunk][position & CHUNK_MASK] = entry;
+        chunks = current;
+        // Publishing the new size makes the entry visible to readers
+        size = position + 1;
+    }
+
+    /**
+     * Drops the oldest entries up to a log ID from memory, whole chunks at a time, keeping at
+     * least the last entry. The entries dropped must already be archived, since readers are
+     * sent there for them.
+     * @param id the highest log ID that may be dropped
+     * @return the number of entries dropped
+     */
+    public synchronized int truncateThrough(long id) {
+        int limit = size;
+        LogEntry[][] current = chunks;
+        int first = firstPosition >>> CHUNK_SHIFT;
+        int chunk = first;
+        while ((chunk + 1) << CHUNK_SHIFT < limit && current[chunk][CHUNK_MASK].getId() <= id) {
+            chunk++;
+        }
+        if (chunk == first) {
+            return 0;
+        }
+
+        // Readers still holding the old array can finish with it
+        LogEntry[][] trimmed = current.clone();
+        Arrays.fill(trimmed, first, chunk, null);
+        int dropped = (chunk << CHUNK_SHIFT) - firstPosition;
+        truncatedId = current[chunk - 1][CHUNK_MASK].getId();
+        firstPosition = chunk << CHUNK_SHIFT;
+        chunks = trimmed;
+        return dropped;
+    }
+
+    /**
+     * Gets the entry at a position in the log.
+     * @param position the position, from the first position still in memory to size - 1
+     * @return the entry
+     */
+    public LogEntry get(int position) {
+        int limit = size;
+        LogEntry[][] current = chunks;
+        if (position < firstPosition || position >= limit) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + limit);
+        }
+        return current[position >>> CHUNK_SHIFT][position & CHUNK_MASK];
+    }
+
+    /**
+     * Gets the number of entries ever appended to the log, including those dropped from memory.
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of entries still held in memory.
+     * @return the number of entries not yet dropped
+     */
+    public int retainedSize() {
+        return size - firstPosition;
+    }
+
+    /**
+     * Gets the ID of the last entry dropped from memory.
+     * @return the last dropped log ID, or 0 if nothing was dropped
+     */
+    public long getTruncatedId() {
+        return truncatedId;
+    }
+
+    /**
+     * Gets the ID of the last entry in the log.
+     * @return the last log ID, or 0 if the log is empty
+     */
+    public long getLastId() {
+        int limit = size;
+        return limit == 0 ? 0 : get(limit - 1).getId();
+    }
+
+    /**
+     * Gets every entry with an ID greater than the given one, in log order.
+     * @param afterId the log ID after which to return entries
+     * @return a new list of entries, or null if some of them were dropped from memory
+     */
+    public List<LogEntry> entriesAfter(long afterId) {
+        return entriesAfter(afterId, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets at most the given number of entries with an ID greater than the given one, in log order.
+     * @param afterId the log ID after which to return entries
+     * @param maxEntries the most entries to return
+     * @return a new list of entries, or null if some of them were dropped from memory
+     */
+    public List<LogEntry> entriesAfter(long afterId, int maxEntries) {
+        // Read in the reverse of the order truncation writes them: a first position that is
+        // already moved on comes with the truncation point that covers what it skips
+        int size = this.size;
+        LogEntry[][] current = chunks;
+        int first = firstPosition;
+        if (afterId < truncatedId) {
+            return null;
+        }
+        // Truncation after the size was read can move the first position past it
+        int from = firstPositionAfter(current, afterId, first, size);
+        if (from >= size) {
+            return Collections.emptyList();
+        }
+        int limit = (int) Math.min(size, (long) from + maxEntries);
+
+        List<LogEntry> entries = new ArrayList<>(limit - from);
+        for (int position = from; position < limit; position++) {
+            entries.add(current[position >>> CHUNK_SHIFT][position & CHUNK_MASK]);
+        }
+        return entries;
+    }
+
+    private static int firstPositionAfter(LogEntry[][] current, long afterId, int first, int limit) {
+        int low = first;
+        int high = limit;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (current[mid >>> CHUNK_SHIFT][mid & CHUNK_MASK].getId() <= afterId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
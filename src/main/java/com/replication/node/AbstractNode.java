@@ -1,12 +1,29 @@
 package com.replication.node;
 
+import com.replication.model.Bytes;
 import com.replication.model.LogEntry;
+import com.replication.model.ReplicationLog;
+import com.replication.node.TraceEvents.ApplyEvent;
+import com.replication.runtime.NodeRuntime;
+import com.replication.storage.LogArchive;
+import com.replication.storage.LsmStore;
+import com.replication.storage.NodeStorage;
+import com.replication.store.HotKeyTracker;
+import com.replication.store.HotKeyTracker.HotKey;
+import com.replication.store.MerkleTree;
+import com.replication.store.StoreSnapshot;
+import com.replication.store.VersionUnavailableException;
+import com.replication.store.VersionedStore;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -14,22 +31,77 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 /**
  * Abstract base class for nodes in the replication system.
  * Provides common functionality for both master and slave nodes.
+ * <p>
+ * Reads never lock: the data store and the log are both safe to read while they are written.
+ * The node-wide lock only orders changes to the log position, and operations that check a
+ * key before changing it lock just that key's stripe.
  */
 public abstract class AbstractNode implements Node {
+    private static final int KEY_LOCK_STRIPES = 64;
+    private static final int HOT_KEY_CAPACITY = 64;
+    private static final int HOT_KEY_SAMPLE_EVERY = 64;
+    private static final AtomicLongFieldUpdater<AbstractNode> LAST_APPLIED_INDEX =
+            AtomicLongFieldUpdater.newUpdater(AbstractNode.class, "lastAppliedIndex");
+
     protected final String id;
-    protected boolean up = true;
-    protected final Map<String, String> dataStore;
-    protected final List<LogEntry> log;
+    protected volatile boolean up = true;
+    protected final VersionedStore dataStore;
+    protected final ReplicationLog log;
     protected final ReadWriteLock lock;
-    protected long lastAppliedIndex = 0;
+    protected final StripedLock keyLocks;
+    protected volatile long lastAppliedIndex = 0;
+    // The last entry accepted in log order. With parallel apply it runs ahead of the applied index
+    protected volatile long lastReceivedIndex = 0;
+    protected final NodeRuntime runtime;
     protected final ExecutorService replicationExecutor;
+    protected volatile NodeStorage storage;
+    protected volatile LsmStore diskStore;
+    protected volatile LogArchive logArchive;
+    private volatile ExecutorService diskExecutor;
+    protected final HotKeyTracker hotReads = new HotKeyTracker(HOT_KEY_CAPACITY, HOT_KEY_SAMPLE_EVERY);
+    protected final HotKeyTracker hotWrites = new HotKeyTracker(HOT_KEY_CAPACITY, HOT_KEY_SAMPLE_EVERY);
+    private volatile long responseDelayMillis = 0;
+    // Keys deleted on this node alone, with the version of the value each delete removed
+    private final Map<String, Long> localDeletes = new ConcurrentHashMap<>();
 
     public AbstractNode(String id) {
+        this(id, NodeRuntime.REAL);
+    }
+
+    /**
+     * Creates a node whose background work runs on the given runtime.
+     * @param id the ID of the node
+     * @param runtime supplies the node's executor
+     */
+    public AbstractNode(String id, NodeRuntime runtime) {
+        this.id = id;
+        this.dataStore = new VersionedStore(0, runtime::currentTimeMillis);
+        this.log = new ReplicationLog();
+        this.lock = new ReentrantReadWriteLock();
+        this.keyLocks = new StripedLock(KEY_LOCK_STRIPES);
+        this.runtime = runtime;
+        this.replicationExecutor = runtime.newExecutor(id, 5);
+    }
+
+    /**
+     * Creates a node that takes over the data store, log and log position of another node,
+     * without copying them. The other node must no longer be used afterwards.
+     * @param id the ID of the new node
+     * @param predecessor the node whose state is taken over
+     */
+    protected AbstractNode(String id, AbstractNode predecessor) {
         this.id = id;
-        this.dataStore = new ConcurrentHashMap<>();
-        this.log = new CopyOnWriteArrayList<>();
+        this.dataStore = predecessor.dataStore;
+        this.log = predecessor.log;
         this.lock = new ReentrantReadWriteLock();
-        this.replicationExecutor = Executors.newFixedThreadPool(5);
+        this.keyLocks = predecessor.keyLocks;
+        this.lastAppliedIndex = predecessor.lastAppliedIndex;
+        this.lastReceivedIndex = predecessor.lastReceivedIndex;
+        this.runtime = predecessor.runtime;
+        this.replicationExecutor = runtime.newExecutor(id, 5);
+        this.diskStore = predecessor.diskStore;
+        this.logArchive = predecessor.logArchive;
+        this.diskExecutor = predecessor.diskExecutor;
     }
 
     @Override
@@ -37,6 +109,14 @@ public abstract class AbstractNode implements Node {
         return id;
     }
 
+    /**
+     * Gets the runtime this node's background work runs on.
+     * @return the runtime
+     */
+    public NodeRuntime getRuntime() {
+        return runtime;
+    }
+
     @Override
     public boolean isUp() {
         return up;
@@ -54,21 +134,188 @@ public abstract class AbstractNode implements Node {
         up = true;
     }
 
+    /**
+     * Answers a heartbeat. The answer is produced on the node's replication executor,
+     * so it is delayed by whatever work the node is backed up on.
+     * @return a future completing with true if the node is up
+     */
+    public CompletableFuture<Boolean> heartbeat() {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                simulateResponseDelay();
+                return up;
+            }, replicationExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /**
+     * Makes the node slow without taking it down, to simulate GC pauses or an overloaded host.
+     * Reads, replication to the node and heartbeats are all delayed by this amount.
+     * @param responseDelayMillis the delay in milliseconds, or 0 to respond normally
+     */
+    public void setResponseDelayMillis(long responseDelayMillis) {
+        this.responseDelayMillis = responseDelayMillis;
+    }
+
+    public long getResponseDelayMillis() {
+        return responseDelayMillis;
+    }
+
+    protected void simulateResponseDelay() {
+        long delay = responseDelayMillis;
+        if (delay > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     @Override
     public String read(String key) {
         if (!up) {
             System.out.println("Node " + id + " is DOWN, cannot read");
             return null;
         }
-        
+        simulateResponseDelay();
+        hotReads.record(key);
+        return dataStore.get(key);
+    }
+
+    @Override
+    public byte[] read(byte[] key) {
+        return Bytes.asBytes(read(Bytes.asString(key)));
+    }
+    
+    @Override
+    public String read(String key, long asOfIndex) {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot read");
+            return null;
+        }
+        hotReads.record(key);
+
         try {
-            lock.readLock().lock();
-            return dataStore.get(key);
-        } finally {
-            lock.readLock().unlock();
+            return dataStore.read(key, asOfIndex);
+        } catch (VersionUnavailableException e) {
+            System.out.println("Node " + id + " cannot read '" + key + "': " + e.getMessage());
+            return null;
         }
     }
-    
+
+    @Override
+    public Map<String, String> readAll(Collection<String> keys) {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot read");
+            return null;
+        }
+        recordReads(keys);
+        return dataStore.readAll(keys);
+    }
+
+    @Override
+    public Map<String, String> readAll(Collection<String> keys, long asOfIndex) {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot read");
+            return null;
+        }
+        recordReads(keys);
+
+        try {
+            return dataStore.readAll(keys, asOfIndex);
+        } catch (VersionUnavailableException e) {
+            System.out.println("Node " + id + " cannot read " + keys.size() + " keys: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void recordReads(Collection<String> keys) {
+        for (String key : keys) {
+            hotReads.record(key);
+        }
+    }
+
+    /**
+     * Gets the keys this node has read most often recently. Tracking samples accesses,
+     * so counts are estimates and keys read only a few times may be missing.
+     * @param k the most keys to return
+     * @return the hot keys, hottest first
+     */
+    public List<HotKey> getHotReadKeys(int k) {
+        return hotReads.top(k);
+    }
+
+    /**
+     * Gets the keys this node has written most often recently, counting every log entry
+     * it applied, whether it came from a client or from replication.
+     * @param k the most keys to return
+     * @return the hot keys, hottest first
+     */
+    public List<HotKey> getHotWriteKeys(int k) {
+        return hotWrites.top(k);
+    }
+
+    /**
+     * Sets how many log indexes behind the last applied one stay readable through
+     * {@link #read(String, long)} without an open snapshot.
+     * @param retentionWindow the number of log indexes to retain
+     */
+    public void setVersionRetention(long retentionWindow) {
+        dataStore.setRetentionWindow(retentionWindow);
+    }
+
+    /**
+     * Keeps only this node's most used keys in memory and moves the rest to an LSM store on
+     * local disk, so the node can hold more data than fits in its heap. Reads of cold keys
+     * go to disk until they are used often enough to come back into memory. The older part
+     * of the log moves to a {@link LogArchive} in the same directory.
+     * @param directory the directory for the store's files; anything an earlier store left there is deleted
+     * @param memoryBudgetBytes the approximate heap the keys kept in memory may use
+     * @return true if cold keys now go to disk, false if they already did or the store cannot be opened
+     */
+    public boolean enableDiskStore(Path directory, long memoryBudgetBytes) {
+        if (diskStore != null) {
+            System.out.println("Node " + id + " already keeps cold keys on disk");
+            return false;
+        }
+        ExecutorService compactor = runtime.newExecutor(id + "-lsm", 1);
+        try {
+            LsmStore store = new LsmStore(directory, compactor);
+            LogArchive archive = new LogArchive(directory.resolve("log"), LogArchive.DEFAULT_RETAINED_ENTRIES);
+            diskExecutor = compactor;
+            diskStore = store;
+            logArchive = archive;
+            dataStore.spillTo(store, memoryBudgetBytes, runtime.newRandom());
+            archive.trimLater(log, compactor);
+            System.out.println("Node " + id + " keeps cold keys in " + directory + ", with " + memoryBudgetBytes +
+                    " bytes of hot keys in memory");
+            return true;
+        } catch (IOException e) {
+            compactor.shutdown();
+            System.out.println("Node " + id + " could not open a disk store in " + directory + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Gets the store cold keys are moved to.
+     * @return the disk store, or null if every key is kept in memory
+     */
+    public LsmStore getDiskStore() {
+        return diskStore;
+    }
+
+    /**
+     * Drops old versions below the data store's low-water mark.
+     * @return the number of versions dropped
+     */
+    public int collectGarbage() {
+        return dataStore.collectGarbage();
+    }
+
     @Override
     public boolean delete(String key) {
         if (!up) {
@@ -76,8 +323,9 @@ public abstract class AbstractNode implements Node {
             return false;
         }
         
+        Lock keyLock = keyLocks.forKey(key);
         try {
-            lock.writeLock().lock();
+            keyLock.lock();
             
             // Check if the key exists before attempting to delete
             if (!dataStore.containsKey(key)) {
@@ -85,15 +333,21 @@ public abstract class AbstractNode implements Node {
                 return false;
             }
             
-            // Remove the key from the data store
-            dataStore.remove(key);
+            // Remove the key outside the log, so snapshots already open keep seeing it
+            localDeletes.put(key, dataStore.getVersion(key));
+            dataStore.overwrite(key, null);
             System.out.println("Node " + id + " deleted key '" + key + "'");
             return true;
         } finally {
-            lock.writeLock().unlock();
+            keyLock.unlock();
         }
     }
 
+    @Override
+    public boolean delete(byte[] key) {
+        return delete(Bytes.asString(key));
+    }
+
     @Override
     public Map<String, String> getDataStore() {
         if (!up) {
@@ -101,12 +355,83 @@ public abstract class AbstractNode implements Node {
             return null;
         }
         
-        try {
-            lock.readLock().lock();
-            return new HashMap<>(dataStore);
-        } finally {
-            lock.readLock().unlock();
+        try (StoreSnapshot snapshot = dataStore.snapshot()) {
+            Map<String, String> copy = new HashMap<>();
+            snapshot.forEach(copy::put);
+            return copy;
+        }
+    }
+
+    @Override
+    public StoreSnapshot snapshot() {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot open snapshot");
+            return null;
+        }
+        return dataStore.snapshot();
+    }
+
+    @Override
+    public StoreSnapshot snapshot(long asOfIndex) {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot open snapshot");
+            return null;
         }
+
+        StoreSnapshot snapshot = dataStore.snapshot(asOfIndex);
+        if (snapshot == null) {
+            System.out.println("Node " + id + " cannot open snapshot at log index " + asOfIndex +
+                    " (not applied yet or no longer retained)");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Gets the hash tree over this node's latest values, for anti-entropy.
+     * @return the hash tree
+     */
+    public MerkleTree getMerkleTree() {
+        return dataStore.getMerkleTree();
+    }
+
+    /**
+     * Checks if a key is missing because it was deleted on this node alone, rather than lost.
+     * A delete stops counting once the log has written the key again since.
+     * @param key the key missing on this node
+     * @param version the version of the key's value on the node it is compared with
+     * @return true if the key was deleted here and should stay deleted
+     */
+    boolean deletedLocally(String key, long version) {
+        Long deleted = localDeletes.get(key);
+        if (deleted == null) {
+            return false;
+        }
+        if (version > deleted) {
+            localDeletes.remove(key, deleted);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Overwrites a key outside the log, to repair a divergence found by anti-entropy.
+     * Snapshots already open and reads as of the current log index keep seeing the old value.
+     * The caller must hold the lock that guards this node's log position.
+     * @param key the key to repair
+     * @param value the correct value, or null if the key should be absent
+     */
+    void repairKey(String key, String value) {
+        dataStore.overwrite(key, value);
+        System.out.println("Node " + id + " repaired key '" + key + "'");
+    }
+
+    /**
+     * Gets the log index reads on this node see. With parallel apply this is the watermark
+     * below which every entry is applied, which can trail the last index received.
+     * @return the applied log index
+     */
+    public long getAppliedIndex() {
+        return dataStore.getAppliedIndex();
     }
 
     @Override
@@ -119,61 +444,206 @@ public abstract class AbstractNode implements Node {
 
     @Override
     public boolean applyLogEntry(LogEntry entry, ReadWriteLock lock) {
+        return applyLogEntry(entry, lock, ApplyEvent.start(id, entry.getId()));
+    }
+
+    /**
+     * Applies a log entry, reporting it in a trace event the caller has already started,
+     * e.g. before waiting for the lock.
+     * @param entry the log entry to apply
+     * @param lock the lock that guards this node's log position
+     * @param trace the trace event, finished by this method
+     * @return true if applied successfully
+     */
+    boolean applyLogEntry(LogEntry entry, ReadWriteLock lock, ApplyEvent trace) {
         if (!up) {
             System.out.println("Node " + id + " is DOWN, cannot apply log entry");
+            trace.finish("down");
             return false;
         }
         
         try {
             lock.writeLock().lock();
+            trace.lockAcquired();
             
-            // Check if this log entry is the next in sequence
-            if (entry.getId() != lastAppliedIndex + 1) {
+            // Check if this log entry is the next in sequence. A coalesced entry also
+            // accounts for the superseded entries it replaced, so it may start earlier.
+            if (entry.getId() <= lastReceivedIndex || entry.getFirstCoveredId() > lastReceivedIndex + 1) {
                 System.out.println("Node " + id + " received out-of-order log entry: " + entry.getId() + 
-                        ", expected: " + (lastAppliedIndex + 1));
+                        ", expected: " + (lastReceivedIndex + 1));
+                trace.finish("out-of-order");
                 return false;
             }
             
-            // Apply the log entry to the data store based on operation type
-            if (entry.isDelete()) {
-                // For delete operations, remove the key from the data store
-                dataStore.remove(entry.getKey());
-                System.out.println("Node " + id + " deleted key '" + entry.getKey() + "' from log entry");
-            } else {
-                // For write operations, put the key-value pair in the data store
-                dataStore.put(entry.getKey(), entry.getValue());
-                System.out.println("Node " + id + " wrote " + entry.getKey() + "=" + entry.getValue() + " from log entry");
+            applyEntry(entry);
+            lastReceivedIndex = entry.getId();
+            // A queued entry moves the applied index once the watermark passes it instead
+            if (!appliesInParallel()) {
+                lastAppliedIndex = entry.getId();
             }
-            
-            // Add to log and update index
-            log.add(entry);
-            lastAppliedIndex = entry.getId();
+            hotWrites.record(entry.getKey());
             
             System.out.println("Node " + id + " applied log entry: " + entry);
+            trace.finish("applied");
             return true;
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Checks if entries handed to {@link #applyEntry} may still be queued when it returns.
+     * @return true if entries are applied on other threads
+     */
+    protected boolean appliesInParallel() {
+        return false;
+    }
+
+    /**
+     * Moves the applied index up to a watermark, never back. Called from the apply threads,
+     * which can report their watermarks out of order.
+     * @param watermark the log index below which every entry is applied
+     */
+    protected void advanceAppliedIndex(long watermark) {
+        long current = lastAppliedIndex;
+        while (current < watermark && !LAST_APPLIED_INDEX.compareAndSet(this, current, watermark)) {
+            current = lastAppliedIndex;
+        }
+    }
+
+    /**
+     * Applies a log entry that is next in sequence to the data store and the log.
+     * Called while holding the lock that guards this node's log position.
+     * @param entry the log entry to apply
+     */
+    protected void applyEntry(LogEntry entry) {
+        // Apply the log entry to the data store based on operation type
+        if (entry.isDelete()) {
+            // For delete operations, remove the key from the data store
+            dataStore.remove(entry.getKey(), entry.getId());
+            System.out.println("Node " + id + " deleted key '" + entry.getKey() + "' from log entry");
+        } else {
+            // For write operations, put the key-value pair in the data store
+            dataStore.put(entry.getKey(), entry.getValue(), entry.getId(), entry.getExpiresAtMillis());
+            System.out.println("Node " + id + " wrote " + entry.getKey() + "=" + entry.getValue() + " from log entry");
+        }
+        appendToLog(entry);
+        persist(entry);
+    }
+
+    /**
+     * Appends an entry to the in-memory log, and has the older entries moved to the log
+     * archive once there are enough of them. Called while holding the lock that guards this
+     * node's log position.
+     * @param entry the entry to append
+     */
+    protected void appendToLog(LogEntry entry) {
+        log.append(entry);
+        LogArchive archive = logArchive;
+        if (archive != null) {
+            archive.trimLater(log, diskExecutor);
+        }
+    }
+
+    /**
+     * Appends an applied entry to this node's write-ahead log, if it persists its state.
+     * @param entry the applied entry
+     */
+    protected void persist(LogEntry entry) {
+        NodeStorage current = storage;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.append(entry);
+        } catch (IOException e) {
+            System.out.println("Node " + id + " failed to persist log entry " + entry.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the on-disk storage this node persists to.
+     * @return the storage, or null if the node keeps its state in memory only
+     */
+    public NodeStorage getStorage() {
+        return storage;
+    }
+
     @Override
     public List<LogEntry> getLogEntriesAfter(long afterIndex) {
         if (!up) {
             System.out.println("Node " + id + " is DOWN, cannot get log entries");
             return Collections.emptyList();
         }
-        
-        List<LogEntry> entries = new ArrayList<>();
-        try {
-            lock.readLock().lock();
-            for (LogEntry entry : log) {
-                if (entry.getId() > afterIndex) {
-                    entries.add(entry);
-                }
-            }
+        return logEntriesAfter(afterIndex, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets a bounded batch of log entries after an index, without copying the rest of the log.
+     * @param afterIndex the log index after which to return entries
+     * @param maxEntries the most entries to return
+     * @return the entries, or an empty list if the node is down
+     */
+    public List<LogEntry> getLogEntriesAfter(long afterIndex, int maxEntries) {
+        if (!up) {
+            return Collections.emptyList();
+        }
+        return logEntriesAfter(afterIndex, maxEntries);
+    }
+
+    /**
+     * Gets log entries after an index from memory, or from the log archive for the entries
+     * already dropped from memory.
+     * @param afterIndex the log index after which to return entries
+     * @param maxEntries the most entries to return
+     * @return the entries, fewer than asked for only if the log ends or the archive cannot be read
+     */
+    protected List<LogEntry> logEntriesAfter(long afterIndex, int maxEntries) {
+        List<LogEntry> entries = log.entriesAfter(afterIndex, maxEntries);
+        if (entries != null) {
             return entries;
-        } finally {
-            lock.readLock().unlock();
+        }
+
+        entries = new ArrayList<>();
+        long position = afterIndex;
+        while (entries.size() < maxEntries) {
+            List<LogEntry> archived;
+            try {
+                archived = logArchive.read(position, maxEntries - entries.size());
+            } catch (IOException e) {
+                System.out.println("Node " + id + " could not read its log archive: " + e.getMessage());
+                break;
+            }
+            if (archived.isEmpty()) {
+                break;
+            }
+            entries.addAll(archived);
+            position = archived.get(archived.size() - 1).getId();
+
+            // More may have been dropped from memory while the archive was read
+            List<LogEntry> inMemory = log.entriesAfter(position, maxEntries - entries.size());
+            if (inMemory != null) {
+                entries.addAll(inMemory);
+                break;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Shuts down the replication executor service and closes the disk store, if any.
+     */
+    public void shutdown() {
+        replicationExecutor.shutdown();
+        LsmStore currentDiskStore = diskStore;
+        if (currentDiskStore != null) {
+            diskExecutor.shutdown();
+            try {
+                currentDiskStore.close();
+                logArchive.close();
+            } catch (IOException e) {
+                System.out.println("Node " + id + " could not close its disk store: " + e.getMessage());
+            }
         }
     }
 }
@@ -0,0 +1,285 @@
+package com.replication.node;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides whether the master accepts a write, based on how far its slaves have fallen behind.
+ * Replication lag is measured in log entries, as the distance between the master's last log
+ * index and that of the slowest caught-up slave. Three policies keep it under a target:
+ * <ul>
+ *   <li>{@link Policy#THROTTLE} paces writes at a rate adjusted with AIMD: every control interval
+ *       the rate is halved while the lag is above the target, and raised by a fixed step while it
+ *       is not. Writes wait for their slot, and are rejected if it is further away than the
+ *       longest allowed wait.</li>
+ *   <li>{@link Policy#QUEUE} holds writes while the lag is above the target and rejects those
+ *       still waiting when the longest allowed wait has passed.</li>
+ *   <li>{@link Policy#REJECT} rejects writes outright while the lag is above the target.</li>
+ * </ul>
+ * Waiting writers block their own thread and never hold the master's lock, so replication
+ * continues while they wait. Time comes from the node's runtime; since waiting does not
+ * advance a simulated clock, only the REJECT policy suits a single-threaded simulation.
+ */
+public class AdmissionController {
+    private static final long CONTROL_INTERVAL_MILLIS = 10;
+    private static final double MIN_RATE = 100;
+    private static final double RATE_INCREASE = 2_000;
+    private static final double RATE_DECREASE_FACTOR = 0.5;
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * How writes are held back while the lag is above the target.
+     */
+    public enum Policy {
+        THROTTLE, QUEUE, REJECT
+    }
+
+    private final Policy policy;
+    private final long targetLag;
+    private final long maxWaitNanos;
+    private final LongSupplier lagProbe;
+    private final LongSupplier clock;
+
+    // Pacing state of the THROTTLE policy, guarded by this
+    private boolean limited = false;
+    private double rate;
+    private long nextSlotNanos;
+    private long lastAdjustNanos;
+    private long admittedSinceAdjust;
+
+    private volatile long lastLag;
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalDelayNanos = new AtomicLong();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Creates an admission controller.
+     * @param policy how writes are held back while the lag is too high
+     * @param targetLag the most log entries the slowest slave should be behind
+     * @param maxWaitMillis the longest a write may be held back before it is rejected
+     * @param lagProbe measures the current replication lag in log entries
+     * @param clock the current time in nanoseconds
+     */
+    public AdmissionController(Policy policy, long targetLag, long maxWaitMillis, LongSupplier lagProbe,
+                               LongSupplier clock) {
+        if (targetLag < 0 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Target lag and wait must not be negative");
+        }
+        this.policy = policy;
+        this.targetLag = targetLag;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.lagProbe = lagProbe;
+        this.clock = clock;
+        this.lastAdjustNanos = clock.getAsLong();
+    }
+
+    /**
+     * Decides whether a write may go ahead, waiting first if the policy says so.
+     * Must be called without holding the master's lock.
+     * @return true if the write is admitted, false if it must be rejected
+     */
+    public boolean admit() {
+        switch (policy) {
+            case THROTTLE:
+                return throttle();
+            case QUEUE:
+                return queue();
+            default:
+                if (measureLag() > targetLag) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                admitted.incrementAndGet();
+                return true;
+        }
+    }
+
+    private long measureLag() {
+        long lag = lagProbe.getAsLong();
+        lastLag = lag;
+        return lag;
+    }
+
+    private boolean throttle() {
+        long now = clock.getAsLong();
+        long slot;
+        synchronized (this) {
+            if (now - lastAdjustNanos >= TimeUnit.MILLISECONDS.toNanos(CONTROL_INTERVAL_MILLIS)) {
+                adjustRate(now);
+            }
+            if (!limited) {
+                admittedSinceAdjust++;
+                admitted.incrementAndGet();
+                return true;
+            }
+            slot = Math.max(now, nextSlotNanos);
+            if (slot - now > maxWaitNanos) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            nextSlotNanos = slot + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            admittedSinceAdjust++;
+        }
+        if (slot > now) {
+            waitUntil(slot, now);
+        }
+        admitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Moves the rate limit one AIMD step. The first decrease starts from the rate writes were
+     * actually admitted at; the limit is lifted again once it is well above the offered load
+     * and the lag is comfortably under the target. Called while holding this.
+     */
+    private void adjustRate(long now) {
+        long lag = measureLag();
+        double observedRate = admittedSinceAdjust * (double) TimeUnit.SECONDS.toNanos(1) / (now - lastAdjustNanos);
+        if (lag > targetLag) {
+            double base = limited ? Math.min(rate, Math.max(observedRate, MIN_RATE)) : observedRate;
+            rate = Math.max(MIN_RATE, base * RATE_DECREASE_FACTOR);
+            if (!limited) {
+                limited = true;
+                nextSlotNanos = now;
+                System.out.println(String.format("Admission control: lag %d above target %d, limiting writes to %.0f/s",
+                        lag, targetLag, rate));
+            }
+        } else if (limited) {
+            rate += RATE_INCREASE;
+            if (rate > 2 * observedRate && lag <= targetLag / 2) {
+                limited = false;
+                System.out.println("Admission control: lag " + lag + " back under target, writes unlimited");
+            }
+        }
+        lastAdjustNanos = now;
+        admittedSinceAdjust = 0;
+    }
+
+    private boolean queue() {
+        if (measureLag() <= targetLag) {
+            admitted.incrementAndGet();
+            return true;
+        }
+        long start = clock.getAsLong();
+        waiting.incrementAndGet();
+        try {
+            while (true) {
+                LockSupport.parkNanos(WAIT_SLICE_NANOS);
+                long now = clock.getAsLong();
+                if (measureLag() <= targetLag) {
+                    delayed.incrementAndGet();
+                    totalDelayNanos.addAndGet(now - start);
+                    admitted.incrementAndGet();
+                    return true;
+                }
+                if (now - start >= maxWaitNanos || Thread.currentThread().isInterrupted()) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private void waitUntil(long slot, long now) {
+        waiting.incrementAndGet();
+        try {
+            long remaining = slot - now;
+            while (remaining > 0 && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(remaining);
+                remaining = slot - clock.getAsLong();
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+        delayed.incrementAndGet();
+        totalDelayNanos.addAndGet(slot - now);
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public long getTargetLag() {
+        return targetLag;
+    }
+
+    /**
+     * Gets the replication lag as last measured by this controller.
+     * @return the lag in log entries
+     */
+    public long getLastLag() {
+        return lastLag;
+    }
+
+    /**
+     * Gets the rate writes are currently limited to by the THROTTLE policy.
+     * @return the rate in writes per second, or -1 if writes are not limited
+     */
+    public synchronized double getRateLimit() {
+        return limited ? rate : -1;
+    }
+
+    /**
+     * Gets the number of writes admitted, with or without waiting.
+     * @return the number of admitted writes
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * Gets the number of admitted writes that had to wait first.
+     * @return the number of delayed writes
+     */
+    public long getDelayed() {
+        return delayed.get();
+    }
+
+    /**
+     * Gets the number of writes rejected to protect the slaves.
+     * @return the number of rejected writes
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Gets the number of writers waiting to be admitted right now.
+     * @return the number of waiting writers
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Gets the average time delayed writes waited before being admitted.
+     * @return the average delay in milliseconds, or 0 if no write was delayed
+     */
+    public double getAverageDelayMillis() {
+        long count = delayed.get();
+        return count == 0 ? 0.0 : totalDelayNanos.get() / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        double limit = getRateLimit();
+        return "AdmissionController{" +
+                "policy=" + policy +
+                ", targetLag=" + targetLag +
+                ", lag=" + lastLag +
+                ", rateLimit=" + (limit < 0 ? "none" : String.format("%.0f/s", limit)) +
+                ", admitted=" + getAdmitted() +
+                ", delayed=" + getDelayed() +
+                ", rejected=" + getRejected() +
+                ", waiting=" + getWaiting() +
+                String.format(", averageDelay=%.2fms", getAverageDelayMillis()) +
+                '}';
+    }
+}
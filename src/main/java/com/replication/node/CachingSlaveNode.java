@@ -0,0 +1,298 @@
+package com.replication.node;
+
+import com.replication.model.LogEntry;
+import com.replication.storage.NodeStorage;
+import com.replication.store.ResidentSet;
+import com.replication.store.StoreSnapshot;
+import com.replication.store.VersionUnavailableException;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A slave that keeps only the hot part of the dataset, within a memory budget.
+ * Keys are admitted on a read miss, fetched from the master as of this replica's own log
+ * index, and evicted by a {@link ResidentSet} when the budget runs out. Log entries for
+ * keys that are not resident only move the log position forward; they are not stored,
+ * and this replica keeps no log of its own.
+ * <p>
+ * Since it holds neither the full dataset nor its history, a caching slave is never
+ * promoted or repaired by anti-entropy, and reads at a log index, multi-key reads,
+ * snapshots and data store copies are answered by the master.
+ */
+public class CachingSlaveNode extends SlaveNode {
+    private final ResidentSet resident;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong droppedEntries = new AtomicLong();
+
+    /**
+     * Creates a caching slave of the given master. It starts empty at the master's current
+     * log index, so it does not need to replay the master's log.
+     * @param id the ID of the slave
+     * @param master the master to replicate from
+     * @param memoryBudgetBytes the approximate heap the cached entries may use
+     */
+    public CachingSlaveNode(String id, MasterNode master, long memoryBudgetBytes) {
+        super(id, master);
+        this.resident = new ResidentSet(memoryBudgetBytes, runtime.newRandom());
+        startFrom(master);
+    }
+
+    /**
+     * Drops every cached key and moves to the master's log position. This replica may have
+     * applied entries the master never saw, so after a failover nothing cached is trusted.
+     */
+    private void startFrom(MasterNode master) {
+        try {
+            master.lock.writeLock().lock();
+            synchronized (resident) {
+                evictAll(resident.clear());
+                lastAppliedIndex = master.lastAppliedIndex;
+                lastReceivedIndex = lastAppliedIndex;
+            }
+        } finally {
+            master.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void followMaster(MasterNode newMaster) {
+        startFrom(newMaster);
+        super.followMaster(newMaster);
+    }
+
+    @Override
+    public boolean holdsFullCopy() {
+        return false;
+    }
+
+    /**
+     * Caching slaves hold too little to restart from, so they never persist their state.
+     * @return false
+     */
+    @Override
+    public boolean enablePersistence(NodeStorage storage) {
+        System.out.println("Caching slave " + id + " does not persist its state");
+        return false;
+    }
+
+    /**
+     * Caching slaves already keep only their hot keys, fetching the rest from the master.
+     * @return false
+     */
+    @Override
+    public boolean enableDiskStore(Path directory, long memoryBudgetBytes) {
+        System.out.println("Caching slave " + id + " does not keep keys on disk");
+        return false;
+    }
+
+    /**
+     * A caching replica applies only entries for its resident keys, inline, so it never
+     * applies in parallel.
+     * @param stripes ignored
+     * @return false
+     */
+    @Override
+    public boolean enableParallelApply(int stripes) {
+        System.out.println("Caching slave " + id + " does not apply in parallel");
+        return false;
+    }
+
+    @Override
+    public String read(String key) {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot read");
+            return null;
+        }
+        simulateResponseDelay();
+        hotReads.record(key);
+
+        resident.recordAccess(key);
+        if (resident.contains(key)) {
+            // A null here may mean the key was evicted since, so it is fetched again
+            String value = dataStore.get(key);
+            if (value != null) {
+                hits.incrementAndGet();
+                return value;
+            }
+        }
+        misses.incrementAndGet();
+        return fetch(key);
+    }
+
+    /**
+     * Reads a key from the master as of this replica's log index, and keeps it if it is used
+     * often enough. Holding the master's read lock keeps entries from being delivered to this
+     * replica meanwhile, so the cached value is exactly what a full replica would hold.
+     * If the master no longer retains that index, its latest value is returned but not kept.
+     */
+    private String fetch(String key) {
+        MasterNode source = getMaster();
+        if (!source.isUp()) {
+            System.out.println("Node " + id + " cannot fetch '" + key + "', master " + source.getId() + " is DOWN");
+            return null;
+        }
+
+        try {
+            source.lock.readLock().lock();
+            String value;
+            long expiresAtMillis;
+            try {
+                value = source.dataStore.read(key, lastAppliedIndex);
+                expiresAtMillis = source.dataStore.getExpiresAtMillis(key, lastAppliedIndex);
+            } catch (VersionUnavailableException e) {
+                return source.dataStore.get(key);
+            }
+            if (value == null) {
+                return null;
+            }
+
+            synchronized (resident) {
+                // Stored before it becomes resident, so a resident key is always in the store
+                dataStore.put(key, value, lastAppliedIndex, expiresAtMillis);
+                List<String> evicted = new ArrayList<>();
+                if (!resident.admit(key, ResidentSet.estimateSize(key, value), evicted)) {
+                    dataStore.evict(key);
+                }
+                evictAll(evicted);
+            }
+            return value;
+        } finally {
+            source.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies an entry only if its key is resident; entries for other keys are dropped.
+     * Deleting a resident key evicts it, since a caching replica keeps no history.
+     */
+    @Override
+    protected void applyEntry(LogEntry entry) {
+        String key = entry.getKey();
+        if (resident == null) {
+            // Delivered while the constructor was still running; nothing is cached yet
+            droppedEntries.incrementAndGet();
+            return;
+        }
+        synchronized (resident) {
+            if (!resident.contains(key)) {
+                droppedEntries.incrementAndGet();
+                return;
+            }
+            if (entry.isDelete()) {
+                resident.remove(key);
+                dataStore.evict(key);
+                return;
+            }
+            dataStore.put(key, entry.getValue(), entry.getId(), entry.getExpiresAtMillis());
+            List<String> evicted = new ArrayList<>();
+            resident.resize(key, ResidentSet.estimateSize(key, entry.getValue()), evicted);
+            evictAll(evicted);
+        }
+    }
+
+    private void evictAll(List<String> evicted) {
+        for (String key : evicted) {
+            dataStore.evict(key);
+        }
+    }
+
+    @Override
+    public String read(String key, long asOfIndex) {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot read");
+            return null;
+        }
+        return getMaster().read(key, asOfIndex);
+    }
+
+    @Override
+    public Map<String, String> readAll(Collection<String> keys) {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot read");
+            return null;
+        }
+        return getMaster().readAll(keys);
+    }
+
+    @Override
+    public Map<String, String> readAll(Collection<String> keys, long asOfIndex) {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot read");
+            return null;
+        }
+        return getMaster().readAll(keys, asOfIndex);
+    }
+
+    @Override
+    public Map<String, String> getDataStore() {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot get data store");
+            return null;
+        }
+        return getMaster().getDataStore();
+    }
+
+    @Override
+    public StoreSnapshot snapshot() {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot open snapshot");
+            return null;
+        }
+        return getMaster().snapshot();
+    }
+
+    @Override
+    public StoreSnapshot snapshot(long asOfIndex) {
+        if (!up) {
+            System.out.println("Node " + id + " is DOWN, cannot open snapshot");
+            return null;
+        }
+        return getMaster().snapshot(asOfIndex);
+    }
+
+    /**
+     * Gets the number of reads answered from the resident keys.
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of reads that had to go to the master.
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of log entries dropped because their key was not resident.
+     * @return the number of dropped entries
+     */
+    public long getDroppedEntries() {
+        return droppedEntries.get();
+    }
+
+    /**
+     * Gets the policy deciding which keys stay resident, with its size and eviction counts.
+     * @return the resident set
+     */
+    public ResidentSet getResidentSet() {
+        return resident;
+    }
+
+    @Override
+    public String toString() {
+        return "CachingSlaveNode{id=" + id + ", keys=" + resident.size() +
+                ", bytes=" + resident.getUsedBytes() + "/" + resident.getBudgetBytes() +
+                ", hits=" + hits + ", misses=" + misses + ", evictions=" + resident.getEvictions() +
+                ", droppedEntries=" + droppedEntries + "}";
+    }
+}
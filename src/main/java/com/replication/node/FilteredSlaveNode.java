@@ -0,0 +1,70 @@
+package com.replication.node;
+
+import com.replication.model.KeyFilter;
+import com.replication.model.LogEntry;
+import com.replication.storage.NodeStorage;
+
+/**
+ * A slave that replicates only the keys passing a {@link KeyFilter}, e.g. one tenant's prefix.
+ * The filter is registered with the master, which leaves other entries out when replicating
+ * and recovering, so they cost this replica neither bandwidth nor apply time. Each entry it
+ * is sent covers the entries skipped before it, so its log position still moves through every
+ * log ID and gaps are detected as usual.
+ * <p>
+ * A filtered slave only answers reads for its own keys, so it is not used for routed reads,
+ * and like a caching slave it is never promoted, repaired by anti-entropy or persisted.
+ */
+public class FilteredSlaveNode extends SlaveNode {
+    private final KeyFilter filter;
+
+    /**
+     * Creates a filtered slave of the given master. It catches up with the master's log,
+     * receiving only the entries that pass the filter.
+     * @param id the ID of the slave
+     * @param master the master to replicate from
+     * @param filter the keys this slave replicates
+     */
+    public FilteredSlaveNode(String id, MasterNode master, KeyFilter filter) {
+        super(id, master);
+        this.filter = filter;
+        master.registerKeyFilter(this, filter);
+        requestRecovery();
+    }
+
+    @Override
+    public KeyFilter getKeyFilter() {
+        return filter;
+    }
+
+    @Override
+    public void followMaster(MasterNode newMaster) {
+        newMaster.registerKeyFilter(this, filter);
+        super.followMaster(newMaster);
+    }
+
+    @Override
+    public boolean holdsFullCopy() {
+        return false;
+    }
+
+    /**
+     * Filtered slaves are not restarted from disk, so they never persist their state.
+     * @return false
+     */
+    @Override
+    public boolean enablePersistence(NodeStorage storage) {
+        System.out.println("Filtered slave " + id + " does not persist its state");
+        return false;
+    }
+
+    /**
+     * Entries sent before the filter was registered with the master may still arrive in full;
+     * those for other keys only move the log position forward.
+     */
+    @Override
+    protected void applyEntry(LogEntry entry) {
+        if (filter == null || filter.matches(entry.getKey())) {
+            super.applyEntry(entry);
+        }
+    }
+}
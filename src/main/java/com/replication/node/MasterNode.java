@@ -1,11 +1,22 @@
 package com.replication.node;
 
+import com.replication.health.PhiAccrualFailureDetector;
+import com.replication.model.Bytes;
+import com.replication.model.KeyFilter;
 import com.replication.model.LogEntry;
 import com.replication.model.LogEntry.OperationType;
+import com.replication.node.TraceEvents.ApplyEvent;
+import com.replication.node.TraceEvents.EnqueuedEvent;
+import com.replication.node.TraceEvents.ReplicationTaskEvent;
+import com.replication.node.TraceEvents.WriteEvent;
+import com.replication.runtime.NodeRuntime;
+import com.replication.store.TimingWheel;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of the master node in the replication system.
@@ -13,14 +24,75 @@ import java.util.concurrent.ConcurrentHashMap;
  * them to slave nodes.
  */
 public class MasterNode extends AbstractNode {
+    // Slaves further behind than this are left to recovery rather than caught up under the lock
+    private static final long MAX_ANTI_ENTROPY_CATCH_UP = 1_000;
+    // Most differing hash tree leaves repaired per slave in one round of anti-entropy
+    private static final int MAX_ANTI_ENTROPY_LEAVES = 64;
+    private static final long EXPIRY_TICK_MILLIS = 10;
+
     private final Set<SlaveNode> slaves;
-    private final Map<Long, Set<String>> pendingReplications;
+    private final Map<String, Long> acknowledgedIndexes;
     private long nextLogId = 1;
+    private volatile ReplicationCoalescer coalescer;
+    private volatile AdmissionController admissionController;
+    private volatile boolean fenced = false;
+    private volatile PhiAccrualFailureDetector failureDetector;
+    private final AtomicLong keysRepaired = new AtomicLong();
+    private final Map<SlaveNode, FilterState> keyFilters = new ConcurrentHashMap<>();
+    private final AtomicLong entriesFiltered = new AtomicLong();
+    // Keys with a TTL, by expiry time; only touched while holding the write lock
+    private final TimingWheel<String> expiryWheel;
+
+    /**
+     * What a slave with a key filter has been sent. Entries are shipped one path at a time and
+     * in log order, so the last shipped ID is only ever moved forward by one thread at a time.
+     */
+    private static final class FilterState {
+        private final KeyFilter filter;
+        private volatile long lastShippedId;
+
+        private FilterState(KeyFilter filter, long lastShippedId) {
+            this.filter = filter;
+            this.lastShippedId = lastShippedId;
+        }
+    }
 
     public MasterNode(String id) {
-        super(id);
-        this.slaves = ConcurrentHashMap.newKeySet();
-        this.pendingReplications = new ConcurrentHashMap<>();
+        this(id, NodeRuntime.REAL);
+    }
+
+    /**
+     * Creates a master whose background work runs on the given runtime.
+     * Slaves created for this master share its runtime.
+     * @param id the ID of the master
+     * @param runtime supplies the master's executors
+     */
+    public MasterNode(String id, NodeRuntime runtime) {
+        super(id, runtime);
+        // Slaves are kept in registration order so replication tasks are always queued in the same order
+        this.slaves = new CopyOnWriteArraySet<>();
+        this.acknowledgedIndexes = new ConcurrentHashMap<>();
+        this.expiryWheel = new TimingWheel<>(EXPIRY_TICK_MILLIS, runtime.currentTimeMillis());
+    }
+
+    /**
+     * Promotes a slave to master. The new master takes over the slave's data store
+     * and log in place and continues numbering log entries after its last applied index.
+     * The slave is retired and must not be used afterwards.
+     * @param slave the slave to promote
+     */
+    public MasterNode(SlaveNode slave) {
+        super(slave.getId(), slave);
+        this.slaves = new CopyOnWriteArraySet<>();
+        this.acknowledgedIndexes = new ConcurrentHashMap<>();
+        this.expiryWheel = new TimingWheel<>(EXPIRY_TICK_MILLIS, runtime.currentTimeMillis());
+        // Entries the slave accepted but has not applied yet are part of the state taken over
+        slave.finishApplying();
+        this.lastAppliedIndex = lastReceivedIndex;
+        // Slaves do not schedule expiry, so the schedule is rebuilt from the TTLs in the data store
+        dataStore.forEachExpiry(expiryWheel::add);
+        this.nextLogId = lastAppliedIndex + 1;
+        slave.retire();
     }
 
     /**
@@ -32,6 +104,158 @@ public class MasterNode extends AbstractNode {
         System.out.println("Master " + id + " registered slave: " + slave.getId());
     }
 
+    /**
+     * Stops replicating to a slave node.
+     * @param slave the slave node to unregister
+     */
+    public void unregisterSlave(SlaveNode slave) {
+        keyFilters.remove(slave);
+        if (slaves.remove(slave)) {
+            System.out.println("Master " + id + " unregistered slave: " + slave.getId());
+        }
+    }
+
+    /**
+     * Ships a slave only the log entries whose keys pass a filter. Each entry sent covers the
+     * IDs of the entries skipped before it, like a coalesced entry, so the slave's ordering
+     * check still sees an unbroken log. Registered under the write lock, so every entry after
+     * the current index is either filtered or was already on its way in full.
+     * @param slave the slave, registered or about to be
+     * @param filter the keys the slave replicates
+     */
+    void registerKeyFilter(SlaveNode slave, KeyFilter filter) {
+        try {
+            lock.writeLock().lock();
+            keyFilters.put(slave, new FilterState(filter, lastAppliedIndex));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("Master " + id + " ships slave " + slave.getId() + " only " + filter);
+    }
+
+    /**
+     * Gets the log entry to send a slave in place of the given one, and records it as sent.
+     * Must be called in log order for each slave.
+     * @return the entry, covering any entries filtered out since the last one sent,
+     *         or null if the slave's filter skips it
+     */
+    private LogEntry entryFor(SlaveNode slave, LogEntry entry) {
+        FilterState state = keyFilters.get(slave);
+        if (state == null) {
+            return entry;
+        }
+        if (!state.filter.matches(entry.getKey())) {
+            entriesFiltered.incrementAndGet();
+            return null;
+        }
+        LogEntry covering = entry.coveringFrom(Math.min(entry.getFirstCoveredId(), state.lastShippedId + 1));
+        state.lastShippedId = Math.max(state.lastShippedId, entry.getId());
+        return covering;
+    }
+
+    /**
+     * Filters a run of log entries for a slave catching up, leaving out entries the slave's
+     * key filter skips. Does not touch what live replication has sent.
+     * @param slave the slave
+     * @param entries the entries after the slave's position, in log order
+     * @param fromIndex the slave's position
+     * @return the entries to deliver, each covering the ones skipped before it
+     */
+    List<LogEntry> filterFor(SlaveNode slave, List<LogEntry> entries, long fromIndex) {
+        FilterState state = keyFilters.get(slave);
+        if (state == null) {
+            return entries;
+        }
+        List<LogEntry> filtered = new ArrayList<>();
+        long nextCoveredId = fromIndex + 1;
+        for (LogEntry entry : entries) {
+            if (state.filter.matches(entry.getKey())) {
+                filtered.add(entry.coveringFrom(Math.min(entry.getFirstCoveredId(), nextCoveredId)));
+                nextCoveredId = entry.getId() + 1;
+            }
+        }
+        entriesFiltered.addAndGet(entries.size() - filtered.size());
+        return filtered;
+    }
+
+    /**
+     * Gets the number of log entries left out when replicating to or recovering slaves with
+     * key filters, counted per slave and per time an entry is left out.
+     * @return the number of entries filtered out
+     */
+    public long getEntriesFiltered() {
+        return entriesFiltered.get();
+    }
+
+    /**
+     * Fences this master after another node has been promoted in its place.
+     * Once fenced, the master rejects writes even when it comes back up, and none of
+     * its in-flight replication or recovery reaches a slave any more.
+     */
+    public void fence() {
+        try {
+            lock.writeLock().lock();
+            fenced = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("Master " + id + " FENCED");
+    }
+
+    /**
+     * Checks if this master has been replaced by a promoted slave.
+     * @return true if the master is fenced
+     */
+    public boolean isFenced() {
+        return fenced;
+    }
+
+    @Override
+    public void goUp() {
+        super.goUp();
+        if (fenced) {
+            System.out.println("Master " + id + " is FENCED, it will not accept writes");
+        }
+    }
+
+    /**
+     * Applies a log entry to a slave on behalf of this master, unless the master has been fenced.
+     * Holding the master's write lock while checking the fence means no entry can slip through
+     * after {@link #fence()} returns.
+     * @param slave the slave to apply the entry to
+     * @param entry the log entry to apply
+     * @return true if the slave applied the entry
+     */
+    boolean deliver(SlaveNode slave, LogEntry entry) {
+        slave.simulateResponseDelay();
+        ApplyEvent trace = ApplyEvent.start(slave.getId(), entry.getId());
+        try {
+            lock.writeLock().lock();
+            trace.lockAcquired();
+            if (fenced) {
+                trace.finish("fenced");
+                return false;
+            }
+            if (!slave.applyLogEntry(entry, lock, trace)) {
+                return false;
+            }
+            acknowledgedIndexes.put(slave.getId(), entry.getId());
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the highest log index a slave has acknowledged applying from this master.
+     * Entries applied through recovery count too.
+     * @param slaveId the ID of the slave
+     * @return the acknowledged log index, or 0 if the slave has acknowledged nothing yet
+     */
+    public long getAcknowledgedIndex(String slaveId) {
+        return acknowledgedIndexes.getOrDefault(slaveId, 0L);
+    }
+
     /**
      * Writes a key-value pair to the master and replicates it to the slaves.
      * @param key the key to write
@@ -39,33 +263,225 @@ public class MasterNode extends AbstractNode {
      * @return true if the write was successful
      */
     public boolean write(String key, String value) {
+        return write(key, value, 0);
+    }
+
+    /**
+     * Writes a key-value pair that expires after the given time to live. The expiry time travels
+     * with the log entry, so every replica hides the value at the same moment; the master then
+     * deletes it through the log.
+     * @param key the key to write
+     * @param value the value to write
+     * @param ttlMillis the time to live in milliseconds, or 0 to keep the value until it is deleted
+     * @return true if the write was successful
+     */
+    public boolean write(String key, String value, long ttlMillis) {
+        if (ttlMillis < 0) {
+            System.out.println("Master " + id + " rejected write of " + key + " with negative TTL " + ttlMillis);
+            return false;
+        }
+        if (!acceptsWrites("write")) {
+            return false;
+        }
+
+        WriteEvent trace = WriteEvent.start(id, "WRITE", key);
+        try {
+            lock.writeLock().lock();
+            trace.lockAcquired();
+            long expiresAtMillis = ttlMillis > 0 ? runtime.currentTimeMillis() + ttlMillis : 0;
+            trace.logId = logWrite(key, value, expiresAtMillis);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+            trace.commit();
+        }
+    }
+
+    /**
+     * Writes a binary key-value pair to the master and replicates it to the slaves.
+     * @param key the key to write
+     * @param value the value to write
+     * @return true if the write was successful
+     * @see Bytes
+     */
+    public boolean write(byte[] key, byte[] value) {
+        return write(key, value, 0);
+    }
+
+    /**
+     * Writes a binary key-value pair that expires after the given time to live.
+     * @param key the key to write
+     * @param value the value to write
+     * @param ttlMillis the time to live in milliseconds, or 0 to keep the value until it is deleted
+     * @return true if the write was successful
+     */
+    public boolean write(byte[] key, byte[] value, long ttlMillis) {
+        return write(Bytes.asString(key), Bytes.asString(value), ttlMillis);
+    }
+
+    /**
+     * Appends a WRITE entry to the log, applies it and ships it. Called while holding the write lock.
+     * @return the ID of the new log entry
+     */
+    private long logWrite(String key, String value, long expiresAtMillis) {
+        LogEntry entry = new LogEntry(nextLogId++, key, value, OperationType.WRITE, expiresAtMillis);
+
+        // Apply to the master's data store first
+        dataStore.put(key, value, entry.getId(), expiresAtMillis);
+        if (expiresAtMillis != 0) {
+            expiryWheel.add(key, expiresAtMillis);
+        }
+        appendToLog(entry);
+        lastAppliedIndex = entry.getId();
+        hotWrites.record(key);
+
+        System.out.println("Master " + id + " wrote " + key + "=" + value + " (Log ID: " + entry.getId() + ")");
+
+        // Asynchronously replicate to slaves
+        ship(entry);
+        return entry.getId();
+    }
+
+    private boolean acceptsWrites(String operation) {
         if (!up) {
-            System.out.println("Master " + id + " is DOWN, cannot write");
+            System.out.println("Master " + id + " is DOWN, cannot " + operation);
+            return false;
+        }
+        if (fenced) {
+            System.out.println("Master " + id + " is FENCED, cannot " + operation);
+            return false;
+        }
+        AdmissionController controller = admissionController;
+        if (controller != null && !controller.admit()) {
+            System.out.println("Master " + id + " rejected " + operation + ": slaves are " +
+                    controller.getLastLag() + " entries behind");
             return false;
         }
+        return true;
+    }
+
+    /**
+     * Gets the version of a key's latest value on the master, to pass to
+     * {@link #compareAndSet(String, long, String)}.
+     * @param key the key
+     * @return the ID of the log entry that wrote the value, or 0 if the key is absent
+     */
+    public long getVersion(String key) {
+        return dataStore.getVersion(key);
+    }
 
+    /**
+     * Writes a value only if the key currently holds the expected one. The comparison and the
+     * write happen under the write lock, and slaves receive an ordinary WRITE entry. A TTL on
+     * the key is kept.
+     * @param key the key to write
+     * @param expectedValue the value the key must hold, or null if it must be absent
+     * @param newValue the value to write
+     * @return true if the value matched and was replaced
+     */
+    public boolean compareAndSet(String key, String expectedValue, String newValue) {
+        if (!acceptsWrites("compare-and-set")) {
+            return false;
+        }
+        WriteEvent trace = WriteEvent.start(id, "COMPARE_AND_SET", key);
         try {
             lock.writeLock().lock();
-            
-            // Create a new log entry for write operation
-            LogEntry entry = new LogEntry(nextLogId++, key, value, OperationType.WRITE);
-            
-            // Apply to the master's data store first
-            dataStore.put(key, value);
-            log.add(entry);
-            lastAppliedIndex = entry.getId();
-            
-            System.out.println("Master " + id + " wrote " + key + "=" + value + " (Log ID: " + entry.getId() + ")");
-            
-            // Track replication status
-            pendingReplications.put(entry.getId(), ConcurrentHashMap.newKeySet());
-            
-            // Asynchronously replicate to slaves
-            replicateToSlaves(entry);
-            
+            trace.lockAcquired();
+            if (!Objects.equals(dataStore.get(key), expectedValue)) {
+                System.out.println("Master " + id + " compare-and-set of " + key + " failed (value changed)");
+                return false;
+            }
+            trace.logId = logWrite(key, newValue, expectedValue == null ? 0 : dataStore.getExpiresAtMillis(key));
             return true;
         } finally {
             lock.writeLock().unlock();
+            trace.commit();
+        }
+    }
+
+    /**
+     * Writes a value only if the key's latest value is still the given version. A TTL on the
+     * key is kept.
+     * @param key the key to write
+     * @param expectedVersion the version from {@link #getVersion}, or 0 if the key must be absent
+     * @param newValue the value to write
+     * @return true if the version matched and the value was replaced
+     */
+    public boolean compareAndSet(String key, long expectedVersion, String newValue) {
+        if (!acceptsWrites("compare-and-set")) {
+            return false;
+        }
+        WriteEvent trace = WriteEvent.start(id, "COMPARE_AND_SET", key);
+        try {
+            lock.writeLock().lock();
+            trace.lockAcquired();
+            if (dataStore.getVersion(key) != expectedVersion) {
+                System.out.println("Master " + id + " compare-and-set of " + key + " failed (version changed)");
+                return false;
+            }
+            trace.logId = logWrite(key, newValue, expectedVersion == 0 ? 0 : dataStore.getExpiresAtMillis(key));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+            trace.commit();
+        }
+    }
+
+    /**
+     * Adds to a key holding a decimal integer; an absent key counts as 0. The sum is written
+     * as an ordinary WRITE entry, so slaves never re-evaluate it. A TTL on the key is kept.
+     * @param key the key to increment
+     * @param delta the amount to add, negative to decrement
+     * @return the new value, or null if the key does not hold an integer, the sum overflows,
+     *         or the master cannot write
+     */
+    public Long increment(String key, long delta) {
+        if (!acceptsWrites("increment")) {
+            return null;
+        }
+        WriteEvent trace = WriteEvent.start(id, "INCREMENT", key);
+        try {
+            lock.writeLock().lock();
+            trace.lockAcquired();
+            String current = dataStore.get(key);
+            long updated;
+            try {
+                updated = Math.addExact(current == null ? 0 : Long.parseLong(current), delta);
+            } catch (NumberFormatException | ArithmeticException e) {
+                System.out.println("Master " + id + " cannot increment " + key + ": value '" + current +
+                        "' is not an integer or would overflow");
+                return null;
+            }
+            trace.logId = logWrite(key, Long.toString(updated), current == null ? 0 : dataStore.getExpiresAtMillis(key));
+            return updated;
+        } finally {
+            lock.writeLock().unlock();
+            trace.commit();
+        }
+    }
+
+    /**
+     * Appends to a key's value; an absent key counts as empty. The result is written as an
+     * ordinary WRITE entry. A TTL on the key is kept.
+     * @param key the key to append to
+     * @param suffix the text to append
+     * @return the length of the new value, or -1 if the master cannot write
+     */
+    public int append(String key, String suffix) {
+        if (!acceptsWrites("append")) {
+            return -1;
+        }
+        WriteEvent trace = WriteEvent.start(id, "APPEND", key);
+        try {
+            lock.writeLock().lock();
+            trace.lockAcquired();
+            String current = dataStore.get(key);
+            String updated = current == null ? suffix : current + suffix;
+            trace.logId = logWrite(key, updated, current == null ? 0 : dataStore.getExpiresAtMillis(key));
+            return updated.length();
+        } finally {
+            lock.writeLock().unlock();
+            trace.commit();
         }
     }
     
@@ -76,13 +492,14 @@ public class MasterNode extends AbstractNode {
      */
     @Override
     public boolean delete(String key) {
-        if (!up) {
-            System.out.println("Master " + id + " is DOWN, cannot delete");
+        if (!acceptsWrites("delete")) {
             return false;
         }
 
+        WriteEvent trace = WriteEvent.start(id, "DELETE", key);
         try {
             lock.writeLock().lock();
+            trace.lockAcquired();
             
             // Check if the key exists before attempting to delete
             if (!dataStore.containsKey(key)) {
@@ -94,56 +511,447 @@ public class MasterNode extends AbstractNode {
             LogEntry entry = new LogEntry(nextLogId++, key, null, OperationType.DELETE);
             
             // Remove the key from the data store
-            dataStore.remove(key);
-            log.add(entry);
+            dataStore.remove(key, entry.getId());
+            appendToLog(entry);
             lastAppliedIndex = entry.getId();
+            hotWrites.record(key);
             
             System.out.println("Master " + id + " deleted key '" + key + "' (Log ID: " + entry.getId() + ")");
             
-            // Track replication status
-            pendingReplications.put(entry.getId(), ConcurrentHashMap.newKeySet());
-            
             // Asynchronously replicate to slaves
-            replicateToSlaves(entry);
+            ship(entry);
+            trace.logId = entry.getId();
             
             return true;
         } finally {
             lock.writeLock().unlock();
+            trace.commit();
         }
     }
 
     /**
-     * Replicates a log entry to all registered slave nodes asynchronously.
+     * Deletes every key whose TTL has run out since the last call, as one batch of ordinary
+     * DELETE log entries written under a single hold of the write lock. Keys that were
+     * rewritten or deleted since their TTL was set are skipped. Each expiring key costs O(1),
+     * however many keys with a TTL are live.
+     * @return the number of keys expired
+     */
+    public int expireKeys() {
+        if (!up || fenced) {
+            return 0;
+        }
+
+        try {
+            lock.writeLock().lock();
+            long now = runtime.currentTimeMillis();
+            int expired = 0;
+            for (String key : expiryWheel.advance(now)) {
+                long expiresAtMillis = dataStore.getExpiresAtMillis(key);
+                if (expiresAtMillis == 0 || expiresAtMillis > now) {
+                    continue;
+                }
+                LogEntry entry = new LogEntry(nextLogId++, key, null, OperationType.DELETE);
+                dataStore.remove(key, entry.getId());
+                appendToLog(entry);
+                lastAppliedIndex = entry.getId();
+                hotWrites.record(key);
+                ship(entry);
+                expired++;
+            }
+            if (expired > 0) {
+                System.out.println("Master " + id + " expired " + expired + " keys");
+            }
+            return expired;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of TTL timers still pending, including ones for keys rewritten since.
+     * @return the number of pending expiry timers
+     */
+    public int getPendingExpiries() {
+        try {
+            lock.readLock().lock();
+            return expiryWheel.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the failure detector used to skip slaves that are suspected to have failed.
+     * Skipped slaves catch up through recovery once their heartbeats return.
+     * @param failureDetector the failure detector, or null to rely on the up flag alone
+     */
+    public void setFailureDetector(PhiAccrualFailureDetector failureDetector) {
+        this.failureDetector = failureDetector;
+    }
+
+    /**
+     * Checks if a slave should be sent log entries: it must be up and, if a failure
+     * detector is set, not suspected of having failed.
+     * @param slave the slave to check
+     * @return true if replication to the slave should be attempted
+     */
+    private boolean isReachable(SlaveNode slave) {
+        PhiAccrualFailureDetector detector = failureDetector;
+        return slave.isUp() && (detector == null || detector.isAvailable(slave.getId()));
+    }
+
+    /**
+     * Takes a slave that is up but suspected out of read routing once it has missed an entry.
+     * It catches up when its heartbeats return, or right away if they already have.
+     * A slave that is down catches up when it comes back up instead.
+     * @param slave the slave that missed an entry
+     */
+    private void skipped(SlaveNode slave) {
+        if (!slave.isUp()) {
+            return;
+        }
+        slave.fallBehind();
+        // Its heartbeats may have returned before it was marked, when nothing would recover it
+        if (isReachable(slave)) {
+            slave.recoverSlave();
+        }
+    }
+
+    /**
+     * Compares this master's hash tree with that of every reachable slave and repairs the
+     * keys in the leaves that differ. The cost is proportional to the divergence found,
+     * not to the size of the data store, until a store spills to disk. Slaves that only cache
+     * part of the data are skipped.
+     * @return the number of keys repaired across all slaves
+     */
+    public int runAntiEntropy() {
+        int repaired = 0;
+        for (SlaveNode slave : slaves) {
+            if (slave.holdsFullCopy() && isReachable(slave)) {
+                repaired += repairSlave(slave);
+            }
+        }
+        return repaired;
+    }
+
+    /**
+     * Copies over every key whose value differs on a slave, walking only the hash tree leaves
+     * that differ. The trees are compared and the keys of the differing leaves collected without
+     * any lock, so a round does not hold writes back while it searches. Each leaf is then
+     * compared again and repaired under the master's write lock, after bringing the slave to
+     * this master's log index: holding the lock stops both new writes and replication to the
+     * slave, so both sides of the leaf describe the same point in the log. Leaves that only
+     * differed because of entries in flight are left alone.
+     * <p>
+     * At most {@link #MAX_ANTI_ENTROPY_LEAVES} leaves are repaired per round; the rest wait for
+     * the next one. Once a store spills to disk its tree no longer knows each leaf's keys, and
+     * collecting them walks that whole store, once per round and outside the lock. Keys the
+     * slave deleted on its own are not brought back, unless the master wrote them again since.
+     * @param slave the slave to repair
+     * @return the number of keys repaired
+     */
+    int repairSlave(SlaveNode slave) {
+        List<Integer> leaves = getMerkleTree().differingLeaves(slave.getMerkleTree());
+        if (leaves.isEmpty()) {
+            return 0;
+        }
+        if (leaves.size() > MAX_ANTI_ENTROPY_LEAVES) {
+            leaves = leaves.subList(0, MAX_ANTI_ENTROPY_LEAVES);
+        }
+        Set<String> keys = dataStore.keysInLeaves(leaves);
+        keys.addAll(slave.dataStore.keysInLeaves(leaves));
+        Map<Integer, List<String>> keysByLeaf = new HashMap<>();
+        for (String key : keys) {
+            keysByLeaf.computeIfAbsent(getMerkleTree().leafOf(key), leaf -> new ArrayList<>()).add(key);
+        }
+
+        int repaired = 0;
+        int leavesRepaired = 0;
+        for (int leaf : leaves) {
+            int inLeaf = repairLeaf(slave, leaf, keysByLeaf.getOrDefault(leaf, Collections.emptyList()));
+            if (inLeaf < 0) {
+                break;
+            }
+            if (inLeaf > 0) {
+                repaired += inLeaf;
+                leavesRepaired++;
+            }
+        }
+        if (repaired > 0) {
+            keysRepaired.addAndGet(repaired);
+            System.out.println("Master " + id + " repaired " + repaired + " keys in " + leavesRepaired +
+                    " diverged ranges on slave " + slave.getId());
+        }
+        return repaired;
+    }
+
+    /**
+     * Repairs the keys of one hash tree leaf on a slave, if the leaf still differs once the
+     * slave has caught up with this master.
+     * @param slave the slave to repair
+     * @param leaf the leaf number
+     * @param keys the keys found in the leaf on either side
+     * @return the number of keys repaired, or -1 if the slave could not be brought to this master's log index
+     */
+    private int repairLeaf(SlaveNode slave, int leaf, List<String> keys) {
+        try {
+            lock.writeLock().lock();
+            if (fenced || !up || !catchUpForRepair(slave)) {
+                return -1;
+            }
+            if (getMerkleTree().getLeafHash(leaf) == slave.getMerkleTree().getLeafHash(leaf)) {
+                return 0;
+            }
+
+            int repaired = 0;
+            for (String key : keys) {
+                String value = dataStore.get(key);
+                String current = slave.dataStore.get(key);
+                if (Objects.equals(value, current) ||
+                        current == null && slave.deletedLocally(key, dataStore.getVersion(key))) {
+                    continue;
+                }
+                slave.repairKey(key, value);
+                repaired++;
+            }
+            return repaired;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies the entries a slave is missing, if it is only a little behind. The caller must
+     * hold the write lock.
+     * @param slave the slave to catch up
+     * @return true if the slave is at this master's log index
+     */
+    private boolean catchUpForRepair(SlaveNode slave) {
+        long behind = lastAppliedIndex - slave.lastReceivedIndex;
+        if (behind < 0 || behind > MAX_ANTI_ENTROPY_CATCH_UP) {
+            return false;
+        }
+        for (LogEntry entry : logEntriesAfter(slave.lastReceivedIndex, Integer.MAX_VALUE)) {
+            if (!slave.applyLogEntry(entry, lock)) {
+                return false;
+            }
+        }
+        slave.finishApplying();
+        return true;
+    }
+
+    /**
+     * Gets the number of keys anti-entropy has repaired on slaves so far.
+     * @return the number of keys repaired
+     */
+    public long getKeysRepaired() {
+        return keysRepaired.get();
+    }
+
+    /**
+     * Turns on hot-key write coalescing. Entries are held back for the given window and
+     * superseded writes to the same key are dropped before they reach the slaves.
+     * @param windowMillis how long entries are held back to be coalesced
+     */
+    public synchronized void enableWriteCoalescing(long windowMillis) {
+        disableWriteCoalescing();
+        coalescer = new ReplicationCoalescer(windowMillis, this::replicateBatchToSlaves,
+                runtime.newScheduler(id + "-coalescer", 1));
+        System.out.println("Master " + id + " coalescing writes over " + windowMillis + " ms windows");
+    }
+
+    /**
+     * Turns off write coalescing, after shipping whatever is still buffered.
+     */
+    public synchronized void disableWriteCoalescing() {
+        ReplicationCoalescer current = coalescer;
+        if (current == null) {
+            return;
+        }
+
+        // Hold writes back so nothing overtakes the entries still in the buffer
+        try {
+            lock.writeLock().lock();
+            coalescer = null;
+            current.shutdown();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("Master " + id + " stopped coalescing writes: " + current);
+    }
+
+    /**
+     * Gets the write coalescing stage, which reports how much replication traffic it saved.
+     * @return the coalescer, or null if coalescing is off
+     */
+    public ReplicationCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Gets how many log entries the slowest slave is behind this master. Only slaves that are
+     * reachable and caught up count: slaves that are down or still recovering catch up through
+     * recovery, and must not hold back writes meanwhile.
+     * @return the replication lag in log entries, or 0 if no slave counts
+     */
+    public long getReplicationLag() {
+        long lag = 0;
+        for (SlaveNode slave : slaves) {
+            if (isReachable(slave) && slave.isCaughtUp()) {
+                lag = Math.max(lag, getReplicationLag(slave));
+            }
+        }
+        return lag;
+    }
+
+    /**
+     * Gets how many log entries a slave is behind this master. A slave with a key filter is
+     * measured against the last entry it was sent, so skipped entries do not count as lag.
+     * Entries a slave has received but still has queued for parallel apply count as lag.
+     * @param slave the slave
+     * @return the replication lag in log entries
+     */
+    public long getReplicationLag(SlaveNode slave) {
+        FilterState state = keyFilters.get(slave);
+        long expected = state == null ? lastAppliedIndex : state.lastShippedId;
+        return Math.max(0, expected - slave.lastAppliedIndex);
+    }
+
+    /**
+     * Turns on admission control, which holds back or rejects writes, deletes and atomic
+     * operations while the slaves are further behind than the target lag.
+     * @param policy how writes are held back
+     * @param targetLag the most log entries the slowest slave should be behind
+     * @param maxWaitMillis the longest a write may be held back before it is rejected
+     */
+    public void enableAdmissionControl(AdmissionController.Policy policy, long targetLag, long maxWaitMillis) {
+        admissionController = new AdmissionController(policy, targetLag, maxWaitMillis, this::getReplicationLag,
+                runtime::nanoTime);
+        System.out.println("Master " + id + " admitting writes with policy " + policy + " and target lag " +
+                targetLag);
+    }
+
+    /**
+     * Turns off admission control. Writers already waiting finish waiting.
+     */
+    public void disableAdmissionControl() {
+        admissionController = null;
+    }
+
+    /**
+     * Gets the admission controller, which reports its current state and decisions.
+     * @return the admission controller, or null if admission control is off
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * Hands a new log entry to the coalescing stage if it is on, or replicates it directly.
      * @param entry the log entry to replicate
      */
-    private void replicateToSlaves(LogEntry entry) {
+    private void ship(LogEntry entry) {
+        ReplicationCoalescer current = coalescer;
+        if (current != null) {
+            current.add(entry);
+        } else {
+            replicateToSlaves(entry);
+        }
+    }
+
+    /**
+     * Replicates a coalesced batch to all registered slave nodes asynchronously.
+     * Each slave applies the batch in order in a single task, so the gaps left by
+     * coalescing are always bridged by the entry that covers them.
+     * @param batch the surviving log entries, in log order
+     */
+    private void replicateBatchToSlaves(List<LogEntry> batch) {
+        long firstLogId = batch.get(0).getFirstCoveredId();
+        long lastLogId = batch.get(batch.size() - 1).getId();
         for (SlaveNode slave : slaves) {
+            List<LogEntry> entries = keyFilters.containsKey(slave) ? filterBatch(slave, batch) : batch;
+            if (entries.isEmpty()) {
+                continue;
+            }
+            long enqueuedNanos = ReplicationTaskEvent.enqueueTime();
+            EnqueuedEvent.emit(id, slave.getId(), firstLogId, lastLogId);
             CompletableFuture.runAsync(() -> {
-                if (slave.isUp()) {
-                    boolean success = slave.applyLogEntry(entry, lock);
+                ReplicationTaskEvent trace = ReplicationTaskEvent.start(id, slave.getId(), firstLogId, lastLogId,
+                        enqueuedNanos);
+                if (!isReachable(slave)) {
+                    System.out.println("Master " + id + " couldn't replicate batch to slave " +
+                            slave.getId() + " (DOWN or SUSPECTED)");
+                    skipped(slave);
+                    trace.finish("unreachable");
+                    return;
+                }
+                for (LogEntry entry : entries) {
+                    if (!deliver(slave, entry)) {
+                        slave.recoverSlave();
+                        trace.finish("recovering");
+                        return;
+                    }
+                }
+                System.out.println("Master " + id + " replicated " + entries.size() +
+                        " coalesced log entries to slave " + slave.getId());
+                trace.finish("replicated");
+            }, replicationExecutor);
+        }
+    }
+
+    private List<LogEntry> filterBatch(SlaveNode slave, List<LogEntry> batch) {
+        List<LogEntry> entries = new ArrayList<>();
+        for (LogEntry entry : batch) {
+            LogEntry shipped = entryFor(slave, entry);
+            if (shipped != null) {
+                entries.add(shipped);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Replicates a log entry to all registered slave nodes asynchronously.
+     * Slaves whose key filter skips the entry are not sent anything.
+     * @param logEntry the log entry to replicate
+     */
+    private void replicateToSlaves(LogEntry logEntry) {
+        for (SlaveNode slave : slaves) {
+            LogEntry entry = entryFor(slave, logEntry);
+            if (entry == null) {
+                continue;
+            }
+            long enqueuedNanos = ReplicationTaskEvent.enqueueTime();
+            EnqueuedEvent.emit(id, slave.getId(), entry.getFirstCoveredId(), entry.getId());
+            CompletableFuture.runAsync(() -> {
+                ReplicationTaskEvent trace = ReplicationTaskEvent.start(id, slave.getId(), entry.getFirstCoveredId(),
+                        entry.getId(), enqueuedNanos);
+                if (isReachable(slave)) {
+                    boolean success = deliver(slave, entry);
                     if (success) {
-                        // Track successful replication
-                        Set<String> slaveSet = pendingReplications.get(entry.getId());
-                        if (slaveSet != null) {
-                            slaveSet.add(slave.getId());
-                            System.out.println("Master " + id + " replicated log entry " + entry.getId() + 
-                                    " to slave " + slave.getId());
-                        }
+                        System.out.println("Master " + id + " replicated log entry " + entry.getId() + 
+                                " to slave " + slave.getId());
+                        trace.finish("replicated");
                     } else {
                         slave.recoverSlave();
+                        trace.finish("recovering");
                     }
                 } else {
                     System.out.println("Master " + id + " couldn't replicate to slave " + 
-                            slave.getId() + " (DOWN)");
+                            slave.getId() + " (DOWN or SUSPECTED)");
+                    skipped(slave);
+                    trace.finish("unreachable");
                 }
             }, replicationExecutor);
         }
     }
 
     /**
-     * Shuts down the replication executor service.
+     * Shuts down write coalescing and the replication executor service.
      */
+    @Override
     public void shutdown() {
-        replicationExecutor.shutdown();
+        disableWriteCoalescing();
+        super.shutdown();
     }
 }
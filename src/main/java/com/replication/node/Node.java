@@ -1,7 +1,9 @@
 package com.replication.node;
 
 import com.replication.model.LogEntry;
+import com.replication.store.StoreSnapshot;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -39,6 +41,39 @@ public interface Node {
      * @return the value, or null if not found
      */
     String read(String key);
+
+    /**
+     * Reads a binary value from the node's data store.
+     * @param key the key to read
+     * @return the value, or null if not found
+     * @throws IllegalArgumentException if the value is text that has no binary form
+     * @see com.replication.model.Bytes
+     */
+    byte[] read(byte[] key);
+
+    /**
+     * Reads a value as it was at the given log index, without blocking writers.
+     * @param key the key to read
+     * @param asOfIndex the log index to read at
+     * @return the value, or null if not found, the node is down or the index is not retained
+     */
+    String read(String key, long asOfIndex);
+
+    /**
+     * Reads several keys consistently as of the latest applied log index.
+     * @param keys the keys to read
+     * @return the keys that were found mapped to their values, or null if the node is down
+     */
+    Map<String, String> readAll(Collection<String> keys);
+
+    /**
+     * Reads several keys consistently as of the given log index.
+     * @param keys the keys to read
+     * @param asOfIndex the log index to read at
+     * @return the keys that were found mapped to their values, or null if the node is down
+     *         or the index is not retained
+     */
+    Map<String, String> readAll(Collection<String> keys, long asOfIndex);
     
     /**
      * Deletes a key-value pair from the node's data store.
@@ -46,12 +81,33 @@ public interface Node {
      * @return true if the key was found and deleted, false otherwise
      */
     boolean delete(String key);
+
+    /**
+     * Deletes a binary key from the node's data store.
+     * @param key the key to delete
+     * @return true if the key was found and deleted, false otherwise
+     */
+    boolean delete(byte[] key);
     
     /**
      * Gets a copy of the entire data store.
      * @return a copy of the data store
      */
     Map<String, String> getDataStore();
+
+    /**
+     * Opens a consistent view of the data store as of the last applied log index.
+     * The view is iterated in place rather than copied, and must be closed when done.
+     * @return the snapshot, or null if the node is down
+     */
+    StoreSnapshot snapshot();
+
+    /**
+     * Opens a consistent view of the data store as of the given log index.
+     * @param asOfIndex the log index to read at
+     * @return the snapshot, or null if the node is down or the index is not available
+     */
+    StoreSnapshot snapshot(long asOfIndex);
     
     /**
      * Gets the last log index that this node has processed.
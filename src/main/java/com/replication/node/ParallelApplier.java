@@ -0,0 +1,186 @@
+package com.replication.node;
+
+import com.replication.model.LogEntry;
+import com.replication.runtime.NodeRuntime;
+import com.replication.store.VersionedStore;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+/**
+ * Applies a slave's log entries on several threads. Entries are dispatched in log order to
+ * one of N stripes by key hash, and each stripe applies its entries in order, so every key
+ * still sees its updates in log order while different keys are applied in parallel.
+ * <p>
+ * Entries are staged in the data store, invisible to readers. The store's applied index is
+ * only moved up to the contiguous watermark, below which every dispatched entry is done, so
+ * readers always see a prefix of the log even though stripes finish out of order.
+ */
+public class ParallelApplier {
+    private final VersionedStore store;
+    private final Stripe[] stripes;
+    // The first log index covered by each entry dispatched but not yet applied
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+    private volatile long dispatchedIndex;
+    private final AtomicLong applied = new AtomicLong();
+    private final LongConsumer published;
+
+    private final class Stripe implements Runnable {
+        private final ExecutorService executor;
+        private final Queue<LogEntry> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Held while applying, so a drain from another thread never reorders a key's entries
+        private final ReentrantLock applying = new ReentrantLock();
+
+        private Stripe(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        private void add(LogEntry entry) {
+            queue.add(entry);
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // Shut down; whatever is queued is applied by the next drain
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                drain();
+                scheduled.set(false);
+                // An entry added after the drain but before the flag was cleared would be stranded
+            } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        private void drain() {
+            try {
+                applying.lock();
+                LogEntry entry;
+                while ((entry = queue.poll()) != null) {
+                    apply(entry);
+                }
+            } finally {
+                applying.unlock();
+            }
+        }
+    }
+
+    /**
+     * Creates an applier.
+     * @param name the name of the node, for its threads
+     * @param stripeCount the number of stripes, each applying on its own thread
+     * @param runtime supplies the stripes' executors
+     * @param store the store entries are applied to
+     * @param startIndex the log index already applied
+     */
+    public ParallelApplier(String name, int stripeCount, NodeRuntime runtime, VersionedStore store, long startIndex) {
+        this(name, stripeCount, runtime, store, startIndex, watermark -> { });
+    }
+
+    /**
+     * Creates an applier that reports its watermark each time an entry is applied.
+     * @param name the name of the node, for its threads
+     * @param stripeCount the number of stripes, each applying on its own thread
+     * @param runtime supplies the stripes' executors
+     * @param store the store entries are applied to
+     * @param startIndex the log index already applied
+     * @param published called with the watermark after it is published, possibly out of order across stripes
+     */
+    public ParallelApplier(String name, int stripeCount, NodeRuntime runtime, VersionedStore store, long startIndex,
+                           LongConsumer published) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("At least one stripe is needed");
+        }
+        this.store = store;
+        this.published = published;
+        this.dispatchedIndex = startIndex;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(runtime.newExecutor(name + "-apply-" + i, 1));
+        }
+    }
+
+    /**
+     * Hands an entry to its stripe. Entries must be dispatched one at a time, in log order.
+     * @param entry the entry to apply
+     */
+    public void dispatch(LogEntry entry) {
+        // Registered before the dispatched index moves, so the watermark can never pass it
+        inFlight.add(entry.getFirstCoveredId());
+        dispatchedIndex = entry.getId();
+        stripes[Math.floorMod(entry.getKey().hashCode(), stripes.length)].add(entry);
+    }
+
+    private void apply(LogEntry entry) {
+        store.stage(entry.getKey(), entry.isDelete() ? null : entry.getValue(), entry.getId(),
+                entry.getExpiresAtMillis());
+        inFlight.remove(entry.getFirstCoveredId());
+        applied.incrementAndGet();
+        long watermark = getWatermark();
+        store.publish(watermark);
+        published.accept(watermark);
+    }
+
+    /**
+     * Gets the highest log index below which every dispatched entry has been applied.
+     * @return the watermark
+     */
+    public long getWatermark() {
+        // Read the dispatched index first: anything dispatched after it is above it anyway
+        long dispatched = dispatchedIndex;
+        Long oldest = inFlight.ceiling(Long.MIN_VALUE);
+        return oldest == null ? dispatched : Math.min(dispatched, oldest - 1);
+    }
+
+    /**
+     * Applies every dispatched entry still queued on the calling thread, e.g. before the
+     * node is promoted or compared with the master.
+     */
+    public void drain() {
+        for (Stripe stripe : stripes) {
+            stripe.drain();
+        }
+    }
+
+    /**
+     * Gets the number of entries dispatched but not yet applied.
+     * @return the backlog
+     */
+    public int getBacklog() {
+        return inFlight.size();
+    }
+
+    /**
+     * Gets the number of entries applied so far.
+     * @return the number of applied entries
+     */
+    public long getApplied() {
+        return applied.get();
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Applies whatever is still queued and stops the stripes' threads.
+     */
+    public void shutdown() {
+        for (Stripe stripe : stripes) {
+            stripe.executor.shutdown();
+        }
+        drain();
+    }
+}
@@ -0,0 +1,135 @@
+package com.replication.node;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how read throughput on a node scales with reader threads while writers keep
+ * mutating it. Each thread count is run twice: with every read taking the node's read lock,
+ * as reads used to, and with the lock-free reads nodes use now.
+ */
+public class ReadScalingBenchmark {
+
+    private static String key(int i) {
+        return "key-" + i;
+    }
+
+    private static double measure(MasterNode node, int readers, int writers, int keys, long millis,
+                                  boolean locked) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder reads = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            Random random = new Random(w);
+            threads.add(new Thread(() -> {
+                while (running.get()) {
+                    node.write(key(random.nextInt(keys)), Long.toString(random.nextLong()));
+                }
+            }, "writer-" + w));
+        }
+        for (int r = 0; r < readers; r++) {
+            Random random = new Random(1000 + r);
+            threads.add(new Thread(() -> {
+                long count = 0;
+                while (running.get()) {
+                    String key = key(random.nextInt(keys));
+                    if (locked) {
+                        try {
+                            node.lock.readLock().lock();
+                            node.read(key);
+                        } finally {
+                            node.lock.readLock().unlock();
+                        }
+                    } else {
+                        node.read(key);
+                    }
+                    count++;
+                }
+                reads.add(count);
+            }, "reader-" + r));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long start = System.nanoTime();
+        TimeUnit.MILLISECONDS.sleep(millis);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return reads.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Runs the benchmark from the command line. Arguments are {@code name=value} pairs:
+     * <pre>
+     *   keys=100000 writers=1 maxReaders=cores millis=2000
+     * </pre>
+     * Reader counts double from 1 up to {@code maxReaders}.
+     * @param args the benchmark parameters
+     * @throws InterruptedException if interrupted while waiting for a run to finish
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int keys = 100_000;
+        int writers = 1;
+        int maxReaders = Runtime.getRuntime().availableProcessors();
+        long millis = 2000;
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                System.out.println("Ignoring argument '" + arg + "' (expected name=value)");
+                continue;
+            }
+            String value = parts[1];
+            switch (parts[0]) {
+                case "keys":
+                    keys = Integer.parseInt(value);
+                    break;
+                case "writers":
+                    writers = Integer.parseInt(value);
+                    break;
+                case "maxReaders":
+                    maxReaders = Integer.parseInt(value);
+                    break;
+                case "millis":
+                    millis = Long.parseLong(value);
+                    break;
+                default:
+                    System.out.println("Ignoring unknown argument '" + parts[0] + "'");
+            }
+        }
+
+        // Nodes log every operation; that would measure the console instead
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        MasterNode node = new MasterNode("benchmark");
+        List<String> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < keys; i++) {
+                node.write(key(i), "initial");
+            }
+            // Warm-up, so the JIT has compiled both paths before anything is measured
+            measure(node, 1, writers, keys, millis, true);
+            measure(node, 1, writers, keys, millis, false);
+            for (int readers = 1; readers <= maxReaders; readers *= 2) {
+                double locked = measure(node, readers, writers, keys, millis, true);
+                double lockFree = measure(node, readers, writers, keys, millis, false);
+                results.add(String.format("%3d readers, %d writers: %,14.0f reads/s locked, %,14.0f reads/s lock-free (%.1fx)",
+                        readers, writers, locked, lockFree, lockFree / locked));
+            }
+        } finally {
+            node.shutdown();
+            System.setOut(originalOut);
+        }
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.replication.node;
+
+import com.replication.model.LogEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Optional stage between the master's log and its slaves that collapses hot-key writes.
+ * Entries are buffered for a short window; when the window closes, every WRITE or DELETE
+ * that is superseded by a later entry for the same key is dropped, and the surviving entries
+ * are handed on as one batch. Each survivor covers the IDs of the entries dropped before it,
+ * so slaves can still verify that the log arrives without gaps.
+ */
+public class ReplicationCoalescer {
+    private final long windowMillis;
+    private final Consumer<List<LogEntry>> sink;
+    private final ScheduledExecutorService flusher;
+    private List<LogEntry> buffer = new ArrayList<>();
+
+    private final AtomicLong entriesReceived = new AtomicLong();
+    private final AtomicLong entriesShipped = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesShipped = new AtomicLong();
+
+    /**
+     * Creates a coalescer that flushes every window.
+     * @param windowMillis how long entries are held back to be coalesced
+     * @param sink receives each coalesced batch, in log order
+     */
+    public ReplicationCoalescer(long windowMillis, Consumer<List<LogEntry>> sink) {
+        this(windowMillis, sink, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    /**
+     * Creates a coalescer that flushes every window on the given scheduler.
+     * @param windowMillis how long entries are held back to be coalesced
+     * @param sink receives each coalesced batch, in log order
+     * @param flusher the scheduler that closes windows, owned and shut down by the coalescer
+     */
+    public ReplicationCoalescer(long windowMillis, Consumer<List<LogEntry>> sink, ScheduledExecutorService flusher) {
+        this.windowMillis = windowMillis;
+        this.sink = sink;
+        this.flusher = flusher;
+        flusher.scheduleWithFixedDelay(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers an entry until the current window closes. Entries must be added in log order.
+     * @param entry the log entry to replicate
+     */
+    public synchronized void add(LogEntry entry) {
+        buffer.add(entry);
+    }
+
+    /**
+     * Coalesces everything buffered so far and hands it to the sink.
+     */
+    public synchronized void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        List<LogEntry> batch = buffer;
+        buffer = new ArrayList<>();
+
+        List<LogEntry> coalesced = coalesce(batch);
+        entriesReceived.addAndGet(batch.size());
+        entriesShipped.addAndGet(coalesced.size());
+        bytesReceived.addAndGet(sizeOf(batch));
+        bytesShipped.addAndGet(sizeOf(coalesced));
+        sink.accept(coalesced);
+    }
+
+    /**
+     * Keeps only the last entry for each key, in log order. Each survivor covers
+     * every ID since the previous survivor.
+     * @param batch a contiguous run of log entries
+     * @return the surviving entries
+     */
+    static List<LogEntry> coalesce(List<LogEntry> batch) {
+        Map<String, Integer> lastIndexByKey = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            lastIndexByKey.put(batch.get(i).getKey(), i);
+        }
+
+        List<LogEntry> survivors = new ArrayList<>(lastIndexByKey.size());
+        long nextCoveredId = batch.get(0).getFirstCoveredId();
+        for (int i = 0; i < batch.size(); i++) {
+            LogEntry entry = batch.get(i);
+            if (lastIndexByKey.get(entry.getKey()) == i) {
+                survivors.add(entry.coveringFrom(nextCoveredId));
+                nextCoveredId = entry.getId() + 1;
+            }
+        }
+        return survivors;
+    }
+
+    private static long sizeOf(List<LogEntry> entries) {
+        long bytes = 0;
+        for (LogEntry entry : entries) {
+            bytes += entry.getKey().length() + (entry.getValue() == null ? 0 : entry.getValue().length());
+        }
+        return bytes;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Gets the number of log entries that entered the coalescing stage.
+     * @return the number of entries received
+     */
+    public long getEntriesReceived() {
+        return entriesReceived.get();
+    }
+
+    /**
+     * Gets the number of log entries sent on to slaves after coalescing.
+     * @return the number of entries shipped
+     */
+    public long getEntriesShipped() {
+        return entriesShipped.get();
+    }
+
+    /**
+     * Gets the number of log entries that never had to be sent to each slave.
+     * @return the number of entries saved per slave
+     */
+    public long getEntriesSaved() {
+        return entriesReceived.get() - entriesShipped.get();
+    }
+
+    /**
+     * Gets the approximate key and value bytes that never had to be sent to each slave.
+     * @return the number of bytes saved per slave
+     */
+    public long getBytesSaved() {
+        return bytesReceived.get() - bytesShipped.get();
+    }
+
+    /**
+     * Gets the fraction of replication traffic removed by coalescing.
+     * @return a ratio between 0 and 1
+     */
+    public double getSavedRatio() {
+        long received = entriesReceived.get();
+        return received == 0 ? 0.0 : (double) getEntriesSaved() / received;
+    }
+
+    /**
+     * Flushes what is still buffered and stops the window timer.
+     */
+    public void shutdown() {
+        flusher.shutdown();
+        flush();
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicationCoalescer{" +
+                "windowMillis=" + windowMillis +
+                ", received=" + getEntriesReceived() +
+                ", shipped=" + getEntriesShipped() +
+                ", saved=" + getEntriesSaved() +
+                ", bytesSaved=" + getBytesSaved() +
+                String.format(", savedRatio=%.1f%%", getSavedRatio() * 100) +
+                '}';
+    }
+}
@@ -1,8 +1,15 @@
 package com.replication.node;
 
+import com.replication.model.KeyFilter;
 import com.replication.model.LogEntry;
+import com.replication.node.TraceEvents.RecoveryEvent;
+import com.replication.storage.NodeStorage;
+import com.replication.store.StoreSnapshot;
 
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -11,15 +18,358 @@ import java.util.concurrent.CompletableFuture;
  * and handle read operations.
  */
 public class SlaveNode extends AbstractNode {
-    private final MasterNode master;
+    // Log entries copied from a peer per batch while bootstrapping
+    private static final int BOOTSTRAP_BATCH = 1_000;
 
+    private volatile MasterNode master;
+    private volatile boolean caughtUp = true;
+    private volatile ParallelApplier applier;
+
+    /**
+     * Creates a slave of the given master. The slave runs on the master's runtime.
+     * @param id the ID of the slave
+     * @param master the master to replicate from
+     */
     public SlaveNode(String id, MasterNode master) {
-        super(id);
+        super(id, master.getRuntime());
         this.master = master;
         // Register with the master
         master.registerSlave(this);
     }
 
+    /**
+     * Restarts a slave from the state it persisted. The newest snapshot and the log after it
+     * are loaded in parallel, then the slave catches up from the master. It is not routed
+     * reads until it has caught up.
+     * @param id the ID of the slave
+     * @param master the master to replicate from
+     * @param storage the slave's on-disk state, which it keeps persisting to
+     * @throws IOException if the state cannot be read
+     */
+    public SlaveNode(String id, MasterNode master, NodeStorage storage) throws IOException {
+        super(id, master.getRuntime());
+        this.master = master;
+        this.caughtUp = false;
+        this.lastAppliedIndex = storage.recover(dataStore, log);
+        this.lastReceivedIndex = lastAppliedIndex;
+        this.storage = storage;
+        master.registerSlave(this);
+        requestRecovery();
+    }
+
+    /**
+     * Creates a slave that copies its initial state from a caught-up peer instead of the master,
+     * so adding a replica under load costs the master only the entries the peer has not
+     * received yet. The peer's snapshot is copied without holding any lock, then the peer's log
+     * after it, then the master's log. Finally the slave takes the last few entries from the
+     * master and registers, both under the master's lock, so it joins the live stream at
+     * exactly the next log index.
+     * @param id the ID of the slave
+     * @param master the master to replicate from
+     * @param source the full, caught-up slave to copy from
+     */
+    public SlaveNode(String id, MasterNode master, SlaveNode source) {
+        super(id, master.getRuntime());
+        this.master = master;
+        this.caughtUp = false;
+        long start = System.nanoTime();
+        long keys = copySnapshot(source);
+        long snapshotIndex = lastAppliedIndex;
+        long fromPeer = copyLog(source);
+        long fromMaster = joinMaster(master);
+        System.out.println("Slave " + id + " bootstrapped " + keys + " keys at log index " + snapshotIndex +
+                " and " + fromPeer + " log entries from " + source.getId() + ", then " + fromMaster +
+                " from master " + master.getId() + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Loads a snapshot of a peer's data store into this slave's empty one.
+     * @return the number of keys copied
+     */
+    private long copySnapshot(SlaveNode source) {
+        StoreSnapshot snapshot = source.snapshot();
+        if (snapshot == null) {
+            return 0;
+        }
+        long keys = 0;
+        try (StoreSnapshot view = snapshot) {
+            long index = view.getIndex();
+            Iterator<Map.Entry<String, String>> entries = view.iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, String> entry = entries.next();
+                dataStore.restore(entry.getKey(), entry.getValue(), index,
+                        source.dataStore.getExpiresAtMillis(entry.getKey(), index));
+                keys++;
+            }
+            dataStore.setRestoredIndex(index);
+            lastAppliedIndex = index;
+            lastReceivedIndex = index;
+        }
+        return keys;
+    }
+
+    /**
+     * Applies another node's log entries after this slave's position, in batches, until it
+     * has caught up with that node or the node's log no longer reaches back far enough.
+     * @return the number of entries applied
+     */
+    private long copyLog(AbstractNode source) {
+        long applied = 0;
+        while (true) {
+            List<LogEntry> entries = source.getLogEntriesAfter(lastReceivedIndex, BOOTSTRAP_BATCH);
+            for (LogEntry entry : entries) {
+                if (!applyLogEntry(entry, lock)) {
+                    return applied;
+                }
+                applied++;
+            }
+            if (entries.size() < BOOTSTRAP_BATCH) {
+                return applied;
+            }
+        }
+    }
+
+    /**
+     * Applies the master's entries the peer did not have and registers with the master. The
+     * bulk of them is applied without the master's lock. The last batch and the registration
+     * happen under the master's write lock, so no entry is written in between: every later
+     * entry is shipped to this slave by live replication. If more than a batch was written
+     * meanwhile, the slave registers without them, so writes are not held up, and recovers
+     * them in the background before it takes reads.
+     * @return the number of entries taken from the master
+     */
+    private long joinMaster(MasterNode source) {
+        long applied = copyLog(source);
+        try {
+            source.lock.writeLock().lock();
+            List<LogEntry> rest = source.getLogEntriesAfter(lastReceivedIndex, BOOTSTRAP_BATCH + 1);
+            if (rest.size() <= BOOTSTRAP_BATCH) {
+                for (LogEntry entry : rest) {
+                    if (!applyLogEntry(entry, source.lock)) {
+                        break;
+                    }
+                    applied++;
+                }
+            }
+            source.registerSlave(this);
+            caughtUp = lastReceivedIndex >= source.lastAppliedIndex;
+        } finally {
+            source.lock.writeLock().unlock();
+        }
+        if (!caughtUp) {
+            // The master is down, wrote too much while the slave copied, or no longer holds the entries in between
+            requestRecovery();
+        }
+        return applied;
+    }
+
+    /**
+     * Gets the index of the last entry this slave has taken into its log. With parallel apply
+     * the entries up to it may still be queued, so it can run ahead of {@link #getLastLogIndex}.
+     * @return the last log index received, or -1 if the slave is down
+     */
+    public long getReceivedLogIndex() {
+        if (!up) {
+            return -1;
+        }
+        return lastReceivedIndex;
+    }
+
+    /**
+     * Checks if this slave has caught up with its master since it started, so it can serve reads.
+     * @return false while a restarted slave is still replaying what it missed
+     */
+    public boolean isCaughtUp() {
+        return caughtUp;
+    }
+
+    /**
+     * Marks this slave as missing entries, so it is not routed reads until recovery catches it
+     * up, e.g. when it starts empty.
+     */
+    public void fallBehind() {
+        if (caughtUp) {
+            caughtUp = false;
+            System.out.println("Slave " + id + " missed log entries, not serving reads until it catches up");
+        }
+    }
+
+    /**
+     * Starts persisting this slave's state to disk, beginning with a checkpoint of what it holds now.
+     * @param storage the storage to persist to
+     * @return true if the first checkpoint was written
+     */
+    public boolean enablePersistence(NodeStorage storage) {
+        this.storage = storage;
+        return checkpoint();
+    }
+
+    /**
+     * Writes a snapshot of this slave's state, so a restart only replays the log after it.
+     * The log is rolled and the snapshot opened under the master's lock, so they meet at the
+     * same log index; the snapshot itself is written without holding any lock.
+     * @return true if the snapshot was written
+     */
+    public boolean checkpoint() {
+        NodeStorage current = storage;
+        if (current == null || !up) {
+            return false;
+        }
+
+        StoreSnapshot snapshot;
+        MasterNode source = master;
+        try {
+            source.lock.writeLock().lock();
+            current.beginCheckpoint();
+            snapshot = dataStore.snapshot();
+        } catch (IOException e) {
+            System.out.println("Slave " + id + " could not start a checkpoint: " + e.getMessage());
+            return false;
+        } finally {
+            source.lock.writeLock().unlock();
+        }
+
+        try (StoreSnapshot view = snapshot) {
+            long keys = current.checkpoint(view, dataStore);
+            System.out.println("Slave " + id + " checkpointed " + keys + " keys at log index " + view.getIndex());
+            return true;
+        } catch (IOException e) {
+            System.out.println("Slave " + id + " could not write a checkpoint: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Gets the master this slave currently replicates from.
+     * @return the master node
+     */
+    public MasterNode getMaster() {
+        return master;
+    }
+
+    /**
+     * Gets the filter that selects which keys this slave replicates.
+     * @return the filter, or null if the slave replicates every key
+     */
+    public KeyFilter getKeyFilter() {
+        return null;
+    }
+
+    /**
+     * Checks if this slave holds the whole dataset, so it can be repaired by anti-entropy
+     * and promoted to master.
+     * @return true for a full replica
+     */
+    public boolean holdsFullCopy() {
+        return true;
+    }
+
+    /**
+     * Applies incoming entries on several threads, split by key. Reads keep seeing a prefix of
+     * the log: the store only publishes entries once every earlier one has been applied.
+     * @param stripes the number of apply threads
+     * @return true if parallel apply was enabled
+     */
+    public boolean enableParallelApply(int stripes) {
+        MasterNode source = master;
+        try {
+            source.lock.writeLock().lock();
+            ParallelApplier previous = applier;
+            if (previous != null) {
+                previous.shutdown();
+            }
+            // Started under the master's lock, so no entry arrives between reading the index and dispatching
+            applier = new ParallelApplier(id, stripes, runtime, dataStore, lastReceivedIndex,
+                    this::advanceAppliedIndex);
+        } finally {
+            source.lock.writeLock().unlock();
+        }
+        System.out.println("Slave " + id + " applies entries on " + stripes + " stripes");
+        return true;
+    }
+
+    /**
+     * Gets the parallel applier, if this slave uses one.
+     * @return the applier, or null when entries are applied inline
+     */
+    public ParallelApplier getParallelApplier() {
+        return applier;
+    }
+
+    /**
+     * Waits until every dispatched entry has been applied, so the data store reflects the
+     * whole log this slave has accepted. Called before it is promoted or compared with the master.
+     */
+    void finishApplying() {
+        ParallelApplier current = applier;
+        if (current != null) {
+            current.drain();
+        }
+    }
+
+    @Override
+    protected boolean appliesInParallel() {
+        return applier != null;
+    }
+
+    @Override
+    protected void applyEntry(LogEntry entry) {
+        ParallelApplier current = applier;
+        if (current == null) {
+            super.applyEntry(entry);
+            return;
+        }
+        appendToLog(entry);
+        persist(entry);
+        current.dispatch(entry);
+    }
+
+    /**
+     * Switches this slave to replicate from a new master, e.g. after a failover,
+     * and catches up from the new master's log.
+     * @param newMaster the master to follow
+     */
+    public void followMaster(MasterNode newMaster) {
+        MasterNode previous = master;
+        master = newMaster;
+        previous.unregisterSlave(this);
+        newMaster.registerSlave(this);
+        System.out.println("Slave " + id + " now follows master " + newMaster.getId());
+        if (up) {
+            recoverSlave();
+        }
+    }
+
+    /**
+     * Takes this slave out of service after it has been promoted to master.
+     * Its data store and log now belong to the new master.
+     */
+    void retire() {
+        up = false;
+        master.unregisterSlave(this);
+        shutdown();
+    }
+
+    /**
+     * Shuts down the replication executor and closes the slave's files.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        ParallelApplier currentApplier = applier;
+        if (currentApplier != null) {
+            currentApplier.shutdown();
+        }
+        NodeStorage current = storage;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                System.out.println("Slave " + id + " could not close its storage: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Requests recovery from the master node.
      * This is called when a slave node comes back up after being down.
@@ -52,19 +402,36 @@ public class SlaveNode extends AbstractNode {
 
         System.out.println("Master starting recovery for slave " + this.getId());
 
+        long enqueuedNanos = RecoveryEvent.enqueueTime();
         CompletableFuture.runAsync(() -> {
-            long slaveLastIndex = this.getLastLogIndex();
-            List<LogEntry> missingEntries = master.getLogEntriesAfter(slaveLastIndex);
+            RecoveryEvent trace = RecoveryEvent.start(id, enqueuedNanos);
+            MasterNode source = master;
+            // Entries already queued for parallel apply are not sent again
+            long slaveLastIndex = lastReceivedIndex;
+            List<LogEntry> missingEntries = source.filterFor(this, source.getLogEntriesAfter(slaveLastIndex),
+                    slaveLastIndex);
+            trace.master = source.getId();
+            trace.fromLogId = slaveLastIndex;
+            trace.entries = missingEntries.size();
 
             System.out.println("Master sending " + missingEntries.size() +
                     " log entries to slave " + this.getId());
 
             for (LogEntry entry : missingEntries) {
-                this.applyLogEntry(entry, master.lock);
+                // Entries from a master that has since been fenced are refused
+                source.deliver(this, entry);
+            }
+            long target = missingEntries.isEmpty() ? slaveLastIndex :
+                    missingEntries.get(missingEntries.size() - 1).getId();
+            if (!caughtUp && lastReceivedIndex >= target) {
+                caughtUp = true;
+                System.out.println("Slave " + id + " caught up at log index " + target + ", serving reads");
             }
 
             System.out.println("Master completed recovery for slave " +
-                    this.getId() + " up to log index " + lastAppliedIndex);
+                    this.getId() + " up to log index " + lastReceivedIndex);
+            trace.logId = lastReceivedIndex;
+            trace.commit();
         }, replicationExecutor);
     }
 }
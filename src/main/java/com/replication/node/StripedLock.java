@@ -0,0 +1,41 @@
+package com.replication.node;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared out among keys by hash, for per-key check-then-act
+ * operations. Operations on different keys rarely contend, and no lock is allocated per key.
+ */
+public class StripedLock {
+    private final Lock[] stripes;
+    private final int mask;
+
+    /**
+     * Creates the locks.
+     * @param minimumStripes the least number of locks; rounded up to a power of two
+     */
+    public StripedLock(int minimumStripes) {
+        int count = minimumStripes <= 1 ? 1 : Integer.highestOneBit(minimumStripes - 1) << 1;
+        this.stripes = new Lock[count];
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Gets the lock guarding a key.
+     * @param key the key
+     * @return the lock shared by every key in the same stripe
+     */
+    public Lock forKey(String key) {
+        int hash = key.hashCode();
+        // Spread the high bits down, since string hashes of similar keys differ mostly at the bottom
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+}
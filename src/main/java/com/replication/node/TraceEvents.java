@@ -0,0 +1,252 @@
+package com.replication.node;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events that trace each write from the master to every slave.
+ * Every event carries the log ID, and every event past the master also the slave ID, so a
+ * write's fan-out can be put back together from a recording:
+ * <pre>
+ *   Write (master lock wait) -&gt; Replication Enqueued -&gt; Replication Task (executor queue wait)
+ *       -&gt; Apply (slave lock wait), or Recovery when the slave has to catch up instead
+ * </pre>
+ * With no recording running, an event is never committed and timestamps are not read, so
+ * tracing costs an allocation the JIT can usually remove. Start a recording with, e.g.,
+ * {@code -XX:StartFlightRecording=settings=profile,filename=replication.jfr}; the events are
+ * enabled by default and have no threshold.
+ */
+final class TraceEvents {
+    private static final String CATEGORY = "Replication";
+
+    private TraceEvents() {
+    }
+
+    private static long waitedSince(long startNanos) {
+        return startNanos == 0 ? 0 : System.nanoTime() - startNanos;
+    }
+
+    @Name("com.replication.Write")
+    @Label("Write")
+    @Description("A write, delete or atomic operation on the master, from the call to the log entry being shipped")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class WriteEvent extends Event {
+        @Label("Master")
+        String master;
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Key")
+        String key;
+
+        @Label("Log ID")
+        @Description("The ID of the log entry written, or 0 if nothing was written")
+        long logId;
+
+        @Label("Lock Wait")
+        @Timespan
+        long lockWait;
+
+        private transient long lockRequested;
+
+        static WriteEvent start(String master, String operation, String key) {
+            WriteEvent event = new WriteEvent();
+            if (event.isEnabled()) {
+                event.master = master;
+                event.operation = operation;
+                event.key = key;
+                event.lockRequested = System.nanoTime();
+                event.begin();
+            }
+            return event;
+        }
+
+        void lockAcquired() {
+            lockWait = waitedSince(lockRequested);
+        }
+    }
+
+    @Name("com.replication.ReplicationEnqueued")
+    @Label("Replication Enqueued")
+    @Description("Log entries handed to the master's replication executor for one slave")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class EnqueuedEvent extends Event {
+        @Label("Master")
+        String master;
+
+        @Label("Slave")
+        String slave;
+
+        @Label("First Log ID")
+        long firstLogId;
+
+        @Label("Log ID")
+        @Description("The ID of the last log entry in the task")
+        long logId;
+
+        static void emit(String master, String slave, long firstLogId, long logId) {
+            EnqueuedEvent event = new EnqueuedEvent();
+            if (event.isEnabled()) {
+                event.master = master;
+                event.slave = slave;
+                event.firstLogId = firstLogId;
+                event.logId = logId;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("com.replication.ReplicationTask")
+    @Label("Replication Task")
+    @Description("A replication task for one slave, from leaving the executor queue to finishing")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ReplicationTaskEvent extends Event {
+        @Label("Master")
+        String master;
+
+        @Label("Slave")
+        String slave;
+
+        @Label("First Log ID")
+        long firstLogId;
+
+        @Label("Log ID")
+        @Description("The ID of the last log entry in the task")
+        long logId;
+
+        @Label("Queue Wait")
+        @Timespan
+        long queueWait;
+
+        @Label("Outcome")
+        String outcome;
+
+        /**
+         * Reads the clock when a task is queued, but only while the event is being recorded.
+         * @return the current time in nanoseconds, or 0 if the event is disabled
+         */
+        static long enqueueTime() {
+            return new ReplicationTaskEvent().isEnabled() ? System.nanoTime() : 0;
+        }
+
+        static ReplicationTaskEvent start(String master, String slave, long firstLogId, long logId,
+                                          long enqueuedNanos) {
+            ReplicationTaskEvent event = new ReplicationTaskEvent();
+            if (event.isEnabled()) {
+                event.master = master;
+                event.slave = slave;
+                event.firstLogId = firstLogId;
+                event.logId = logId;
+                event.queueWait = waitedSince(enqueuedNanos);
+                event.begin();
+            }
+            return event;
+        }
+
+        void finish(String outcome) {
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    @Name("com.replication.Apply")
+    @Label("Apply")
+    @Description("A slave applying one replicated log entry")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ApplyEvent extends Event {
+        @Label("Slave")
+        String slave;
+
+        @Label("Log ID")
+        long logId;
+
+        @Label("Lock Wait")
+        @Description("Time spent waiting for the lock that guards the slave's log position")
+        @Timespan
+        long lockWait;
+
+        @Label("Outcome")
+        String outcome;
+
+        private transient long lockRequested;
+
+        static ApplyEvent start(String slave, long logId) {
+            ApplyEvent event = new ApplyEvent();
+            if (event.isEnabled()) {
+                event.slave = slave;
+                event.logId = logId;
+                event.lockRequested = System.nanoTime();
+                event.begin();
+            }
+            return event;
+        }
+
+        /**
+         * Records the lock wait. Only the first acquisition counts, so re-entering a lock the
+         * caller already holds does not reset it.
+         */
+        void lockAcquired() {
+            if (lockRequested != 0) {
+                lockWait = waitedSince(lockRequested);
+                lockRequested = 0;
+            }
+        }
+
+        void finish(String outcome) {
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    @Name("com.replication.Recovery")
+    @Label("Recovery")
+    @Description("A slave catching up from the master's log")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class RecoveryEvent extends Event {
+        @Label("Master")
+        String master;
+
+        @Label("Slave")
+        String slave;
+
+        @Label("From Log ID")
+        @Description("The slave's last applied log ID when recovery started")
+        long fromLogId;
+
+        @Label("Log ID")
+        @Description("The slave's last applied log ID when recovery finished")
+        long logId;
+
+        @Label("Entries")
+        long entries;
+
+        @Label("Queue Wait")
+        @Timespan
+        long queueWait;
+
+        static long enqueueTime() {
+            return new RecoveryEvent().isEnabled() ? System.nanoTime() : 0;
+        }
+
+        static RecoveryEvent start(String slave, long enqueuedNanos) {
+            RecoveryEvent event = new RecoveryEvent();
+            if (event.isEnabled()) {
+                event.slave = slave;
+                event.queueWait = waitedSince(enqueuedNanos);
+                event.begin();
+            }
+            return event;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.replication.runtime;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Supplies the threads, clock and randomness that nodes and the replication system run on.
+ * The real runtime uses thread pools and the system clock; a simulation runtime drives
+ * everything from one seeded scheduler on a virtual clock, so runs can be replayed exactly.
+ */
+public interface NodeRuntime {
+
+    /**
+     * The runtime backed by real threads and the system clock.
+     */
+    NodeRuntime REAL = new RealNodeRuntime();
+
+    /**
+     * Creates an executor for a node's background work.
+     * @param name the name of the executor's owner, for diagnostics
+     * @param threads the number of threads in the real runtime
+     * @return a new executor, owned by the caller
+     */
+    ExecutorService newExecutor(String name, int threads);
+
+    /**
+     * Creates a scheduler for periodic and delayed tasks.
+     * @param name the name of the scheduler's owner, for diagnostics
+     * @param threads the number of threads in the real runtime
+     * @return a new scheduler, owned by the caller
+     */
+    ScheduledExecutorService newScheduler(String name, int threads);
+
+    /**
+     * Gets the current time of this runtime's clock.
+     * @return the time in nanoseconds, only meaningful relative to other readings
+     */
+    long nanoTime();
+
+    /**
+     * Gets the current wall-clock time of this runtime, used for expiry times that
+     * travel between nodes.
+     * @return the time in milliseconds
+     */
+    long currentTimeMillis();
+
+    /**
+     * Creates a random generator for decisions that should be repeatable under simulation.
+     * @return a new random generator
+     */
+    Random newRandom();
+}
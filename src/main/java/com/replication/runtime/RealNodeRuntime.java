@@ -0,0 +1,38 @@
+package com.replication.runtime;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Runtime backed by thread pools, the system clock and unseeded random generators.
+ */
+class RealNodeRuntime implements NodeRuntime {
+
+    @Override
+    public ExecutorService newExecutor(String name, int threads) {
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    @Override
+    public ScheduledExecutorService newScheduler(String name, int threads) {
+        return new ScheduledThreadPoolExecutor(threads);
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public Random newRandom() {
+        return new Random();
+    }
+}
@@ -0,0 +1,392 @@
+package com.replication.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client for {@link ReplicationServer}, safe to share between threads. Each call borrows a
+ * connection from a pool, opening one if fewer than the pool size are open and otherwise
+ * waiting for one to be returned. A connection that fails is closed rather than returned.
+ * <p>
+ * Errors reported by the server are printed and turn into a null or false result, like the
+ * replication system's own API; failures of the connection itself are thrown.
+ */
+public class ReplicationClient implements AutoCloseable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int BUFFER_BYTES = 16 << 10;
+    private static final long BORROW_WAIT_MILLIS = 50;
+
+    private final InetSocketAddress address;
+    private final int poolSize;
+    private final BlockingQueue<Connection> idle;
+    private final AtomicInteger open = new AtomicInteger();
+    private volatile boolean closed;
+
+    private static final class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final RespWriter writer = new RespWriter(BUFFER_BYTES);
+
+        private Connection(InetSocketAddress address) throws IOException {
+            this.socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+            this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_BYTES);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_BYTES);
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Being discarded anyway
+            }
+        }
+    }
+
+    /**
+     * One page of a {@code SCAN}.
+     */
+    public static final class ScanPage {
+        private final String cursor;
+        private final Map<String, String> entries;
+
+        private ScanPage(String cursor, Map<String, String> entries) {
+            this.cursor = cursor;
+            this.entries = entries;
+        }
+
+        /**
+         * Gets the cursor to pass to the next scan.
+         * @return the cursor, or an empty string if the scan is complete
+         */
+        public String getCursor() {
+            return cursor;
+        }
+
+        /**
+         * Gets the keys and values on this page, in key order.
+         * @return the entries
+         */
+        public Map<String, String> getEntries() {
+            return entries;
+        }
+
+        public boolean isLast() {
+            return cursor.isEmpty();
+        }
+    }
+
+    /**
+     * Creates a client. Connections are opened when first needed.
+     * @param host the server's host name
+     * @param port the server's port
+     * @param poolSize the most connections to keep open
+     */
+    public ReplicationClient(String host, int port, int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("The pool needs at least one connection");
+        }
+        this.address = new InetSocketAddress(host, port);
+        this.poolSize = poolSize;
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    private Connection borrow() throws IOException {
+        while (true) {
+            if (closed) {
+                throw new IOException("Client is closed");
+            }
+            Connection connection = idle.poll();
+            if (connection != null) {
+                return connection;
+            }
+            if (open.incrementAndGet() <= poolSize) {
+                try {
+                    return new Connection(address);
+                } catch (IOException e) {
+                    open.decrementAndGet();
+                    throw e;
+                }
+            }
+            open.decrementAndGet();
+            try {
+                // Waits in short steps, so a slot freed by a failed connection is noticed too
+                connection = idle.poll(BORROW_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a connection", e);
+            }
+            if (connection != null) {
+                return connection;
+            }
+        }
+    }
+
+    private void release(Connection connection) {
+        if (closed || !idle.offer(connection)) {
+            discard(connection);
+        }
+    }
+
+    private void discard(Connection connection) {
+        connection.close();
+        open.decrementAndGet();
+    }
+
+    /**
+     * Sends several commands in one write and reads their replies, in order.
+     * @param commands the commands, each a command name followed by its arguments
+     * @return one reply per command, as decoded by {@link RespProtocol#readReply}
+     * @throws IOException if the connection fails
+     */
+    public List<Object> pipeline(List<List<String>> commands) throws IOException {
+        Connection connection = borrow();
+        try {
+            for (List<String> command : commands) {
+                connection.writer.command(command);
+            }
+            connection.writer.writeTo(connection.out);
+            connection.out.flush();
+
+            List<Object> replies = new ArrayList<>(commands.size());
+            for (int i = 0; i < commands.size(); i++) {
+                replies.add(RespProtocol.readReply(connection.in));
+            }
+            release(connection);
+            return replies;
+        } catch (IOException | RuntimeException e) {
+            discard(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends one command and reads its reply.
+     * @param words the command name followed by its arguments
+     * @return the reply, as decoded by {@link RespProtocol#readReply}
+     * @throws IOException if the connection fails
+     */
+    public Object call(String... words) throws IOException {
+        return pipeline(Collections.singletonList(Arrays.asList(words))).get(0);
+    }
+
+    private static boolean failed(Object reply, String command) {
+        if (reply instanceof RespProtocol.ErrorReply) {
+            System.out.println("Server rejected " + command + ": " + ((RespProtocol.ErrorReply) reply).getMessage());
+            return true;
+        }
+        return false;
+    }
+
+    public boolean ping() throws IOException {
+        return "PONG".equals(call("PING"));
+    }
+
+    /**
+     * Writes a key-value pair.
+     * @param key the key to write
+     * @param value the value to write
+     * @return true if the write was accepted
+     * @throws IOException if the connection fails
+     */
+    public boolean set(String key, String value) throws IOException {
+        return !failed(call("SET", key, value), "SET " + key);
+    }
+
+    /**
+     * Writes a key-value pair that expires.
+     * @param key the key to write
+     * @param value the value to write
+     * @param ttlMillis the time to live in milliseconds
+     * @return true if the write was accepted
+     * @throws IOException if the connection fails
+     */
+    public boolean set(String key, String value, long ttlMillis) throws IOException {
+        return !failed(call("SET", key, value, "PX", Long.toString(ttlMillis)), "SET " + key);
+    }
+
+    /**
+     * Reads a key.
+     * @param key the key to read
+     * @return the value, or null if it is absent or the read failed
+     * @throws IOException if the connection fails
+     */
+    public String get(String key) throws IOException {
+        Object reply = call("GET", key);
+        return failed(reply, "GET " + key) ? null : (String) reply;
+    }
+
+    /**
+     * Deletes keys.
+     * @param keys the keys to delete
+     * @return the number of keys that existed and were deleted
+     * @throws IOException if the connection fails
+     */
+    public long delete(String... keys) throws IOException {
+        String[] words = new String[keys.length + 1];
+        words[0] = "DEL";
+        System.arraycopy(keys, 0, words, 1, keys.length);
+        Object reply = call(words);
+        return failed(reply, "DEL") ? 0 : (Long) reply;
+    }
+
+    /**
+     * Reads several keys at once.
+     * @param keys the keys to read
+     * @return the present keys mapped to their values, or null if the read failed
+     * @throws IOException if the connection fails
+     */
+    public Map<String, String> getAll(List<String> keys) throws IOException {
+        List<String> words = new ArrayList<>(keys.size() + 1);
+        words.add("MGET");
+        words.addAll(keys);
+        Object reply = pipeline(Collections.singletonList(words)).get(0);
+        if (failed(reply, "MGET")) {
+            return null;
+        }
+        List<?> values = (List<?>) reply;
+        Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (values.get(i) != null) {
+                result.put(keys.get(i), (String) values.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes several key-value pairs. They are written one after another, not atomically.
+     * @param entries the keys and values to write
+     * @return true if every write was accepted
+     * @throws IOException if the connection fails
+     */
+    public boolean setAll(Map<String, String> entries) throws IOException {
+        List<String> words = new ArrayList<>(entries.size() * 2 + 1);
+        words.add("MSET");
+        entries.forEach((key, value) -> {
+            words.add(key);
+            words.add(value);
+        });
+        return !failed(pipeline(Collections.singletonList(words)).get(0), "MSET");
+    }
+
+    /**
+     * Writes a value only if the key still holds the expected one, checked by the server.
+     * @param key the key to write
+     * @param expectedValue the value the key must hold
+     * @param newValue the value to write
+     * @return true if the value was replaced
+     * @throws IOException if the connection fails
+     */
+    public boolean compareAndSet(String key, String expectedValue, String newValue) throws IOException {
+        Object reply = call("CAS", key, expectedValue, newValue);
+        return !failed(reply, "CAS " + key) && (Long) reply == 1;
+    }
+
+    /**
+     * Writes a value only if the key's latest value is still the given version.
+     * @param key the key to write
+     * @param expectedVersion the version from {@link #getVersion}, or 0 if the key must be absent
+     * @param newValue the value to write
+     * @return true if the value was replaced
+     * @throws IOException if the connection fails
+     */
+    public boolean compareAndSet(String key, long expectedVersion, String newValue) throws IOException {
+        Object reply = call("CASVER", key, Long.toString(expectedVersion), newValue);
+        return !failed(reply, "CASVER " + key) && (Long) reply == 1;
+    }
+
+    /**
+     * Gets the version of a key's latest value.
+     * @param key the key
+     * @return the version, or 0 if the key is absent
+     * @throws IOException if the connection fails
+     */
+    public long getVersion(String key) throws IOException {
+        Object reply = call("VERSION", key);
+        return failed(reply, "VERSION " + key) ? 0 : (Long) reply;
+    }
+
+    /**
+     * Adds to an integer key in one step on the server.
+     * @param key the key to increment
+     * @param delta the amount to add, negative to subtract
+     * @return the new value, or null if the key is not an integer or the write was rejected
+     * @throws IOException if the connection fails
+     */
+    public Long increment(String key, long delta) throws IOException {
+        Object reply = call("INCRBY", key, Long.toString(delta));
+        return failed(reply, "INCRBY " + key) ? null : (Long) reply;
+    }
+
+    /**
+     * Appends to a key's value in one step on the server.
+     * @param key the key to append to
+     * @param suffix the text to append
+     * @return the length of the new value, or -1 if the write was rejected
+     * @throws IOException if the connection fails
+     */
+    public long append(String key, String suffix) throws IOException {
+        Object reply = call("APPEND", key, suffix);
+        return failed(reply, "APPEND " + key) ? -1 : (Long) reply;
+    }
+
+    /**
+     * Reads the next page of keys in order.
+     * @param cursor an empty string to start, or the cursor of the previous page
+     * @param prefix only keys starting with this are returned
+     * @param count the most keys on the page
+     * @return the page, or null if the scan failed
+     * @throws IOException if the connection fails
+     */
+    public ScanPage scan(String cursor, String prefix, int count) throws IOException {
+        Object reply = call("SCAN", cursor, "PREFIX", prefix, "COUNT", Integer.toString(count));
+        if (failed(reply, "SCAN")) {
+            return null;
+        }
+        List<?> parts = (List<?>) reply;
+        List<?> flat = (List<?>) parts.get(1);
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < flat.size(); i += 2) {
+            entries.put((String) flat.get(i), (String) flat.get(i + 1));
+        }
+        return new ScanPage((String) parts.get(0), entries);
+    }
+
+    /**
+     * Gets the number of connections currently open.
+     * @return the number of open connections
+     */
+    public int getOpenConnections() {
+        return open.get();
+    }
+
+    /**
+     * Closes the idle connections; connections in use are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            discard(connection);
+        }
+    }
+}
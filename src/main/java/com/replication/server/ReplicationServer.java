@@ -0,0 +1,732 @@
+package com.replication.server;
+
+import com.replication.store.StoreSnapshot;
+import com.replication.system.ReplicationSystem;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves a {@link ReplicationSystem} to many concurrent clients over TCP, in the RESP-style
+ * protocol described in {@link RespProtocol}.
+ * <p>
+ * One thread accepts connections and hands them out in turn to a few event loops, each of
+ * which multiplexes its connections on a selector. The loops only read, decode and write;
+ * the commands themselves run on a pool of workers, since a write may wait for admission
+ * and a read may wait out a hedge delay or a slow node. Every command already received on a
+ * connection is handed to a worker as one batch, and the connection is not read again until
+ * the batch's replies are back on the loop, so commands on a connection run in order and
+ * pipelined commands cost one read and one write between them. Each connection keeps its
+ * read buffer and reply buffer for its whole life.
+ * <p>
+ * Commands: {@code PING}, {@code GET key}, {@code SET key value [PX millis]},
+ * {@code DEL key...}, {@code MGET key...}, {@code MSET key value...},
+ * {@code CAS key expected new}, {@code CASVER key version new}, {@code VERSION key},
+ * {@code INCR key}, {@code INCRBY key n}, {@code DECR key}, {@code DECRBY key n},
+ * {@code APPEND key suffix}, {@code SCAN cursor [PREFIX prefix] [COUNT n]} and {@code QUIT}.
+ * Conditional and read-modify-write commands are resolved on the master in one step.
+ */
+public class ReplicationServer implements AutoCloseable {
+    private static final int BUFFER_BYTES = 16 << 10;
+    // Stop reading from a client that does not read its replies, rather than buffer without bound
+    private static final int MAX_PENDING_REPLY_BYTES = 4 << 20;
+    private static final int DEFAULT_SCAN_COUNT = 100;
+    private static final int DEFAULT_WORKERS_PER_LOOP = 16;
+
+    private final ReplicationSystem system;
+    private final int requestedPort;
+    private final EventLoop[] loops;
+    private final int workerThreads;
+    private ExecutorService workers;
+    private final LongAdder commands = new LongAdder();
+    private final AtomicInteger connections = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    /**
+     * A client connection. While a batch of its commands is with a worker, the worker owns the
+     * reply buffer and the loop leaves the connection alone; handing the connection back
+     * through the loop's queue publishes the replies.
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+        private final RespWriter out = new RespWriter(BUFFER_BYTES);
+        private SelectionKey key;
+        private boolean closeAfterReplies;
+        private ScanState scan;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Ends the connection's scan, if any, letting the store drop the versions it held.
+         * Called by a worker, or by the loop when the connection closes.
+         */
+        private synchronized void endScan() {
+            if (scan != null) {
+                scan.snapshot.close();
+                scan = null;
+            }
+        }
+    }
+
+    /**
+     * A scan a connection is paging through: the matching keys of one snapshot, sorted once,
+     * and how far the pages returned so far have reached.
+     */
+    private static final class ScanState {
+        private final String prefix;
+        private final StoreSnapshot snapshot;
+        private final List<String> keys;
+        private int next;
+        // The cursor the next page continues from
+        private String cursor;
+
+        private ScanState(String prefix, StoreSnapshot snapshot, List<String> keys) {
+            this.prefix = prefix;
+            this.snapshot = snapshot;
+            this.keys = keys;
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        // Connections whose batch a worker has finished
+        private final Queue<Connection> executed = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+
+        private EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "server-loop-" + index);
+            thread.setDaemon(true);
+        }
+
+        private void add(SocketChannel channel) {
+            accepted.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    registerAccepted();
+                    resumeExecuted();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                flush(key, connection);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                read(key, connection);
+                            }
+                        } catch (IOException e) {
+                            close(key, connection);
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                } catch (IOException e) {
+                    System.out.println("Server event loop " + thread.getName() + " failed: " + e.getMessage());
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                close(key, (Connection) key.attachment());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down anyway
+            }
+        }
+
+        private void registerAccepted() {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    Connection connection = new Connection(channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connections.incrementAndGet();
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void resumeExecuted() throws IOException {
+            Connection connection;
+            while ((connection = executed.poll()) != null) {
+                if (!connection.key.isValid()) {
+                    continue;
+                }
+                try {
+                    flush(connection.key, connection);
+                } catch (IOException e) {
+                    close(connection.key, connection);
+                }
+            }
+        }
+
+        private void read(SelectionKey key, Connection connection) throws IOException {
+            if (connection.channel.read(connection.in) < 0) {
+                close(key, connection);
+                return;
+            }
+
+            ByteBuffer in = connection.in;
+            in.flip();
+            List<List<String>> batch = new ArrayList<>();
+            String protocolError = null;
+            try {
+                List<String> command;
+                while ((command = RespProtocol.readCommand(in)) != null) {
+                    if (!command.isEmpty()) {
+                        batch.add(command);
+                    }
+                }
+            } catch (RespProtocolException e) {
+                protocolError = "ERR Protocol error: " + e.getMessage();
+            }
+            in.compact();
+            if (!in.hasRemaining()) {
+                // A single command larger than the buffer; its size was checked by the decoder
+                ByteBuffer grown = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                grown.put(in);
+                connection.in = grown;
+            }
+            if (batch.isEmpty() && protocolError == null) {
+                flush(key, connection);
+                return;
+            }
+
+            // Nothing more is read or written until the worker hands the connection back
+            key.interestOps(0);
+            String error = protocolError;
+            try {
+                workers.execute(() -> {
+                    executeBatch(batch, error, connection);
+                    executed.add(connection);
+                    selector.wakeup();
+                });
+            } catch (RejectedExecutionException e) {
+                close(key, connection);
+            }
+        }
+
+        private void flush(SelectionKey key, Connection connection) throws IOException {
+            ByteBuffer out = connection.out.getBuffer();
+            out.flip();
+            connection.channel.write(out);
+            out.compact();
+
+            int pending = out.position();
+            if (pending == 0 && connection.closeAfterReplies) {
+                close(key, connection);
+            } else if (pending == 0) {
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (pending > MAX_PENDING_REPLY_BYTES || connection.closeAfterReplies) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void close(SelectionKey key, Connection connection) {
+            if (!key.isValid()) {
+                return;
+            }
+            key.cancel();
+            closeQuietly(connection.channel);
+            connection.endScan();
+            connections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Creates a server; it does not listen until {@link #start()} is called.
+     * @param system the system to serve
+     * @param port the TCP port to listen on, or 0 for any free port
+     * @param eventLoops the number of threads serving connections
+     */
+    public ReplicationServer(ReplicationSystem system, int port, int eventLoops) {
+        this(system, port, eventLoops, eventLoops * DEFAULT_WORKERS_PER_LOOP);
+    }
+
+    /**
+     * Creates a server with a given number of workers; it does not listen until {@link #start()}
+     * is called. Each connection uses at most one worker at a time, so this bounds how many
+     * connections can have a command waiting, e.g. for admission, at once.
+     * @param system the system to serve
+     * @param port the TCP port to listen on, or 0 for any free port
+     * @param eventLoops the number of threads reading and writing connections
+     * @param workerThreads the number of threads running commands
+     */
+    public ReplicationServer(ReplicationSystem system, int port, int eventLoops, int workerThreads) {
+        if (eventLoops < 1 || workerThreads < 1) {
+            throw new IllegalArgumentException("At least one event loop and one worker are needed");
+        }
+        this.system = system;
+        this.requestedPort = port;
+        this.loops = new EventLoop[eventLoops];
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * Starts listening and serving connections.
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(requestedPort));
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerThreads, task -> {
+            Thread thread = new Thread(task, "server-worker-" + workerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+            loops[i].thread.start();
+        }
+        acceptor = new Thread(this::acceptConnections, "server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Replication server listening on port " + getPort() + " with " + loops.length +
+                " event loops and " + workerThreads + " workers");
+    }
+
+    private void acceptConnections() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].add(channel);
+                next = (next + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.out.println("Server could not accept a connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gets the port the server listens on, which is the chosen one if it was started on port 0.
+     * @return the port, or -1 if the server has not been started
+     */
+    public int getPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel == null ? -1 : channel.socket().getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    public long getCommandsServed() {
+        return commands.sum();
+    }
+
+    /**
+     * Runs a batch of commands received on a connection, in order, on a worker.
+     * Commands after a QUIT are dropped; a protocol error is replied to after the commands
+     * decoded before it, and the connection is then closed.
+     */
+    private void executeBatch(List<List<String>> batch, String protocolError, Connection connection) {
+        for (List<String> command : batch) {
+            if (connection.closeAfterReplies) {
+                return;
+            }
+            try {
+                execute(command, connection);
+            } catch (RuntimeException e) {
+                connection.out.error("ERR " + e);
+            }
+            commands.increment();
+        }
+        if (protocolError != null && !connection.closeAfterReplies) {
+            connection.out.error(protocolError);
+            connection.closeAfterReplies = true;
+        }
+    }
+
+    private void execute(List<String> command, Connection connection) {
+        RespWriter out = connection.out;
+        String name = command.get(0).toUpperCase(Locale.ROOT);
+        int arguments = command.size() - 1;
+        switch (name) {
+            case "PING":
+                if (arguments == 0) {
+                    out.simpleString("PONG");
+                } else {
+                    out.bulk(command.get(1));
+                }
+                break;
+            case "GET":
+                if (arguments != 1) {
+                    wrongArguments(out, name);
+                    break;
+                }
+                out.bulk(system.read(command.get(1)));
+                break;
+            case "SET":
+                set(command, out);
+                break;
+            case "DEL": {
+                if (arguments < 1) {
+                    wrongArguments(out, name);
+                    break;
+                }
+                int deleted = 0;
+                for (String key : command.subList(1, command.size())) {
+                    if (system.delete(key)) {
+                        deleted++;
+                    }
+                }
+                out.integer(deleted);
+                break;
+            }
+            case "MGET": {
+                if (arguments < 1) {
+                    wrongArguments(out, name);
+                    break;
+                }
+                List<String> keys = command.subList(1, command.size());
+                Map<String, String> values = system.readAll(keys);
+                if (values == null) {
+                    out.error("ERR no node is available to read from");
+                    break;
+                }
+                out.arrayHeader(keys.size());
+                for (String key : keys) {
+                    out.bulk(values.get(key));
+                }
+                break;
+            }
+            case "MSET": {
+                if (arguments < 2 || arguments % 2 != 0) {
+                    wrongArguments(out, name);
+                    break;
+                }
+                boolean written = true;
+                for (int i = 1; i < command.size(); i += 2) {
+                    written &= system.write(command.get(i), command.get(i + 1));
+                }
+                if (written) {
+                    out.simpleString("OK");
+                } else {
+                    out.error("ERR some writes were rejected");
+                }
+                break;
+            }
+            case "CAS":
+                if (arguments != 3) {
+                    wrongArguments(out, name);
+                    break;
+                }
+                out.integer(system.compareAndSet(command.get(1), command.get(2), command.get(3)) ? 1 : 0);
+                break;
+            case "CASVER": {
+                if (arguments != 3) {
+                    wrongArguments(out, name);
+                    break;
+                }
+                Long version = parseLong(command.get(2), out);
+                if (version != null) {
+                    out.integer(system.compareAndSet(command.get(1), version, command.get(3)) ? 1 : 0);
+                }
+                break;
+            }
+            case "VERSION":
+                if (arguments != 1) {
+                    wrongArguments(out, name);
+                    break;
+                }
+                out.integer(system.getVersion(command.get(1)));
+                break;
+            case "INCR":
+            case "DECR":
+            case "INCRBY":
+            case "DECRBY": {
+                boolean by = name.endsWith("BY");
+                if (arguments != (by ? 2 : 1)) {
+                    wrongArguments(out, name);
+                    break;
+                }
+                Long delta = by ? parseLong(command.get(2), out) : Long.valueOf(1);
+                if (delta == null) {
+                    break;
+                }
+                Long value = name.startsWith("INCR") ? system.increment(command.get(1), delta)
+                        : system.decrement(command.get(1), delta);
+                if (value == null) {
+                    out.error("ERR value is not an integer, would overflow, or the master is unavailable");
+                } else {
+                    out.integer(value);
+                }
+                break;
+            }
+            case "APPEND": {
+                if (arguments != 2) {
+                    wrongArguments(out, name);
+                    break;
+                }
+                int length = system.append(command.get(1), command.get(2));
+                if (length < 0) {
+                    out.error("ERR write rejected, the master is unavailable");
+                } else {
+                    out.integer(length);
+                }
+                break;
+            }
+            case "SCAN":
+                scan(command, connection);
+                break;
+            case "QUIT":
+                out.simpleString("OK");
+                connection.closeAfterReplies = true;
+                break;
+            default:
+                out.error("ERR unknown command '" + command.get(0) + "'");
+        }
+    }
+
+    private void set(List<String> command, RespWriter out) {
+        long ttlMillis = 0;
+        if (command.size() == 5 && command.get(3).equalsIgnoreCase("PX")) {
+            try {
+                ttlMillis = Long.parseLong(command.get(4));
+            } catch (NumberFormatException e) {
+                out.error("ERR PX is not a number");
+                return;
+            }
+            if (ttlMillis <= 0) {
+                out.error("ERR PX must be positive");
+                return;
+            }
+        } else if (command.size() != 3) {
+            wrongArguments(out, "SET");
+            return;
+        }
+
+        if (system.write(command.get(1), command.get(2), ttlMillis)) {
+            out.simpleString("OK");
+        } else {
+            out.error("ERR write rejected, the master is unavailable");
+        }
+    }
+
+    /**
+     * Returns keys in order, after the cursor, from a snapshot of the master. The reply is the
+     * cursor to continue from, empty when there is nothing more, and the keys and values found.
+     * <p>
+     * The first page walks the snapshot once and sorts the matching keys; the connection keeps
+     * them and the snapshot, so the following pages are read off the sorted keys and all pages
+     * see the same snapshot. Any other cursor, e.g. one from another connection, starts a new
+     * walk from that cursor.
+     */
+    private void scan(List<String> command, Connection connection) {
+        RespWriter out = connection.out;
+        if (command.size() < 2 || command.size() % 2 != 0) {
+            wrongArguments(out, "SCAN");
+            return;
+        }
+        String cursor = command.get(1);
+        String prefix = "";
+        int count = DEFAULT_SCAN_COUNT;
+        for (int i = 2; i < command.size(); i += 2) {
+            String option = command.get(i).toUpperCase(Locale.ROOT);
+            if (option.equals("PREFIX")) {
+                prefix = command.get(i + 1);
+            } else if (option.equals("COUNT")) {
+                try {
+                    count = Integer.parseInt(command.get(i + 1));
+                } catch (NumberFormatException e) {
+                    count = 0;
+                }
+                if (count <= 0) {
+                    out.error("ERR COUNT must be a positive number");
+                    return;
+                }
+            } else {
+                out.error("ERR unknown SCAN option '" + command.get(i) + "'");
+                return;
+            }
+        }
+
+        synchronized (connection) {
+            ScanState state = connection.scan;
+            if (state == null || !cursor.equals(state.cursor) || !prefix.equals(state.prefix)) {
+                connection.endScan();
+                state = startScan(cursor, prefix);
+                if (state == null) {
+                    out.error("ERR no snapshot is available");
+                    return;
+                }
+                connection.scan = state;
+            }
+
+            int end = Math.min(state.next + count, state.keys.size());
+            out.arrayHeader(2);
+            out.bulk(end < state.keys.size() ? state.keys.get(end - 1) : "");
+            out.arrayHeader((end - state.next) * 2);
+            for (int i = state.next; i < end; i++) {
+                String key = state.keys.get(i);
+                out.bulk(key);
+                out.bulk(state.snapshot.get(key));
+            }
+            if (end < state.keys.size()) {
+                state.next = end;
+                state.cursor = state.keys.get(end - 1);
+            } else {
+                connection.endScan();
+            }
+        }
+    }
+
+    private ScanState startScan(String cursor, String prefix) {
+        StoreSnapshot snapshot = system.snapshot();
+        if (snapshot == null) {
+            return null;
+        }
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, String> entry : (Iterable<Map.Entry<String, String>>) snapshot::iterator) {
+            String key = entry.getKey();
+            if (key.compareTo(cursor) > 0 && key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        keys.sort(null);
+        return new ScanState(prefix, snapshot, keys);
+    }
+
+    private static Long parseLong(String text, RespWriter out) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            out.error("ERR '" + text + "' is not an integer");
+            return null;
+        }
+    }
+
+    private static void wrongArguments(RespWriter out, String command) {
+        out.error("ERR wrong number of arguments for '" + command.toLowerCase(Locale.ROOT) + "'");
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more to do with it
+        }
+    }
+
+    /**
+     * Stops accepting, closes every connection and stops the event loops.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            System.out.println("Server could not close its socket: " + e.getMessage());
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+            threads.add(loop.thread);
+        }
+        threads.add(acceptor);
+        for (Thread thread : threads) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        workers.shutdown();
+        System.out.println("Replication server stopped");
+    }
+
+    /**
+     * Runs a replication system behind a server until the process is stopped. Arguments are
+     * {@code name=value} pairs:
+     * <pre>
+     *   port=6380 slaves=3 loops=cores
+     * </pre>
+     * @param args the server parameters
+     * @throws IOException if the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 6380;
+        int slaves = 3;
+        int eventLoops = Runtime.getRuntime().availableProcessors();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                System.out.println("Ignoring argument '" + arg + "' (expected name=value)");
+                continue;
+            }
+            String value = parts[1];
+            switch (parts[0]) {
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "slaves":
+                    slaves = Integer.parseInt(value);
+                    break;
+                case "loops":
+                    eventLoops = Integer.parseInt(value);
+                    break;
+                default:
+                    System.out.println("Ignoring unknown argument '" + parts[0] + "'");
+            }
+        }
+
+        ReplicationSystem system = new ReplicationSystem(slaves);
+        system.startAutomaticFailover(50, 2);
+        ReplicationServer server = new ReplicationServer(system, port, eventLoops);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            system.shutdown();
+        }));
+        server.start();
+        try {
+            server.acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
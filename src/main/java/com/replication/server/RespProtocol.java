@@ -0,0 +1,244 @@
+package com.replication.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decoding for the RESP-style protocol clients speak to {@link ReplicationServer}.
+ * <p>
+ * A command is an array of bulk strings, e.g. {@code *2\r\n$3\r\nGET\r\n$3\r\nfoo\r\n}, or for
+ * use from a terminal a single line of space-separated words. Replies are simple strings
+ * ({@code +OK}), errors ({@code -ERR ...}), integers ({@code :1}), bulk strings ({@code $3\r\nbar},
+ * or {@code $-1} for none) and arrays of replies. Encoding is done by {@link RespWriter}.
+ */
+public final class RespProtocol {
+    static final int MAX_ARGUMENTS = 1 << 20;
+    static final int MAX_BULK_BYTES = 64 << 20;
+    static final int MAX_INLINE_BYTES = 64 << 10;
+    private static final long INCOMPLETE = Long.MIN_VALUE;
+
+    /**
+     * An error reply sent by the server.
+     */
+    public static final class ErrorReply {
+        private final String message;
+
+        public ErrorReply(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "-" + message;
+        }
+    }
+
+    private RespProtocol() {
+    }
+
+    /**
+     * Decodes one command from the bytes between the buffer's position and limit. If the
+     * command is complete the position moves past it; otherwise it is left where it was,
+     * so the caller can read more bytes and try again.
+     * @param in a heap buffer in read mode
+     * @return the command's words, an empty list for a blank inline line, or null if the
+     *         buffer does not yet hold a whole command
+     * @throws RespProtocolException if the bytes are not a valid command
+     */
+    public static List<String> readCommand(ByteBuffer in) throws RespProtocolException {
+        if (!in.hasRemaining()) {
+            return null;
+        }
+        int start = in.position();
+        List<String> command = in.get(start) == '*' ? readArray(in) : readInline(in);
+        if (command == null) {
+            in.position(start);
+        }
+        return command;
+    }
+
+    private static List<String> readArray(ByteBuffer in) throws RespProtocolException {
+        in.get();
+        long count = readLong(in);
+        if (count == INCOMPLETE) {
+            return null;
+        }
+        if (count < 1 || count > MAX_ARGUMENTS) {
+            throw new RespProtocolException("Invalid argument count " + count);
+        }
+
+        List<String> words = new ArrayList<>((int) count);
+        for (long i = 0; i < count; i++) {
+            if (!in.hasRemaining()) {
+                return null;
+            }
+            byte type = in.get();
+            if (type != '$') {
+                throw new RespProtocolException("Expected a bulk string, got '" + (char) type + "'");
+            }
+            long length = readLong(in);
+            if (length == INCOMPLETE) {
+                return null;
+            }
+            if (length < 0 || length > MAX_BULK_BYTES) {
+                throw new RespProtocolException("Invalid bulk length " + length);
+            }
+            if (in.remaining() < length + 2) {
+                return null;
+            }
+            words.add(new String(in.array(), in.arrayOffset() + in.position(), (int) length, StandardCharsets.UTF_8));
+            in.position(in.position() + (int) length);
+            if (in.get() != '\r' || in.get() != '\n') {
+                throw new RespProtocolException("Bulk string not terminated by CRLF");
+            }
+        }
+        return words;
+    }
+
+    private static List<String> readInline(ByteBuffer in) throws RespProtocolException {
+        int end = -1;
+        for (int i = in.position(); i < in.limit(); i++) {
+            if (in.get(i) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (in.remaining() > MAX_INLINE_BYTES) {
+                throw new RespProtocolException("Inline command longer than " + MAX_INLINE_BYTES + " bytes");
+            }
+            return null;
+        }
+
+        int length = end - in.position();
+        if (length > 0 && in.get(end - 1) == '\r') {
+            length--;
+        }
+        String line = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8).trim();
+        in.position(end + 1);
+        if (line.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : line.split("\\s+")) {
+            words.add(word);
+        }
+        return words;
+    }
+
+    /**
+     * Reads a decimal number terminated by CRLF.
+     * @return the number, or {@link #INCOMPLETE} if the terminator has not arrived yet
+     */
+    private static long readLong(ByteBuffer in) throws RespProtocolException {
+        long value = 0;
+        boolean negative = false;
+        int digits = 0;
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\r') {
+                if (!in.hasRemaining()) {
+                    return INCOMPLETE;
+                }
+                if (in.get() != '\n' || digits == 0) {
+                    throw new RespProtocolException("Malformed number");
+                }
+                return negative ? -value : value;
+            }
+            if (b == '-' && digits == 0 && !negative) {
+                negative = true;
+            } else if (b >= '0' && b <= '9' && digits < 18) {
+                value = value * 10 + (b - '0');
+                digits++;
+            } else {
+                throw new RespProtocolException("Malformed number");
+            }
+        }
+        return INCOMPLETE;
+    }
+
+    /**
+     * Reads one reply from a stream, blocking until it has arrived.
+     * @param in the stream from the server
+     * @return a String for simple and bulk strings, a Long for integers, a List for arrays,
+     *         an {@link ErrorReply} for errors, or null for a null bulk string
+     * @throws IOException if the stream fails, ends, or does not hold a valid reply
+     */
+    public static Object readReply(InputStream in) throws IOException {
+        int type = in.read();
+        switch (type) {
+            case '+':
+                return readLine(in);
+            case '-':
+                return new ErrorReply(readLine(in));
+            case ':':
+                return parseLong(readLine(in));
+            case '$': {
+                long length = parseLong(readLine(in));
+                if (length < 0) {
+                    return null;
+                }
+                if (length > MAX_BULK_BYTES) {
+                    throw new RespProtocolException("Invalid bulk length " + length);
+                }
+                byte[] bytes = in.readNBytes((int) length);
+                if (bytes.length < length || in.read() != '\r' || in.read() != '\n') {
+                    throw new EOFException("Connection closed inside a bulk string");
+                }
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            case '*': {
+                long count = parseLong(readLine(in));
+                if (count < 0) {
+                    return null;
+                }
+                if (count > MAX_ARGUMENTS) {
+                    throw new RespProtocolException("Invalid array length " + count);
+                }
+                List<Object> elements = new ArrayList<>((int) count);
+                for (long i = 0; i < count; i++) {
+                    elements.add(readReply(in));
+                }
+                return elements;
+            }
+            case -1:
+                throw new EOFException("Connection closed by the server");
+            default:
+                throw new RespProtocolException("Unknown reply type '" + (char) type + "'");
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1) {
+                throw new EOFException("Connection closed inside a reply");
+            }
+            line.write(b);
+        }
+        if (in.read() != '\n') {
+            throw new RespProtocolException("Reply line not terminated by CRLF");
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static long parseLong(String text) throws RespProtocolException {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new RespProtocolException("Malformed number '" + text + "'");
+        }
+    }
+}
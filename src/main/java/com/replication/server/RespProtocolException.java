@@ -0,0 +1,14 @@
+package com.replication.server;
+
+import java.io.IOException;
+
+/**
+ * Thrown when bytes received from a peer are not valid in the RESP-style protocol.
+ */
+public class RespProtocolException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public RespProtocolException(String message) {
+        super(message);
+    }
+}
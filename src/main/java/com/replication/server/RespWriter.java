@@ -0,0 +1,141 @@
+package com.replication.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Encodes commands and replies of the RESP-style protocol into a buffer that is reused for
+ * the life of a connection. The buffer grows when a message does not fit and is never shrunk,
+ * so a connection stops allocating once it has seen its largest message.
+ */
+public class RespWriter {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] NULL_BULK = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private ByteBuffer buffer;
+
+    /**
+     * Creates a writer.
+     * @param initialCapacity the starting size of the buffer in bytes
+     */
+    public RespWriter(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            int capacity = buffer.capacity();
+            while (capacity - buffer.position() < bytes) {
+                capacity *= 2;
+            }
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    private void line(char type, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ensure(bytes.length + 3);
+        buffer.put((byte) type).put(bytes).put(CRLF);
+    }
+
+    private void number(char type, long value) {
+        ensure(23);
+        buffer.put((byte) type);
+        // Small non-negative numbers, which is nearly all of them, are written without a String
+        if (value >= 0 && value < 10) {
+            buffer.put((byte) ('0' + value));
+        } else {
+            buffer.put(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        }
+        buffer.put(CRLF);
+    }
+
+    public RespWriter simpleString(String text) {
+        line('+', text);
+        return this;
+    }
+
+    public RespWriter error(String message) {
+        line('-', message);
+        return this;
+    }
+
+    public RespWriter integer(long value) {
+        number(':', value);
+        return this;
+    }
+
+    /**
+     * Writes a bulk string.
+     * @param text the string, or null for a null bulk string
+     * @return this writer
+     */
+    public RespWriter bulk(String text) {
+        if (text == null) {
+            ensure(NULL_BULK.length);
+            buffer.put(NULL_BULK);
+            return this;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        number('$', bytes.length);
+        ensure(bytes.length + 2);
+        buffer.put(bytes).put(CRLF);
+        return this;
+    }
+
+    /**
+     * Starts an array; the given number of replies must follow.
+     * @param length the number of elements
+     * @return this writer
+     */
+    public RespWriter arrayHeader(int length) {
+        number('*', length);
+        return this;
+    }
+
+    /**
+     * Writes a command as an array of bulk strings.
+     * @param words the command name and its arguments
+     * @return this writer
+     */
+    public RespWriter command(List<String> words) {
+        arrayHeader(words.size());
+        for (String word : words) {
+            bulk(word);
+        }
+        return this;
+    }
+
+    /**
+     * Gets the number of bytes written and not yet sent.
+     * @return the pending bytes
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * Gets the buffer, in write mode, for a channel to send from. The caller flips it to
+     * send and compacts it afterwards.
+     * @return the buffer
+     */
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Sends everything written to a stream and empties the buffer.
+     * @param out the stream to send to
+     * @throws IOException if the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        buffer.clear();
+    }
+}
@@ -0,0 +1,173 @@
+package com.replication.server;
+
+import com.replication.system.ReplicationSystem;
+import com.replication.workload.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures requests per second through {@link ReplicationServer} over loopback, with many
+ * client threads sharing one pooled {@link ReplicationClient}. Each configuration is run once
+ * sending one command per round trip and once pipelining several.
+ */
+public class ServerBenchmark {
+
+    private static final class Result {
+        private final double opsPerSecond;
+        private final LatencyHistogram batchLatency;
+        private final long errors;
+
+        private Result(double opsPerSecond, LatencyHistogram batchLatency, long errors) {
+            this.opsPerSecond = opsPerSecond;
+            this.batchLatency = batchLatency;
+            this.errors = errors;
+        }
+    }
+
+    private static Result measure(ReplicationClient client, int threads, int depth, int keys, double readRatio,
+                                  String value, long millis) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder operations = new LongAdder();
+        LongAdder errors = new LongAdder();
+        LatencyHistogram latency = new LatencyHistogram();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            workers.add(new Thread(() -> {
+                List<List<String>> batch = new ArrayList<>(depth);
+                while (running.get()) {
+                    batch.clear();
+                    for (int i = 0; i < depth; i++) {
+                        String key = "key-" + random.nextInt(keys);
+                        batch.add(random.nextDouble() < readRatio
+                                ? Arrays.asList("GET", key) : Arrays.asList("SET", key, value));
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        client.pipeline(batch);
+                        latency.record(System.nanoTime() - start);
+                        operations.add(depth);
+                    } catch (IOException e) {
+                        errors.increment();
+                    }
+                }
+            }, "benchmark-client-" + t));
+        }
+
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        TimeUnit.MILLISECONDS.sleep(millis);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return new Result(operations.sum() / ((System.nanoTime() - start) / 1e9), latency, errors.sum());
+    }
+
+    /**
+     * Runs the benchmark from the command line. Arguments are {@code name=value} pairs:
+     * <pre>
+     *   threads=16 pool=16 pipeline=16 keys=10000 reads=0.9 values=16 loops=cores slaves=2 millis=3000
+     * </pre>
+     * @param args the benchmark parameters
+     * @throws IOException if the server cannot be started
+     * @throws InterruptedException if interrupted while waiting for a run to finish
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = 16;
+        int pool = 16;
+        int pipeline = 16;
+        int keys = 10_000;
+        double readRatio = 0.9;
+        int valueSize = 16;
+        int eventLoops = Runtime.getRuntime().availableProcessors();
+        int slaves = 2;
+        long millis = 3000;
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                System.out.println("Ignoring argument '" + arg + "' (expected name=value)");
+                continue;
+            }
+            String value = parts[1];
+            switch (parts[0]) {
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "pool":
+                    pool = Integer.parseInt(value);
+                    break;
+                case "pipeline":
+                    pipeline = Integer.parseInt(value);
+                    break;
+                case "keys":
+                    keys = Integer.parseInt(value);
+                    break;
+                case "reads":
+                    readRatio = Double.parseDouble(value);
+                    break;
+                case "values":
+                    valueSize = Integer.parseInt(value);
+                    break;
+                case "loops":
+                    eventLoops = Integer.parseInt(value);
+                    break;
+                case "slaves":
+                    slaves = Integer.parseInt(value);
+                    break;
+                case "millis":
+                    millis = Long.parseLong(value);
+                    break;
+                default:
+                    System.out.println("Ignoring unknown argument '" + parts[0] + "'");
+            }
+        }
+
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'v');
+        String value = new String(chars);
+
+        // Nodes log every operation; that would measure the console instead
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ReplicationSystem system = new ReplicationSystem(slaves);
+        ReplicationServer server = new ReplicationServer(system, 0, eventLoops);
+        List<String> results = new ArrayList<>();
+        try {
+            server.start();
+            try (ReplicationClient client = new ReplicationClient("localhost", server.getPort(), pool)) {
+                for (int i = 0; i < keys; i++) {
+                    client.set("key-" + i, value);
+                }
+                // Warm-up, so the JIT has compiled the server before anything is measured
+                measure(client, threads, pipeline, keys, readRatio, value, millis);
+                for (int depth : new int[]{1, pipeline}) {
+                    Result result = measure(client, threads, depth, keys, readRatio, value, millis);
+                    results.add(String.format("%d threads, %d connections, %2d commands per round trip: %,12.0f ops/s, " +
+                                    "round trip p50 %.3f ms, p99 %.3f ms, %d errors",
+                            threads, pool, depth, result.opsPerSecond,
+                            result.batchLatency.getPercentileNanos(50) / 1e6,
+                            result.batchLatency.getPercentileNanos(99) / 1e6, result.errors));
+                }
+            }
+        } finally {
+            server.close();
+            system.shutdown();
+            System.setOut(originalOut);
+        }
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.replication.sim;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One node's or component's view of a {@link SimulationScheduler}. It behaves like a
+ * scheduled thread pool: new tasks are rejected after shutdown, periodic tasks stop,
+ * and already queued one-shot tasks still run unless {@link #shutdownNow()} was used.
+ */
+public class SimulatedExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+    private final String name;
+    private final SimulationScheduler scheduler;
+    private boolean shutdown = false;
+    private boolean discarded = false;
+
+    SimulatedExecutor(String name, SimulationScheduler scheduler) {
+        this.name = name;
+        this.scheduler = scheduler;
+    }
+
+    SimulationScheduler getScheduler() {
+        return scheduler;
+    }
+
+    boolean isDiscarded() {
+        return discarded;
+    }
+
+    private <V> SimulatedTask<V> submitTask(Callable<V> callable, long delayNanos, long periodNanos) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor " + name + " has been shut down");
+        }
+        SimulatedTask<V> task = new SimulatedTask<>(this, callable,
+                scheduler.nanoTime() + Math.max(0, delayNanos), periodNanos);
+        scheduler.enqueue(task);
+        return task;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submitTask(Executors.callable(command), 0, 0);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return submitTask(Executors.callable(command), unit.toNanos(delay), 0);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return submitTask(callable, unit.toNanos(delay), 0);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        return submitTask(Executors.callable(command), unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException("Delay must be positive");
+        }
+        return submitTask(Executors.callable(command), unit.toNanos(initialDelay), -unit.toNanos(delay));
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        discarded = true;
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown;
+    }
+
+    /**
+     * Returns at once: queued tasks can only run when the simulation is driven forward.
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return shutdown;
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedExecutor{" + name + (shutdown ? ", shut down" : "") + '}';
+    }
+}
@@ -0,0 +1,129 @@
+package com.replication.sim;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A one-shot or periodic task queued on a {@link SimulationScheduler}.
+ * Its future cannot be waited on: the only thread that could complete it is the one
+ * that would be waiting, so {@link #get()} fails fast instead of hanging the simulation.
+ */
+class SimulatedTask<V> implements RunnableScheduledFuture<V> {
+    private final SimulatedExecutor owner;
+    private final Callable<V> callable;
+    /** 0 for one-shot tasks, positive for a fixed rate, negative for a fixed delay. */
+    private final long periodNanos;
+    private long dueNanos;
+    private long sequence;
+    private boolean done = false;
+    private boolean cancelled = false;
+    private V result;
+    private Throwable failure;
+
+    SimulatedTask(SimulatedExecutor owner, Callable<V> callable, long dueNanos, long periodNanos) {
+        this.owner = owner;
+        this.callable = callable;
+        this.dueNanos = dueNanos;
+        this.periodNanos = periodNanos;
+    }
+
+    long getDueNanos() {
+        return dueNanos;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void run() {
+        if (done || owner.isDiscarded() || (isPeriodic() && owner.isShutdown())) {
+            return;
+        }
+        try {
+            V value = callable.call();
+            if (!isPeriodic()) {
+                result = value;
+                done = true;
+                return;
+            }
+        } catch (Throwable t) {
+            // A failing periodic task is not run again, as on a real scheduler
+            failure = t;
+            done = true;
+            return;
+        }
+
+        if (!done) {
+            long now = owner.getScheduler().nanoTime();
+            dueNanos = periodNanos > 0 ? dueNanos + periodNanos : now - periodNanos;
+            owner.getScheduler().enqueue(this);
+        }
+    }
+
+    @Override
+    public boolean isPeriodic() {
+        return periodNanos != 0;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(dueNanos - owner.getScheduler().nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (done) {
+            return false;
+        }
+        cancelled = true;
+        done = true;
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public V get() throws ExecutionException {
+        if (!done) {
+            throw new IllegalStateException("Waiting for a simulated task would stall the simulation");
+        }
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return result;
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws ExecutionException {
+        return get();
+    }
+}
@@ -0,0 +1,277 @@
+package com.replication.sim;
+
+import com.replication.node.MasterNode;
+import com.replication.node.SlaveNode;
+import com.replication.system.ReplicationSystem;
+import com.replication.workload.WorkloadGenerator;
+import com.replication.workload.WorkloadSpec;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link ReplicationSystem} deterministically on a virtual clock.
+ * Every executor, scheduler, random choice and failure injected by the failure simulator
+ * derives from the workload's seed, so a run that finds a bug can be replayed exactly by
+ * running the same spec again. Clients issue the workload's operations at its target rate
+ * in virtual time; once they are done, failure injection stops, every slave is brought up
+ * and the system is given time to settle before it is checked:
+ * <ul>
+ *   <li>no task threw,</li>
+ *   <li>the master holds exactly what the acknowledged writes and deletes imply,</li>
+ *   <li>every slave has caught up to the master's log index and holds the same data,
+ *       with the same hash tree.</li>
+ * </ul>
+ */
+public class Simulation {
+    private final WorkloadSpec spec;
+    private final int numSlaves;
+    private long settleSeconds = 10;
+
+    /**
+     * Creates a simulation.
+     * @param spec the workload to run; its seed drives the whole simulation
+     * @param numSlaves the number of slaves
+     */
+    public Simulation(WorkloadSpec spec, int numSlaves) {
+        this.spec = spec;
+        this.numSlaves = numSlaves;
+    }
+
+    /**
+     * Sets how much virtual time the system gets to converge after the workload ends.
+     * @param settleSeconds the settle time in virtual seconds
+     * @return this simulation
+     */
+    public Simulation settleSeconds(long settleSeconds) {
+        this.settleSeconds = settleSeconds;
+        return this;
+    }
+
+    /**
+     * Runs the simulation on the calling thread.
+     * @return the report
+     */
+    public SimulationReport run() {
+        PrintStream originalOut = System.out;
+        if (spec.isQuiet()) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        try {
+            return simulate();
+        } finally {
+            System.setOut(originalOut);
+        }
+    }
+
+    private SimulationReport simulate() {
+        long wallStart = System.nanoTime();
+        SimulationRuntime runtime = new SimulationRuntime(spec.getSeed());
+        SimulationScheduler scheduler = runtime.getScheduler();
+        ReplicationSystem system = new ReplicationSystem(numSlaves, runtime);
+        Map<String, String> expected = new HashMap<>();
+        long[] counts = new long[2];
+
+        if (spec.isPreload()) {
+            WorkloadGenerator loader = new WorkloadGenerator(spec, -1);
+            for (long i = 0; i < spec.getRecordCount(); i++) {
+                String key = WorkloadGenerator.keyFor(i);
+                String value = loader.nextValue();
+                if (system.write(key, value)) {
+                    expected.put(key, value);
+                }
+            }
+        }
+        if (spec.getFailureProbability() > 0) {
+            system.startFailureSimulator(spec.getFailureProbability(), spec.getRecoveryProbability(),
+                    spec.getFailureCheckIntervalSeconds(), spec.getSeed());
+        }
+
+        // Each client issues its share of the operations at a fixed virtual rate
+        ScheduledExecutorService clients = runtime.newScheduler("clients", spec.getThreads());
+        long totalOperations = (long) (spec.getTargetOpsPerSecond() * spec.getDurationSeconds());
+        long intervalNanos = Math.max(1, (long) (1e9 * spec.getThreads() / spec.getTargetOpsPerSecond()));
+        for (int i = 0; i < spec.getThreads(); i++) {
+            WorkloadGenerator generator = new WorkloadGenerator(spec, i);
+            long share = totalOperations / spec.getThreads() + (i < totalOperations % spec.getThreads() ? 1 : 0);
+            long[] issued = {0};
+            clients.scheduleAtFixedRate(() -> {
+                if (issued[0] < share) {
+                    issued[0]++;
+                    execute(system, generator.next(), expected, counts);
+                }
+            }, i * intervalNanos / spec.getThreads(), intervalNanos, TimeUnit.NANOSECONDS);
+        }
+        scheduler.runFor(spec.getDurationSeconds(), TimeUnit.SECONDS);
+        clients.shutdown();
+
+        // Stop injecting failures and let every slave recover
+        system.stopFailureSimulators();
+        for (SlaveNode slave : system.getSlaves()) {
+            if (!slave.isUp()) {
+                slave.goUp();
+            }
+        }
+        scheduler.runFor(settleSeconds, TimeUnit.SECONDS);
+
+        List<String> violations = verify(system, scheduler, expected);
+        long finalLogIndex = system.getMaster().getLastLogIndex();
+        long virtualNanos = scheduler.nanoTime();
+        system.shutdown();
+        scheduler.runUntilIdle(1_000_000);
+
+        return new SimulationReport(spec.getSeed(), counts[0], counts[1], finalLogIndex, virtualNanos,
+                System.nanoTime() - wallStart, scheduler.getTasksRun(), violations);
+    }
+
+    private static void execute(ReplicationSystem system, WorkloadGenerator.Operation operation,
+                                Map<String, String> expected, long[] counts) {
+        boolean success;
+        switch (operation.getType()) {
+            case READ:
+                success = system.read(operation.getKey()) != null;
+                break;
+            case WRITE:
+                success = system.write(operation.getKey(), operation.getValue());
+                if (success) {
+                    expected.put(operation.getKey(), operation.getValue());
+                }
+                break;
+            default:
+                success = system.delete(operation.getKey());
+                if (success) {
+                    expected.remove(operation.getKey());
+                }
+        }
+        counts[0]++;
+        if (!success) {
+            counts[1]++;
+        }
+    }
+
+    private static List<String> verify(ReplicationSystem system, SimulationScheduler scheduler,
+                                       Map<String, String> expected) {
+        List<String> violations = new ArrayList<>();
+        if (scheduler.getTasksFailed() > 0) {
+            violations.add(scheduler.getTasksFailed() + " tasks threw, first: " + scheduler.getFirstFailure());
+        }
+
+        MasterNode master = system.getMaster();
+        Map<String, String> masterData = master.getDataStore();
+        if (!expected.equals(masterData)) {
+            violations.add("Master " + master.getId() + " holds " + masterData.size() +
+                    " keys that differ from the " + expected.size() + " acknowledged ones");
+        }
+
+        long masterIndex = master.getLastLogIndex();
+        for (SlaveNode slave : system.getSlaves()) {
+            if (!slave.isUp()) {
+                violations.add("Slave " + slave.getId() + " is still down");
+                continue;
+            }
+            if (slave.getLastLogIndex() != masterIndex) {
+                violations.add("Slave " + slave.getId() + " is at log index " + slave.getLastLogIndex() +
+                        ", master at " + masterIndex);
+            }
+            Map<String, String> slaveData = slave.getDataStore();
+            if (!Objects.equals(masterData, slaveData)) {
+                violations.add("Slave " + slave.getId() + " holds " + slaveData.size() +
+                        " keys that differ from the master's " + masterData.size());
+            } else if (slave.getMerkleTree().getRootHash() != master.getMerkleTree().getRootHash()) {
+                violations.add("Slave " + slave.getId() + " holds the master's data under a different hash tree");
+            }
+        }
+        return violations;
+    }
+
+    /**
+     * Runs simulations from the command line. Arguments are {@code name=value} pairs:
+     * <pre>
+     *   seed=42 seeds=1 slaves=3 records=1000 mix=50/40/10 rate=10000 duration=100
+     *   clients=4 failures=fail/recover/intervalSeconds settle=10 quiet=true
+     * </pre>
+     * With {@code seeds=N}, seeds {@code seed} to {@code seed + N - 1} are run in turn and
+     * every inconsistent seed is listed, ready to be replayed on its own.
+     * @param args the simulation parameters
+     */
+    public static void main(String[] args) {
+        WorkloadSpec spec = new WorkloadSpec()
+                .recordCount(1_000)
+                .mix(50, 40, 10)
+                .targetOpsPerSecond(10_000)
+                .durationSeconds(100)
+                .failures(0.2, 0.5, 1);
+        long firstSeed = spec.getSeed();
+        int seeds = 1;
+        int slaves = 3;
+        long settle = 10;
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                System.out.println("Ignoring argument '" + arg + "' (expected name=value)");
+                continue;
+            }
+            String value = parts[1];
+            switch (parts[0]) {
+                case "seed":
+                    firstSeed = Long.parseLong(value);
+                    break;
+                case "seeds":
+                    seeds = Integer.parseInt(value);
+                    break;
+                case "slaves":
+                    slaves = Integer.parseInt(value);
+                    break;
+                case "records":
+                    spec.recordCount(Long.parseLong(value));
+                    break;
+                case "mix": {
+                    String[] mix = value.split("/");
+                    spec.mix(Double.parseDouble(mix[0]), Double.parseDouble(mix[1]), Double.parseDouble(mix[2]));
+                    break;
+                }
+                case "rate":
+                    spec.targetOpsPerSecond(Double.parseDouble(value));
+                    break;
+                case "duration":
+                    spec.durationSeconds(Long.parseLong(value));
+                    break;
+                case "clients":
+                    spec.threads(Integer.parseInt(value));
+                    break;
+                case "failures": {
+                    String[] failures = value.split("/");
+                    spec.failures(Double.parseDouble(failures[0]), Double.parseDouble(failures[1]),
+                            Integer.parseInt(failures[2]));
+                    break;
+                }
+                case "settle":
+                    settle = Long.parseLong(value);
+                    break;
+                case "quiet":
+                    spec.quiet(Boolean.parseBoolean(value));
+                    break;
+                default:
+                    System.out.println("Ignoring unknown argument '" + parts[0] + "'");
+            }
+        }
+
+        List<Long> failingSeeds = new ArrayList<>();
+        for (long seed = firstSeed; seed < firstSeed + seeds; seed++) {
+            SimulationReport report = new Simulation(spec.seed(seed), slaves).settleSeconds(settle).run();
+            System.out.print(report);
+            if (!report.isConsistent()) {
+                failingSeeds.add(seed);
+            }
+        }
+        System.out.println(failingSeeds.isEmpty() ? "All " + seeds + " seeds consistent"
+                : "Inconsistent seeds: " + failingSeeds);
+    }
+}
@@ -0,0 +1,92 @@
+package com.replication.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of one simulation run: how much was simulated, how long it took for real,
+ * and every consistency violation found once the system had settled.
+ */
+public class SimulationReport {
+    private final long seed;
+    private final long operations;
+    private final long unsuccessfulOperations;
+    private final long finalLogIndex;
+    private final long virtualNanos;
+    private final long wallNanos;
+    private final long tasksRun;
+    private final List<String> violations;
+
+    public SimulationReport(long seed, long operations, long unsuccessfulOperations, long finalLogIndex,
+                            long virtualNanos, long wallNanos, long tasksRun, List<String> violations) {
+        this.seed = seed;
+        this.operations = operations;
+        this.unsuccessfulOperations = unsuccessfulOperations;
+        this.finalLogIndex = finalLogIndex;
+        this.virtualNanos = virtualNanos;
+        this.wallNanos = wallNanos;
+        this.tasksRun = tasksRun;
+        this.violations = new ArrayList<>(violations);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    /**
+     * Gets how many operations did not succeed: rejected writes and deletes, and reads that found no value.
+     * @return the number of unsuccessful operations
+     */
+    public long getUnsuccessfulOperations() {
+        return unsuccessfulOperations;
+    }
+
+    public long getFinalLogIndex() {
+        return finalLogIndex;
+    }
+
+    public long getVirtualNanos() {
+        return virtualNanos;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public long getTasksRun() {
+        return tasksRun;
+    }
+
+    /**
+     * Gets the consistency violations found after the run settled.
+     * @return the violations, empty if the run was consistent
+     */
+    public List<String> getViolations() {
+        return Collections.unmodifiableList(violations);
+    }
+
+    public boolean isConsistent() {
+        return violations.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Seed %d: %s, %d operations (%d unsuccessful), log index %d, " +
+                        "%.1f virtual s in %.2f real s, %d tasks%n",
+                seed, isConsistent() ? "CONSISTENT" : "VIOLATED", operations, unsuccessfulOperations,
+                finalLogIndex, virtualNanos / 1e9, wallNanos / 1e9, tasksRun));
+        for (String violation : violations) {
+            report.append("  ").append(violation).append('\n');
+        }
+        if (!isConsistent()) {
+            report.append("  Replay with seed=").append(seed).append('\n');
+        }
+        return report.toString();
+    }
+}
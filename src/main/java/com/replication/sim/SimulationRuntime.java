@@ -0,0 +1,51 @@
+package com.replication.sim;
+
+import com.replication.runtime.NodeRuntime;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Runtime that drives every executor, scheduler and clock from one seeded
+ * {@link SimulationScheduler}. Random generators are seeded from the same seed in the
+ * order they are requested, so a run is fully determined by its seed.
+ */
+public class SimulationRuntime implements NodeRuntime {
+    private final SimulationScheduler scheduler;
+    private final Random seeds;
+
+    public SimulationRuntime(long seed) {
+        this.scheduler = new SimulationScheduler(seed);
+        this.seeds = new Random(~seed);
+    }
+
+    @Override
+    public ExecutorService newExecutor(String name, int threads) {
+        return scheduler.newExecutor(name);
+    }
+
+    @Override
+    public ScheduledExecutorService newScheduler(String name, int threads) {
+        return scheduler.newExecutor(name);
+    }
+
+    @Override
+    public long nanoTime() {
+        return scheduler.nanoTime();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return scheduler.nanoTime() / 1_000_000;
+    }
+
+    @Override
+    public Random newRandom() {
+        return new Random(seeds.nextLong());
+    }
+
+    public SimulationScheduler getScheduler() {
+        return scheduler;
+    }
+}
@@ -0,0 +1,164 @@
+package com.replication.sim;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded scheduler that runs every task of a simulation against a virtual clock.
+ * Executors handed out by {@link #newExecutor(String)} all feed the same queue. Tasks that
+ * are due at the same virtual time run in an order drawn from the seeded random generator,
+ * which stands in for the interleavings real thread pools produce, so one seed always
+ * replays the same interleaving. The clock only moves when no task is due, and then jumps
+ * straight to the next one, so idle waits cost nothing.
+ * <p>
+ * The scheduler, and every task it runs, must only be used from the thread that drives it.
+ */
+public class SimulationScheduler {
+    private final Random random;
+    private final PriorityQueue<SimulatedTask<?>> delayed = new PriorityQueue<>(
+            Comparator.<SimulatedTask<?>>comparingLong(SimulatedTask::getDueNanos)
+                    .thenComparingLong(SimulatedTask::getSequence));
+    private final List<SimulatedTask<?>> ready = new ArrayList<>();
+    private long nowNanos = 0;
+    private long sequence = 0;
+    private long tasksRun = 0;
+    private long tasksFailed = 0;
+    private Throwable firstFailure;
+
+    /**
+     * Creates a scheduler whose interleavings are drawn from the given seed.
+     * @param seed the seed for ordering tasks that are due at the same time
+     */
+    public SimulationScheduler(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Creates an executor whose tasks run on this scheduler. Shutting the executor down
+     * only stops its own tasks.
+     * @param name the name of the executor's owner, for diagnostics
+     * @return a new executor
+     */
+    public SimulatedExecutor newExecutor(String name) {
+        return new SimulatedExecutor(name, this);
+    }
+
+    /**
+     * Gets the virtual time.
+     * @return the virtual time in nanoseconds since the simulation started
+     */
+    public long nanoTime() {
+        return nowNanos;
+    }
+
+    void enqueue(SimulatedTask<?> task) {
+        task.setSequence(sequence++);
+        if (task.getDueNanos() <= nowNanos) {
+            ready.add(task);
+        } else {
+            delayed.add(task);
+        }
+    }
+
+    /**
+     * Runs one task that is due now. If none is due, the clock first jumps to the next
+     * delayed task, unless that lies beyond the given limit.
+     * @param limitNanos the virtual time the clock must not pass
+     * @return true if a task was run
+     */
+    private boolean runNext(long limitNanos) {
+        if (ready.isEmpty()) {
+            SimulatedTask<?> next = delayed.peek();
+            if (next == null || next.getDueNanos() > limitNanos) {
+                return false;
+            }
+            nowNanos = Math.max(nowNanos, next.getDueNanos());
+        }
+        while (!delayed.isEmpty() && delayed.peek().getDueNanos() <= nowNanos) {
+            ready.add(delayed.poll());
+        }
+
+        // Swap the chosen task to the end so removing it is cheap
+        int choice = random.nextInt(ready.size());
+        int last = ready.size() - 1;
+        SimulatedTask<?> task = ready.get(choice);
+        ready.set(choice, ready.get(last));
+        ready.remove(last);
+
+        tasksRun++;
+        task.run();
+        if (task.getFailure() != null) {
+            tasksFailed++;
+            if (firstFailure == null) {
+                firstFailure = task.getFailure();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs every task that falls due within the given span of virtual time, then moves
+     * the clock to the end of the span.
+     * @param duration the span of virtual time
+     * @param unit the unit of the span
+     */
+    public void runFor(long duration, TimeUnit unit) {
+        long limit = nowNanos + unit.toNanos(duration);
+        while (runNext(limit)) {
+            // keep going until nothing is due within the span
+        }
+        nowNanos = Math.max(nowNanos, limit);
+    }
+
+    /**
+     * Runs tasks until none is left or the step limit is reached. Periodic tasks keep the
+     * scheduler busy forever, so the limit is what ends a run that has them.
+     * @param maxTasks the most tasks to run
+     * @return true if the queue drained before the limit
+     */
+    public boolean runUntilIdle(long maxTasks) {
+        for (long i = 0; i < maxTasks; i++) {
+            if (!runNext(Long.MAX_VALUE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of tasks run so far.
+     * @return the number of tasks run
+     */
+    public long getTasksRun() {
+        return tasksRun;
+    }
+
+    /**
+     * Gets the number of tasks that threw. Such tasks complete their futures exceptionally,
+     * as on a real executor, where the failure would otherwise go unnoticed.
+     * @return the number of failed tasks
+     */
+    public long getTasksFailed() {
+        return tasksFailed;
+    }
+
+    /**
+     * Gets the first exception thrown by a task.
+     * @return the exception, or null if no task has failed
+     */
+    public Throwable getFirstFailure() {
+        return firstFailure;
+    }
+
+    /**
+     * Gets the number of tasks waiting to run, now or later.
+     * @return the number of queued tasks
+     */
+    public int getQueuedTasks() {
+        return ready.size() + delayed.size();
+    }
+}
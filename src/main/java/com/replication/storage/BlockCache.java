@@ -0,0 +1,79 @@
+package com.replication.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of decoded SSTable blocks, bounded by their size on disk,
+ * so reads of a warm key skip both the disk read and decoding.
+ */
+final class BlockCache {
+    // Block positions take the low bits of the cache key, table IDs the rest
+    private static final int POSITION_BITS = 24;
+
+    private final long capacityBytes;
+    private final LinkedHashMap<Long, SSTable.Block> blocks = new LinkedHashMap<>(64, 0.75f, true);
+    private long usedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    BlockCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    synchronized SSTable.Block get(long tableId, int position) {
+        SSTable.Block block = blocks.get(keyOf(tableId, position));
+        if (block == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return block;
+    }
+
+    synchronized void put(long tableId, int position, SSTable.Block block) {
+        if (block.bytes > capacityBytes) {
+            return;
+        }
+        SSTable.Block previous = blocks.put(keyOf(tableId, position), block);
+        usedBytes += block.bytes - (previous == null ? 0 : previous.bytes);
+        Iterator<SSTable.Block> eldest = blocks.values().iterator();
+        while (usedBytes > capacityBytes) {
+            usedBytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops every block of a table that no longer exists.
+     * @param tableId the ID of the table
+     */
+    synchronized void invalidate(long tableId) {
+        Iterator<Map.Entry<Long, SSTable.Block>> entries = blocks.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Long, SSTable.Block> entry = entries.next();
+            if (entry.getKey() >>> POSITION_BITS == tableId) {
+                usedBytes -= entry.getValue().bytes;
+                entries.remove();
+            }
+        }
+    }
+
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Gets the fraction of lookups that found their block cached.
+     * @return the hit rate, or 0 before the first lookup
+     */
+    synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    private static long keyOf(long tableId, int position) {
+        return tableId << POSITION_BITS | position;
+    }
+}
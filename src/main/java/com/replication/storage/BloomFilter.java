@@ -0,0 +1,88 @@
+package com.replication.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Bloom filter over the keys of one SSTable, so a lookup can skip files that certainly do
+ * not hold a key without reading any block. Probes are derived from one 64-bit hash by
+ * double hashing. Immutable once the table is written.
+ */
+final class BloomFilter {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long[] bits;
+    private final int probes;
+
+    /**
+     * Creates an empty filter sized for a number of keys.
+     * @param expectedKeys the number of keys that will be added
+     * @param bitsPerKey bits of filter per key; 10 gives about a 1% false positive rate
+     */
+    BloomFilter(int expectedKeys, int bitsPerKey) {
+        long bitCount = Math.max(64, (long) expectedKeys * bitsPerKey);
+        this.bits = new long[(int) ((bitCount + 63) >>> 6)];
+        this.probes = Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+    }
+
+    private BloomFilter(long[] bits, int probes) {
+        this.bits = bits;
+        this.probes = probes;
+    }
+
+    void add(String key) {
+        long hash = hash(key);
+        long bitCount = (long) bits.length << 6;
+        for (int i = 0; i < probes; i++) {
+            long bit = Math.floorMod(hash + i * (hash >>> 32 | 1), bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Checks if a key may have been added.
+     * @param key the key
+     * @return false if the key was certainly not added
+     */
+    boolean mightContain(String key) {
+        long hash = hash(key);
+        long bitCount = (long) bits.length << 6;
+        for (int i = 0; i < probes; i++) {
+            long bit = Math.floorMod(hash + i * (hash >>> 32 | 1), bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(probes);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    static BloomFilter readFrom(DataInputStream in) throws IOException {
+        int probes = in.readInt();
+        long[] bits = new long[in.readInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new BloomFilter(bits, probes);
+    }
+
+    private static long hash(String key) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * FNV_PRIME;
+        }
+        // FNV leaves the high bits poorly mixed for short keys
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        return hash ^ (hash >>> 33);
+    }
+}
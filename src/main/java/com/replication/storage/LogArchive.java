@@ -0,0 +1,131 @@
+package com.replication.storage;
+
+import com.replication.model.LogEntry;
+import com.replication.model.ReplicationLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the older part of a node's {@link ReplicationLog} on local disk, so a node whose
+ * data spills to disk does not hold its whole history in memory either.
+ * <p>
+ * Once the log holds twice the retained number of entries in memory, the entries before
+ * the retained tail are appended to a {@link WriteAheadLog} in the background and then
+ * dropped from memory. Reads of dropped entries, e.g. by a slave catching up from far
+ * behind or a change feed subscriber, are served from the archive.
+ * <p>
+ * Like the LSM store it sits beside, the archive is not a durable copy: nothing is synced,
+ * and opening an archive discards whatever an earlier one left in its directory.
+ */
+public class LogArchive implements AutoCloseable {
+    public static final int DEFAULT_RETAINED_ENTRIES = 1 << 14;
+
+    private final Path directory;
+    private final WriteAheadLog wal;
+    private final int retainedEntries;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // Only changed by the archiving task
+    private long archivedThrough = 0;
+
+    /**
+     * Opens an empty archive in a directory, deleting any segments left there.
+     * @param directory the directory for the archive's segments
+     * @param retainedEntries how many of the newest entries stay in memory
+     * @throws IOException if the directory cannot be created or cleared
+     */
+    public LogArchive(Path directory, int retainedEntries) throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Files.delete(path);
+            }
+        }
+        this.directory = directory;
+        this.wal = new WriteAheadLog(directory);
+        this.retainedEntries = retainedEntries;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Archives and drops the older entries of a log in the background, if it has grown
+     * enough. Called after each append; only one archiving task runs at a time.
+     * @param log the log to trim
+     * @param executor runs the archiving task
+     */
+    public void trimLater(ReplicationLog log, Executor executor) {
+        if (log.retainedSize() < 2 * retainedEntries || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    trim(log);
+                } finally {
+                    scheduled.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the log just keeps its entries
+            scheduled.set(false);
+        }
+    }
+
+    /**
+     * Appends every entry before the retained tail to disk, then drops them from memory.
+     * @param log the log to trim
+     * @return the number of entries dropped from memory
+     */
+    int trim(ReplicationLog log) {
+        if (log.retainedSize() <= retainedEntries) {
+            return 0;
+        }
+        long through = log.get(log.size() - retainedEntries - 1).getId();
+        try {
+            while (archivedThrough < through) {
+                List<LogEntry> entries = log.entriesAfter(archivedThrough, 4096);
+                if (entries.isEmpty()) {
+                    break;
+                }
+                for (LogEntry entry : entries) {
+                    if (entry.getId() > through) {
+                        break;
+                    }
+                    wal.append(entry);
+                    archivedThrough = entry.getId();
+                }
+            }
+            // One segment per trim, so a read goes straight to the segment it needs
+            wal.roll();
+        } catch (IOException e) {
+            System.out.println("Could not archive log entries to " + directory + ": " + e.getMessage());
+            return 0;
+        }
+        return log.truncateThrough(archivedThrough);
+    }
+
+    /**
+     * Reads archived entries after a log index, in log order.
+     * @param afterIndex the log index after which to return entries
+     * @param maxEntries the most entries to return
+     * @return the entries, which may go on past the entries dropped from memory
+     * @throws IOException if the archive cannot be read
+     */
+    public List<LogEntry> read(long afterIndex, int maxEntries) throws IOException {
+        return wal.read(afterIndex, maxEntries);
+    }
+
+    @Override
+    public void close() throws IOException {
+        wal.close();
+    }
+}
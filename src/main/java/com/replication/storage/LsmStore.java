@@ -0,0 +1,728 @@
+package com.replication.storage;
+
+import com.replication.store.ColdStore;
+import com.replication.store.VersionedValue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Log-structured merge tree that keeps one version per key on local disk, for data that
+ * does not fit in memory.
+ * <p>
+ * Writes go to a sorted in-memory memtable. A full memtable is frozen and flushed in the
+ * background to an {@link SSTable} in level 0, where tables may overlap. Once level 0 holds
+ * enough tables they are merged into level 1, and any deeper level that outgrows its budget,
+ * ten times the one above it, has one table merged into the next level, taking turns through
+ * the key range. Tables below level 0 never overlap, so a lookup reads at most one table per
+ * level, and the tables' bloom filters rule most of those out without a disk read. Recently
+ * read blocks stay in a {@link BlockCache}.
+ * <p>
+ * A lookup checks the memtables newest first, then level 0 newest first, then each deeper
+ * level in turn, and stops at the first version it finds; a tombstone means the key is
+ * absent. Readers take no lock. They work on an immutable view of the current memtables and
+ * tables, and retry on a newer view if a compaction closes a table under them. Flushes and
+ * compactions run one at a time, on the background executor, or on a writer that has got
+ * too far ahead of them.
+ * <p>
+ * The files are not a durable copy of the data: nothing is synced, and opening a store
+ * discards whatever an earlier one left in its directory. Durability is the job of the
+ * node's write-ahead log and snapshots.
+ */
+public class LsmStore implements ColdStore, AutoCloseable {
+    static final String SUFFIX = ".sst";
+    private static final long DEFAULT_MEMTABLE_BYTES = 4 << 20;
+    private static final long DEFAULT_BLOCK_CACHE_BYTES = 16 << 20;
+    private static final int LEVEL0_COMPACTION_TRIGGER = 4;
+    private static final int LEVEL_SIZE_MULTIPLIER = 10;
+    private static final int MAX_FROZEN_MEMTABLES = 4;
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private static final class Memtable {
+        private final ConcurrentSkipListMap<String, VersionedValue> entries = new ConcurrentSkipListMap<>();
+        private final AtomicLong bytes = new AtomicLong();
+    }
+
+    /**
+     * Everything a reader needs, replaced as a whole whenever a memtable is frozen or flushed
+     * or tables are compacted. Lists are never modified once the view is published.
+     */
+    private static final class View {
+        private final Memtable memtable;
+        // Newest first
+        private final List<Memtable> frozen;
+        // Newest first
+        private final List<SSTable> level0;
+        // Level 1 onwards, each sorted by smallest key
+        private final List<List<SSTable>> levels;
+
+        private View(Memtable memtable, List<Memtable> frozen, List<SSTable> level0, List<List<SSTable>> levels) {
+            this.memtable = memtable;
+            this.frozen = frozen;
+            this.level0 = level0;
+            this.levels = levels;
+        }
+    }
+
+    private final Path directory;
+    private final long memtableBytes;
+    private final BlockCache blockCache;
+    private final ExecutorService background;
+    // Writers share the read side while adding to the memtable; freezing it takes the write side
+    private final ReadWriteLock memtableLock = new ReentrantReadWriteLock();
+    // Held by whoever is flushing or compacting
+    private final ReentrantLock maintenanceLock = new ReentrantLock();
+    private final AtomicLong nextTableId = new AtomicLong(1);
+    // For each level from 1, the largest key of the table last compacted out of it
+    private final List<String> compactionCursors = new ArrayList<>();
+    private volatile View view;
+    private volatile boolean closed = false;
+    private long flushes = 0;
+    private long compactions = 0;
+
+    /**
+     * Opens an empty store in a directory, deleting any tables left there.
+     * @param directory the directory for the table files
+     * @param memtableBytes how much the memtable may hold before it is flushed; also the size of compacted tables
+     * @param blockCacheBytes how many bytes of blocks to cache
+     * @param background runs flushes and compactions
+     * @throws IOException if the directory cannot be created or cleared
+     */
+    public LsmStore(Path directory, long memtableBytes, long blockCacheBytes, ExecutorService background)
+            throws IOException {
+        this.directory = directory;
+        this.memtableBytes = memtableBytes;
+        this.blockCache = new BlockCache(blockCacheBytes);
+        this.background = background;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(SUFFIX) || name.endsWith(SUFFIX + ".tmp")) {
+                    Files.delete(path);
+                }
+            }
+        }
+        this.view = new View(new Memtable(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Opens an empty store with a 4 MB memtable and a 16 MB block cache, deleting any tables left in the directory.
+     * @param directory the directory for the table files
+     * @param background runs flushes and compactions
+     * @throws IOException if the directory cannot be created or cleared
+     */
+    public LsmStore(Path directory, ExecutorService background) throws IOException {
+        this(directory, DEFAULT_MEMTABLE_BYTES, DEFAULT_BLOCK_CACHE_BYTES, background);
+    }
+
+    /**
+     * Reads the latest version of a key.
+     * @param key the key
+     * @return the version, or null if the key is absent
+     * @throws UncheckedIOException if a table cannot be read
+     */
+    @Override
+    public VersionedValue get(String key) {
+        while (true) {
+            View current = view;
+            try {
+                VersionedValue version = find(current, key);
+                return version == null || version.isTombstone() ? null : version;
+            } catch (ClosedChannelException e) {
+                if (closed || view == current) {
+                    throw new UncheckedIOException(e);
+                }
+                // A compaction replaced a table mid-read; its data is in the newer view
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private VersionedValue find(View current, String key) throws IOException {
+        VersionedValue version = current.memtable.entries.get(key);
+        for (int i = 0; version == null && i < current.frozen.size(); i++) {
+            version = current.frozen.get(i).entries.get(key);
+        }
+        for (int i = 0; version == null && i < current.level0.size(); i++) {
+            version = current.level0.get(i).get(key, blockCache);
+        }
+        for (int i = 0; version == null && i < current.levels.size(); i++) {
+            SSTable table = tableFor(current.levels.get(i), key);
+            if (table != null) {
+                version = table.get(key, blockCache);
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Finds the table of a non-overlapping level whose key range could hold a key.
+     */
+    private static SSTable tableFor(List<SSTable> level, String key) {
+        int low = 0;
+        int high = level.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            SSTable table = level.get(middle);
+            if (key.compareTo(table.getSmallest()) < 0) {
+                high = middle - 1;
+            } else if (key.compareTo(table.getLargest()) > 0) {
+                low = middle + 1;
+            } else {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the latest version of a key.
+     * @param key the key
+     * @param value the value
+     * @param logId the ID of the log entry that wrote it
+     * @param expiresAtMillis when the value expires, or 0 for never
+     */
+    @Override
+    public void put(String key, String value, long logId, long expiresAtMillis) {
+        add(key, VersionedValue.detached(value, logId, expiresAtMillis), value == null ? 0 : value.length());
+    }
+
+    /**
+     * Marks a key as absent, hiding any version of it in older tables.
+     * @param key the key
+     */
+    @Override
+    public void delete(String key) {
+        add(key, VersionedValue.detached(null, 0, 0), 0);
+    }
+
+    private void add(String key, VersionedValue version, int valueLength) {
+        boolean full;
+        try {
+            memtableLock.readLock().lock();
+            Memtable memtable = view.memtable;
+            memtable.entries.put(key, version);
+            full = memtable.bytes.addAndGet(ENTRY_OVERHEAD_BYTES + 2L * (key.length() + valueLength)) >= memtableBytes;
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+        if (full) {
+            freeze(false);
+        }
+    }
+
+    /**
+     * Freezes the memtable and schedules it to be flushed. A writer that finds too many
+     * frozen memtables waiting flushes them itself, which holds writes back to the pace
+     * the disk can take.
+     */
+    private void freeze(boolean force) {
+        boolean backlog;
+        try {
+            memtableLock.writeLock().lock();
+            View current = view;
+            if (current.memtable.entries.isEmpty() || (!force && current.memtable.bytes.get() < memtableBytes)) {
+                // Another writer froze it first
+                return;
+            }
+            synchronized (this) {
+                // From the latest view, so a memtable flushed meanwhile is not brought back
+                View latest = view;
+                List<Memtable> frozen = new ArrayList<>(latest.frozen.size() + 1);
+                frozen.add(current.memtable);
+                frozen.addAll(latest.frozen);
+                view = new View(new Memtable(), frozen, latest.level0, latest.levels);
+                backlog = frozen.size() > MAX_FROZEN_MEMTABLES;
+            }
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+
+        if (backlog) {
+            maintain();
+            return;
+        }
+        try {
+            background.execute(this::maintain);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; whatever is still in memory is read from there
+        }
+    }
+
+    /**
+     * Flushes the memtable and waits until every frozen memtable is on disk and compactions have caught up.
+     */
+    public void flush() {
+        freeze(true);
+        maintain();
+    }
+
+    /**
+     * Flushes frozen memtables oldest first, then compacts until no level is over its budget.
+     */
+    private void maintain() {
+        try {
+            maintenanceLock.lock();
+            while (!closed) {
+                List<Memtable> frozen = view.frozen;
+                if (frozen.isEmpty()) {
+                    break;
+                }
+                flushMemtable(frozen.get(frozen.size() - 1));
+            }
+            while (!closed && compactOnce()) {
+                // Each compaction may push the next level over its budget
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("LSM store in " + directory + " could not flush or compact: " + e.getMessage());
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    private void flushMemtable(Memtable memtable) throws IOException {
+        SSTable table = SSTable.write(directory, nextTableId.getAndIncrement(),
+                memtable.entries.entrySet().iterator(), Long.MAX_VALUE);
+        synchronized (this) {
+            View current = view;
+            List<Memtable> frozen = new ArrayList<>(current.frozen);
+            frozen.remove(memtable);
+            List<SSTable> level0 = new ArrayList<>(current.level0.size() + 1);
+            level0.add(table);
+            level0.addAll(current.level0);
+            view = new View(current.memtable, frozen, level0, current.levels);
+            flushes++;
+        }
+    }
+
+    /**
+     * Runs one compaction if level 0 has too many tables or a deeper level is over its budget.
+     * @return true if a compaction ran
+     */
+    private boolean compactOnce() throws IOException {
+        View current = view;
+        if (current.level0.size() >= LEVEL0_COMPACTION_TRIGGER) {
+            String smallest = null;
+            String largest = null;
+            for (SSTable table : current.level0) {
+                smallest = smallest == null || table.getSmallest().compareTo(smallest) < 0 ? table.getSmallest() : smallest;
+                largest = largest == null || table.getLargest().compareTo(largest) > 0 ? table.getLargest() : largest;
+            }
+            compact(current, 0, new ArrayList<>(current.level0), smallest, largest);
+            return true;
+        }
+
+        long budget = memtableBytes * LEVEL0_COMPACTION_TRIGGER;
+        for (int level = 1; level <= current.levels.size(); level++) {
+            List<SSTable> tables = current.levels.get(level - 1);
+            long size = 0;
+            for (SSTable table : tables) {
+                size += table.getSizeBytes();
+            }
+            if (size > budget) {
+                SSTable picked = pickForCompaction(level, tables);
+                compact(current, level, Collections.singletonList(picked), picked.getSmallest(), picked.getLargest());
+                return true;
+            }
+            budget *= LEVEL_SIZE_MULTIPLIER;
+        }
+        return false;
+    }
+
+    /**
+     * Picks the first table after the one compacted last time, so compactions sweep the key range.
+     */
+    private SSTable pickForCompaction(int level, List<SSTable> tables) {
+        while (compactionCursors.size() < level) {
+            compactionCursors.add(null);
+        }
+        String cursor = compactionCursors.get(level - 1);
+        SSTable picked = tables.get(0);
+        for (SSTable table : tables) {
+            if (cursor == null || table.getSmallest().compareTo(cursor) > 0) {
+                picked = table;
+                break;
+            }
+        }
+        compactionCursors.set(level - 1, picked.getLargest());
+        return picked;
+    }
+
+    /**
+     * Merges tables from one level with the overlapping tables of the next and replaces them
+     * with the result. Called while holding the maintenance lock.
+     * @param current the view the tables were chosen from
+     * @param level the level the tables are in
+     * @param inputs the tables to move down, newest first
+     * @param smallest the smallest key among them
+     * @param largest the largest key among them
+     */
+    private void compact(View current, int level, List<SSTable> inputs, String smallest, String largest)
+            throws IOException {
+        List<SSTable> target = level < current.levels.size() ? current.levels.get(level) : Collections.emptyList();
+        List<SSTable> overlapping = new ArrayList<>();
+        for (SSTable table : target) {
+            if (table.overlaps(smallest, largest)) {
+                overlapping.add(table);
+            }
+        }
+
+        // Upper-level tables come first, so their versions win over the older ones below
+        List<Iterator<Map.Entry<String, VersionedValue>>> sources = new ArrayList<>();
+        for (SSTable table : inputs) {
+            sources.add(table.iterator(null));
+        }
+        for (SSTable table : overlapping) {
+            sources.add(table.iterator(null));
+        }
+        // Tombstones can go once nothing below the target level could still hold the key
+        boolean bottom = true;
+        for (int i = level + 1; i < current.levels.size(); i++) {
+            bottom &= current.levels.get(i).isEmpty();
+        }
+        Iterator<Map.Entry<String, VersionedValue>> merged = new MergingIterator(sources, bottom);
+
+        List<SSTable> outputs = new ArrayList<>();
+        long inputBytes = 0;
+        try {
+            while (merged.hasNext()) {
+                outputs.add(SSTable.write(directory, nextTableId.getAndIncrement(), merged, memtableBytes));
+            }
+        } catch (IOException | UncheckedIOException e) {
+            for (SSTable output : outputs) {
+                output.delete();
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            View latest = view;
+            List<SSTable> level0 = new ArrayList<>(latest.level0);
+            List<List<SSTable>> levels = new ArrayList<>(latest.levels);
+            if (level == 0) {
+                level0.removeAll(inputs);
+            } else {
+                List<SSTable> source = new ArrayList<>(levels.get(level - 1));
+                source.removeAll(inputs);
+                levels.set(level - 1, source);
+            }
+            if (levels.size() == level) {
+                levels.add(Collections.emptyList());
+            }
+            List<SSTable> result = new ArrayList<>(levels.get(level));
+            result.removeAll(overlapping);
+            result.addAll(outputs);
+            result.sort(Comparator.comparing(SSTable::getSmallest));
+            levels.set(level, result);
+            view = new View(latest.memtable, latest.frozen, level0, levels);
+            compactions++;
+        }
+
+        // Readers still on the old view retry on the new one once these are closed
+        for (SSTable table : inputs) {
+            inputBytes += table.getSizeBytes();
+            retire(table);
+        }
+        for (SSTable table : overlapping) {
+            inputBytes += table.getSizeBytes();
+            retire(table);
+        }
+        System.out.println("LSM store in " + directory + " compacted " + (inputs.size() + overlapping.size()) +
+                " tables (" + inputBytes + " bytes) from level " + level + " into " + outputs.size() +
+                " tables in level " + (level + 1));
+    }
+
+    private void retire(SSTable table) throws IOException {
+        table.delete();
+        blockCache.invalidate(table.getId());
+    }
+
+    /**
+     * Iterates over every present key in key order with its latest version. The iteration
+     * is weakly consistent: it never fails because of concurrent writes or compactions, and
+     * may or may not reflect writes made after it started.
+     * @return the keys and their versions
+     * @throws UncheckedIOException if a table cannot be read
+     */
+    @Override
+    public Iterator<Map.Entry<String, VersionedValue>> scan() {
+        return new Iterator<Map.Entry<String, VersionedValue>>() {
+            private String lastKey = null;
+            private View scanned = null;
+            private Iterator<Map.Entry<String, VersionedValue>> merged = null;
+            private Map.Entry<String, VersionedValue> next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    try {
+                        if (merged == null) {
+                            scanned = view;
+                            merged = open(scanned, lastKey);
+                        }
+                        if (!merged.hasNext()) {
+                            return false;
+                        }
+                        next = merged.next();
+                        lastKey = next.getKey();
+                    } catch (UncheckedIOException e) {
+                        if (!(e.getCause() instanceof ClosedChannelException) || closed || view == scanned) {
+                            throw e;
+                        }
+                        // A compaction replaced a table mid-scan; resume on the newer view
+                        merged = null;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Map.Entry<String, VersionedValue> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, VersionedValue> entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+
+    private static Iterator<Map.Entry<String, VersionedValue>> open(View current, String afterKey) {
+        List<Iterator<Map.Entry<String, VersionedValue>>> sources = new ArrayList<>();
+        sources.add(tail(current.memtable, afterKey));
+        for (Memtable memtable : current.frozen) {
+            sources.add(tail(memtable, afterKey));
+        }
+        for (SSTable table : current.level0) {
+            sources.add(table.iterator(afterKey));
+        }
+        for (List<SSTable> level : current.levels) {
+            List<SSTable> remaining = new ArrayList<>();
+            for (SSTable table : level) {
+                if (afterKey == null || table.getLargest().compareTo(afterKey) > 0) {
+                    remaining.add(table);
+                }
+            }
+            sources.add(concat(remaining, afterKey));
+        }
+        return new MergingIterator(sources, true);
+    }
+
+    /**
+     * Iterates over the tables of a non-overlapping level one after the other, opening each only when reached.
+     */
+    private static Iterator<Map.Entry<String, VersionedValue>> concat(List<SSTable> tables, String afterKey) {
+        return new Iterator<Map.Entry<String, VersionedValue>>() {
+            private int table = 0;
+            private Iterator<Map.Entry<String, VersionedValue>> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && table < tables.size()) {
+                    current = tables.get(table++).iterator(afterKey);
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, VersionedValue> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    private static Iterator<Map.Entry<String, VersionedValue>> tail(Memtable memtable, String afterKey) {
+        return (afterKey == null ? memtable.entries : memtable.entries.tailMap(afterKey, false)).entrySet().iterator();
+    }
+
+    /**
+     * Merges sorted sources into one sorted sequence with one version per key. Where sources
+     * share a key, the version from the earliest source wins.
+     */
+    private static final class MergingIterator implements Iterator<Map.Entry<String, VersionedValue>> {
+        private static final class Head {
+            private final Map.Entry<String, VersionedValue> entry;
+            private final int source;
+
+            private Head(Map.Entry<String, VersionedValue> entry, int source) {
+                this.entry = entry;
+                this.source = source;
+            }
+        }
+
+        private final List<Iterator<Map.Entry<String, VersionedValue>>> sources;
+        private final boolean dropTombstones;
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> {
+            int order = a.entry.getKey().compareTo(b.entry.getKey());
+            return order != 0 ? order : Integer.compare(a.source, b.source);
+        });
+        private Map.Entry<String, VersionedValue> next = null;
+
+        private MergingIterator(List<Iterator<Map.Entry<String, VersionedValue>>> sources, boolean dropTombstones) {
+            this.sources = sources;
+            this.dropTombstones = dropTombstones;
+            for (int i = 0; i < sources.size(); i++) {
+                advance(i);
+            }
+        }
+
+        private void advance(int source) {
+            Iterator<Map.Entry<String, VersionedValue>> iterator = sources.get(source);
+            if (iterator.hasNext()) {
+                heads.add(new Head(iterator.next(), source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !heads.isEmpty()) {
+                Head winner = heads.poll();
+                advance(winner.source);
+                while (!heads.isEmpty() && heads.peek().entry.getKey().equals(winner.entry.getKey())) {
+                    advance(heads.poll().source);
+                }
+                if (!dropTombstones || !winner.entry.getValue().isTombstone()) {
+                    next = winner.entry;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, VersionedValue> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, VersionedValue> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+
+    /**
+     * Gets the approximate number of keys, counting a key once for every memtable and table
+     * that holds a version of it, so overwritten and deleted keys may be counted too.
+     * @return the approximate number of keys
+     */
+    @Override
+    public long getApproximateKeys() {
+        View current = view;
+        long keys = current.memtable.entries.size();
+        for (Memtable memtable : current.frozen) {
+            keys += memtable.entries.size();
+        }
+        for (SSTable table : current.level0) {
+            keys += table.getRecords();
+        }
+        for (List<SSTable> level : current.levels) {
+            for (SSTable table : level) {
+                keys += table.getRecords();
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the number of tables in each level, starting with level 0.
+     * @return the table counts
+     */
+    public List<Integer> getTablesPerLevel() {
+        View current = view;
+        List<Integer> counts = new ArrayList<>();
+        counts.add(current.level0.size());
+        for (List<SSTable> level : current.levels) {
+            counts.add(level.size());
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the total size of the table files.
+     * @return the size in bytes
+     */
+    public long getDiskBytes() {
+        View current = view;
+        long bytes = 0;
+        for (SSTable table : current.level0) {
+            bytes += table.getSizeBytes();
+        }
+        for (List<SSTable> level : current.levels) {
+            for (SSTable table : level) {
+                bytes += table.getSizeBytes();
+            }
+        }
+        return bytes;
+    }
+
+    public double getBlockCacheHitRate() {
+        return blockCache.getHitRate();
+    }
+
+    public synchronized long getFlushes() {
+        return flushes;
+    }
+
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stops flushing and compacting, waits for a running flush or compaction and closes the tables.
+     * The background executor is not shut down. Reads fail once the store is closed.
+     * @throws IOException if a table cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            maintenanceLock.lock();
+            View current = view;
+            for (SSTable table : current.level0) {
+                table.close();
+            }
+            for (List<SSTable> level : current.levels) {
+                for (SSTable table : level) {
+                    table.close();
+                }
+            }
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LsmStore{tables per level=%s, %d bytes on disk, %d flushes, %d compactions, " +
+                        "block cache hit rate %.1f%%}", getTablesPerLevel(), getDiskBytes(), getFlushes(),
+                getCompactions(), getBlockCacheHitRate() * 100);
+    }
+}
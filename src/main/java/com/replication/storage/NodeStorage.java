@@ -0,0 +1,241 @@
+package com.replication.storage;
+
+import com.replication.model.LogEntry;
+import com.replication.model.ReplicationLog;
+import com.replication.store.StoreSnapshot;
+import com.replication.store.VersionedStore;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * On-disk state of a node: a write-ahead log of applied entries plus periodic snapshots.
+ * <p>
+ * A restart loads the newest snapshot with one reader per partition file, then replays the
+ * log entries written after it. The tail is split by key hash, and each part is applied by
+ * its own thread in log order, so every key still sees its updates in order while different
+ * keys are applied in parallel.
+ */
+public class NodeStorage implements AutoCloseable {
+    private final Path directory;
+    private final WriteAheadLog wal;
+    private final int partitions;
+
+    /**
+     * Opens or creates the storage in a directory.
+     * @param directory the directory holding the node's files
+     * @param partitions the number of partition files snapshots are split into, and the
+     *                   number of threads recovery uses
+     * @throws IOException if the directory cannot be created
+     */
+    public NodeStorage(Path directory, int partitions) throws IOException {
+        this.directory = directory;
+        this.wal = new WriteAheadLog(directory);
+        this.partitions = partitions;
+    }
+
+    /**
+     * Opens or creates the storage with one partition per available core.
+     * @param directory the directory holding the node's files
+     * @throws IOException if the directory cannot be created
+     */
+    public NodeStorage(Path directory) throws IOException {
+        this(directory, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Appends an applied entry to the write-ahead log.
+     * @param entry the entry to append
+     * @throws IOException if the entry cannot be written
+     */
+    public void append(LogEntry entry) throws IOException {
+        wal.append(entry);
+    }
+
+    /**
+     * Starts a new log segment for the entries after a checkpoint. Called while holding the
+     * lock that guards the node's log position, together with opening the snapshot.
+     * @throws IOException if the current segment cannot be closed
+     */
+    public void beginCheckpoint() throws IOException {
+        wal.roll();
+    }
+
+    /**
+     * Writes a snapshot and deletes the log segments and older snapshots it replaces.
+     * Writing does not need the node's lock, since the snapshot view does not change.
+     * @param snapshot the view of the store to write, taken when the log was rolled
+     * @param store the store the snapshot was opened on, for expiry times
+     * @return the number of keys written
+     * @throws IOException if the snapshot cannot be written
+     */
+    public long checkpoint(StoreSnapshot snapshot, VersionedStore store) throws IOException {
+        long index = snapshot.getIndex();
+        long keys;
+        try (SnapshotWriter writer = new SnapshotWriter(directory, index, partitions)) {
+            Iterator<Map.Entry<String, String>> entries = snapshot.iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, String> entry = entries.next();
+                writer.write(entry.getKey(), entry.getValue(), store.getExpiresAtMillis(entry.getKey(), index));
+            }
+            writer.commit();
+            keys = writer.getKeys();
+        }
+
+        wal.deleteThrough(index);
+        for (long older : snapshotIndexes()) {
+            if (older < index) {
+                SnapshotWriter.deleteRecursively(snapshotPath(older));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Rebuilds a node's state from disk into an empty store.
+     * @param store the store to load into
+     * @param log receives the log entries replayed after the snapshot
+     * @return the log index the recovered state corresponds to, or 0 if there was nothing on disk
+     * @throws IOException if the files cannot be read
+     */
+    public long recover(VersionedStore store, ReplicationLog log) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(partitions);
+        try {
+            long snapshotIndex = loadSnapshot(store, executor);
+
+            // Decoding the log is sequential, applying it is split by key across threads
+            List<List<LogEntry>> tails = new ArrayList<>(partitions);
+            for (int i = 0; i < partitions; i++) {
+                tails.add(new ArrayList<>());
+            }
+            long[] count = new long[1];
+            long lastIndex = wal.replay(snapshotIndex, entry -> {
+                tails.get(SnapshotWriter.partitionOf(entry.getKey(), partitions)).add(entry);
+                log.append(entry);
+                count[0]++;
+            });
+
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (List<LogEntry> tail : tails) {
+                tasks.add(() -> {
+                    for (LogEntry entry : tail) {
+                        store.restore(entry.getKey(), entry.isDelete() ? null : entry.getValue(), entry.getId(),
+                                entry.getExpiresAtMillis());
+                    }
+                    return null;
+                });
+            }
+            runAll(executor, tasks);
+            store.setRestoredIndex(lastIndex);
+
+            System.out.println("Recovered " + store.size() + " keys from " + directory + " up to log index " +
+                    lastIndex + " (snapshot at " + snapshotIndex + " plus " + count[0] + " log entries) in " +
+                    (System.nanoTime() - start) / 1_000_000 + " ms");
+            return lastIndex;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Loads the newest complete snapshot, one partition file per task.
+     * @return the snapshot's log index, or 0 if there is none
+     */
+    private long loadSnapshot(VersionedStore store, ExecutorService executor) throws IOException {
+        List<Long> indexes = snapshotIndexes();
+        if (indexes.isEmpty()) {
+            return 0;
+        }
+        long index = indexes.get(indexes.size() - 1);
+        Path snapshot = snapshotPath(index);
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(snapshot.resolve(SnapshotWriter.MANIFEST))) {
+            manifest.load(in);
+        }
+
+        int files = Integer.parseInt(manifest.getProperty("partitions"));
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            Path partition = snapshot.resolve(SnapshotWriter.partitionName(i));
+            tasks.add(() -> {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(partition), 1 << 16))) {
+                    while (in.readBoolean()) {
+                        String key = WriteAheadLog.readString(in);
+                        String value = WriteAheadLog.readString(in);
+                        store.restore(key, value, index, in.readLong());
+                    }
+                }
+                return null;
+            });
+        }
+        runAll(executor, tasks);
+        return index;
+    }
+
+    private static void runAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while recovering", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Gets the log indexes of the complete snapshots on disk, oldest first.
+     * @return the snapshot indexes
+     * @throws IOException if the directory cannot be listed
+     */
+    public List<Long> snapshotIndexes() throws IOException {
+        List<Long> indexes = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SnapshotWriter.PREFIX) && !name.endsWith(".tmp") &&
+                        Files.exists(path.resolve(SnapshotWriter.MANIFEST))) {
+                    indexes.add(Long.parseLong(name.substring(SnapshotWriter.PREFIX.length())));
+                }
+            });
+        }
+        indexes.sort(null);
+        return indexes;
+    }
+
+    private Path snapshotPath(long index) {
+        return directory.resolve(String.format("%s%020d", SnapshotWriter.PREFIX, index));
+    }
+
+    @Override
+    public void close() throws IOException {
+        wal.close();
+    }
+}
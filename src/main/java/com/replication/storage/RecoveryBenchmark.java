@@ -0,0 +1,133 @@
+package com.replication.storage;
+
+import com.replication.model.LogEntry;
+import com.replication.model.ReplicationLog;
+import com.replication.store.VersionedStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Measures how long a node takes to restart from disk: a snapshot of many keys plus a log
+ * tail, recovered with one thread and then with several. The data is written directly to
+ * the storage files, so no replication system has to be run to produce it.
+ */
+public class RecoveryBenchmark {
+
+    private static String key(long i) {
+        return "key-" + i;
+    }
+
+    private static String value(Random random, int size) {
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private static long recover(Path directory, int threads) throws IOException {
+        VersionedStore store = new VersionedStore();
+        long start = System.nanoTime();
+        try (NodeStorage storage = new NodeStorage(directory, threads)) {
+            storage.recover(store, new ReplicationLog());
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs the benchmark from the command line. Arguments are {@code name=value} pairs:
+     * <pre>
+     *   keys=10000000 tail=1000000 threads=cores values=16 seed=42 rounds=2 dir=temporary
+     * </pre>
+     * Ten million keys need several gigabytes of heap, e.g. {@code -Xmx8g}.
+     * @param args the benchmark parameters
+     * @throws IOException if the files cannot be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        long keys = 10_000_000;
+        long tail = 1_000_000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int valueSize = 16;
+        long seed = 42;
+        int rounds = 2;
+        Path directory = null;
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                System.out.println("Ignoring argument '" + arg + "' (expected name=value)");
+                continue;
+            }
+            String value = parts[1];
+            switch (parts[0]) {
+                case "keys":
+                    keys = Long.parseLong(value);
+                    break;
+                case "tail":
+                    tail = Long.parseLong(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "values":
+                    valueSize = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "rounds":
+                    rounds = Integer.parseInt(value);
+                    break;
+                case "dir":
+                    directory = Paths.get(value);
+                    break;
+                default:
+                    System.out.println("Ignoring unknown argument '" + parts[0] + "'");
+            }
+        }
+
+        boolean temporary = directory == null;
+        if (temporary) {
+            directory = Files.createTempDirectory("recovery-benchmark");
+        }
+        try {
+            Random random = new Random(seed);
+            long start = System.nanoTime();
+            try (SnapshotWriter writer = new SnapshotWriter(directory, keys, threads)) {
+                for (long i = 0; i < keys; i++) {
+                    writer.write(key(i), value(random, valueSize), 0);
+                }
+                writer.commit();
+            }
+            try (NodeStorage storage = new NodeStorage(directory, threads)) {
+                for (long i = 1; i <= tail; i++) {
+                    long target = (long) (random.nextDouble() * keys);
+                    storage.append(new LogEntry(keys + i, key(target), value(random, valueSize)));
+                }
+            }
+            System.out.printf("Wrote a snapshot of %,d keys and a log tail of %,d entries in %d ms%n",
+                    keys, tail, (System.nanoTime() - start) / 1_000_000);
+
+            // Best of a few rounds, so JIT warm-up does not count against the first configuration
+            long serial = Long.MAX_VALUE;
+            long parallel = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                serial = Math.min(serial, recover(directory, 1));
+                System.gc();
+                parallel = Math.min(parallel, recover(directory, threads));
+                System.gc();
+            }
+            System.out.printf("Recovery with 1 thread: %d ms (%,.0f keys/s)%n",
+                    serial / 1_000_000, keys / (serial / 1e9));
+            System.out.printf("Recovery with %d threads: %d ms (%,.0f keys/s), %.1fx faster%n",
+                    threads, parallel / 1_000_000, keys / (parallel / 1e9), (double) serial / parallel);
+        } finally {
+            if (temporary) {
+                SnapshotWriter.deleteRecursively(directory);
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.replication.storage;
+
+import com.replication.store.VersionedValue;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * Immutable sorted file of key versions, one per key, written by an {@link LsmStore} flush
+ * or compaction. The records are packed into blocks of about 4 KB, each followed by its CRC.
+ * After the blocks come a sparse index holding the first key and position of every block,
+ * the largest key, and a bloom filter over all keys. The index and the filter stay in memory
+ * while the table is open, so a lookup reads at most one block from disk.
+ * <p>
+ * Safe for concurrent readers. A reader interrupted mid-read closes the file for every
+ * thread, so the file is reopened and the read retried, and the reader's interrupt is kept
+ * for it to act on later. Once closed, reads fail with a
+ * {@link java.nio.channels.ClosedChannelException}.
+ */
+final class SSTable implements Closeable {
+    static final int BLOCK_BYTES = 4096;
+    private static final int MAGIC = 0x4c534d31;
+    private static final int FOOTER_BYTES = 8 + 4 + 8 + 4;
+    private static final int BITS_PER_KEY = 10;
+
+    /**
+     * A decoded block: its keys in order and their versions, tombstones included.
+     */
+    static final class Block {
+        final String[] keys;
+        final VersionedValue[] values;
+        final int bytes;
+
+        private Block(String[] keys, VersionedValue[] values, int bytes) {
+            this.keys = keys;
+            this.values = values;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long id;
+    private final Path path;
+    // Replaced when an interrupted reader closes it
+    private volatile FileChannel channel;
+    private volatile boolean closed;
+    private final String[] firstKeys;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final String largest;
+    private final BloomFilter bloom;
+    private final long records;
+    private final long sizeBytes;
+
+    private SSTable(long id, Path path) throws IOException {
+        this.id = id;
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.sizeBytes = channel.size();
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+            readFully(footer, sizeBytes - FOOTER_BYTES);
+            long indexOffset = footer.getLong(0);
+            int blockCount = footer.getInt(8);
+            this.records = footer.getLong(12);
+            if (footer.getInt(20) != MAGIC) {
+                throw new IOException("Not an SSTable: " + path);
+            }
+
+            ByteBuffer index = ByteBuffer.allocate((int) (sizeBytes - FOOTER_BYTES - indexOffset));
+            readFully(index, indexOffset);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.array()));
+            this.firstKeys = new String[blockCount];
+            this.offsets = new long[blockCount];
+            this.lengths = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                firstKeys[i] = WriteAheadLog.readString(in);
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+            }
+            this.largest = WriteAheadLog.readString(in);
+            this.bloom = BloomFilter.readFrom(in);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes versions to a new table, stopping at the first key boundary after the file
+     * reaches a size limit, so a long merge can be split across several tables.
+     * @param directory the directory to write to
+     * @param id the ID of the new table, which names its file
+     * @param entries the versions to write, in key order with one per key; at least one must remain
+     * @param maxBytes the size after which no more keys are added
+     * @return the open table
+     * @throws IOException if the table cannot be written
+     */
+    static SSTable write(Path directory, long id, Iterator<Map.Entry<String, VersionedValue>> entries,
+                         long maxBytes) throws IOException {
+        Path path = pathOf(directory, id);
+        Path temporary = directory.resolve(path.getFileName() + ".tmp");
+        List<String> keys = new ArrayList<>();
+        List<Long> blockOffsets = new ArrayList<>();
+        List<Integer> blockLengths = new ArrayList<>();
+        List<String> blockFirstKeys = new ArrayList<>();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(BLOCK_BYTES * 2);
+        DataOutputStream block = new DataOutputStream(buffer);
+        CRC32 crc = new CRC32();
+
+        try (OutputStream file = Files.newOutputStream(temporary);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            long written = 0;
+            while (entries.hasNext() && written + buffer.size() < maxBytes) {
+                Map.Entry<String, VersionedValue> entry = entries.next();
+                VersionedValue version = entry.getValue();
+                if (buffer.size() == 0) {
+                    blockFirstKeys.add(entry.getKey());
+                }
+                WriteAheadLog.writeString(block, entry.getKey());
+                WriteAheadLog.writeString(block, version.getValue());
+                block.writeLong(version.getLogId());
+                block.writeLong(version.getExpiresAtMillis());
+                keys.add(entry.getKey());
+
+                if (buffer.size() >= BLOCK_BYTES) {
+                    written += writeBlock(out, buffer, crc, written, blockOffsets, blockLengths);
+                }
+            }
+            if (buffer.size() > 0) {
+                written += writeBlock(out, buffer, crc, written, blockOffsets, blockLengths);
+            }
+
+            BloomFilter filter = new BloomFilter(keys.size(), BITS_PER_KEY);
+            for (String key : keys) {
+                filter.add(key);
+            }
+            for (int i = 0; i < blockOffsets.size(); i++) {
+                WriteAheadLog.writeString(out, blockFirstKeys.get(i));
+                out.writeLong(blockOffsets.get(i));
+                out.writeInt(blockLengths.get(i));
+            }
+            WriteAheadLog.writeString(out, keys.get(keys.size() - 1));
+            filter.writeTo(out);
+            out.writeLong(written);
+            out.writeInt(blockOffsets.size());
+            out.writeLong(keys.size());
+            out.writeInt(MAGIC);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        return new SSTable(id, path);
+    }
+
+    private static int writeBlock(DataOutputStream out, ByteArrayOutputStream buffer, CRC32 crc, long offset,
+                                  List<Long> blockOffsets, List<Integer> blockLengths) throws IOException {
+        crc.reset();
+        crc.update(buffer.toByteArray(), 0, buffer.size());
+        blockOffsets.add(offset);
+        blockLengths.add(buffer.size());
+        buffer.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        int length = buffer.size() + 4;
+        buffer.reset();
+        return length;
+    }
+
+    static Path pathOf(Path directory, long id) {
+        return directory.resolve(String.format("%08d%s", id, LsmStore.SUFFIX));
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getSmallest() {
+        return firstKeys[0];
+    }
+
+    String getLargest() {
+        return largest;
+    }
+
+    long getRecords() {
+        return records;
+    }
+
+    long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    boolean overlaps(String smallest, String largest) {
+        return getSmallest().compareTo(largest) <= 0 && this.largest.compareTo(smallest) >= 0;
+    }
+
+    /**
+     * Looks a key up, going to disk only if the bloom filter lets it through and the block is not cached.
+     * @param key the key
+     * @param cache the cache of decoded blocks
+     * @return the key's version, which may be a tombstone, or null if the table does not hold the key
+     * @throws IOException if the block cannot be read, e.g. because the table was closed
+     */
+    VersionedValue get(String key, BlockCache cache) throws IOException {
+        if (key.compareTo(getSmallest()) < 0 || key.compareTo(largest) > 0 || !bloom.mightContain(key)) {
+            return null;
+        }
+        int position = blockOf(key);
+        Block block = cache.get(id, position);
+        if (block == null) {
+            block = readBlock(position);
+            cache.put(id, position, block);
+        }
+        int found = Arrays.binarySearch(block.keys, key);
+        return found >= 0 ? block.values[found] : null;
+    }
+
+    /**
+     * Iterates over the table's versions in key order, reading blocks straight from disk so a
+     * scan does not flush the block cache. Read errors surface as {@link UncheckedIOException}.
+     * @param afterKey only keys after this one are returned, or null to start at the beginning
+     * @return the versions, tombstones included
+     */
+    Iterator<Map.Entry<String, VersionedValue>> iterator(String afterKey) {
+        return new Iterator<Map.Entry<String, VersionedValue>>() {
+            private int position = afterKey == null ? 0 : blockOf(afterKey);
+            private Block block;
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (block == null || next >= block.keys.length) {
+                        if (position >= firstKeys.length) {
+                            return false;
+                        }
+                        block = readBlock(position++);
+                        next = 0;
+                        while (afterKey != null && next < block.keys.length && block.keys[next].compareTo(afterKey) <= 0) {
+                            next++;
+                        }
+                    }
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public Map.Entry<String, VersionedValue> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, VersionedValue> entry =
+                        new AbstractMap.SimpleImmutableEntry<>(block.keys[next], block.values[next]);
+                next++;
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Finds the block that would hold a key: the last one whose first key is not after it.
+     */
+    private int blockOf(String key) {
+        int found = Arrays.binarySearch(firstKeys, key);
+        return found >= 0 ? found : Math.max(0, -found - 2);
+    }
+
+    private Block readBlock(int position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(lengths[position] + 4);
+        readFully(buffer, offsets[position]);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, lengths[position]);
+        if ((int) crc.getValue() != buffer.getInt(lengths[position])) {
+            throw new IOException("Corrupt block " + position + " in " + path);
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, lengths[position]));
+        List<String> keys = new ArrayList<>();
+        List<VersionedValue> values = new ArrayList<>();
+        while (in.available() > 0) {
+            keys.add(WriteAheadLog.readString(in));
+            String value = WriteAheadLog.readString(in);
+            long logId = in.readLong();
+            values.add(VersionedValue.detached(value, logId, in.readLong()));
+        }
+        return new Block(keys.toArray(new String[0]), values.toArray(new VersionedValue[0]), lengths[position]);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (buffer.hasRemaining()) {
+                FileChannel current = channel;
+                try {
+                    if (current.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException("Unexpected end of " + path);
+                    }
+                } catch (ClosedChannelException e) {
+                    if (closed) {
+                        throw e;
+                    }
+                    // Retry without the interrupt, which would only close the file again
+                    interrupted |= e instanceof ClosedByInterruptException && Thread.interrupted();
+                    reopen(current);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Replaces a channel that an interrupted reader closed, unless another reader already has.
+     */
+    private synchronized void reopen(FileChannel failed) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (channel == failed) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+    }
+
+    /**
+     * Closes the file and deletes it, e.g. once a compaction has replaced it.
+     * @throws IOException if the file cannot be deleted
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName() + "[" + getSmallest() + ".." + largest + ", " + records + " keys]";
+    }
+}
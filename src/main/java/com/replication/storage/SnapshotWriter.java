@@ -0,0 +1,138 @@
+package com.replication.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Writes the live keys of a store at one log index into a snapshot directory.
+ * Keys are spread over several partition files by key hash, so the snapshot can be loaded
+ * by one reader per partition. The files are written to a temporary directory that is
+ * renamed into place by {@link #commit()}, so a crash mid-write never leaves a snapshot
+ * that looks complete.
+ */
+public class SnapshotWriter implements AutoCloseable {
+    static final String PREFIX = "snapshot-";
+    static final String MANIFEST = "MANIFEST";
+
+    private final Path target;
+    private final Path temporary;
+    private final long index;
+    private final FileOutputStream[] files;
+    private final DataOutputStream[] partitions;
+    private long keys = 0;
+    private boolean committed = false;
+
+    /**
+     * Starts a snapshot.
+     * @param directory the node's storage directory
+     * @param index the log index the snapshot is taken at
+     * @param partitionCount the number of partition files
+     * @throws IOException if the files cannot be created
+     */
+    public SnapshotWriter(Path directory, long index, int partitionCount) throws IOException {
+        this.target = directory.resolve(String.format("%s%020d", PREFIX, index));
+        this.temporary = directory.resolve(target.getFileName() + ".tmp");
+        this.index = index;
+        deleteRecursively(temporary);
+        Files.createDirectories(temporary);
+
+        this.files = new FileOutputStream[partitionCount];
+        this.partitions = new DataOutputStream[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            files[i] = new FileOutputStream(temporary.resolve(partitionName(i)).toFile());
+            partitions[i] = new DataOutputStream(new BufferedOutputStream(files[i], 1 << 16));
+        }
+    }
+
+    static String partitionName(int partition) {
+        return "part-" + partition + ".dat";
+    }
+
+    static int partitionOf(String key, int partitionCount) {
+        return Math.floorMod(key.hashCode(), partitionCount);
+    }
+
+    /**
+     * Adds a live key to the snapshot.
+     * @param key the key
+     * @param value the key's value
+     * @param expiresAtMillis when the value expires, or 0 for never
+     * @throws IOException if the key cannot be written
+     */
+    public void write(String key, String value, long expiresAtMillis) throws IOException {
+        DataOutputStream out = partitions[partitionOf(key, partitions.length)];
+        out.writeBoolean(true);
+        WriteAheadLog.writeString(out, key);
+        WriteAheadLog.writeString(out, value);
+        out.writeLong(expiresAtMillis);
+        keys++;
+    }
+
+    /**
+     * Syncs the partitions to disk, writes the manifest and moves the snapshot into place.
+     * @throws IOException if the snapshot cannot be completed
+     */
+    public void commit() throws IOException {
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i].writeBoolean(false);
+            partitions[i].flush();
+            files[i].getFD().sync();
+            partitions[i].close();
+        }
+
+        Properties manifest = new Properties();
+        manifest.setProperty("index", Long.toString(index));
+        manifest.setProperty("partitions", Integer.toString(partitions.length));
+        manifest.setProperty("keys", Long.toString(keys));
+        try (OutputStream out = Files.newOutputStream(temporary.resolve(MANIFEST))) {
+            manifest.store(out, "Snapshot at log index " + index);
+        }
+
+        deleteRecursively(target);
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    public long getKeys() {
+        return keys;
+    }
+
+    /**
+     * Abandons the snapshot if it was not committed.
+     * @throws IOException if the temporary files cannot be removed
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        for (DataOutputStream partition : partitions) {
+            if (partition != null) {
+                partition.close();
+            }
+        }
+        deleteRecursively(temporary);
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> children = Files.list(path)) {
+                for (Path child : (Iterable<Path>) children::iterator) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.delete(path);
+    }
+}
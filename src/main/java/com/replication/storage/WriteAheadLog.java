@@ -0,0 +1,256 @@
+package com.replication.storage;
+
+import com.replication.model.Bytes;
+import com.replication.model.LogEntry;
+import com.replication.model.LogEntry.OperationType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file log of the entries a node has applied, split into segments.
+ * Each segment is named after the first log index in it. A checkpoint rolls the log
+ * to a new segment, and once the snapshot is written the segments it covers are deleted.
+ * <p>
+ * Every record carries its length and a CRC, so a record torn by a crash ends the replay
+ * cleanly instead of being read as garbage. Appends are not thread-safe; the node appends
+ * while holding the lock that guards its log position. Reads may run alongside them.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final int MAX_RECORD_BYTES = 64 << 20;
+
+    private final Path directory;
+    private FileOutputStream file;
+    private DataOutputStream out;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(buffer);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens the log in a directory. New entries go to a new segment, so a torn tail in an
+     * older segment is never appended to.
+     * @param directory the directory holding the segments
+     * @throws IOException if the directory cannot be created
+     */
+    public WriteAheadLog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Appends an entry and hands it to the operating system, so it survives a process crash.
+     * Use {@link #sync()} to make it survive a power failure as well.
+     * @param entry the entry to append
+     * @throws IOException if the entry cannot be written
+     */
+    public void append(LogEntry entry) throws IOException {
+        if (out == null) {
+            file = new FileOutputStream(segmentPath(entry.getId()).toFile());
+            out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        }
+
+        buffer.reset();
+        record.writeLong(entry.getId());
+        record.writeByte(entry.isDelete() ? 1 : 0);
+        writeString(record, entry.getKey());
+        writeString(record, entry.getValue());
+        record.writeLong(entry.getExpiresAtMillis());
+
+        crc.reset();
+        crc.update(buffer.toByteArray(), 0, buffer.size());
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        out.flush();
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     * @throws IOException if the log cannot be synced
+     */
+    public void sync() throws IOException {
+        if (out != null) {
+            out.flush();
+            file.getFD().sync();
+        }
+    }
+
+    /**
+     * Closes the current segment, so the next entry starts a new one.
+     * @throws IOException if the segment cannot be closed
+     */
+    public void roll() throws IOException {
+        if (out != null) {
+            sync();
+            out.close();
+            out = null;
+            file = null;
+        }
+    }
+
+    /**
+     * Reads every entry after the given index, in log order, stopping at the first torn or
+     * corrupt record.
+     * @param afterIndex entries up to this index are skipped
+     * @param action receives each entry
+     * @return the index of the last entry read, or afterIndex if there was none
+     * @throws IOException if a segment cannot be read
+     */
+    public long replay(long afterIndex, Consumer<LogEntry> action) throws IOException {
+        return replay(afterIndex, Long.MAX_VALUE, action);
+    }
+
+    /**
+     * Reads a bounded number of entries after the given index, in log order, stopping at the
+     * first torn or corrupt record.
+     * @param afterIndex entries up to this index are skipped
+     * @param maxEntries the most entries to return
+     * @return the entries read
+     * @throws IOException if a segment cannot be read
+     */
+    public List<LogEntry> read(long afterIndex, int maxEntries) throws IOException {
+        List<LogEntry> entries = new ArrayList<>();
+        replay(afterIndex, maxEntries, entries::add);
+        return entries;
+    }
+
+    private long replay(long afterIndex, long maxEntries, Consumer<LogEntry> action) throws IOException {
+        long lastIndex = afterIndex;
+        long count = 0;
+        List<Long> starts = segmentStarts();
+        for (int i = 0; i < starts.size() && count < maxEntries; i++) {
+            // Skip segments that end before the index we need
+            if (i + 1 < starts.size() && starts.get(i + 1) <= afterIndex + 1) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(segmentPath(starts.get(i))), 1 << 16))) {
+                LogEntry entry;
+                while (count < maxEntries && (entry = readRecord(in)) != null) {
+                    if (entry.getId() > lastIndex) {
+                        action.accept(entry);
+                        lastIndex = entry.getId();
+                        count++;
+                    }
+                }
+            }
+        }
+        return lastIndex;
+    }
+
+    /**
+     * Deletes the segments holding only entries up to the given index, e.g. once a snapshot covers them.
+     * @param index the highest index no longer needed
+     * @return the number of segments deleted
+     * @throws IOException if a segment cannot be deleted
+     */
+    public int deleteThrough(long index) throws IOException {
+        List<Long> starts = segmentStarts();
+        int deleted = 0;
+        for (int i = 0; i + 1 < starts.size() && starts.get(i + 1) <= index + 1; i++) {
+            Files.deleteIfExists(segmentPath(starts.get(i)));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        roll();
+    }
+
+    private List<Long> segmentStarts() throws IOException {
+        List<Long> starts = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                    starts.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                }
+            });
+        }
+        starts.sort(null);
+        return starts;
+    }
+
+    private Path segmentPath(long firstIndex) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, firstIndex, SUFFIX));
+    }
+
+    private static LogEntry readRecord(DataInputStream in) throws IOException {
+        byte[] payload;
+        int checksum;
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_BYTES) {
+                return null;
+            }
+            payload = new byte[length];
+            in.readFully(payload);
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(payload));
+        long id = fields.readLong();
+        OperationType type = fields.readByte() == 1 ? OperationType.DELETE : OperationType.WRITE;
+        String key = readString(fields);
+        String value = readString(fields);
+        long expiresAtMillis = fields.readLong();
+        return new LogEntry(id, key, value, type, expiresAtMillis);
+    }
+
+    /**
+     * Writes a string, or null. Strings whose characters all fit in a byte, which includes ASCII
+     * text and binary values carried by {@link Bytes}, are written byte for byte; others as UTF-8.
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        if (Bytes.isSingleByte(value)) {
+            byte[] bytes = Bytes.asBytes(value);
+            // Lengths below -1 mark single-byte strings, so files written as UTF-8 still read back
+            out.writeInt(-2 - bytes.length);
+            out.write(bytes);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length < 0 ? -2 - length : length];
+        in.readFully(bytes);
+        return length < 0 ? Bytes.asString(bytes) : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,45 @@
+package com.replication.store;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Holds the latest version of keys a {@link VersionedStore} has moved out of memory,
+ * e.g. on local disk. Implementations must be safe for concurrent use.
+ */
+public interface ColdStore {
+    /**
+     * Reads the latest version of a key.
+     * @param key the key
+     * @return the version, or null if the key is absent
+     */
+    VersionedValue get(String key);
+
+    /**
+     * Writes the latest version of a key.
+     * @param key the key
+     * @param value the value
+     * @param logId the ID of the log entry that wrote it
+     * @param expiresAtMillis when the value expires, or 0 for never
+     */
+    void put(String key, String value, long logId, long expiresAtMillis);
+
+    /**
+     * Removes a key.
+     * @param key the key
+     */
+    void delete(String key);
+
+    /**
+     * Iterates over every present key with its latest version. The iteration must not fail
+     * because of concurrent changes, which it may or may not reflect.
+     * @return the keys and their versions
+     */
+    Iterator<Map.Entry<String, VersionedValue>> scan();
+
+    /**
+     * Gets the approximate number of keys held.
+     * @return the approximate number of keys
+     */
+    long getApproximateKeys();
+}
@@ -0,0 +1,80 @@
+package com.replication.store;
+
+/**
+ * Approximate access counts for an open-ended set of keys in a fixed amount of memory.
+ * A count-min sketch with four rows of small saturating counters: a key's frequency is the
+ * lowest of its four counters, which can only overestimate. Each row has eight counters
+ * per expected key, so a scan over many cold keys barely raises any one key's estimate.
+ * Once the number of recorded accesses reaches ten times the expected number of keys,
+ * every counter is halved, so keys that were hot long ago fade and recent popularity wins.
+ */
+public class FrequencySketch {
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {
+            0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0xd6e8feb86659fd93L};
+
+    private final int[][] counters;
+    private final int mask;
+    private final int resetThreshold;
+    private int additions = 0;
+
+    /**
+     * Creates a sketch sized for about the given number of distinct hot keys.
+     * @param expectedKeys the number of keys whose frequencies should be told apart
+     */
+    public FrequencySketch(int expectedKeys) {
+        int keys = Math.max(16, expectedKeys);
+        int width = Integer.highestOneBit(keys * 8 - 1) << 1;
+        this.counters = new int[ROWS][width];
+        this.mask = width - 1;
+        this.resetThreshold = keys * 10;
+    }
+
+    /**
+     * Records one access to a key.
+     * @param key the key accessed
+     */
+    public void increment(String key) {
+        int hash = key.hashCode();
+        boolean added = false;
+        for (int row = 0; row < ROWS; row++) {
+            int index = indexOf(hash, row);
+            if (counters[row][index] < MAX_COUNT) {
+                counters[row][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= resetThreshold) {
+            halve();
+        }
+    }
+
+    /**
+     * Estimates how often a key has been accessed recently.
+     * @param key the key to look up
+     * @return the estimated count, between 0 and 15
+     */
+    public int frequency(String key) {
+        int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private int indexOf(int hash, int row) {
+        long mixed = (hash + SEEDS[row]) * SEEDS[(row + 1) % ROWS];
+        return (int) (mixed >>> 32) & mask;
+    }
+
+    private void halve() {
+        for (int[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        additions /= 2;
+    }
+}
@@ -0,0 +1,262 @@
+package com.replication.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Finds the most frequently accessed keys of a node in a fixed amount of memory, cheaply
+ * enough to stay on for every read and write.
+ * <p>
+ * Recording a key samples one access in {@code sampleEvery} with a thread-local random number
+ * and drops sampled keys into a small per-thread-stripe ring buffer; no lock is taken and
+ * nothing is counted on the caller's thread. Whichever thread fills a ring drains it, if no
+ * one else is draining, into a Space-Saving summary: a min-heap of {@code capacity} counters
+ * where an untracked key takes over the smallest counter and inherits its count as the error
+ * bound. Every key whose share of accesses exceeds 1 / capacity is guaranteed to be tracked.
+ * Counts are halved periodically, so the summary follows what is hot now.
+ * Rings that wrap before they are drained lose samples, which only adds sampling noise.
+ */
+public class HotKeyTracker {
+    private static final int RING_SIZE = 64;
+    private static final int DECAY_SAMPLES_PER_COUNTER = 1_000;
+
+    /**
+     * A hot key with its estimated access count.
+     */
+    public static final class HotKey {
+        private final String key;
+        private final long count;
+        private final long error;
+        private final double share;
+
+        private HotKey(String key, long count, long error, double share) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+            this.share = share;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the estimated number of recent accesses, which can only be an overestimate.
+         * @return the estimated count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets how much the count may overestimate the true number of accesses.
+         * @return the largest possible overestimate
+         */
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * Gets the estimated fraction of the node's recent accesses that went to this key.
+         * @return a fraction between 0 and 1
+         */
+        public double getShare() {
+            return share;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (~%d, %.1f%%)", key, count, share * 100);
+        }
+    }
+
+    private static final class Counter {
+        private String key;
+        private long count;
+        private long error;
+        private int position;
+    }
+
+    private static final class Ring {
+        private final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(RING_SIZE);
+        private final AtomicInteger cursor = new AtomicInteger();
+    }
+
+    private final int capacity;
+    private final int sampleEvery;
+    private final int sampleMask;
+    private final Ring[] rings;
+    private final int ringMask;
+
+    // The Space-Saving summary, guarded by summaryLock. Counters know their place in the heap,
+    // so moving one costs no map update.
+    private final ReentrantLock summaryLock = new ReentrantLock();
+    private final Counter[] heap;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private int size = 0;
+    private long total = 0;
+    private long sinceDecay = 0;
+
+    /**
+     * Creates a tracker.
+     * @param capacity the number of keys tracked, and so the number of hot keys that can be told apart
+     * @param sampleEvery record one access in this many, a power of two; 1 records every access
+     */
+    public HotKeyTracker(int capacity, int sampleEvery) {
+        if (capacity < 1 || Integer.bitCount(sampleEvery) != 1) {
+            throw new IllegalArgumentException("Capacity must be positive and the sampling rate a power of two");
+        }
+        this.capacity = capacity;
+        this.sampleEvery = sampleEvery;
+        this.sampleMask = sampleEvery - 1;
+        int ringCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.rings = new Ring[ringCount];
+        for (int i = 0; i < ringCount; i++) {
+            rings[i] = new Ring();
+        }
+        this.ringMask = ringCount - 1;
+        this.heap = new Counter[capacity];
+    }
+
+    /**
+     * Records one access to a key. Safe to call from any thread, and never blocks.
+     * @param key the key accessed
+     */
+    public void record(String key) {
+        if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return;
+        }
+        Ring ring = rings[(int) Thread.currentThread().getId() & ringMask];
+        int slot = ring.cursor.getAndIncrement() & (RING_SIZE - 1);
+        ring.slots.lazySet(slot, key);
+        if (slot == RING_SIZE - 1 && summaryLock.tryLock()) {
+            try {
+                drain(ring);
+            } finally {
+                summaryLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Gets the hottest keys, hottest first, after counting every sample recorded so far.
+     * @param k the most keys to return
+     * @return the hot keys, with counts scaled up by the sampling rate
+     */
+    public List<HotKey> top(int k) {
+        List<HotKey> hot = new ArrayList<>();
+        try {
+            summaryLock.lock();
+            for (Ring ring : rings) {
+                drain(ring);
+            }
+            Counter[] order = Arrays.copyOf(heap, size);
+            Arrays.sort(order, (a, b) -> Long.compare(b.count, a.count));
+            for (int i = 0; i < Math.min(k, size); i++) {
+                Counter counter = order[i];
+                hot.add(new HotKey(counter.key, counter.count * sampleEvery, counter.error * sampleEvery,
+                        total == 0 ? 0.0 : (double) counter.count / total));
+            }
+        } finally {
+            summaryLock.unlock();
+        }
+        return hot;
+    }
+
+    /**
+     * Moves a ring's samples into the summary. Called while holding summaryLock.
+     */
+    private void drain(Ring ring) {
+        for (int slot = 0; slot < RING_SIZE; slot++) {
+            String key = ring.slots.getAndSet(slot, null);
+            if (key != null) {
+                count(key);
+            }
+        }
+    }
+
+    private void count(String key) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count++;
+            siftDown(counter);
+        } else if (size < capacity) {
+            counter = new Counter();
+            counter.key = key;
+            counter.count = 1;
+            counter.position = size;
+            heap[size++] = counter;
+            counters.put(key, counter);
+            siftUp(counter);
+        } else {
+            // The new key takes over the least counted counter, inheriting its count as possible error
+            counter = heap[0];
+            counters.remove(counter.key);
+            counter.key = key;
+            counter.error = counter.count;
+            counter.count++;
+            counters.put(key, counter);
+            siftDown(counter);
+        }
+        total++;
+        if (++sinceDecay >= (long) capacity * DECAY_SAMPLES_PER_COUNTER) {
+            decay();
+        }
+    }
+
+    /**
+     * Halves every count. Halving keeps the heap order, so nothing needs to move.
+     */
+    private void decay() {
+        for (int i = 0; i < size; i++) {
+            heap[i].count >>>= 1;
+            heap[i].error >>>= 1;
+        }
+        total >>>= 1;
+        sinceDecay = 0;
+    }
+
+    private void siftUp(Counter counter) {
+        int position = counter.position;
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(counter, position);
+    }
+
+    private void siftDown(Counter counter) {
+        int position = counter.position;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (heap[child].count >= counter.count) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(counter, position);
+    }
+
+    private void place(Counter counter, int position) {
+        heap[position] = counter;
+        counter.position = position;
+    }
+}
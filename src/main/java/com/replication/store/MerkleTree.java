@@ -0,0 +1,186 @@
+package com.replication.store;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hash tree over the live keys of a store, kept up to date on every write.
+ * The key space is split into a fixed number of leaves by key hash. Each node holds the
+ * sum of the hashes of every key-value pair below it, so a write updates one leaf and its
+ * ancestors with a single addition each, without locking, and two trees can be compared top
+ * down, descending only into subtrees that differ. Each leaf also knows its keys, so a
+ * differing leaf can be repaired without scanning the rest of the store, unless the store
+ * spills to disk; then the key sets are dropped, as they would hold every key on the heap.
+ */
+public class MerkleTree {
+    public static final int DEFAULT_DEPTH = 10;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int depth;
+    // Heap layout: the root is node 1, the children of node n are 2n and 2n + 1
+    private final AtomicLongArray nodes;
+    // Null once the keys are no longer tracked
+    private volatile Set<String>[] keysByLeaf;
+
+    public MerkleTree() {
+        this(DEFAULT_DEPTH);
+    }
+
+    /**
+     * Creates an empty tree.
+     * @param depth the number of levels below the root; the tree has 2^depth leaves
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MerkleTree(int depth) {
+        if (depth < 0 || depth > 20) {
+            throw new IllegalArgumentException("Depth must be between 0 and 20");
+        }
+        this.depth = depth;
+        this.nodes = new AtomicLongArray(2 << depth);
+        this.keysByLeaf = new Set[1 << depth];
+        for (int i = 0; i < keysByLeaf.length; i++) {
+            keysByLeaf[i] = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    /**
+     * Records that a key's value changed. Updates for the same key must not run concurrently.
+     * @param key the key that changed
+     * @param oldValue the previous value, or null if the key was absent
+     * @param newValue the new value, or null if the key is now absent
+     */
+    public void update(String key, String oldValue, String newValue) {
+        long delta = hash(key, newValue) - hash(key, oldValue);
+        int leaf = leafOf(key);
+        Set<String>[] keys = keysByLeaf;
+        if (keys != null && oldValue == null && newValue != null) {
+            keys[leaf].add(key);
+        } else if (keys != null && oldValue != null && newValue == null) {
+            keys[leaf].remove(key);
+        }
+        if (delta == 0) {
+            return;
+        }
+        for (int node = leafNode(leaf); node >= 1; node >>>= 1) {
+            nodes.addAndGet(node, delta);
+        }
+    }
+
+    /**
+     * Finds the leaves whose contents differ from another tree of the same depth.
+     * Only subtrees whose hashes differ are visited, so the cost grows with the number
+     * of differing leaves rather than with the size of the store.
+     * @param other the tree to compare with
+     * @return the differing leaf numbers, in ascending order
+     */
+    public List<Integer> differingLeaves(MerkleTree other) {
+        if (other.depth != depth) {
+            throw new IllegalArgumentException("Cannot compare trees of depth " + depth + " and " + other.depth);
+        }
+        List<Integer> leaves = new ArrayList<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(1);
+        while (!pending.isEmpty()) {
+            int node = pending.pop();
+            if (nodes.get(node) == other.nodes.get(node)) {
+                continue;
+            }
+            if (node >= leafNode(0)) {
+                leaves.add(node - leafNode(0));
+            } else {
+                // Right first, so leaves come off the stack in ascending order
+                pending.push(2 * node + 1);
+                pending.push(2 * node);
+            }
+        }
+        return leaves;
+    }
+
+    /**
+     * Gets the hash of one leaf, to check a single leaf against another tree.
+     * @param leaf the leaf number
+     * @return the sum of the hashes of the leaf's key-value pairs
+     */
+    public long getLeafHash(int leaf) {
+        return nodes.get(leafNode(leaf));
+    }
+
+    /**
+     * Gets the keys that currently have a value and fall into a leaf.
+     * @param leaf the leaf number
+     * @return a read-only live view of the leaf's keys, or null if keys are no longer tracked
+     */
+    public Set<String> keysInLeaf(int leaf) {
+        Set<String>[] keys = keysByLeaf;
+        return keys == null ? null : Collections.unmodifiableSet(keys[leaf]);
+    }
+
+    /**
+     * Stops tracking which keys fall into each leaf and frees the key sets. The hashes are
+     * still kept up to date.
+     */
+    public void dropKeys() {
+        keysByLeaf = null;
+    }
+
+    /**
+     * Gets the leaf a key falls into.
+     * @param key the key
+     * @return the leaf number
+     */
+    public int leafOf(String key) {
+        if (depth == 0) {
+            return 0;
+        }
+        return (int) (mix(fnv(key, FNV_OFFSET)) >>> (64 - depth));
+    }
+
+    public long getRootHash() {
+        return nodes.get(1);
+    }
+
+    public int getLeafCount() {
+        return 1 << depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    private int leafNode(int leaf) {
+        return (1 << depth) + leaf;
+    }
+
+    private static long hash(String key, String value) {
+        if (value == null) {
+            return 0;
+        }
+        long hash = fnv(key, FNV_OFFSET);
+        // Separate key from value so "ab"="c" and "a"="bc" hash differently
+        hash = (hash ^ 0xff) * FNV_PRIME;
+        return mix(fnv(value, hash));
+    }
+
+    private static long fnv(String text, long hash) {
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,200 @@
+package com.replication.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides which keys a memory-budgeted replica keeps, by approximate heap size.
+ * Access frequencies come from a {@link FrequencySketch}. When the budget is exceeded,
+ * a few resident keys are sampled at random and the least frequently used one is evicted,
+ * which costs O(1) per eviction. A new key is only admitted if it is used more often than
+ * the key it would push out, so a one-off scan cannot flush the hot set.
+ */
+public class ResidentSet {
+    /**
+     * Rough per-entry heap cost on top of the characters: the String objects, the version,
+     * the hash map and hash tree entries, and this set's own bookkeeping.
+     */
+    public static final int ENTRY_OVERHEAD_BYTES = 240;
+    private static final int EVICTION_SAMPLES = 5;
+
+    private final long budgetBytes;
+    private final Random random;
+    private final FrequencySketch sketch;
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final List<String> keys = new ArrayList<>();
+    private final Map<String, Long> sizes = new HashMap<>();
+    private long usedBytes = 0;
+    private long evictions = 0;
+    private long rejections = 0;
+
+    /**
+     * Creates an empty resident set.
+     * @param budgetBytes the approximate heap the resident entries may use
+     * @param random chooses eviction samples
+     */
+    public ResidentSet(long budgetBytes, Random random) {
+        this.budgetBytes = budgetBytes;
+        this.random = random;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(16, budgetBytes / ENTRY_OVERHEAD_BYTES)));
+    }
+
+    /**
+     * Estimates the heap used by a key and its value.
+     * @param key the key
+     * @param value the value
+     * @return the approximate size in bytes
+     */
+    public static long estimateSize(String key, String value) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (key.length() + (value == null ? 0 : value.length()));
+    }
+
+    public synchronized boolean contains(String key) {
+        return positions.containsKey(key);
+    }
+
+    /**
+     * Records a read of a key, resident or not.
+     * @param key the key read
+     */
+    public synchronized void recordAccess(String key) {
+        sketch.increment(key);
+    }
+
+    /**
+     * Tries to make a key resident, evicting colder keys to stay within the budget.
+     * @param key the key to admit
+     * @param bytes the estimated size of the entry
+     * @param evicted receives the keys evicted to make room
+     * @return true if the key is now resident
+     */
+    public synchronized boolean admit(String key, long bytes, List<String> evicted) {
+        if (positions.containsKey(key)) {
+            resize(key, bytes, evicted);
+            return positions.containsKey(key);
+        }
+        if (bytes > budgetBytes) {
+            rejections++;
+            return false;
+        }
+        // Only keys colder than the newcomer make room for it
+        int frequency = sketch.frequency(key);
+        while (usedBytes + bytes > budgetBytes) {
+            String victim = sampleVictim();
+            if (frequency <= sketch.frequency(victim)) {
+                rejections++;
+                return false;
+            }
+            evict(victim, evicted);
+        }
+
+        positions.put(key, keys.size());
+        keys.add(key);
+        sizes.put(key, bytes);
+        usedBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Updates the size of a resident key after its value changed.
+     * @param key the resident key
+     * @param bytes the new estimated size
+     * @param evicted receives the keys evicted to make room, possibly including this one
+     */
+    public synchronized void resize(String key, long bytes, List<String> evicted) {
+        Long previous = sizes.put(key, bytes);
+        if (previous == null) {
+            sizes.remove(key);
+            return;
+        }
+        usedBytes += bytes - previous;
+        while (usedBytes > budgetBytes) {
+            evict(sampleVictim(), evicted);
+        }
+    }
+
+    /**
+     * Stops tracking a key, e.g. because it was deleted.
+     * @param key the key to drop
+     */
+    public synchronized void remove(String key) {
+        Integer position = positions.remove(key);
+        if (position == null) {
+            return;
+        }
+        // Swap the last key into the freed position so the list stays dense
+        String last = keys.remove(keys.size() - 1);
+        if (!last.equals(key)) {
+            keys.set(position, last);
+            positions.put(last, position);
+        }
+        usedBytes -= sizes.remove(key);
+    }
+
+    /**
+     * Stops tracking every key. Access frequencies are kept.
+     * @return the keys that were resident
+     */
+    public synchronized List<String> clear() {
+        List<String> cleared = new ArrayList<>(keys);
+        keys.clear();
+        positions.clear();
+        sizes.clear();
+        usedBytes = 0;
+        return cleared;
+    }
+
+    private void evict(String victim, List<String> evicted) {
+        remove(victim);
+        evicted.add(victim);
+        evictions++;
+    }
+
+    /**
+     * Picks the least frequently used of a few resident keys chosen at random. There must be at least one.
+     */
+    private String sampleVictim() {
+        String victim = null;
+        int coldest = Integer.MAX_VALUE;
+        for (int i = 0; i < EVICTION_SAMPLES; i++) {
+            String candidate = keys.get(random.nextInt(keys.size()));
+            int frequency = sketch.frequency(candidate);
+            if (frequency < coldest) {
+                coldest = frequency;
+                victim = candidate;
+            }
+        }
+        return victim;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    /**
+     * Gets the number of keys evicted to stay within the budget.
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of keys that were not admitted because they were colder than what they would replace.
+     * @return the number of rejected admissions
+     */
+    public synchronized long getRejections() {
+        return rejections;
+    }
+}
@@ -0,0 +1,158 @@
+package com.replication.store;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A consistent, read-only view of a {@link VersionedStore} as of a single log index.
+ * Iteration walks the live store without copying it and without taking any node lock;
+ * writes that happen after the snapshot's index are simply not visible.
+ * A snapshot must be closed so the store can drop the old versions it holds on to.
+ */
+public class StoreSnapshot implements AutoCloseable {
+    private final VersionedStore store;
+    private final long index;
+    // The last change made outside the log that this snapshot sees
+    private final long localSeq;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    StoreSnapshot(VersionedStore store, long index, long localSeq) {
+        this.store = store;
+        this.index = index;
+        this.localSeq = localSeq;
+    }
+
+    /**
+     * Gets the log index this snapshot reads at.
+     * @return the log index
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+     * Reads a key as of this snapshot's index.
+     * @param key the key to read
+     * @return the value, or null if the key was absent at that index
+     */
+    public String get(String key) {
+        VersionedValue head = store.lookup(key);
+        return resolve(head);
+    }
+
+    /**
+     * Creates a spliterator over the key-value pairs visible in this snapshot.
+     * Unless the store spills to a cold store, it splits along the store's hash table, so it
+     * can be consumed in parallel.
+     * @return a spliterator of key-value pairs
+     */
+    public Spliterator<Map.Entry<String, String>> spliterator() {
+        return new SnapshotSpliterator(store.heads());
+    }
+
+    /**
+     * Streams the key-value pairs visible in this snapshot.
+     * @return a sequential stream
+     */
+    public Stream<Map.Entry<String, String>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Streams the key-value pairs visible in this snapshot in parallel.
+     * @return a parallel stream
+     */
+    public Stream<Map.Entry<String, String>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Creates an iterator over the key-value pairs visible in this snapshot.
+     * @return an iterator of key-value pairs
+     */
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    /**
+     * Performs the action for each key-value pair visible in this snapshot.
+     * @param action the action to perform
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        spliterator().forEachRemaining(e -> action.accept(e.getKey(), e.getValue()));
+    }
+
+    /**
+     * Releases the versions held by this snapshot. Closing twice has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            store.release(index, localSeq);
+        }
+    }
+
+    private String resolve(VersionedValue head) {
+        if (head == null) {
+            return null;
+        }
+        return store.valueOf(head.visibleAt(index, localSeq));
+    }
+
+    /**
+     * Adapts the store's spliterator, resolving each key to its version at the
+     * snapshot index and skipping keys that were absent at that index.
+     */
+    private class SnapshotSpliterator implements Spliterator<Map.Entry<String, String>> {
+        private final Spliterator<Map.Entry<String, VersionedValue>> source;
+        private Map.Entry<String, String> next;
+
+        SnapshotSpliterator(Spliterator<Map.Entry<String, VersionedValue>> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<String, String>> action) {
+            next = null;
+            while (next == null && source.tryAdvance(this::accept)) {
+                // Keep going until a visible key is found or the source runs out
+            }
+            if (next == null) {
+                return false;
+            }
+            action.accept(next);
+            return true;
+        }
+
+        private void accept(Map.Entry<String, VersionedValue> entry) {
+            String value = resolve(entry.getValue());
+            if (value != null) {
+                next = new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), value);
+            }
+        }
+
+        @Override
+        public Spliterator<Map.Entry<String, String>> trySplit() {
+            Spliterator<Map.Entry<String, VersionedValue>> split = source.trySplit();
+            return split == null ? null : new SnapshotSpliterator(split);
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return DISTINCT | NONNULL | CONCURRENT;
+        }
+    }
+}
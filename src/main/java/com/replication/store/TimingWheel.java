@@ -0,0 +1,143 @@
+package com.replication.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel for deadlines, as used for key expiry.
+ * Level 0 has one slot per tick; each level above has slots 64 times as wide. A timer is
+ * placed at the lowest level whose range covers its deadline. When a level's slot comes
+ * due, its timers cascade down one level at a time until they land in a tick slot and fire.
+ * Adding a timer is O(1), and each timer moves at most once per level, so the cost per
+ * timer stays constant no matter how many timers are pending.
+ * <p>
+ * Deadlines are in the caller's clock, in milliseconds. Timers are never cancelled, since
+ * it is cheaper to check whether a fired timer still applies. Not thread-safe.
+ * @param <T> the type of the items timed
+ */
+public class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+
+    private final long tickMillis;
+    private final List<Timer<T>>[][] wheels;
+    // The next tick to be processed; every timer due before it has fired
+    private long currentTick;
+    private int size = 0;
+
+    private static final class Timer<T> {
+        private final T item;
+        private final long deadlineTick;
+
+        private Timer(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    /**
+     * Creates a wheel.
+     * @param tickMillis the resolution of the wheel; timers fire up to one tick late
+     * @param nowMillis the current time
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, long nowMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.wheels = new List[LEVELS][SLOTS];
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Adds a timer. A deadline in the past fires on the next advance.
+     * @param item the item to hand back when the timer fires
+     * @param deadlineMillis when the timer should fire
+     */
+    public void add(T item, long deadlineMillis) {
+        // Round up so a timer never fires before its deadline
+        long deadlineTick = (deadlineMillis + tickMillis - 1) / tickMillis;
+        place(new Timer<>(item, deadlineTick));
+        size++;
+    }
+
+    /**
+     * Moves the wheel forward to the given time and collects every timer that came due.
+     * @param nowMillis the current time
+     * @return the items whose deadlines have passed, in no particular order
+     */
+    public List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<>();
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick <= targetTick) {
+            cascade(1);
+            List<Timer<T>> slot = wheels[0][(int) (currentTick & SLOT_MASK)];
+            if (slot != null) {
+                wheels[0][(int) (currentTick & SLOT_MASK)] = null;
+                for (Timer<T> timer : slot) {
+                    if (timer.deadlineTick > currentTick) {
+                        // Parked in the top level beyond its range; not due yet
+                        place(timer);
+                    } else {
+                        expired.add(timer.item);
+                        size--;
+                    }
+                }
+            }
+            currentTick++;
+        }
+        return expired;
+    }
+
+    /**
+     * Moves the timers of the level's current slot down, if the level below has just
+     * wrapped around. Higher levels are cascaded first so their timers fall all the way down.
+     */
+    private void cascade(int level) {
+        if (level >= LEVELS || (currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+            return;
+        }
+        cascade(level + 1);
+        int index = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        List<Timer<T>> slot = wheels[level][index];
+        if (slot != null) {
+            wheels[level][index] = null;
+            for (Timer<T> timer : slot) {
+                place(timer);
+            }
+        }
+    }
+
+    private void place(Timer<T> timer) {
+        long delta = Math.max(0, timer.deadlineTick - currentTick);
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        // Deadlines beyond the top level's range wait in its furthest slot and are re-placed from there
+        long tick = Math.min(Math.max(timer.deadlineTick, currentTick),
+                currentTick + (1L << (SLOT_BITS * LEVELS)) - 1);
+        int index = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        List<Timer<T>> slot = wheels[level][index];
+        if (slot == null) {
+            slot = new ArrayList<>();
+            wheels[level][index] = slot;
+        }
+        slot.add(timer);
+    }
+
+    /**
+     * Gets the number of timers that have not fired yet, including ones that no longer apply.
+     * @return the number of pending timers
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+}
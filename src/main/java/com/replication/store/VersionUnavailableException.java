@@ -0,0 +1,20 @@
+package com.replication.store;
+
+/**
+ * Thrown when a read asks for a log index whose versions the store no longer
+ * retains, or has not applied yet.
+ */
+public class VersionUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long requestedIndex;
+
+    public VersionUnavailableException(long requestedIndex, String message) {
+        super(message);
+        this.requestedIndex = requestedIndex;
+    }
+
+    public long getRequestedIndex() {
+        return requestedIndex;
+    }
+}
@@ -0,0 +1,855 @@
+package com.replication.store;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Multi-version key-value store backing a node.
+ * Every key maps to a short chain of versions tagged with the log entry ID that wrote them,
+ * so readers can see the store as of an earlier log index without copying it or taking a lock.
+ * Old versions are garbage-collected once they fall below the low-water mark, which is the
+ * lower of the oldest open snapshot and the configured retention window behind the applied index.
+ * A {@link MerkleTree} over the latest values is kept up to date on every write, so replicas
+ * can find where they differ without comparing whole stores.
+ * Values written with an expiry time read as absent once it has passed, even before the
+ * delete that removes them arrives.
+ * <p>
+ * Writes to different keys run concurrently; writes to the same key must not. Only opening
+ * and closing snapshots excludes writers, so the pins they rely on cannot change mid-trim.
+ * Versions can be staged ahead of the applied index, e.g. by parallel apply, and stay
+ * invisible to readers until the applied index is moved past them.
+ * <p>
+ * A node can also change a key outside the log, e.g. to delete it locally or to repair it.
+ * Such a change is tagged with the applied index and a sequence number that orders it after
+ * that index's own entries: latest reads see it at once, while snapshots already open and
+ * reads as of that index keep seeing what they saw before.
+ * <p>
+ * A store can keep only its most used keys in memory and move the rest to a {@link ColdStore}.
+ * A {@link ResidentSet} picks the keys that stay. A key leaves memory once its only version
+ * is visible to every reader, and comes back when it is read often enough or written; until
+ * then reads fetch it from the cold store. Since the one version a cold key has is the one
+ * every reader sees, reads as of earlier indexes and snapshots work as before.
+ */
+public class VersionedStore {
+    private static final int MAX_OPTIMISTIC_ATTEMPTS = 3;
+
+    private final ConcurrentHashMap<String, VersionedValue> versions;
+    // Open snapshot read points and how many snapshots hold each one; only modified under the write side of pinLock
+    private final ConcurrentSkipListMap<ReadPoint, Integer> pins;
+    // Writers share the read side; opening and closing snapshots takes the write side
+    private final ReadWriteLock pinLock = new ReentrantReadWriteLock();
+    private final MerkleTree merkleTree;
+    // Lowest log index for which every version a reader could need is still retained
+    private final AtomicLong horizon = new AtomicLong();
+    private final AtomicLong appliedIndex = new AtomicLong();
+    // Sequence number of the last change made outside the log
+    private final AtomicLong localChanges = new AtomicLong();
+    private volatile long retentionWindow;
+    private final LongSupplier clock;
+    // Both set once the store starts spilling to a cold store; the resident set first
+    private volatile ResidentSet resident;
+    private volatile ColdStore coldStore;
+
+    public VersionedStore() {
+        this(0);
+    }
+
+    /**
+     * Creates a store that keeps versions readable for a number of log entries behind the latest.
+     * @param retentionWindow how many log indexes behind the applied index stay readable
+     */
+    public VersionedStore(long retentionWindow) {
+        this(retentionWindow, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a store that checks expiry times against the given clock.
+     * @param retentionWindow how many log indexes behind the applied index stay readable
+     * @param clock the current time in milliseconds
+     */
+    public VersionedStore(long retentionWindow, LongSupplier clock) {
+        this.versions = new ConcurrentHashMap<>();
+        this.pins = new ConcurrentSkipListMap<>();
+        this.merkleTree = new MerkleTree();
+        this.retentionWindow = retentionWindow;
+        this.clock = clock;
+    }
+
+    /**
+     * Reads the latest value of a key, as of the applied index.
+     * @param key the key to read
+     * @return the value, or null if not found
+     */
+    public String get(String key) {
+        return resolve(lookup(key), appliedIndex.get(), localChanges.get());
+    }
+
+    /**
+     * Reads a key as it was at the given log index. Never blocks writers.
+     * @param key the key to read
+     * @param asOfIndex the log index to read at
+     * @return the value, or null if the key was absent at that index
+     * @throws VersionUnavailableException if the index is not applied yet or no longer retained
+     */
+    public String read(String key, long asOfIndex) {
+        checkReadable(asOfIndex);
+        String value = resolve(lookup(key), asOfIndex, 0);
+        // A collector may have cut the chain while we walked it; it raises the horizon after cutting
+        checkRetained(asOfIndex);
+        return value;
+    }
+
+    /**
+     * Reads several keys as they all were at the given log index. Never blocks writers.
+     * @param keys the keys to read
+     * @param asOfIndex the log index to read at
+     * @return the keys that were present at that index, mapped to their values
+     * @throws VersionUnavailableException if the index is not applied yet or no longer retained
+     */
+    public Map<String, String> readAll(Collection<String> keys, long asOfIndex) {
+        return readAll(keys, asOfIndex, 0);
+    }
+
+    private Map<String, String> readAll(Collection<String> keys, long asOfIndex, long localSeq) {
+        checkReadable(asOfIndex);
+        Map<String, String> result = new HashMap<>();
+        for (String key : keys) {
+            String value = resolve(lookup(key), asOfIndex, localSeq);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        checkRetained(asOfIndex);
+        return result;
+    }
+
+    /**
+     * Reads several keys consistently at the latest applied index.
+     * Tries lock-free reads first and falls back to pinning a snapshot if writers keep
+     * moving the index out from under it.
+     * @param keys the keys to read
+     * @return the present keys mapped to their values, all as of the same log index
+     */
+    public Map<String, String> readAll(Collection<String> keys) {
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+            try {
+                return readAll(keys, appliedIndex.get(), localChanges.get());
+            } catch (VersionUnavailableException e) {
+                // The versions at that index were collected mid-read; retry at the new index
+            }
+        }
+
+        try (StoreSnapshot snapshot = snapshot()) {
+            Map<String, String> result = new HashMap<>();
+            for (String key : keys) {
+                String value = snapshot.get(key);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Gets the version of a key's latest value: the ID of the log entry that wrote it.
+     * @param key the key
+     * @return the log ID, or 0 if the key is absent
+     */
+    public long getVersion(String key) {
+        VersionedValue head = lookup(key);
+        if (head == null) {
+            return 0;
+        }
+        VersionedValue visible = head.visibleAt(appliedIndex.get(), localChanges.get());
+        return valueOf(visible) == null ? 0 : visible.getLogId();
+    }
+
+    /**
+     * Checks if the key currently has a value.
+     * @param key the key to check
+     * @return true if the key is present
+     */
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Records a new value for a key.
+     * @param key the key being written
+     * @param value the value being written
+     * @param logId the ID of the log entry that wrote it
+     */
+    public void put(String key, String value, long logId) {
+        install(key, value, logId, 0, true);
+    }
+
+    /**
+     * Records a new value for a key that expires.
+     * @param key the key being written
+     * @param value the value being written
+     * @param logId the ID of the log entry that wrote it
+     * @param expiresAtMillis when the value expires, or 0 for never
+     */
+    public void put(String key, String value, long logId, long expiresAtMillis) {
+        install(key, value, logId, expiresAtMillis, true);
+    }
+
+    /**
+     * Records the deletion of a key.
+     * @param key the key being deleted
+     * @param logId the ID of the log entry that deleted it
+     */
+    public void remove(String key, long logId) {
+        install(key, null, logId, 0, true);
+    }
+
+    /**
+     * Changes a key outside the log, after every entry up to the applied index. Latest reads
+     * see the change right away; snapshots already open and reads as of the applied index do not.
+     * @param key the key being changed
+     * @param value the new value, or null to delete the key
+     */
+    public void overwrite(String key, String value) {
+        install(key, value, -1, 0, true);
+    }
+
+    /**
+     * Records a new value or deletion for a key without making it visible. Readers keep
+     * seeing the key as of the applied index until {@link #publish} moves the index past it.
+     * @param key the key being written
+     * @param value the value being written, or null for a deletion
+     * @param logId the ID of the log entry that wrote it
+     * @param expiresAtMillis when the value expires, or 0 for never
+     */
+    public void stage(String key, String value, long logId, long expiresAtMillis) {
+        install(key, value, logId, expiresAtMillis, false);
+    }
+
+    /**
+     * Makes every version staged up to the given index visible. The applied index never moves back.
+     * @param index the log index up to which every entry has been staged
+     */
+    public void publish(long index) {
+        appliedIndex.accumulateAndGet(index, Math::max);
+    }
+
+    /**
+     * Drops a key and all its versions without recording a deletion, e.g. when a cache evicts it.
+     * Snapshots that could still see the key no longer can.
+     * @param key the key to drop
+     */
+    public void evict(String key) {
+        ColdStore cold = coldStore;
+        if (cold == null) {
+            VersionedValue head = versions.remove(key);
+            if (head != null) {
+                merkleTree.update(key, head.getValue(), null);
+            }
+            return;
+        }
+        versions.compute(key, (k, head) -> {
+            VersionedValue dropped = head != null ? head : cold.get(key);
+            if (dropped != null) {
+                merkleTree.update(key, dropped.getValue(), null);
+            }
+            cold.delete(key);
+            return null;
+        });
+        resident.remove(key);
+    }
+
+    /**
+     * Loads the value of a key into a store that is being rebuilt at startup, before anything
+     * reads it. No history is kept and no lock is taken, so keys can be loaded from several
+     * threads at once as long as no two threads load the same key.
+     * @param key the key to load
+     * @param value the value, or null if the key should be absent
+     * @param logId the ID of the log entry that wrote it
+     * @param expiresAtMillis when the value expires, or 0 for never
+     */
+    public void restore(String key, String value, long logId, long expiresAtMillis) {
+        ColdStore cold = coldStore;
+        if (cold == null) {
+            VersionedValue previous = value == null ? versions.remove(key)
+                    : versions.put(key, new VersionedValue(value, logId, expiresAtMillis, null));
+            merkleTree.update(key, previous == null ? null : previous.getValue(), value);
+            return;
+        }
+        versions.compute(key, (k, head) -> {
+            VersionedValue previous = head != null ? head : cold.get(key);
+            merkleTree.update(key, previous == null ? null : previous.getValue(), value);
+            if (value == null) {
+                cold.delete(key);
+                return null;
+            }
+            return new VersionedValue(value, logId, expiresAtMillis, null);
+        });
+        track(key, value);
+    }
+
+    /**
+     * Sets the applied index once a store has been rebuilt with {@link #restore}.
+     * @param appliedIndex the log index the restored state corresponds to
+     */
+    public void setRestoredIndex(long appliedIndex) {
+        this.appliedIndex.set(appliedIndex);
+    }
+
+    /**
+     * Gets when the value a key had at the given log index expires.
+     * @param key the key to check
+     * @param asOfIndex the log index to read at
+     * @return the expiry time in milliseconds, or 0 if the key was absent or never expires
+     * @throws VersionUnavailableException if the index has not been applied yet or is no longer retained
+     */
+    public long getExpiresAtMillis(String key, long asOfIndex) {
+        checkReadable(asOfIndex);
+        VersionedValue head = lookup(key);
+        VersionedValue version = head == null ? null : head.visibleAt(asOfIndex);
+        checkRetained(asOfIndex);
+        return version == null || version.isTombstone() ? 0 : version.getExpiresAtMillis();
+    }
+
+    /**
+     * Gets when the latest value of a key expires, whether or not it has already expired.
+     * @param key the key to check
+     * @return the expiry time in milliseconds, or 0 if the key is absent or never expires
+     */
+    public long getExpiresAtMillis(String key) {
+        VersionedValue head = lookup(key);
+        return head == null || head.isTombstone() ? 0 : head.getExpiresAtMillis();
+    }
+
+    /**
+     * Visits every key whose latest value has an expiry time, e.g. to rebuild an expiry schedule.
+     * @param action receives each key and its expiry time in milliseconds
+     */
+    public void forEachExpiry(ObjLongConsumer<String> action) {
+        versions.forEach((key, head) -> {
+            if (!head.isTombstone() && head.getExpiresAtMillis() != 0) {
+                action.accept(key, head.getExpiresAtMillis());
+            }
+        });
+        ColdStore cold = coldStore;
+        if (cold != null) {
+            Iterator<Map.Entry<String, VersionedValue>> entries = cold.scan();
+            while (entries.hasNext()) {
+                Map.Entry<String, VersionedValue> entry = entries.next();
+                if (entry.getValue().getExpiresAtMillis() != 0 && !versions.containsKey(entry.getKey())) {
+                    action.accept(entry.getKey(), entry.getValue().getExpiresAtMillis());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the hash tree over the store's latest values.
+     * @return the hash tree
+     */
+    public MerkleTree getMerkleTree() {
+        return merkleTree;
+    }
+
+    /**
+     * Gets the keys that fall into some of the hash tree's leaves, from the tree's key sets,
+     * or by walking the whole store, cold keys included, once it spills to a cold store.
+     * That walk costs as much as a full scan, so callers should not hold locks around it.
+     * Keys that were deleted but whose tombstones are still kept may be included.
+     * @param leaves the leaf numbers
+     * @return a new set of keys
+     */
+    public Set<String> keysInLeaves(Collection<Integer> leaves) {
+        Set<String> keys = new HashSet<>();
+        if (leaves.isEmpty()) {
+            return keys;
+        }
+        boolean tracked = true;
+        for (int leaf : leaves) {
+            Set<String> inLeaf = merkleTree.keysInLeaf(leaf);
+            if (inLeaf == null) {
+                tracked = false;
+                break;
+            }
+            keys.addAll(inLeaf);
+        }
+        if (tracked) {
+            return keys;
+        }
+
+        Set<Integer> wanted = new HashSet<>(leaves);
+        heads().forEachRemaining(entry -> {
+            if (wanted.contains(merkleTree.leafOf(entry.getKey()))) {
+                keys.add(entry.getKey());
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * Gets the highest log ID written to this store.
+     * @return the applied log index
+     */
+    public long getAppliedIndex() {
+        return appliedIndex.get();
+    }
+
+    /**
+     * Gets the approximate number of keys tracked by this store, including deleted keys
+     * whose tombstones have not been collected yet. Keys in a cold store may be counted more than once.
+     * @return the number of keys
+     */
+    public int size() {
+        ColdStore cold = coldStore;
+        return cold == null ? versions.size() : (int) Math.min(Integer.MAX_VALUE, versions.size() + cold.getApproximateKeys());
+    }
+
+    /**
+     * Starts keeping only the most used keys in memory and moving the rest to a cold store.
+     * Keys already in memory beyond the budget are moved right away. Can only be done once.
+     * @param cold the store for keys moved out of memory, which must be empty
+     * @param memoryBudgetBytes the approximate heap the keys kept in memory may use
+     * @param random chooses which keys to consider for eviction
+     * @return false if the store already spills to a cold store
+     */
+    public synchronized boolean spillTo(ColdStore cold, long memoryBudgetBytes, Random random) {
+        if (coldStore != null) {
+            return false;
+        }
+        resident = new ResidentSet(memoryBudgetBytes, random);
+        coldStore = cold;
+        merkleTree.dropKeys();
+        for (Map.Entry<String, VersionedValue> entry : versions.entrySet()) {
+            track(entry.getKey(), entry.getValue().getValue());
+        }
+        return true;
+    }
+
+    public ColdStore getColdStore() {
+        return coldStore;
+    }
+
+    /**
+     * Gets the number of keys kept in memory by the resident set, if the store spills to a cold store.
+     * @return the number of resident keys, or -1 if everything is kept in memory
+     */
+    public int getResidentKeys() {
+        ResidentSet current = resident;
+        return current == null ? -1 : current.size();
+    }
+
+    /**
+     * Sets how many log indexes behind the applied index stay readable without a snapshot.
+     * @param retentionWindow the number of log indexes to retain
+     */
+    public void setRetentionWindow(long retentionWindow) {
+        this.retentionWindow = retentionWindow;
+    }
+
+    public long getRetentionWindow() {
+        return retentionWindow;
+    }
+
+    /**
+     * Gets the log index below which versions are collected, taking open snapshots into account.
+     * @return the low-water mark
+     */
+    public long getLowWaterMark() {
+        try {
+            pinLock.writeLock().lock();
+            long floor = retentionFloor();
+            return pins.isEmpty() ? floor : Math.min(floor, pins.firstKey().index);
+        } finally {
+            pinLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the oldest log index that can still be read.
+     * @return the oldest readable log index
+     */
+    public long getOldestReadableIndex() {
+        return horizon.get();
+    }
+
+    /**
+     * Opens a snapshot of the latest state of the store.
+     * @return the snapshot; it must be closed to release old versions
+     */
+    public StoreSnapshot snapshot() {
+        try {
+            pinLock.writeLock().lock();
+            return openSnapshot(appliedIndex.get(), localChanges.get());
+        } finally {
+            pinLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Opens a snapshot of the store as of the given log index.
+     * @param asOfIndex the log index to read at
+     * @return the snapshot, or null if that index is in the future or no longer retained
+     */
+    public StoreSnapshot snapshot(long asOfIndex) {
+        try {
+            pinLock.writeLock().lock();
+            if (asOfIndex > appliedIndex.get() || (asOfIndex < horizon.get() && !pins.containsKey(new ReadPoint(asOfIndex, 0)))) {
+                return null;
+            }
+            return openSnapshot(asOfIndex, 0);
+        } finally {
+            pinLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops every version below the low-water mark across the whole store, including
+     * tombstones nobody can see behind any more. Each key is trimmed on its own,
+     * so writers are only held up for one key at a time.
+     * @return the number of versions dropped
+     */
+    public int collectGarbage() {
+        int dropped = 0;
+        ColdStore cold = coldStore;
+        for (String key : versions.keySet()) {
+            dropped += collectGarbage(key, cold);
+            // Keys that could not leave memory when they were evicted can go once their history is trimmed
+            if (cold != null && !resident.contains(key)) {
+                spill(key, cold);
+            }
+        }
+        return dropped;
+    }
+
+    private int collectGarbage(String key, ColdStore cold) {
+        int[] dropped = new int[1];
+        try {
+            pinLock.readLock().lock();
+            versions.computeIfPresent(key, (k, head) -> {
+                dropped[0] = trim(head, retentionFloor());
+                if (head.isTombstone() && head.getPrevious() == null) {
+                    dropped[0]++;
+                    if (cold != null) {
+                        cold.delete(key);
+                    }
+                    return null;
+                }
+                return head;
+            });
+        } finally {
+            pinLock.readLock().unlock();
+        }
+        return dropped[0];
+    }
+
+    private StoreSnapshot openSnapshot(long index, long localSeq) {
+        pins.merge(new ReadPoint(index, localSeq), 1, Integer::sum);
+        return new StoreSnapshot(this, index, localSeq);
+    }
+
+    void release(long index, long localSeq) {
+        try {
+            pinLock.writeLock().lock();
+            pins.computeIfPresent(new ReadPoint(index, localSeq), (i, count) -> count == 1 ? null : count - 1);
+        } finally {
+            pinLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the version chain of a key, fetching the key from the cold store if it is not in
+     * memory, and bringing it back into memory if it is now used often enough.
+     */
+    VersionedValue lookup(String key) {
+        VersionedValue head = versions.get(key);
+        ColdStore cold = coldStore;
+        if (cold == null) {
+            return head;
+        }
+        resident.recordAccess(key);
+        if (head != null) {
+            return head;
+        }
+
+        VersionedValue stored = cold.get(key);
+        if (stored == null) {
+            return null;
+        }
+        List<String> evicted = new ArrayList<>();
+        if (!resident.admit(key, ResidentSet.estimateSize(key, stored.getValue()), evicted)) {
+            return stored;
+        }
+        // Fetched again under the key's bin lock, in case a writer changed it meanwhile
+        head = versions.computeIfAbsent(key, cold::get);
+        if (head == null) {
+            resident.remove(key);
+        }
+        spillAll(evicted, cold);
+        return head;
+    }
+
+    /**
+     * Iterates over the version chain of every key, in memory or in the cold store.
+     * Without a cold store it splits along the hash table, so it can be consumed in parallel.
+     */
+    Spliterator<Map.Entry<String, VersionedValue>> heads() {
+        ColdStore cold = coldStore;
+        if (cold == null) {
+            return versions.entrySet().spliterator();
+        }
+        return Spliterators.spliteratorUnknownSize(new TieredIterator(cold), Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+
+    /**
+     * Walks the keys in memory, then the keys in the cold store that were not seen in memory.
+     * A key that moves out of memory during the walk was put in the cold store before it left,
+     * so it is found there; a key that comes back into memory keeps every version a snapshot
+     * could need, so it is read from memory.
+     */
+    private class TieredIterator implements Iterator<Map.Entry<String, VersionedValue>> {
+        private final Iterator<Map.Entry<String, VersionedValue>> inMemory = versions.entrySet().iterator();
+        private final Set<String> seen = new HashSet<>();
+        private final ColdStore cold;
+        private Iterator<Map.Entry<String, VersionedValue>> inColdStore;
+        private Map.Entry<String, VersionedValue> next;
+
+        private TieredIterator(ColdStore cold) {
+            this.cold = cold;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (inMemory.hasNext()) {
+                    next = inMemory.next();
+                    seen.add(next.getKey());
+                    continue;
+                }
+                if (inColdStore == null) {
+                    inColdStore = cold.scan();
+                }
+                if (!inColdStore.hasNext()) {
+                    return false;
+                }
+                Map.Entry<String, VersionedValue> entry = inColdStore.next();
+                if (!seen.contains(entry.getKey())) {
+                    VersionedValue head = versions.get(entry.getKey());
+                    next = head == null ? entry : new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), head);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Map.Entry<String, VersionedValue> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, VersionedValue> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+
+    /**
+     * Makes a written key resident, or moves it out of memory if it is too cold to stay,
+     * along with any keys evicted to make room for it.
+     */
+    private void track(String key, String value) {
+        ResidentSet current = resident;
+        if (current == null) {
+            return;
+        }
+        if (value == null) {
+            current.remove(key);
+            return;
+        }
+        List<String> evicted = new ArrayList<>();
+        if (!current.admit(key, ResidentSet.estimateSize(key, value), evicted)) {
+            evicted.add(key);
+        }
+        spillAll(evicted, coldStore);
+    }
+
+    private void spillAll(List<String> keys, ColdStore cold) {
+        for (String key : keys) {
+            spill(key, cold);
+        }
+    }
+
+    /**
+     * Moves a key to the cold store if its only version is visible to every reader. Keys with
+     * more history, staged ahead of the applied index, or changed outside the log since the
+     * last entry was applied stay in memory for now.
+     */
+    private void spill(String key, ColdStore cold) {
+        versions.computeIfPresent(key, (k, head) -> {
+            long applied = appliedIndex.get();
+            if (head.getPrevious() != null || head.isTombstone() || head.getLogId() > applied
+                    || (head.getLogId() == applied && head.getLocalSeq() > 0)) {
+                return head;
+            }
+            cold.put(key, head.getValue(), head.getLogId(), head.getExpiresAtMillis());
+            return null;
+        });
+    }
+
+    private void checkReadable(long asOfIndex) {
+        long applied = appliedIndex.get();
+        if (asOfIndex > applied) {
+            throw new VersionUnavailableException(asOfIndex,
+                    "Log index " + asOfIndex + " has not been applied yet (applied: " + applied + ")");
+        }
+        checkRetained(asOfIndex);
+    }
+
+    private void checkRetained(long asOfIndex) {
+        // An open snapshot keeps every version visible at its index
+        long oldest = horizon.get();
+        if (asOfIndex < oldest && !pins.containsKey(new ReadPoint(asOfIndex, 0))) {
+            throw new VersionUnavailableException(asOfIndex,
+                    "Log index " + asOfIndex + " is no longer retained (oldest: " + oldest + ")");
+        }
+    }
+
+    private String resolve(VersionedValue head, long asOfIndex, long localSeq) {
+        if (head == null) {
+            return null;
+        }
+        return valueOf(head.visibleAt(asOfIndex, localSeq));
+    }
+
+    /**
+     * Gets the value of a version as readers see it: absent if it is a tombstone or has expired.
+     */
+    String valueOf(VersionedValue version) {
+        if (version == null || version.isExpiredAt(clock.getAsLong())) {
+            return null;
+        }
+        return version.getValue();
+    }
+
+    private long retentionFloor() {
+        return appliedIndex.get() - retentionWindow;
+    }
+
+    /**
+     * Installs a version written by a log entry, or outside the log if the log ID is -1.
+     */
+    private void install(String key, String value, long logId, long expiresAtMillis, boolean visible) {
+        ColdStore cold = coldStore;
+        try {
+            // Held while a local change takes its sequence number, so no snapshot opens in between
+            pinLock.readLock().lock();
+            long floor = retentionFloor();
+            versions.compute(key, (k, current) -> {
+                // A key in the cold store brings its version back, as history for readers behind this write
+                VersionedValue head = current == null && cold != null ? cold.get(key) : current;
+                // Inside compute, so concurrent writers of one key update the hash tree in the order they win
+                merkleTree.update(key, head == null ? null : head.getValue(), value);
+                if (head == null && value == null) {
+                    return null;
+                }
+                VersionedValue version = logId >= 0 ? new VersionedValue(value, logId, expiresAtMillis, head)
+                        : new VersionedValue(value, appliedIndex.get(), localChanges.incrementAndGet(), expiresAtMillis, head);
+                trim(version, floor);
+                // A tombstone nobody can see behind is the same as no entry at all
+                if (version.isTombstone() && version.getPrevious() == null) {
+                    if (cold != null) {
+                        cold.delete(key);
+                    }
+                    return null;
+                }
+                return version;
+            });
+        } finally {
+            pinLock.readLock().unlock();
+        }
+        if (visible && logId >= 0) {
+            publish(logId);
+        }
+        track(key, value);
+    }
+
+    /**
+     * Drops every version behind the head that no reader can see.
+     * A version is visible at index p if its log ID is at most p and the version that
+     * replaced it was written after p. It is kept if that range reaches above the
+     * retention floor or contains an open snapshot.
+     * @return the number of versions dropped
+     */
+    private int trim(VersionedValue head, long floor) {
+        int dropped = 0;
+        VersionedValue kept = head;
+        ReadPoint replacedAt = ReadPoint.of(head);
+        ReadPoint retained = new ReadPoint(floor, 0);
+        VersionedValue current = head.getPrevious();
+        while (current != null) {
+            ReadPoint pin = pins.ceilingKey(ReadPoint.of(current));
+            if (replacedAt.compareTo(retained) > 0 || (pin != null && pin.compareTo(replacedAt) < 0)) {
+                kept.setPrevious(current);
+                kept = current;
+            } else {
+                dropped++;
+                // A version replaced outside the log is still missing for reads as of that index
+                horizon.accumulateAndGet(replacedAt.localSeq == 0 ? replacedAt.index : replacedAt.index + 1, Math::max);
+            }
+            replacedAt = ReadPoint.of(current);
+            current = current.getPrevious();
+        }
+        kept.setPrevious(null);
+        return dropped;
+    }
+
+    /**
+     * A point readers can see the store at: after the log entries up to an index and the
+     * changes made outside the log at that index up to a sequence number.
+     */
+    private static final class ReadPoint implements Comparable<ReadPoint> {
+        private final long index;
+        private final long localSeq;
+
+        private ReadPoint(long index, long localSeq) {
+            this.index = index;
+            this.localSeq = localSeq;
+        }
+
+        private static ReadPoint of(VersionedValue version) {
+            return new ReadPoint(version.getLogId(), version.getLocalSeq());
+        }
+
+        @Override
+        public int compareTo(ReadPoint other) {
+            int byIndex = Long.compare(index, other.index);
+            return byIndex != 0 ? byIndex : Long.compare(localSeq, other.localSeq);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ReadPoint && compareTo((ReadPoint) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(index) * 31 + Long.hashCode(localSeq);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.replication.store;
+
+/**
+ * A single version of a key's value, tagged with the ID of the log entry that wrote it.
+ * Versions form a newest-first chain through {@link #getPrevious()}.
+ * A version with a null value is a tombstone left behind by a delete.
+ * A version may carry an expiry time, after which it reads as absent.
+ * A version written outside the log, e.g. by a local delete or a repair, also carries the
+ * sequence number of that change, which orders it after the log entries at its index.
+ */
+public final class VersionedValue {
+    private final String value;
+    private final long logId;
+    private final long expiresAtMillis;
+    private final long localSeq;
+    private volatile VersionedValue previous;
+
+    VersionedValue(String value, long logId, long expiresAtMillis, VersionedValue previous) {
+        this(value, logId, 0, expiresAtMillis, previous);
+    }
+
+    VersionedValue(String value, long logId, long localSeq, long expiresAtMillis, VersionedValue previous) {
+        this.value = value;
+        this.logId = logId;
+        this.localSeq = localSeq;
+        this.expiresAtMillis = expiresAtMillis;
+        this.previous = previous;
+    }
+
+    /**
+     * Creates a version with no history behind it, e.g. one read back from disk.
+     * @param value the value, or null for a tombstone
+     * @param logId the ID of the log entry that wrote it
+     * @param expiresAtMillis when the value expires, or 0 for never
+     * @return the version
+     */
+    public static VersionedValue detached(String value, long logId, long expiresAtMillis) {
+        return new VersionedValue(value, logId, expiresAtMillis, null);
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getLogId() {
+        return logId;
+    }
+
+    /**
+     * Gets the sequence number of the change outside the log that wrote this version.
+     * @return the sequence number, or 0 if a log entry wrote it
+     */
+    public long getLocalSeq() {
+        return localSeq;
+    }
+
+    /**
+     * Gets when this version expires.
+     * @return the expiry time in milliseconds, or 0 if it never expires
+     */
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    /**
+     * Checks if this version has expired.
+     * @param nowMillis the current time in milliseconds
+     * @return true if the version has an expiry time that has passed
+     */
+    public boolean isExpiredAt(long nowMillis) {
+        return expiresAtMillis != 0 && expiresAtMillis <= nowMillis;
+    }
+
+    public VersionedValue getPrevious() {
+        return previous;
+    }
+
+    void setPrevious(VersionedValue previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Checks if this version records a delete.
+     * @return true if this version is a tombstone
+     */
+    public boolean isTombstone() {
+        return value == null;
+    }
+
+    /**
+     * Finds the version of the key that was current as of the given log index.
+     * @param asOfIndex the log index to resolve against
+     * @return the newest version with a log ID not greater than the index, or null if none
+     */
+    public VersionedValue visibleAt(long asOfIndex) {
+        return visibleAt(asOfIndex, 0);
+    }
+
+    /**
+     * Finds the version of the key that was current after the given log index and the changes
+     * made outside the log up to a sequence number.
+     * @param asOfIndex the log index to resolve against
+     * @param localSeq the last change outside the log to include, or 0 for none made at that index
+     * @return the newest version not after that point, or null if none
+     */
+    VersionedValue visibleAt(long asOfIndex, long localSeq) {
+        VersionedValue version = this;
+        while (version != null && (version.logId > asOfIndex || (version.logId == asOfIndex && version.localSeq > localSeq))) {
+            version = version.previous;
+        }
+        return version;
+    }
+}
@@ -0,0 +1,242 @@
+package com.replication.system;
+
+import com.replication.node.MasterNode;
+import com.replication.node.SlaveNode;
+import com.replication.runtime.NodeRuntime;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Runs writes and reads for callers that do not want to block, so one caller can keep many
+ * operations in flight without a thread each.
+ * <p>
+ * Changes are queued and applied one at a time by a single draining task, in the order they
+ * were submitted, which costs little since the master applies them one at a time anyway and
+ * keeps a caller's pipelined writes to the same key in order. Reads run on a pool and may
+ * overtake earlier writes; a read that must see a write should wait for the write's replicated
+ * stage.
+ * <p>
+ * Like the change feed, replication is observed by polling the slaves' positions rather than
+ * by being told, so waiting for replication never slows down writes. A write that no set of
+ * slaves catches up with in time, e.g. because they are all down, stops waiting.
+ */
+class AsyncOperations {
+    private final Supplier<MasterNode> master;
+    private final Supplier<List<SlaveNode>> slaves;
+    private final Function<String, String> reader;
+    private final ExecutorService writer;
+    private final ExecutorService readers;
+    private final ScheduledExecutorService poller;
+    private final LongSupplier clock;
+    private final long replicationTimeoutMillis;
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    // Guarded by itself, ordered by the log index each write waits for
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(Comparator.comparingLong(w -> w.index));
+    // Only touched by the poller
+    private MasterNode lastMaster;
+
+    /**
+     * A change waiting to be applied, with the write it reports to.
+     */
+    private static final class Change {
+        private final Predicate<MasterNode> operation;
+        private final PendingWrite pending;
+
+        private Change(Predicate<MasterNode> operation, PendingWrite pending) {
+            this.operation = operation;
+            this.pending = pending;
+        }
+    }
+
+    /**
+     * A write waiting for the slaves to reach a log index of the master that applied it.
+     */
+    private static final class Waiter {
+        private final long index;
+        private final MasterNode master;
+        private final CompletableFuture<Boolean> replicated;
+        private final long deadlineMillis;
+
+        private Waiter(long index, MasterNode master, CompletableFuture<Boolean> replicated, long deadlineMillis) {
+            this.index = index;
+            this.master = master;
+            this.replicated = replicated;
+            this.deadlineMillis = deadlineMillis;
+        }
+    }
+
+    /**
+     * Creates the executors for asynchronous operations and starts polling for replication.
+     * @param master supplies the current master
+     * @param slaves supplies the current slaves
+     * @param reader performs a routed read
+     * @param runtime supplies the threads and the poller
+     * @param readThreads the number of threads reads run on
+     * @param pollMillis how often the slaves' positions are checked
+     * @param replicationTimeoutMillis how long a write waits for the slaves before its replicated stage fails
+     */
+    AsyncOperations(Supplier<MasterNode> master, Supplier<List<SlaveNode>> slaves, Function<String, String> reader,
+                    NodeRuntime runtime, int readThreads, long pollMillis, long replicationTimeoutMillis) {
+        this.master = master;
+        this.slaves = slaves;
+        this.reader = reader;
+        this.clock = runtime::currentTimeMillis;
+        this.replicationTimeoutMillis = replicationTimeoutMillis;
+        this.writer = runtime.newExecutor("async-writes", 1);
+        this.readers = runtime.newExecutor("async-reads", readThreads);
+        this.poller = runtime.newScheduler("async-replication-poll", 1);
+        this.lastMaster = master.get();
+        poller.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Submits a change to be applied by the current master once the changes submitted before
+     * it have been.
+     * @param change applies the change to the master and returns true if it was accepted
+     * @return the pending change
+     */
+    PendingWrite submit(Predicate<MasterNode> change) {
+        PendingWrite pending = new PendingWrite();
+        changes.add(new Change(change, pending));
+        scheduleDrain();
+        return pending;
+    }
+
+    private void scheduleDrain() {
+        if (!changes.isEmpty() && draining.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                System.out.println("Asynchronous operations are shut down, rejecting queued changes");
+                Change change;
+                while ((change = changes.poll()) != null) {
+                    change.pending.reject();
+                }
+                draining.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        do {
+            Change change;
+            while ((change = changes.poll()) != null) {
+                apply(change.operation, change.pending);
+            }
+            draining.set(false);
+            // Changes submitted after the queue was found empty but before the flag was cleared
+        } while (!changes.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void apply(Predicate<MasterNode> change, PendingWrite pending) {
+        MasterNode current = master.get();
+        boolean accepted;
+        try {
+            accepted = change.test(current);
+        } catch (RuntimeException e) {
+            pending.fail(e);
+            return;
+        }
+        if (!accepted) {
+            pending.reject();
+            return;
+        }
+        // At or after the change's own entry, since changes are applied one at a time
+        long index = current.getLastLogIndex();
+        pending.applied().complete(true);
+        synchronized (waiters) {
+            waiters.add(new Waiter(index, current, pending.replicated(), clock.getAsLong() + replicationTimeoutMillis));
+        }
+    }
+
+    /**
+     * Reads a key on the read pool.
+     * @param key the key to read
+     * @return a future completing with the value, or null if not found or all slaves are down
+     */
+    CompletableFuture<String> read(String key) {
+        try {
+            return CompletableFuture.supplyAsync(() -> reader.apply(key), readers);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Completes the replicated stage of every write the slaves have caught up with, and fails
+     * those applied by a master that has since been replaced or that waited too long.
+     */
+    private void poll() {
+        // Nothing waits most of the time, and walking the slaves would be wasted
+        synchronized (waiters) {
+            if (waiters.isEmpty()) {
+                return;
+            }
+        }
+        MasterNode current = master.get();
+        List<Waiter> completed = new ArrayList<>();
+        List<Waiter> lost = new ArrayList<>();
+        long replicatedIndex = replicatedIndex(current);
+        long now = clock.getAsLong();
+        synchronized (waiters) {
+            if (current != lastMaster) {
+                waiters.removeIf(waiter -> waiter.master != current && lost.add(waiter));
+                lastMaster = current;
+            }
+            while (!waiters.isEmpty() && waiters.peek().index <= replicatedIndex) {
+                completed.add(waiters.poll());
+            }
+            // Writes are queued in index order, so the oldest deadlines come first
+            while (!waiters.isEmpty() && waiters.peek().deadlineMillis <= now) {
+                lost.add(waiters.poll());
+            }
+        }
+        for (Waiter waiter : lost) {
+            waiter.replicated.complete(false);
+        }
+        for (Waiter waiter : completed) {
+            waiter.replicated.complete(true);
+        }
+    }
+
+    /**
+     * Gets the log index every counted slave has applied, as far as its reads see: those of the
+     * given master that are up, caught up and hold the whole dataset.
+     * @return the lowest index among them, or -1 if no slave counts
+     */
+    private long replicatedIndex(MasterNode current) {
+        long lowest = Long.MAX_VALUE;
+        for (SlaveNode slave : slaves.get()) {
+            if (slave.isUp() && slave.isCaughtUp() && slave.holdsFullCopy() && slave.getMaster() == current) {
+                lowest = Math.min(lowest, slave.getAppliedIndex());
+            }
+        }
+        return lowest == Long.MAX_VALUE ? -1 : lowest;
+    }
+
+    /**
+     * Stops the threads. Changes already submitted are still applied, but stages waiting for
+     * replication no longer complete.
+     */
+    void shutdown() {
+        poller.shutdown();
+        writer.shutdown();
+        readers.shutdown();
+    }
+}
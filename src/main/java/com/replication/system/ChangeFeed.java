@@ -0,0 +1,257 @@
+package com.replication.system;
+
+import com.replication.model.LogEntry;
+import com.replication.node.MasterNode;
+import com.replication.runtime.NodeRuntime;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Pushes the master's log to downstream consumers as batches of entries, from any index they
+ * choose, e.g. a checkpoint they saved. Each subscriber is sent a batch only for each unit of
+ * demand it has requested.
+ * <p>
+ * The feed reads the log without taking the master's lock, and it polls for new entries
+ * rather than being told about them, so subscribers never slow down writes. A subscriber that
+ * falls more than the allowed lag behind, or whose position was lost in a failover, is sent a
+ * {@link RebootstrapRequiredException} and should reload from a snapshot.
+ * <p>
+ * Every signal after {@code onSubscribe} is sent by a subscription's single delivering task,
+ * errors included, so a subscriber is never signalled from two threads at once.
+ */
+public class ChangeFeed {
+    private final Supplier<MasterNode> master;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService poller;
+    private final int batchSize;
+    private final long maxLag;
+    private final Set<FeedSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+    // The last log index each promoted master inherited, in promotion order
+    private final List<Long> promotions = new CopyOnWriteArrayList<>();
+
+    private final class Publisher implements Flow.Publisher<List<LogEntry>> {
+        private final long afterIndex;
+
+        private Publisher(long afterIndex) {
+            this.afterIndex = afterIndex;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super List<LogEntry>> subscriber) {
+            FeedSubscription subscription = new FeedSubscription(subscriber, afterIndex);
+            subscriptions.add(subscription);
+            subscriber.onSubscribe(subscription);
+
+            MasterNode current = master.get();
+            long lastIndex = current.getLastLogIndex();
+            if (afterIndex < 0) {
+                subscription.fail(new IllegalArgumentException("Negative start index " + afterIndex));
+            } else if (lastIndex >= 0 && afterIndex > lastIndex) {
+                subscription.fail(new RebootstrapRequiredException(afterIndex, "Start index " + afterIndex +
+                        " is beyond the master's log, which ends at " + lastIndex));
+            }
+            subscription.subscribed();
+        }
+    }
+
+    private final class FeedSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super List<LogEntry>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        // Held by the subscribing thread until onSubscribe has returned
+        private final AtomicBoolean scheduled = new AtomicBoolean(true);
+        private volatile boolean done;
+        // The error to signal, set once; the delivering task signals it
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        // Only changed by the delivering task
+        private long position;
+        private int promotionsSeen;
+
+        private FeedSubscription(Flow.Subscriber<? super List<LogEntry>> subscriber, long afterIndex) {
+            this.subscriber = subscriber;
+            this.position = afterIndex;
+            this.promotionsSeen = promotions.size();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " batches, must be positive"));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Lets the delivering task run once the subscriber has been handed the subscription.
+         */
+        private void subscribed() {
+            scheduled.set(false);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!done && (demand.get() > 0 || error.get() != null) && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // The feed is shut down
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                deliver();
+                scheduled.set(false);
+                // New demand that arrived after the last delivery but before the flag was cleared
+            } while (!done && (demand.get() > 0 && hasNewEntries() || error.get() != null)
+                    && scheduled.compareAndSet(false, true));
+        }
+
+        private boolean hasNewEntries() {
+            return master.get().getLastLogIndex() > position;
+        }
+
+        private void deliver() {
+            while (!done) {
+                Throwable failure = error.get();
+                if (failure != null) {
+                    cancel();
+                    subscriber.onError(failure);
+                    return;
+                }
+                if (demand.get() <= 0) {
+                    return;
+                }
+                MasterNode current = master.get();
+                // Promotions are recorded before the master is switched, so this sees any that apply
+                if (lostInFailover()) {
+                    continue;
+                }
+                long lastIndex = current.getLastLogIndex();
+                if (lastIndex - position > maxLag) {
+                    fail(new RebootstrapRequiredException(position, "Subscriber at log index " + position +
+                            " is more than " + maxLag + " entries behind the master at " + lastIndex));
+                    continue;
+                }
+
+                List<LogEntry> batch = current.getLogEntriesAfter(position, batchSize);
+                if (batch.isEmpty()) {
+                    return;
+                }
+                position = batch.get(batch.size() - 1).getId();
+                demand.decrementAndGet();
+                try {
+                    subscriber.onNext(batch);
+                } catch (RuntimeException e) {
+                    System.out.println("Change feed subscriber failed, cancelling it: " + e.getMessage());
+                    cancel();
+                }
+            }
+        }
+
+        private boolean lostInFailover() {
+            int promoted = promotions.size();
+            for (int i = promotionsSeen; i < promoted; i++) {
+                long inherited = promotions.get(i);
+                if (position > inherited) {
+                    fail(new RebootstrapRequiredException(position, "Log after index " + inherited +
+                            " was replaced in a failover, subscriber was at " + position));
+                    return true;
+                }
+            }
+            promotionsSeen = promoted;
+            return false;
+        }
+
+        /**
+         * Records an error and has the delivering task signal it, after any batch it is
+         * delivering now. Only the first error is signalled.
+         */
+        private void fail(Throwable failure) {
+            if (error.compareAndSet(null, failure)) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Creates a feed over whichever node is master at the time.
+     * @param master supplies the current master
+     * @param runtime supplies the delivery threads and the poll timer
+     * @param batchSize the most entries in one batch
+     * @param maxLag how many entries a subscriber may fall behind before it must re-bootstrap
+     * @param pollMillis how often to check for new entries
+     */
+    public ChangeFeed(Supplier<MasterNode> master, NodeRuntime runtime, int batchSize, long maxLag, long pollMillis) {
+        this.master = master;
+        this.executor = runtime.newExecutor("change-feed", 2);
+        this.poller = runtime.newScheduler("change-feed-poll", 1);
+        this.batchSize = batchSize;
+        this.maxLag = maxLag;
+        poller.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll() {
+        for (FeedSubscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * Gets a publisher of the log entries after an index. Each subscriber gets its own stream.
+     * @param afterIndex the log index after which to start, 0 for the whole log
+     * @return the publisher
+     */
+    public Flow.Publisher<List<LogEntry>> after(long afterIndex) {
+        return new Publisher(afterIndex);
+    }
+
+    /**
+     * Records that a slave was promoted, so subscribers that were sent entries the new
+     * master does not have are told to re-bootstrap. Must be called before the new master
+     * is made visible through the master supplier.
+     * @param inheritedIndex the last log index the new master took over
+     */
+    void masterChanged(long inheritedIndex) {
+        promotions.add(inheritedIndex);
+        poll();
+    }
+
+    /**
+     * Gets the number of active subscriptions.
+     * @return the number of subscribers
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Stops delivering. Subscribers are not signalled; they simply receive nothing more.
+     */
+    public void shutdown() {
+        poller.shutdown();
+        executor.shutdown();
+    }
+}
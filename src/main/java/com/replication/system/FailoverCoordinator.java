@@ -0,0 +1,172 @@
+package com.replication.system;
+
+import com.replication.node.MasterNode;
+import com.replication.node.ReplicationCoalescer;
+import com.replication.node.SlaveNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the master and fails over automatically when it goes down.
+ * The master counts as failed when the heartbeat failure detector's suspicion level crosses
+ * its failure threshold. After a number of consecutive failed checks, the old master is fenced, the up slave
+ * holding a full copy with the highest last applied log index is promoted in place, and every other slave
+ * is repointed to it and catches up from its log. A fenced master that comes back up
+ * rejoins as a fresh slave of the new master.
+ */
+public class FailoverCoordinator {
+    private final ReplicationSystem system;
+    private final long checkIntervalMillis;
+    private final int missedChecksBeforeFailover;
+    private final List<FailoverEvent> events = new CopyOnWriteArrayList<>();
+    private final List<MasterNode> fencedMasters = new CopyOnWriteArrayList<>();
+    private int missedChecks = 0;
+    private ScheduledFuture<?> task;
+
+    /**
+     * Creates a failover coordinator.
+     * @param system the replication system to watch
+     * @param checkIntervalMillis how often the master is checked
+     * @param missedChecksBeforeFailover how many consecutive checks must find the master suspected
+     */
+    public FailoverCoordinator(ReplicationSystem system, long checkIntervalMillis, int missedChecksBeforeFailover) {
+        this.system = system;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.missedChecksBeforeFailover = missedChecksBeforeFailover;
+    }
+
+    /**
+     * Starts checking the master on the given scheduler.
+     * @param scheduler the scheduler to run checks on
+     */
+    public synchronized void start(ScheduledExecutorService scheduler) {
+        task = scheduler.scheduleAtFixedRate(this::check, checkIntervalMillis, checkIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops checking the master.
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Checks the master once, failing over if it has been down for long enough.
+     */
+    public synchronized void check() {
+        rejoinReturnedMasters();
+
+        MasterNode master = system.getMaster();
+        if (system.getFailureDetector().isAvailable(master.getId())) {
+            missedChecks = 0;
+            return;
+        }
+
+        if (++missedChecks >= missedChecksBeforeFailover) {
+            failover(master);
+        }
+    }
+
+    private void failover(MasterNode oldMaster) {
+        long detectedNanos = system.getRuntime().nanoTime();
+        // The master stopped answering some time after its last acknowledged heartbeat
+        long detectionMillis = (long) system.getFailureDetector().millisSinceLastHeartbeat(oldMaster.getId());
+        if (findMostUpToDateSlave() == null) {
+            System.out.println("Master " + oldMaster.getId() + " has failed but no slave is up to promote");
+            return;
+        }
+
+        // Once fenced, the old master can no longer move any slave's log position
+        oldMaster.fence();
+        SlaveNode candidate = findMostUpToDateSlave();
+        if (candidate == null) {
+            System.out.println("Master " + oldMaster.getId() + " has failed but no slave is up to promote");
+            return;
+        }
+
+        long promotedIndex = candidate.getReceivedLogIndex();
+        MasterNode newMaster = new MasterNode(candidate);
+        system.installPromotedMaster(newMaster, candidate);
+
+        ReplicationCoalescer coalescer = oldMaster.getCoalescer();
+        if (coalescer != null) {
+            newMaster.enableWriteCoalescing(coalescer.getWindowMillis());
+        }
+        for (SlaveNode slave : system.getSlaves()) {
+            slave.followMaster(newMaster);
+        }
+        fencedMasters.add(oldMaster);
+
+        long doneNanos = system.getRuntime().nanoTime();
+        FailoverEvent event = new FailoverEvent(oldMaster.getId(), newMaster.getId(), promotedIndex,
+                detectionMillis,
+                TimeUnit.NANOSECONDS.toMillis(doneNanos - detectedNanos));
+        events.add(event);
+        System.out.println("Failover complete: " + event);
+
+        missedChecks = 0;
+    }
+
+    private SlaveNode findMostUpToDateSlave() {
+        SlaveNode best = null;
+        for (SlaveNode slave : system.getSlaves()) {
+            if (!slave.holdsFullCopy() || !slave.isUp() ||
+                    !system.getFailureDetector().isAvailable(slave.getId())) {
+                continue;
+            }
+            // Entries still queued for parallel apply are applied before promotion, so they count
+            if (best == null || slave.getReceivedLogIndex() > best.getReceivedLogIndex()) {
+                best = slave;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Turns every fenced master that has come back up into a slave of the current master.
+     * Its old state is discarded, since it may hold writes that were never replicated.
+     */
+    private void rejoinReturnedMasters() {
+        for (MasterNode fenced : fencedMasters) {
+            if (!fenced.isUp()) {
+                continue;
+            }
+            fencedMasters.remove(fenced);
+            fenced.shutdown();
+            // Its heartbeat history spans the outage; start afresh as a slave
+            system.getFailureDetector().remove(fenced.getId());
+
+            SlaveNode slave = new SlaveNode(fenced.getId(), system.getMaster());
+            // It starts empty, so it must not take reads before recovery has filled it
+            slave.fallBehind();
+            system.addSlave(slave);
+            slave.requestRecovery();
+            System.out.println("Fenced master " + fenced.getId() + " rejoined as a slave");
+        }
+    }
+
+    /**
+     * Gets the failovers performed so far, with their write-unavailability times.
+     * @return the failover events, oldest first
+     */
+    public List<FailoverEvent> getEvents() {
+        return new ArrayList<>(events);
+    }
+
+    /**
+     * Gets the old masters that are fenced and have not come back up yet.
+     * @return the fenced masters
+     */
+    public List<MasterNode> getFencedMasters() {
+        return new ArrayList<>(fencedMasters);
+    }
+}
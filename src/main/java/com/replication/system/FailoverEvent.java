@@ -0,0 +1,79 @@
+package com.replication.system;
+
+/**
+ * Record of one automatic master failover and how long writes were unavailable.
+ */
+public class FailoverEvent {
+    private final String oldMasterId;
+    private final String newMasterId;
+    private final long promotedLogIndex;
+    private final long detectionMillis;
+    private final long promotionMillis;
+    private final long timestamp;
+
+    public FailoverEvent(String oldMasterId, String newMasterId, long promotedLogIndex,
+                         long detectionMillis, long promotionMillis) {
+        this.oldMasterId = oldMasterId;
+        this.newMasterId = newMasterId;
+        this.promotedLogIndex = promotedLogIndex;
+        this.detectionMillis = detectionMillis;
+        this.promotionMillis = promotionMillis;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public String getOldMasterId() {
+        return oldMasterId;
+    }
+
+    public String getNewMasterId() {
+        return newMasterId;
+    }
+
+    /**
+     * Gets the last applied log index of the promoted slave, which is where the new master's log continues.
+     * @return the promoted log index
+     */
+    public long getPromotedLogIndex() {
+        return promotedLogIndex;
+    }
+
+    /**
+     * Gets the time from the old master's last acknowledged heartbeat until the failure was confirmed.
+     * @return the detection time in milliseconds
+     */
+    public long getDetectionMillis() {
+        return detectionMillis;
+    }
+
+    /**
+     * Gets the time taken to fence the old master, promote the slave and repoint the others.
+     * @return the promotion time in milliseconds
+     */
+    public long getPromotionMillis() {
+        return promotionMillis;
+    }
+
+    /**
+     * Gets the upper bound on how long writes were unavailable: detection plus promotion.
+     * @return the write-unavailability time in milliseconds
+     */
+    public long getUnavailableMillis() {
+        return detectionMillis + promotionMillis;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "FailoverEvent{" +
+                "oldMaster='" + oldMasterId + '\'' +
+                ", newMaster='" + newMasterId + '\'' +
+                ", promotedLogIndex=" + promotedLogIndex +
+                ", detectionMillis=" + detectionMillis +
+                ", promotionMillis=" + promotionMillis +
+                ", unavailableMillis=" + getUnavailableMillis() +
+                '}';
+    }
+}
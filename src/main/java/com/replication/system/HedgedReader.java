@@ -0,0 +1,249 @@
+package com.replication.system;
+
+import com.replication.node.SlaveNode;
+import com.replication.runtime.NodeRuntime;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Sends a read to a second replica when the first one is slow to answer, and returns whichever
+ * answer comes first, so a replica stalled in a GC pause or recovery does not stall the read.
+ * <p>
+ * A read waits for its first replica for that replica's recent 95th percentile latency before
+ * it is hedged, so only the slowest few percent of reads are candidates. Hedges are further
+ * limited by a budget: every read earns a fraction of a hedge, and a hedge is only sent if one
+ * has been earned, so hedging adds at most that fraction of extra reads plus a small burst.
+ * <p>
+ * Reads run on the reader's own threads while the caller waits, so hedged reads need the real
+ * runtime; a single-threaded simulation would never run them.
+ */
+public class HedgedReader {
+    // Latencies kept per replica, and how many reads pass between recomputing its percentile
+    private static final int WINDOW = 128;
+    private static final int RECOMPUTE_EVERY = 16;
+    private static final long INITIAL_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MIN_DELAY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // Hedge credit is counted in thousandths, and at most this many hedges may be saved up
+    private static final long CREDIT_PER_HEDGE = 1_000;
+    private static final long MAX_SAVED_HEDGES = 10;
+
+    /**
+     * The recent latencies of one replica, and the hedging delay derived from them.
+     */
+    private static final class LatencyWindow {
+        private final long[] samples = new long[WINDOW];
+        private int count = 0;
+        private volatile long delayNanos = INITIAL_DELAY_NANOS;
+
+        synchronized void record(long nanos) {
+            samples[count % WINDOW] = nanos;
+            count++;
+            if (count >= RECOMPUTE_EVERY && count % RECOMPUTE_EVERY == 0) {
+                long[] sorted = Arrays.copyOf(samples, Math.min(count, WINDOW));
+                Arrays.sort(sorted);
+                delayNanos = Math.max(MIN_DELAY_NANOS, sorted[(int) Math.ceil(sorted.length * 0.95) - 1]);
+            }
+        }
+    }
+
+    private final Function<SlaveNode, SlaveNode> picker;
+    private final NodeRuntime runtime;
+    private final ExecutorService executor;
+    private final long creditPerRead;
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong credit = new AtomicLong(CREDIT_PER_HEDGE);
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong overBudget = new AtomicLong();
+
+    /**
+     * Creates a hedged reader.
+     * @param picker picks a replica to read from other than the given one, which may be null;
+     *               returns null if there is none
+     * @param runtime supplies the reader's threads and clock
+     * @param threads the number of threads reads run on
+     * @param budget the most hedges to send per read, e.g. 0.05 for at most 5% extra reads
+     */
+    public HedgedReader(Function<SlaveNode, SlaveNode> picker, NodeRuntime runtime, int threads, double budget) {
+        if (budget < 0 || budget > 1) {
+            throw new IllegalArgumentException("Hedging budget must be between 0 and 1");
+        }
+        this.picker = picker;
+        this.runtime = runtime;
+        this.executor = runtime.newExecutor("hedged-reads", threads);
+        this.creditPerRead = Math.round(budget * CREDIT_PER_HEDGE);
+    }
+
+    /**
+     * Reads a key, hedging to a second replica if the first is slower than usual.
+     * @param key the key to read
+     * @return the value, or null if not found or no replica is up
+     */
+    public String read(String key) {
+        SlaveNode first = picker.apply(null);
+        if (first == null) {
+            System.out.println("All slaves are DOWN, cannot read");
+            return null;
+        }
+        reads.incrementAndGet();
+        earnCredit();
+
+        CompletableFuture<String> primary;
+        try {
+            primary = readAsync(first, key);
+        } catch (RejectedExecutionException e) {
+            return first.read(key);
+        }
+        try {
+            return primary.get(delayFor(first), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return hedge(first, primary, key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            System.out.println("Read of " + key + " from " + first.getId() + " failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Sends the read to a second replica, if the budget allows, and waits for either answer.
+     */
+    private String hedge(SlaveNode first, CompletableFuture<String> primary, String key) {
+        SlaveNode second = picker.apply(first);
+        if (second == null) {
+            return primary.join();
+        }
+        if (!spendCredit()) {
+            overBudget.incrementAndGet();
+            return primary.join();
+        }
+
+        CompletableFuture<String> backup;
+        try {
+            backup = readAsync(second, key);
+        } catch (RejectedExecutionException e) {
+            return primary.join();
+        }
+        hedged.incrementAndGet();
+        CompletableFuture<Boolean> backupFirst = new CompletableFuture<>();
+        primary.whenComplete((value, failure) -> backupFirst.complete(false));
+        backup.whenComplete((value, failure) -> backupFirst.complete(true));
+        if (backupFirst.join()) {
+            hedgeWins.incrementAndGet();
+            System.out.println("Hedged read of " + key + " answered by " + second.getId() + " before " +
+                    first.getId());
+            return backup.join();
+        }
+        return primary.join();
+    }
+
+    private CompletableFuture<String> readAsync(SlaveNode slave, String key) {
+        long start = runtime.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            String value = slave.read(key);
+            latencies.computeIfAbsent(slave.getId(), id -> new LatencyWindow()).record(runtime.nanoTime() - start);
+            return value;
+        }, executor);
+    }
+
+    private long delayFor(SlaveNode slave) {
+        LatencyWindow window = latencies.get(slave.getId());
+        return window == null ? INITIAL_DELAY_NANOS : window.delayNanos;
+    }
+
+    private void earnCredit() {
+        long max = MAX_SAVED_HEDGES * CREDIT_PER_HEDGE;
+        credit.getAndUpdate(current -> Math.min(max, current + creditPerRead));
+    }
+
+    private boolean spendCredit() {
+        long current;
+        do {
+            current = credit.get();
+            if (current < CREDIT_PER_HEDGE) {
+                return false;
+            }
+        } while (!credit.compareAndSet(current, current - CREDIT_PER_HEDGE));
+        return true;
+    }
+
+    /**
+     * Gets how long a read waits for a replica before it is hedged.
+     * @param slaveId the ID of the replica
+     * @return the replica's recent 95th percentile read latency in milliseconds, or the
+     *         initial delay if it has served too few reads yet
+     */
+    public double getHedgeDelayMillis(String slaveId) {
+        LatencyWindow window = latencies.get(slaveId);
+        return (window == null ? INITIAL_DELAY_NANOS : window.delayNanos) / 1e6;
+    }
+
+    public long getReads() {
+        return reads.get();
+    }
+
+    /**
+     * Gets the number of reads sent to a second replica.
+     * @return the number of hedges
+     */
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    /**
+     * Gets the number of hedges whose answer came before the first replica's.
+     * @return the number of hedges that won
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Gets the number of slow reads that were not hedged because the budget was spent.
+     * @return the number of reads not hedged for lack of budget
+     */
+    public long getOverBudget() {
+        return overBudget.get();
+    }
+
+    /**
+     * Gets the fraction of reads that were hedged.
+     * @return the hedge rate, or 0 before the first read
+     */
+    public double getHedgeRate() {
+        long total = reads.get();
+        return total == 0 ? 0.0 : (double) hedged.get() / total;
+    }
+
+    /**
+     * Stops the reader's threads. Reads already running finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "HedgedReader{" +
+                "reads=" + getReads() +
+                ", hedged=" + getHedged() +
+                String.format(" (%.1f%%)", getHedgeRate() * 100) +
+                ", wins=" + getHedgeWins() +
+                ", overBudget=" + getOverBudget() +
+                '}';
+    }
+}
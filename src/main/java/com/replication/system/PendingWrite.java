@@ -0,0 +1,62 @@
+package com.replication.system;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A write, delete or other change submitted without waiting for it. It completes in two
+ * stages: first when the master has applied it, then when the slaves have applied it too.
+ * Both stages complete with false if the change was rejected, e.g. because the master is down.
+ */
+public class PendingWrite {
+    private final CompletableFuture<Boolean> applied = new CompletableFuture<>();
+    private final CompletableFuture<Boolean> replicated = new CompletableFuture<>();
+
+    PendingWrite() {
+    }
+
+    /**
+     * Gets the stage that completes once the master has applied the change, so reads from the
+     * master see it and it is part of the log.
+     * @return a future completing with true if the master applied the change
+     */
+    public CompletableFuture<Boolean> applied() {
+        return applied;
+    }
+
+    /**
+     * Gets the stage that completes once every slave that is up and caught up holding the whole
+     * dataset has applied the change, and at least one has, so any routed read sees it. It
+     * completes with false if the change was rejected, if a failover replaced the master that
+     * applied it, since the new master may not have it, or if the slaves did not catch up with
+     * it within ten seconds, e.g. because they were all down.
+     * @return a future completing with true once the change is replicated
+     */
+    public CompletableFuture<Boolean> replicated() {
+        return replicated;
+    }
+
+    void fail(Throwable failure) {
+        applied.completeExceptionally(failure);
+        replicated.completeExceptionally(failure);
+    }
+
+    void reject() {
+        applied.complete(false);
+        replicated.complete(false);
+    }
+
+    @Override
+    public String toString() {
+        return "PendingWrite{" +
+                "applied=" + stateOf(applied) +
+                ", replicated=" + stateOf(replicated) +
+                '}';
+    }
+
+    private static String stateOf(CompletableFuture<Boolean> stage) {
+        if (!stage.isDone()) {
+            return "pending";
+        }
+        return stage.isCompletedExceptionally() ? "failed" : String.valueOf(stage.join());
+    }
+}
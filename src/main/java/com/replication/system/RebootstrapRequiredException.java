@@ -0,0 +1,26 @@
+package com.replication.system;
+
+/**
+ * Signalled to a change feed subscriber that can no longer be served a gapless stream from
+ * its position, because it fell too far behind or the log after its position was replaced
+ * by a failover. The subscriber should reload from a snapshot and subscribe again after the
+ * snapshot's index.
+ */
+public class RebootstrapRequiredException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long position;
+
+    public RebootstrapRequiredException(long position, String message) {
+        super(message);
+        this.position = position;
+    }
+
+    /**
+     * Gets the last log index the subscriber was sent.
+     * @return the subscriber's position
+     */
+    public long getPosition() {
+        return position;
+    }
+}
@@ -1,16 +1,38 @@
 package com.replication.system;
 
+import com.replication.health.HeartbeatMonitor;
+import com.replication.health.PhiAccrualFailureDetector;
+import com.replication.model.Bytes;
+import com.replication.model.KeyFilter;
+import com.replication.model.LogEntry;
+import com.replication.node.AbstractNode;
+import com.replication.node.AdmissionController;
+import com.replication.node.CachingSlaveNode;
+import com.replication.node.FilteredSlaveNode;
 import com.replication.node.MasterNode;
+import com.replication.node.ReplicationCoalescer;
 import com.replication.node.SlaveNode;
+import com.replication.runtime.NodeRuntime;
+import com.replication.storage.LsmStore;
+import com.replication.storage.NodeStorage;
+import com.replication.store.HotKeyTracker.HotKey;
+import com.replication.store.StoreSnapshot;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -19,20 +41,60 @@ import java.util.concurrent.TimeUnit;
  * for interacting with the replication system.
  */
 public class ReplicationSystem {
-    private final MasterNode master;
+    private static final int CHANGE_FEED_BATCH_SIZE = 256;
+    private static final long CHANGE_FEED_MAX_LAG = 1_000_000;
+    private static final long CHANGE_FEED_POLL_MILLIS = 20;
+    private static final int HEDGED_READ_THREADS = 32;
+    private static final int ASYNC_READ_THREADS = 16;
+    private static final long ASYNC_POLL_MILLIS = 20;
+    private static final long ASYNC_REPLICATION_TIMEOUT_MILLIS = 10_000;
+
+    private volatile MasterNode master;
     private final List<SlaveNode> slaves;
-    private final Random random = new Random();
+    private final NodeRuntime runtime;
+    private final Random random;
     private final ScheduledExecutorService scheduler;
+    private final PhiAccrualFailureDetector failureDetector;
+    private final HeartbeatMonitor heartbeatMonitor;
+    private final List<ScheduledFuture<?>> failureSimulators = new CopyOnWriteArrayList<>();
+    private FailoverCoordinator failoverCoordinator;
+    private volatile int applyStripes;
+    private ChangeFeed changeFeed;
+    // Admission control settings, carried over to a promoted master
+    private AdmissionController.Policy admissionPolicy;
+    private long admissionTargetLag;
+    private long admissionMaxWaitMillis;
+    // Disk store settings, applied again to a restarted slave
+    private volatile Path diskStoreDirectory;
+    private volatile long diskStoreMemoryBudget;
+    private volatile HedgedReader hedgedReader;
+    private AsyncOperations asyncOperations;
+    private ScheduledFuture<?> antiEntropyTask;
 
     /**
      * Creates a new replication system with a master and the specified number of slaves.
      * @param numSlaves the number of slave nodes to create
      */
     public ReplicationSystem(int numSlaves) {
+        this(numSlaves, NodeRuntime.REAL);
+    }
+
+    /**
+     * Creates a replication system whose nodes, background tasks, clock and random choices
+     * all come from the given runtime. With a simulation runtime the whole system runs
+     * deterministically on a virtual clock.
+     * @param numSlaves the number of slave nodes to create
+     * @param runtime the runtime to run on
+     */
+    public ReplicationSystem(int numSlaves, NodeRuntime runtime) {
+        this.runtime = runtime;
+        this.random = runtime.newRandom();
         // Create master node
-        this.master = new MasterNode("master");
-        this.slaves = new ArrayList<>();
-        this.scheduler = new ScheduledThreadPoolExecutor(2);
+        this.master = new MasterNode("master", runtime);
+        this.slaves = new CopyOnWriteArrayList<>();
+        this.scheduler = runtime.newScheduler("system", 4);
+        this.failureDetector = new PhiAccrualFailureDetector(runtime::nanoTime);
+        master.setFailureDetector(failureDetector);
 
         // Create slave nodes
         for (int i = 0; i < numSlaves; i++) {
@@ -40,6 +102,22 @@ public class ReplicationSystem {
             slaves.add(slave);
         }
 
+        // Heartbeat every node so routing and replication can steer around slow ones
+        this.heartbeatMonitor = new HeartbeatMonitor(failureDetector, this::getAllNodes, 50);
+        // Slaves skipped by replication while suspected catch up once their heartbeats return
+        heartbeatMonitor.setAvailabilityListener(node -> {
+            if (node instanceof SlaveNode && !((SlaveNode) node).isCaughtUp()) {
+                ((SlaveNode) node).requestRecovery();
+            }
+        });
+        heartbeatMonitor.start(scheduler);
+
+        // Periodically drop old versions that no reader can see any more
+        scheduler.scheduleAtFixedRate(this::collectGarbage, 1, 1, TimeUnit.SECONDS);
+
+        // Delete keys whose TTL has run out, in batches
+        scheduler.scheduleAtFixedRate(this::expireKeys, 100, 100, TimeUnit.MILLISECONDS);
+
         System.out.println("Replication system initialized with 1 master and " + numSlaves + " slaves");
     }
 
@@ -52,6 +130,17 @@ public class ReplicationSystem {
     public boolean write(String key, String value) {
         return master.write(key, value);
     }
+
+    /**
+     * Writes a key-value pair to the master that expires after the given time to live.
+     * @param key the key to write
+     * @param value the value to write
+     * @param ttlMillis the time to live in milliseconds, or 0 for no expiry
+     * @return true if the write was successful
+     */
+    public boolean write(String key, String value, long ttlMillis) {
+        return master.write(key, value, ttlMillis);
+    }
     
     /**
      * Deletes a key-value pair from the master.
@@ -62,6 +151,241 @@ public class ReplicationSystem {
         return master.delete(key);
     }
 
+    /**
+     * Writes a binary key-value pair to the master. Binary keys and values are stored,
+     * logged and replicated at their raw size, without being encoded as text.
+     * @param key the key to write
+     * @param value the value to write
+     * @return true if the write was successful
+     * @see Bytes
+     */
+    public boolean write(byte[] key, byte[] value) {
+        return write(key, value, 0);
+    }
+
+    /**
+     * Writes a binary key-value pair to the master that expires after the given time to live.
+     * @param key the key to write
+     * @param value the value to write
+     * @param ttlMillis the time to live in milliseconds, or 0 for no expiry
+     * @return true if the write was successful
+     */
+    public boolean write(byte[] key, byte[] value, long ttlMillis) {
+        return master.write(key, value, ttlMillis);
+    }
+
+    /**
+     * Deletes a binary key from the master.
+     * @param key the key to delete
+     * @return true if the delete was successful
+     */
+    public boolean delete(byte[] key) {
+        return master.delete(key);
+    }
+
+    /**
+     * Writes a key-value pair to the master without waiting. Changes submitted without waiting
+     * are applied in the order they were submitted, so a caller can pipeline many of them.
+     * @param key the key to write
+     * @param value the value to write
+     * @return the pending write, whose stages complete when it is applied and replicated
+     */
+    public PendingWrite writeAsync(String key, String value) {
+        return writeAsync(key, value, 0);
+    }
+
+    /**
+     * Writes a key-value pair that expires after the given time to live, without waiting.
+     * @param key the key to write
+     * @param value the value to write
+     * @param ttlMillis the time to live in milliseconds, or 0 for no expiry
+     * @return the pending write, whose stages complete when it is applied and replicated
+     */
+    public PendingWrite writeAsync(String key, String value, long ttlMillis) {
+        return getAsyncOperations().submit(current -> current.write(key, value, ttlMillis));
+    }
+
+    /**
+     * Deletes a key without waiting, in order with the other changes submitted without waiting.
+     * @param key the key to delete
+     * @return the pending delete, whose stages complete when it is applied and replicated
+     */
+    public PendingWrite deleteAsync(String key) {
+        return getAsyncOperations().submit(current -> current.delete(key));
+    }
+
+    /**
+     * Reads a value from a slave without waiting, routed like {@link #read(String)}. The read may
+     * overtake changes submitted before it; wait for their replicated stage to be sure to see them.
+     * @param key the key to read
+     * @return a future completing with the value, or null if not found or all slaves are down
+     */
+    public CompletableFuture<String> readAsync(String key) {
+        return getAsyncOperations().read(key);
+    }
+
+    /**
+     * Writes a binary key-value pair to the master without waiting, in order with the other
+     * changes submitted without waiting.
+     * @param key the key to write
+     * @param value the value to write
+     * @return the pending write, whose stages complete when it is applied and replicated
+     */
+    public PendingWrite writeAsync(byte[] key, byte[] value) {
+        return writeAsync(Bytes.asString(key), Bytes.asString(value));
+    }
+
+    /**
+     * Deletes a binary key without waiting, in order with the other changes submitted without waiting.
+     * @param key the key to delete
+     * @return the pending delete, whose stages complete when it is applied and replicated
+     */
+    public PendingWrite deleteAsync(byte[] key) {
+        return deleteAsync(Bytes.asString(key));
+    }
+
+    /**
+     * Reads a binary value from a slave without waiting, routed like {@link #read(byte[])}.
+     * @param key the key to read
+     * @return a future completing with the value, or null if not found or all slaves are down
+     */
+    public CompletableFuture<byte[]> readAsync(byte[] key) {
+        return readAsync(Bytes.asString(key)).thenApply(Bytes::asBytes);
+    }
+
+    private synchronized AsyncOperations getAsyncOperations() {
+        if (asyncOperations == null) {
+            asyncOperations = new AsyncOperations(this::getMaster, this::getSlaves, this::read, runtime,
+                    ASYNC_READ_THREADS, ASYNC_POLL_MILLIS, ASYNC_REPLICATION_TIMEOUT_MILLIS);
+        }
+        return asyncOperations;
+    }
+
+    private synchronized AsyncOperations getAsyncOperationsIfStarted() {
+        return asyncOperations;
+    }
+
+    /**
+     * Gets the version of a key's latest value on the master, for {@link #compareAndSet(String, long, String)}.
+     * @param key the key
+     * @return the version, or 0 if the key is absent
+     */
+    public long getVersion(String key) {
+        return master.getVersion(key);
+    }
+
+    /**
+     * Writes a value only if the key still holds the expected one, checked on the master.
+     * @param key the key to write
+     * @param expectedValue the value the key must hold, or null if it must be absent
+     * @param newValue the value to write
+     * @return true if the value was replaced
+     */
+    public boolean compareAndSet(String key, String expectedValue, String newValue) {
+        return master.compareAndSet(key, expectedValue, newValue);
+    }
+
+    /**
+     * Writes a value only if the key's latest value is still the given version, checked on the master.
+     * @param key the key to write
+     * @param expectedVersion the version from {@link #getVersion}, or 0 if the key must be absent
+     * @param newValue the value to write
+     * @return true if the value was replaced
+     */
+    public boolean compareAndSet(String key, long expectedVersion, String newValue) {
+        return master.compareAndSet(key, expectedVersion, newValue);
+    }
+
+    /**
+     * Adds to an integer key on the master in one step.
+     * @param key the key to increment
+     * @param delta the amount to add
+     * @return the new value, or null if the key is not an integer or the master cannot write
+     */
+    public Long increment(String key, long delta) {
+        return master.increment(key, delta);
+    }
+
+    /**
+     * Subtracts from an integer key on the master in one step.
+     * @param key the key to decrement
+     * @param delta the amount to subtract
+     * @return the new value, or null if the key is not an integer or the master cannot write
+     */
+    public Long decrement(String key, long delta) {
+        if (delta == Long.MIN_VALUE) {
+            System.out.println("Cannot decrement " + key + " by " + delta);
+            return null;
+        }
+        return master.increment(key, -delta);
+    }
+
+    /**
+     * Appends to a key's value on the master in one step.
+     * @param key the key to append to
+     * @param suffix the text to append
+     * @return the length of the new value, or -1 if the master cannot write
+     */
+    public int append(String key, String suffix) {
+        return master.append(key, suffix);
+    }
+
+    /**
+     * Turns on hot-key write coalescing between the master and its slaves.
+     * @param windowMillis how long writes are held back to be coalesced
+     */
+    public void enableWriteCoalescing(long windowMillis) {
+        master.enableWriteCoalescing(windowMillis);
+    }
+
+    /**
+     * Turns off write coalescing after shipping any buffered writes.
+     */
+    public void disableWriteCoalescing() {
+        master.disableWriteCoalescing();
+    }
+
+    /**
+     * Gets the write coalescing stage and its traffic savings.
+     * @return the coalescer, or null if coalescing is off
+     */
+    public ReplicationCoalescer getWriteCoalescer() {
+        return master.getCoalescer();
+    }
+
+    /**
+     * Turns on admission control on the master, so writes are held back or rejected while the
+     * slowest caught-up slave is further behind than the target lag. A master promoted by
+     * failover keeps the same settings.
+     * @param policy how writes are held back
+     * @param targetLag the most log entries the slowest slave should be behind
+     * @param maxWaitMillis the longest a write may be held back before it is rejected
+     */
+    public synchronized void enableAdmissionControl(AdmissionController.Policy policy, long targetLag,
+                                                    long maxWaitMillis) {
+        master.enableAdmissionControl(policy, targetLag, maxWaitMillis);
+        admissionPolicy = policy;
+        admissionTargetLag = targetLag;
+        admissionMaxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Turns off admission control on the master.
+     */
+    public synchronized void disableAdmissionControl() {
+        admissionPolicy = null;
+        master.disableAdmissionControl();
+    }
+
+    /**
+     * Gets the master's admission controller, whose metrics show the current lag, rate limit
+     * and how many writes were delayed or rejected.
+     * @return the admission controller, or null if admission control is off
+     */
+    public AdmissionController getAdmissionController() {
+        return master.getAdmissionController();
+    }
+
     /**
      * Reads a value from a random slave node.
      * If the chosen slave is down, tries another slave.
@@ -69,8 +393,15 @@ public class ReplicationSystem {
      * @return the value, or null if not found or all slaves are down
      */
     public String read(String key) {
+        HedgedReader hedged = hedgedReader;
+        if (hedged != null) {
+            String value = hedged.read(key);
+            System.out.println("Read " + key + "=" + value + " with hedging");
+            return value;
+        }
+
         // Try to get a working slave
-        SlaveNode slave = getRandomUpSlave();
+        SlaveNode slave = getRandomUpSlave(null);
         if (slave == null) {
             System.out.println("All slaves are DOWN, cannot read");
             return null;
@@ -82,22 +413,108 @@ public class ReplicationSystem {
     }
 
     /**
-     * Gets a random slave that is up (not failed).
+     * Reads a binary value from a random slave node, routed like {@link #read(String)}.
+     * @param key the key to read
+     * @return the value, or null if not found or all slaves are down
+     * @throws IllegalArgumentException if the value is text that has no binary form
+     */
+    public byte[] read(byte[] key) {
+        return Bytes.asBytes(read(Bytes.asString(key)));
+    }
+
+    /**
+     * Reads several keys from a random slave node, all as of the same log index.
+     * @param keys the keys to read
+     * @return the keys that were found mapped to their values, or null if all slaves are down
+     */
+    public Map<String, String> readAll(Collection<String> keys) {
+        SlaveNode slave = getRandomUpSlave(null);
+        if (slave == null) {
+            System.out.println("All slaves are DOWN, cannot read");
+            return null;
+        }
+
+        Map<String, String> values = slave.readAll(keys);
+        System.out.println("Read " + keys.size() + " keys at a single log index from " + slave.getId());
+        return values;
+    }
+
+    /**
+     * Turns on hedged reads: a routed read that a slave is slower than usual to answer is also
+     * sent to a second slave, and the first answer wins. Reads then run on a pool of their own.
+     * @param budget the most extra reads hedging may send, as a fraction of reads, e.g. 0.05
+     */
+    public synchronized void enableHedgedReads(double budget) {
+        HedgedReader previous = hedgedReader;
+        hedgedReader = new HedgedReader(this::getRandomUpSlave, runtime, HEDGED_READ_THREADS, budget);
+        if (previous != null) {
+            previous.shutdown();
+        }
+        System.out.println("Hedged reads enabled with a budget of " + String.format("%.1f%%", budget * 100));
+    }
+
+    /**
+     * Turns off hedged reads. Reads already running finish.
+     */
+    public synchronized void disableHedgedReads() {
+        HedgedReader previous = hedgedReader;
+        hedgedReader = null;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Gets the hedged reader, which reports how often reads were hedged and how often that paid off.
+     * @return the hedged reader, or null if hedged reads are off
+     */
+    public HedgedReader getHedgedReader() {
+        return hedgedReader;
+    }
+
+    /**
+     * Gets a random slave that is up (not failed), steering away from slaves whose
+     * heartbeats show they are degraded. If every up slave is degraded, the least
+     * suspected one is used.
+     * @param excluded a slave not to pick, e.g. one a read is already waiting for, or null
      * @return a random up slave, or null if all slaves are down
      */
-    private SlaveNode getRandomUpSlave() {
-        List<SlaveNode> upSlaves = new ArrayList<>();
+    private SlaveNode getRandomUpSlave(SlaveNode excluded) {
+        List<SlaveNode> healthySlaves = new ArrayList<>();
+        SlaveNode leastSuspected = null;
+        double leastPhi = Double.MAX_VALUE;
         for (SlaveNode slave : slaves) {
-            if (slave.isUp()) {
-                upSlaves.add(slave);
+            // Restarted slaves are left out until they have replayed what they missed, and
+            // filtered slaves do not hold every key
+            if (slave == excluded || !slave.isUp() || !slave.isCaughtUp() || slave.getKeyFilter() != null) {
+                continue;
+            }
+            double phi = failureDetector.phi(slave.getId());
+            if (phi < failureDetector.getDegradedThreshold()) {
+                healthySlaves.add(slave);
+            }
+            if (phi < leastPhi) {
+                leastPhi = phi;
+                leastSuspected = slave;
             }
         }
         
-        if (upSlaves.isEmpty()) {
-            return null;
+        if (healthySlaves.isEmpty()) {
+            return leastSuspected;
         }
         
-        return upSlaves.get(random.nextInt(upSlaves.size()));
+        return healthySlaves.get(random.nextInt(healthySlaves.size()));
+    }
+
+    /**
+     * Gets the master and every slave, for heartbeating.
+     * @return all nodes in the system
+     */
+    private List<AbstractNode> getAllNodes() {
+        List<AbstractNode> nodes = new ArrayList<>(slaves.size() + 1);
+        nodes.add(master);
+        nodes.addAll(slaves);
+        return nodes;
     }
 
     /**
@@ -124,7 +541,7 @@ public class ReplicationSystem {
      * @return the data store, or null if all slaves are down
      */
     public Map<String, String> getDataStore() {
-        SlaveNode slave = getRandomUpSlave();
+        SlaveNode slave = getRandomUpSlave(null);
         if (slave == null) {
             System.out.println("All slaves are DOWN, cannot get data store");
             return null;
@@ -133,6 +550,342 @@ public class ReplicationSystem {
         return slave.getDataStore();
     }
 
+    /**
+     * Opens a consistent, copy-free view of the data store of a random slave that is up.
+     * The caller must close the snapshot when done.
+     * @return the snapshot, or null if all slaves are down
+     */
+    public StoreSnapshot snapshot() {
+        SlaveNode slave = getRandomUpSlave(null);
+        if (slave == null) {
+            System.out.println("All slaves are DOWN, cannot open snapshot");
+            return null;
+        }
+
+        return slave.snapshot();
+    }
+
+    /**
+     * Starts watching the master and failing over to the most up-to-date slave when it goes down.
+     * Writes are unavailable for roughly the failure detector's detection time, plus
+     * {@code checkIntervalMillis * missedChecks}, plus the promotion time.
+     * @param checkIntervalMillis how often the master is checked, in milliseconds
+     * @param missedChecks how many consecutive checks must find the master suspected before failing over
+     */
+    public synchronized void startAutomaticFailover(long checkIntervalMillis, int missedChecks) {
+        if (failoverCoordinator != null) {
+            failoverCoordinator.stop();
+        }
+        failoverCoordinator = new FailoverCoordinator(this, checkIntervalMillis, missedChecks);
+        failoverCoordinator.start(scheduler);
+
+        System.out.println("Started automatic failover with check interval " + checkIntervalMillis +
+                " ms after " + missedChecks + " missed checks");
+    }
+
+    /**
+     * Gets the automatic failovers performed so far, with their write-unavailability times.
+     * @return the failover events, or an empty list if automatic failover is off
+     */
+    public synchronized List<FailoverEvent> getFailoverEvents() {
+        if (failoverCoordinator == null) {
+            return Collections.emptyList();
+        }
+        return failoverCoordinator.getEvents();
+    }
+
+    /**
+     * Gets the current master node.
+     * @return the master node
+     */
+    public MasterNode getMaster() {
+        return master;
+    }
+
+    /**
+     * Gets all slave nodes, up or down.
+     * @return the slave nodes
+     */
+    public List<SlaveNode> getSlaves() {
+        return Collections.unmodifiableList(slaves);
+    }
+
+    /**
+     * Adds a read replica that caches only the hot part of the dataset within a memory budget
+     * and fetches other keys from the master. It serves reads like any other slave.
+     * @param id the ID of the replica
+     * @param memoryBudgetBytes the approximate heap the replica's cached entries may use
+     * @return the new replica
+     */
+    public CachingSlaveNode addCachingReplica(String id, long memoryBudgetBytes) {
+        CachingSlaveNode replica = new CachingSlaveNode(id, master, memoryBudgetBytes);
+        slaves.add(replica);
+        System.out.println("Added caching replica " + id + " with a budget of " + memoryBudgetBytes + " bytes");
+        return replica;
+    }
+
+    /**
+     * Adds a read replica that receives only the keys passing a filter, e.g. one tenant's
+     * prefix. It is not used for routed reads; clients of that tenant read from it directly.
+     * @param id the ID of the replica
+     * @param filter the keys the replica replicates
+     * @return the new replica
+     */
+    public FilteredSlaveNode addFilteredReplica(String id, KeyFilter filter) {
+        FilteredSlaveNode replica = new FilteredSlaveNode(id, master, filter);
+        slaves.add(replica);
+        System.out.println("Added filtered replica " + id + " replicating " + filter);
+        return replica;
+    }
+
+    /**
+     * Adds a full slave while the system is running. It copies its initial state from the
+     * least loaded caught-up slave and then joins the master's live stream, so scaling out
+     * does not make the master replay its whole log. If no slave can serve as the source, it
+     * recovers from the master instead. It takes reads once it has caught up, and applies
+     * entries in parallel and keeps cold keys on disk if the other slaves do.
+     * @param id the ID of the new slave
+     * @return the new slave, or null if a node with that ID already exists
+     */
+    public synchronized SlaveNode addSlave(String id) {
+        if (master.getId().equals(id) || findSlave(id) != null) {
+            System.out.println("Cannot add slave " + id + ": a node with that ID already exists");
+            return null;
+        }
+
+        MasterNode current = master;
+        SlaveNode source = pickBootstrapSource();
+        SlaveNode slave;
+        if (source == null) {
+            System.out.println("No caught-up slave to copy from, slave " + id + " recovers from the master");
+            slave = new SlaveNode(id, current);
+            // It starts empty, so it must not take reads before recovery has filled it
+            slave.fallBehind();
+            slave.requestRecovery();
+        } else {
+            System.out.println("Slave " + id + " bootstraps from " + source.getId());
+            slave = new SlaveNode(id, current, source);
+        }
+        if (applyStripes > 0) {
+            slave.enableParallelApply(applyStripes);
+        }
+        if (diskStoreDirectory != null) {
+            slave.enableDiskStore(diskStoreDirectory.resolve(id), diskStoreMemoryBudget);
+        }
+        slaves.add(slave);
+        if (master != current) {
+            // A failover finished while the slave was bootstrapping
+            slave.followMaster(master);
+        }
+        return slave;
+    }
+
+    /**
+     * Takes a slave out of the system while it is running. It stops taking reads first, then
+     * stops receiving entries, and is shut down. Files it persisted are left on disk.
+     * @param slaveId the ID of the slave to remove
+     * @return true if the slave was removed, false if it is unknown
+     */
+    public synchronized boolean removeSlave(String slaveId) {
+        SlaveNode slave = findSlave(slaveId);
+        if (slave == null) {
+            System.out.println("Slave " + slaveId + " does not exist");
+            return false;
+        }
+        slaves.remove(slave);
+        slave.getMaster().unregisterSlave(slave);
+        slave.goDown();
+        slave.shutdown();
+        failureDetector.remove(slaveId);
+        System.out.println("Removed slave " + slaveId);
+        return true;
+    }
+
+    private SlaveNode findSlave(String slaveId) {
+        for (SlaveNode slave : slaves) {
+            if (slave.getId().equals(slaveId)) {
+                return slave;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks the slave a new slave copies its state from: an up, caught-up slave holding every
+     * key. Heartbeats queue behind a node's replication work, so the least suspected slave is
+     * taken as the least loaded; ties go to the one furthest along.
+     * @return the source, or null if no slave qualifies
+     */
+    private SlaveNode pickBootstrapSource() {
+        SlaveNode best = null;
+        double bestPhi = Double.MAX_VALUE;
+        long bestLag = Long.MAX_VALUE;
+        for (SlaveNode slave : slaves) {
+            if (!slave.isUp() || !slave.isCaughtUp() || !slave.holdsFullCopy()) {
+                continue;
+            }
+            double phi = failureDetector.phi(slave.getId());
+            long lag = master.getReplicationLag(slave);
+            if (phi < bestPhi || phi == bestPhi && lag < bestLag) {
+                best = slave;
+                bestPhi = phi;
+                bestLag = lag;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Makes every full slave apply replicated entries on several threads, split by key.
+     * Slaves restarted later keep doing so.
+     * @param stripes the number of apply threads per slave
+     * @return the number of slaves switched to parallel apply
+     */
+    public int enableParallelApply(int stripes) {
+        applyStripes = stripes;
+        int enabled = 0;
+        for (SlaveNode slave : slaves) {
+            if (slave.holdsFullCopy() && slave.enableParallelApply(stripes)) {
+                enabled++;
+            }
+        }
+        return enabled;
+    }
+
+    /**
+     * Makes every full slave persist its state under a base directory, one subdirectory per
+     * slave, and checkpoints them periodically so restarts only replay a short log tail.
+     * @param baseDirectory the directory to keep the slaves' files in
+     * @param checkpointIntervalSeconds how often each slave writes a snapshot
+     * @return true if every slave wrote its first checkpoint
+     */
+    public boolean enablePersistence(Path baseDirectory, long checkpointIntervalSeconds) {
+        boolean enabled = true;
+        for (SlaveNode slave : slaves) {
+            if (!slave.holdsFullCopy()) {
+                continue;
+            }
+            try {
+                enabled &= slave.enablePersistence(new NodeStorage(baseDirectory.resolve(slave.getId())));
+            } catch (IOException e) {
+                System.out.println("Could not open storage for slave " + slave.getId() + ": " + e.getMessage());
+                enabled = false;
+            }
+        }
+        scheduler.scheduleWithFixedDelay(this::checkpointSlaves, checkpointIntervalSeconds, checkpointIntervalSeconds,
+                TimeUnit.SECONDS);
+        System.out.println("Slaves persist to " + baseDirectory + ", checkpointing every " +
+                checkpointIntervalSeconds + " s");
+        return enabled;
+    }
+
+    /**
+     * Makes the master and every full slave keep only their hot keys in memory and move the
+     * rest to an LSM store on local disk, one subdirectory per node.
+     * @param baseDirectory the directory to keep the nodes' files in
+     * @param memoryBudgetBytes the approximate heap each node's hot keys may use
+     * @return true if every node now keeps its cold keys on disk
+     */
+    public boolean enableDiskStore(Path baseDirectory, long memoryBudgetBytes) {
+        diskStoreDirectory = baseDirectory;
+        diskStoreMemoryBudget = memoryBudgetBytes;
+        boolean enabled = master.enableDiskStore(baseDirectory.resolve(master.getId()), memoryBudgetBytes);
+        for (SlaveNode slave : slaves) {
+            if (slave.holdsFullCopy()) {
+                enabled &= slave.enableDiskStore(baseDirectory.resolve(slave.getId()), memoryBudgetBytes);
+            }
+        }
+        return enabled;
+    }
+
+    private void checkpointSlaves() {
+        for (SlaveNode slave : slaves) {
+            if (slave.getStorage() != null) {
+                slave.checkpoint();
+            }
+        }
+    }
+
+    /**
+     * Restarts a persistent slave from its files, as after a process restart. The old slave
+     * object is stopped and replaced; the new one recovers from disk in parallel, catches up
+     * from the master and only then takes reads.
+     * @param slaveId the ID of the slave to restart
+     * @return the restarted slave, or null if the slave is unknown, does not persist or cannot be recovered
+     */
+    public SlaveNode restartSlave(String slaveId) {
+        SlaveNode old = findSlave(slaveId);
+        if (old == null || old.getStorage() == null) {
+            System.out.println("Slave " + slaveId + " does not exist or does not persist its state");
+            return null;
+        }
+
+        NodeStorage storage = old.getStorage();
+        old.goDown();
+        old.getMaster().unregisterSlave(old);
+        old.shutdown();
+        slaves.remove(old);
+        try {
+            SlaveNode restarted = new SlaveNode(slaveId, master,
+                    new NodeStorage(storage.getDirectory(), storage.getPartitions()));
+            if (applyStripes > 0) {
+                restarted.enableParallelApply(applyStripes);
+            }
+            if (diskStoreDirectory != null) {
+                restarted.enableDiskStore(diskStoreDirectory.resolve(slaveId), diskStoreMemoryBudget);
+            }
+            slaves.add(restarted);
+            return restarted;
+        } catch (IOException e) {
+            System.out.println("Slave " + slaveId + " could not be recovered: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Adds a slave node that already follows the current master.
+     * @param slave the slave node to add
+     */
+    void addSlave(SlaveNode slave) {
+        slaves.add(slave);
+    }
+
+    /**
+     * Makes a promoted slave's master node the system's master.
+     * @param newMaster the master node built from the promoted slave
+     * @param promoted the slave that was promoted
+     */
+    void installPromotedMaster(MasterNode newMaster, SlaveNode promoted) {
+        newMaster.setFailureDetector(failureDetector);
+        synchronized (this) {
+            if (admissionPolicy != null) {
+                newMaster.enableAdmissionControl(admissionPolicy, admissionTargetLag, admissionMaxWaitMillis);
+            }
+        }
+        slaves.remove(promoted);
+        ChangeFeed feed = getChangeFeedIfStarted();
+        if (feed != null) {
+            feed.masterChanged(newMaster.getLastLogIndex());
+        }
+        master = newMaster;
+    }
+
+    /**
+     * Gets the runtime the system's nodes and background tasks run on.
+     * @return the runtime
+     */
+    public NodeRuntime getRuntime() {
+        return runtime;
+    }
+
+    /**
+     * Gets the failure detector fed by the heartbeat monitor.
+     * @return the failure detector
+     */
+    public PhiAccrualFailureDetector getFailureDetector() {
+        return failureDetector;
+    }
+
     /**
      * Starts the failure simulator, which will randomly bring nodes down and up.
      * @param failureProbability the probability of a node failing in each check
@@ -140,34 +893,114 @@ public class ReplicationSystem {
      * @param checkIntervalSeconds the interval between checks in seconds
      */
     public void startFailureSimulator(double failureProbability, double recoveryProbability, int checkIntervalSeconds) {
-        scheduler.scheduleAtFixedRate(() -> {
-            simulateFailureAndRecovery(failureProbability, recoveryProbability);
-        }, checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+        startFailureSimulator(failureProbability, recoveryProbability, checkIntervalSeconds, random);
+    }
+
+    /**
+     * Starts a failure simulator whose failures and recoveries are drawn from a seeded
+     * random generator, so the same seed picks the same nodes in the same checks.
+     * @param failureProbability the probability of a node failing in each check
+     * @param recoveryProbability the probability of a failed node recovering in each check
+     * @param checkIntervalSeconds the interval between checks in seconds
+     * @param seed the seed for choosing failures and recoveries
+     */
+    public void startFailureSimulator(double failureProbability, double recoveryProbability, int checkIntervalSeconds,
+                                      long seed) {
+        startFailureSimulator(failureProbability, recoveryProbability, checkIntervalSeconds, new Random(seed));
+    }
+
+    private void startFailureSimulator(double failureProbability, double recoveryProbability, int checkIntervalSeconds,
+                                       Random failureRandom) {
+        failureSimulators.add(scheduler.scheduleAtFixedRate(() -> {
+            simulateFailureAndRecovery(failureProbability, recoveryProbability, failureRandom);
+        }, checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS));
         
         System.out.println("Started failure simulator with check interval " + 
                 checkIntervalSeconds + " seconds");
     }
 
+    /**
+     * Stops every failure simulator. Nodes that are down stay down until brought up.
+     */
+    public void stopFailureSimulators() {
+        for (ScheduledFuture<?> simulator : failureSimulators) {
+            simulator.cancel(false);
+        }
+        failureSimulators.clear();
+        System.out.println("Stopped failure simulators");
+    }
+
     /**
      * Simulates node failures and recoveries.
      * @param failureProbability the probability of a node failing
      * @param recoveryProbability the probability of a failed node recovering
+     * @param failureRandom the random generator that decides which nodes fail or recover
      */
-    private void simulateFailureAndRecovery(double failureProbability, double recoveryProbability) {
+    private void simulateFailureAndRecovery(double failureProbability, double recoveryProbability,
+                                            Random failureRandom) {
         for (SlaveNode slave : slaves) {
-            if (slave.isUp() && random.nextDouble() < failureProbability) {
+            if (slave.isUp() && failureRandom.nextDouble() < failureProbability) {
                 slave.goDown();
-            } else if (!slave.isUp() && random.nextDouble() < recoveryProbability) {
+            } else if (!slave.isUp() && failureRandom.nextDouble() < recoveryProbability) {
                 slave.goUp();
             }
         }
     }
 
+    /**
+     * Drops old versions below the low-water mark on every node.
+     */
+    private void collectGarbage() {
+        master.collectGarbage();
+        for (SlaveNode slave : slaves) {
+            slave.collectGarbage();
+        }
+    }
+
+    /**
+     * Deletes the keys on the master whose TTL has run out.
+     */
+    private void expireKeys() {
+        master.expireKeys();
+    }
+
+    /**
+     * Starts finding and repairing slaves that have silently diverged from the master, with a
+     * round of anti-entropy after every interval. Each round holds the master's write lock
+     * only while it repairs one differing range at a time.
+     * @param intervalMillis the delay between the end of one round and the start of the next
+     */
+    public synchronized void startAntiEntropy(long intervalMillis) {
+        stopAntiEntropy();
+        antiEntropyTask = scheduler.scheduleWithFixedDelay(this::runAntiEntropy,
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        System.out.println("Started anti-entropy every " + intervalMillis + " ms");
+    }
+
+    /**
+     * Stops the periodic anti-entropy rounds, if they were started.
+     */
+    public synchronized void stopAntiEntropy() {
+        if (antiEntropyTask != null) {
+            antiEntropyTask.cancel(false);
+            antiEntropyTask = null;
+        }
+    }
+
+    /**
+     * Runs one round of anti-entropy, repairing every reachable slave whose hash tree
+     * differs from the master's.
+     * @return the number of keys repaired
+     */
+    public int runAntiEntropy() {
+        return master.runAntiEntropy();
+    }
+
     /**
      * Gets all log entries from the master node.
      * @return a list of all log entries from the master
      */
-    public List<com.replication.model.LogEntry> getLogs() {
+    public List<LogEntry> getLogs() {
         if (!master.isUp()) {
             System.out.println("Master is DOWN, cannot get logs");
             return Collections.emptyList();
@@ -176,6 +1009,32 @@ public class ReplicationSystem {
         return master.getLogEntriesAfter(0); // Get all logs from the beginning
     }
     
+    /**
+     * Gets the feed that pushes the master's log to downstream consumers, starting it on first use.
+     * @return the change feed
+     */
+    public synchronized ChangeFeed getChangeFeed() {
+        if (changeFeed == null) {
+            changeFeed = new ChangeFeed(this::getMaster, runtime, CHANGE_FEED_BATCH_SIZE, CHANGE_FEED_MAX_LAG,
+                    CHANGE_FEED_POLL_MILLIS);
+        }
+        return changeFeed;
+    }
+
+    private synchronized ChangeFeed getChangeFeedIfStarted() {
+        return changeFeed;
+    }
+
+    /**
+     * Subscribes to the log entries after an index, e.g. a checkpoint saved by the consumer,
+     * instead of polling {@link #getLogs()}.
+     * @param afterIndex the log index after which to start, 0 for the whole log
+     * @return a publisher of batches of log entries
+     */
+    public Flow.Publisher<List<LogEntry>> changesAfter(long afterIndex) {
+        return getChangeFeed().after(afterIndex);
+    }
+
     /**
      * Gets the status of all nodes in the system.
      * @return a map of node IDs to their status (UP/DOWN)
@@ -190,16 +1049,106 @@ public class ReplicationSystem {
         for (SlaveNode slave : slaves) {
             status.put(slave.getId(), slave.isUp());
         }
+
+        // Fenced masters count as down until they rejoin as slaves
+        synchronized (this) {
+            if (failoverCoordinator != null) {
+                for (MasterNode fenced : failoverCoordinator.getFencedMasters()) {
+                    status.putIfAbsent(fenced.getId(), false);
+                }
+            }
+        }
         
         return status;
     }
     
+    /**
+     * Gets how many log entries each up slave is behind the master.
+     * @return a map of slave IDs to their replication lag in log entries
+     */
+    public Map<String, Long> getReplicationLag() {
+        Map<String, Long> lag = new HashMap<>();
+        MasterNode current = master;
+        for (SlaveNode slave : slaves) {
+            if (slave.isUp()) {
+                lag.put(slave.getId(), current.getReplicationLag(slave));
+            }
+        }
+        return lag;
+    }
+
+    /**
+     * Gets the disk stores of the nodes that keep cold keys on disk, master first.
+     * @return a map of node IDs to their disk stores
+     */
+    public Map<String, LsmStore> getDiskStores() {
+        Map<String, LsmStore> stores = new LinkedHashMap<>();
+        for (AbstractNode node : getAllNodes()) {
+            if (node.getDiskStore() != null) {
+                stores.put(node.getId(), node.getDiskStore());
+            }
+        }
+        return stores;
+    }
+
+    /**
+     * Gets the keys each node has read most often recently, master first.
+     * @param k the most keys to return per node
+     * @return a map of node IDs to their hot keys, hottest first
+     */
+    public Map<String, List<HotKey>> getHotReadKeys(int k) {
+        Map<String, List<HotKey>> hot = new LinkedHashMap<>();
+        for (AbstractNode node : getAllNodes()) {
+            hot.put(node.getId(), node.getHotReadKeys(k));
+        }
+        return hot;
+    }
+
+    /**
+     * Gets the keys each node has written most often recently, master first.
+     * @param k the most keys to return per node
+     * @return a map of node IDs to their hot keys, hottest first
+     */
+    public Map<String, List<HotKey>> getHotWriteKeys(int k) {
+        Map<String, List<HotKey>> hot = new LinkedHashMap<>();
+        for (AbstractNode node : getAllNodes()) {
+            hot.put(node.getId(), node.getHotWriteKeys(k));
+        }
+        return hot;
+    }
+
+    /**
+     * Gets the suspicion level (phi) of every node, as computed from its heartbeats.
+     * Higher is worse; nodes above the failure detector's degraded threshold are avoided.
+     * @return a map of node IDs to their suspicion level
+     */
+    public Map<String, Double> getNodesSuspicion() {
+        Map<String, Double> suspicion = new HashMap<>();
+        for (AbstractNode node : getAllNodes()) {
+            suspicion.put(node.getId(), failureDetector.phi(node.getId()));
+        }
+        return suspicion;
+    }
+
     /**
      * Shuts down the replication system.
      */
     public void shutdown() {
+        heartbeatMonitor.stop();
         scheduler.shutdown();
+        ChangeFeed feed = getChangeFeedIfStarted();
+        if (feed != null) {
+            feed.shutdown();
+        }
+        disableHedgedReads();
+        AsyncOperations async = getAsyncOperationsIfStarted();
+        if (async != null) {
+            async.shutdown();
+        }
         master.shutdown();
+        for (SlaveNode slave : slaves) {
+            slave.shutdown();
+        }
         System.out.println("Replication system shut down");
     }
 }
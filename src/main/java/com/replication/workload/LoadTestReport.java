@@ -0,0 +1,154 @@
+package com.replication.workload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of a load test: overall throughput, latency percentiles per operation type
+ * and a time series of throughput, tail latency and replication lag.
+ */
+public class LoadTestReport {
+    /**
+     * Measurements for one sampling interval of the run.
+     */
+    public static class IntervalSample {
+        private final double elapsedSeconds;
+        private final double opsPerSecond;
+        private final long p99Nanos;
+        private final long maxReplicationLag;
+        private final double meanReplicationLag;
+        private final int upSlaves;
+
+        public IntervalSample(double elapsedSeconds, double opsPerSecond, long p99Nanos,
+                              long maxReplicationLag, double meanReplicationLag, int upSlaves) {
+            this.elapsedSeconds = elapsedSeconds;
+            this.opsPerSecond = opsPerSecond;
+            this.p99Nanos = p99Nanos;
+            this.maxReplicationLag = maxReplicationLag;
+            this.meanReplicationLag = meanReplicationLag;
+            this.upSlaves = upSlaves;
+        }
+
+        public double getElapsedSeconds() {
+            return elapsedSeconds;
+        }
+
+        public double getOpsPerSecond() {
+            return opsPerSecond;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        /**
+         * Gets how many log entries the furthest-behind up slave trailed the master.
+         * @return the maximum replication lag in log entries
+         */
+        public long getMaxReplicationLag() {
+            return maxReplicationLag;
+        }
+
+        public double getMeanReplicationLag() {
+            return meanReplicationLag;
+        }
+
+        public int getUpSlaves() {
+            return upSlaves;
+        }
+    }
+
+    private final WorkloadSpec spec;
+    private final long durationNanos;
+    private final Map<WorkloadGenerator.OperationType, LatencyHistogram> latencies;
+    private final Map<WorkloadGenerator.OperationType, Long> unsuccessful;
+    private final List<IntervalSample> samples;
+
+    public LoadTestReport(WorkloadSpec spec, long durationNanos,
+                          Map<WorkloadGenerator.OperationType, LatencyHistogram> latencies,
+                          Map<WorkloadGenerator.OperationType, Long> unsuccessful,
+                          List<IntervalSample> samples) {
+        this.spec = spec;
+        this.durationNanos = durationNanos;
+        this.latencies = new EnumMap<>(latencies);
+        this.unsuccessful = new EnumMap<>(unsuccessful);
+        this.samples = new ArrayList<>(samples);
+    }
+
+    public WorkloadSpec getSpec() {
+        return spec;
+    }
+
+    public long getTotalOperations() {
+        long total = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            total += histogram.getCount();
+        }
+        return total;
+    }
+
+    /**
+     * Gets the achieved throughput over the whole run.
+     * @return operations per second
+     */
+    public double getThroughput() {
+        return durationNanos == 0 ? 0.0 : getTotalOperations() * 1e9 / durationNanos;
+    }
+
+    /**
+     * Gets the latency histogram of one operation type. Latencies are measured from each
+     * operation's scheduled start, so they include time spent waiting behind slow operations.
+     * @param type the operation type
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLatencies(WorkloadGenerator.OperationType type) {
+        return latencies.get(type);
+    }
+
+    /**
+     * Gets how many operations of a type did not succeed: failed writes and deletes,
+     * and reads that found no value.
+     * @param type the operation type
+     * @return the number of unsuccessful operations
+     */
+    public long getUnsuccessful(WorkloadGenerator.OperationType type) {
+        return unsuccessful.getOrDefault(type, 0L);
+    }
+
+    public List<IntervalSample> getSamples() {
+        return Collections.unmodifiableList(samples);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append("--- Load Test Report ---\n");
+        report.append(spec).append('\n');
+        report.append(String.format("Duration: %.1f s, operations: %d, throughput: %.1f ops/s%n",
+                durationNanos / 1e9, getTotalOperations(), getThroughput()));
+        report.append(String.format("%-7s %9s %9s %9s %9s %9s %9s %9s%n",
+                "op", "count", "unsucc", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)"));
+        for (Map.Entry<WorkloadGenerator.OperationType, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format("%-7s %9d %9d %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    entry.getKey(), histogram.getCount(), getUnsuccessful(entry.getKey()),
+                    histogram.getPercentileNanos(50) / 1e6, histogram.getPercentileNanos(90) / 1e6,
+                    histogram.getPercentileNanos(99) / 1e6, histogram.getPercentileNanos(99.9) / 1e6,
+                    histogram.getMaxNanos() / 1e6));
+        }
+        report.append(String.format("%8s %10s %9s %8s %9s %6s%n",
+                "time(s)", "ops/s", "p99(ms)", "maxLag", "meanLag", "slaves"));
+        for (IntervalSample sample : samples) {
+            report.append(String.format("%8.1f %10.1f %9.3f %8d %9.1f %6d%n",
+                    sample.getElapsedSeconds(), sample.getOpsPerSecond(), sample.getP99Nanos() / 1e6,
+                    sample.getMaxReplicationLag(), sample.getMeanReplicationLag(), sample.getUpSlaves()));
+        }
+        return report.toString();
+    }
+}
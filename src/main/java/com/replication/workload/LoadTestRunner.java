@@ -0,0 +1,261 @@
+package com.replication.workload;
+
+import com.replication.system.ReplicationSystem;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a {@link ReplicationSystem} with a generated workload and reports throughput,
+ * latency percentiles and replication lag over time.
+ * <p>
+ * With a target rate the test is open-loop: each worker has a fixed schedule of intended
+ * start times, and latency is measured from the intended start rather than from when the
+ * operation was actually issued. A stall therefore shows up in the latency of every
+ * operation that should have run during it, avoiding coordinated omission.
+ */
+public class LoadTestRunner {
+    private final ReplicationSystem system;
+    private final WorkloadSpec spec;
+    private final Map<WorkloadGenerator.OperationType, LatencyHistogram> latencies =
+            new EnumMap<>(WorkloadGenerator.OperationType.class);
+    private final Map<WorkloadGenerator.OperationType, AtomicLong> unsuccessful =
+            new EnumMap<>(WorkloadGenerator.OperationType.class);
+    private final AtomicReference<LatencyHistogram> intervalLatencies = new AtomicReference<>(new LatencyHistogram());
+    private final List<LoadTestReport.IntervalSample> samples = new ArrayList<>();
+
+    public LoadTestRunner(ReplicationSystem system, WorkloadSpec spec) {
+        this.system = system;
+        this.spec = spec;
+        for (WorkloadGenerator.OperationType type : WorkloadGenerator.OperationType.values()) {
+            latencies.put(type, new LatencyHistogram());
+            unsuccessful.put(type, new AtomicLong());
+        }
+    }
+
+    /**
+     * Runs the workload to completion. Any failure simulator the workload starts is stopped
+     * before returning. Node logging is left as it is; see {@link #main} for quiet runs.
+     * @return the report
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public LoadTestReport run() throws InterruptedException {
+        ZipfianGenerator keyChooser = spec.getKeyDistribution() == WorkloadSpec.KeyDistribution.ZIPFIAN
+                ? new ZipfianGenerator(spec.getRecordCount(), spec.getZipfianConstant(), true) : null;
+        if (spec.isPreload()) {
+            WorkloadGenerator loader = new WorkloadGenerator(spec, -1, keyChooser);
+            for (long i = 0; i < spec.getRecordCount(); i++) {
+                system.write(WorkloadGenerator.keyFor(i), loader.nextValue());
+            }
+        }
+        boolean simulatingFailures = spec.getFailureProbability() > 0;
+        if (simulatingFailures) {
+            system.startFailureSimulator(spec.getFailureProbability(), spec.getRecoveryProbability(),
+                    spec.getFailureCheckIntervalSeconds(), spec.getSeed());
+        }
+        try {
+            return runWorkers(keyChooser);
+        } finally {
+            if (simulatingFailures) {
+                system.stopFailureSimulators();
+            }
+        }
+    }
+
+    private LoadTestReport runWorkers(ZipfianGenerator keyChooser) throws InterruptedException {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(spec.getDurationSeconds());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        long[] lastSample = {start};
+        sampler.scheduleAtFixedRate(() -> sample(start, lastSample), spec.getSampleIntervalMillis(),
+                spec.getSampleIntervalMillis(), TimeUnit.MILLISECONDS);
+
+        long finished;
+        try {
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < spec.getThreads(); i++) {
+                WorkloadGenerator generator = new WorkloadGenerator(spec, i, keyChooser);
+                int worker = i;
+                Thread thread = new Thread(() -> runWorker(generator, worker, start, end), "load-worker-" + i);
+                workers.add(thread);
+                thread.start();
+            }
+            for (Thread thread : workers) {
+                thread.join();
+            }
+            finished = System.nanoTime();
+        } finally {
+            sampler.shutdown();
+        }
+        sampler.awaitTermination(1, TimeUnit.SECONDS);
+        sample(start, lastSample);
+
+        Map<WorkloadGenerator.OperationType, Long> unsuccessfulCounts = new EnumMap<>(WorkloadGenerator.OperationType.class);
+        unsuccessful.forEach((type, count) -> unsuccessfulCounts.put(type, count.get()));
+        synchronized (samples) {
+            return new LoadTestReport(spec, finished - start, latencies, unsuccessfulCounts, samples);
+        }
+    }
+
+    private void runWorker(WorkloadGenerator generator, int worker, long start, long end) {
+        boolean openLoop = spec.getTargetOpsPerSecond() > 0;
+        long intervalNanos = openLoop ? (long) (1e9 * spec.getThreads() / spec.getTargetOpsPerSecond()) : 0;
+        // Stagger the workers' schedules so the combined rate is smooth
+        long intendedStart = start + worker * intervalNanos / spec.getThreads();
+
+        while (intendedStart < end) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+            if (openLoop && now < intendedStart) {
+                LockSupport.parkNanos(intendedStart - now);
+            } else if (!openLoop) {
+                intendedStart = now;
+            }
+
+            WorkloadGenerator.Operation operation = generator.next();
+            boolean success = execute(operation);
+            long latency = System.nanoTime() - intendedStart;
+
+            latencies.get(operation.getType()).record(latency);
+            intervalLatencies.get().record(latency);
+            if (!success) {
+                unsuccessful.get(operation.getType()).incrementAndGet();
+            }
+            intendedStart += intervalNanos;
+        }
+    }
+
+    private boolean execute(WorkloadGenerator.Operation operation) {
+        switch (operation.getType()) {
+            case READ:
+                return system.read(operation.getKey()) != null;
+            case WRITE:
+                return system.write(operation.getKey(), operation.getValue());
+            default:
+                return system.delete(operation.getKey());
+        }
+    }
+
+    private void sample(long start, long[] lastSample) {
+        long now = System.nanoTime();
+        LatencyHistogram interval = intervalLatencies.getAndSet(new LatencyHistogram());
+        double seconds = (now - lastSample[0]) / 1e9;
+        lastSample[0] = now;
+
+        Map<String, Long> lag = system.getReplicationLag();
+        long maxLag = 0;
+        long totalLag = 0;
+        for (long slaveLag : lag.values()) {
+            maxLag = Math.max(maxLag, slaveLag);
+            totalLag += slaveLag;
+        }
+
+        synchronized (samples) {
+            samples.add(new LoadTestReport.IntervalSample((now - start) / 1e9,
+                    seconds > 0 ? interval.getCount() / seconds : 0.0, interval.getPercentileNanos(99),
+                    maxLag, lag.isEmpty() ? 0.0 : (double) totalLag / lag.size(), lag.size()));
+        }
+    }
+
+    /**
+     * Runs a load test from the command line. Unless {@code quiet=false}, node logging is
+     * silenced for the whole process, before the system starts any threads, and only the
+     * test's own output is printed. Arguments are {@code name=value} pairs:
+     * <pre>
+     *   slaves=3 records=10000 mix=90/10/0 keys=zipfian|uniform zipf=0.99
+     *   values=constant|uniform|zipfian:min:max rate=1000 duration=10 threads=4
+     *   seed=42 failures=fail/recover/intervalSeconds preload=true quiet=true
+     * </pre>
+     * @param args the test parameters
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(String[] args) throws InterruptedException {
+        WorkloadSpec spec = new WorkloadSpec();
+        int slaves = 3;
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                System.out.println("Ignoring argument '" + arg + "' (expected name=value)");
+                continue;
+            }
+            String value = parts[1];
+            switch (parts[0]) {
+                case "slaves":
+                    slaves = Integer.parseInt(value);
+                    break;
+                case "records":
+                    spec.recordCount(Long.parseLong(value));
+                    break;
+                case "mix": {
+                    String[] mix = value.split("/");
+                    spec.mix(Double.parseDouble(mix[0]), Double.parseDouble(mix[1]), Double.parseDouble(mix[2]));
+                    break;
+                }
+                case "keys":
+                    spec.keyDistribution(WorkloadSpec.KeyDistribution.valueOf(value.toUpperCase()));
+                    break;
+                case "zipf":
+                    spec.zipfianConstant(Double.parseDouble(value));
+                    break;
+                case "values": {
+                    String[] sizes = value.split(":");
+                    spec.valueSize(WorkloadSpec.ValueSizeDistribution.valueOf(sizes[0].toUpperCase()),
+                            Integer.parseInt(sizes[1]), Integer.parseInt(sizes[2]));
+                    break;
+                }
+                case "rate":
+                    spec.targetOpsPerSecond(Double.parseDouble(value));
+                    break;
+                case "duration":
+                    spec.durationSeconds(Long.parseLong(value));
+                    break;
+                case "threads":
+                    spec.threads(Integer.parseInt(value));
+                    break;
+                case "seed":
+                    spec.seed(Long.parseLong(value));
+                    break;
+                case "failures": {
+                    String[] failures = value.split("/");
+                    spec.failures(Double.parseDouble(failures[0]), Double.parseDouble(failures[1]),
+                            Integer.parseInt(failures[2]));
+                    break;
+                }
+                case "preload":
+                    spec.preload(Boolean.parseBoolean(value));
+                    break;
+                case "quiet":
+                    spec.quiet(Boolean.parseBoolean(value));
+                    break;
+                default:
+                    System.out.println("Ignoring unknown argument '" + parts[0] + "'");
+            }
+        }
+
+        PrintStream console = System.out;
+        if (spec.isQuiet()) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        ReplicationSystem system = new ReplicationSystem(slaves);
+        try {
+            console.println("Running " + spec);
+            LoadTestReport report = new LoadTestRunner(system, spec).run();
+            console.println(report);
+        } finally {
+            system.shutdown();
+            System.setOut(console);
+        }
+    }
+}
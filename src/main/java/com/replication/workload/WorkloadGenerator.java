@@ -0,0 +1,135 @@
+package com.replication.workload;
+
+import java.util.Random;
+
+/**
+ * Produces a deterministic stream of operations for a {@link WorkloadSpec}.
+ * Each generator owns its random source, so a load test gives every worker its own
+ * generator derived from the spec's seed.
+ */
+public class WorkloadGenerator {
+    /**
+     * The kind of operation to issue.
+     */
+    public enum OperationType {
+        READ,
+        WRITE,
+        DELETE
+    }
+
+    /**
+     * One operation to issue against the replication system.
+     */
+    public static class Operation {
+        private final OperationType type;
+        private final String key;
+        private final String value;
+
+        Operation(OperationType type, String key, String value) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+        }
+
+        public OperationType getType() {
+            return type;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private final WorkloadSpec spec;
+    private final Random random;
+    private final ZipfianGenerator keyChooser;
+    private final ZipfianGenerator valueSizeChooser;
+    private final String valueSource;
+
+    /**
+     * Creates a generator.
+     * @param spec the workload to generate
+     * @param stream distinguishes generators that share the spec's seed, e.g. one per worker thread
+     */
+    public WorkloadGenerator(WorkloadSpec spec, int stream) {
+        this(spec, stream, spec.getKeyDistribution() == WorkloadSpec.KeyDistribution.ZIPFIAN
+                ? new ZipfianGenerator(spec.getRecordCount(), spec.getZipfianConstant(), true) : null);
+    }
+
+    /**
+     * Creates a generator that shares an already initialized key chooser, which is
+     * expensive to build for large key spaces.
+     */
+    WorkloadGenerator(WorkloadSpec spec, int stream, ZipfianGenerator keyChooser) {
+        this.spec = spec;
+        this.random = new Random(spec.getSeed() * 31 + stream);
+        this.keyChooser = keyChooser;
+        int sizeRange = spec.getMaxValueSize() - spec.getMinValueSize() + 1;
+        this.valueSizeChooser = spec.getValueSizeDistribution() == WorkloadSpec.ValueSizeDistribution.ZIPFIAN
+                ? new ZipfianGenerator(sizeRange, spec.getZipfianConstant(), false) : null;
+
+        // Values are cut from one random buffer instead of being generated character by character
+        StringBuilder source = new StringBuilder(spec.getMaxValueSize() * 2);
+        for (int i = 0; i < spec.getMaxValueSize() * 2; i++) {
+            source.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        this.valueSource = source.toString();
+    }
+
+    /**
+     * Generates the next operation.
+     * @return the operation
+     */
+    public Operation next() {
+        double choice = random.nextDouble();
+        String key = keyFor(nextKeyNumber());
+        if (choice < spec.getReadProportion()) {
+            return new Operation(OperationType.READ, key, null);
+        } else if (choice < spec.getReadProportion() + spec.getWriteProportion()) {
+            return new Operation(OperationType.WRITE, key, nextValue());
+        }
+        return new Operation(OperationType.DELETE, key, null);
+    }
+
+    /**
+     * Gets the key for a record number, as used when preloading.
+     * @param recordNumber the record number
+     * @return the key
+     */
+    public static String keyFor(long recordNumber) {
+        return "user" + recordNumber;
+    }
+
+    /**
+     * Generates a value with a size drawn from the spec's value size distribution.
+     * @return the value
+     */
+    public String nextValue() {
+        int size;
+        switch (spec.getValueSizeDistribution()) {
+            case UNIFORM:
+                size = spec.getMinValueSize() + random.nextInt(spec.getMaxValueSize() - spec.getMinValueSize() + 1);
+                break;
+            case ZIPFIAN:
+                size = spec.getMinValueSize() + (int) valueSizeChooser.next(random);
+                break;
+            default:
+                size = spec.getMaxValueSize();
+        }
+        int offset = random.nextInt(valueSource.length() - size + 1);
+        return valueSource.substring(offset, offset + size);
+    }
+
+    private long nextKeyNumber() {
+        if (keyChooser != null) {
+            return keyChooser.next(random);
+        }
+        return (long) (random.nextDouble() * spec.getRecordCount());
+    }
+}
@@ -0,0 +1,254 @@
+package com.replication.workload;
+
+/**
+ * Description of a load test: the operation mix, how keys and value sizes are chosen,
+ * the target rate, and optional failure injection. Every random choice derives from
+ * {@link #getSeed()}, so the same spec produces the same sequence of operations.
+ * Setters return the spec so they can be chained.
+ */
+public class WorkloadSpec {
+    /**
+     * How keys are picked from the key space.
+     */
+    public enum KeyDistribution {
+        UNIFORM,
+        ZIPFIAN
+    }
+
+    /**
+     * How value sizes are picked between the minimum and maximum size.
+     */
+    public enum ValueSizeDistribution {
+        CONSTANT,
+        UNIFORM,
+        ZIPFIAN
+    }
+
+    private long recordCount = 10_000;
+    private double readProportion = 0.90;
+    private double writeProportion = 0.10;
+    private double deleteProportion = 0.0;
+    private KeyDistribution keyDistribution = KeyDistribution.ZIPFIAN;
+    private double zipfianConstant = ZipfianGenerator.DEFAULT_ZIPFIAN_CONSTANT;
+    private ValueSizeDistribution valueSizeDistribution = ValueSizeDistribution.CONSTANT;
+    private int minValueSize = 100;
+    private int maxValueSize = 100;
+    private double targetOpsPerSecond = 1_000;
+    private long durationSeconds = 10;
+    private int threads = 4;
+    private long seed = 42;
+    private boolean preload = true;
+    private double failureProbability = 0.0;
+    private double recoveryProbability = 0.0;
+    private int failureCheckIntervalSeconds = 1;
+    private long sampleIntervalMillis = 1_000;
+    private boolean quiet = true;
+
+    /**
+     * Sets the operation mix. The proportions are normalized, so they need not add up to 1.
+     * @param read the share of reads
+     * @param write the share of writes
+     * @param delete the share of deletes
+     * @return this spec
+     */
+    public WorkloadSpec mix(double read, double write, double delete) {
+        double total = read + write + delete;
+        if (total <= 0) {
+            throw new IllegalArgumentException("Operation mix must contain at least one operation");
+        }
+        this.readProportion = read / total;
+        this.writeProportion = write / total;
+        this.deleteProportion = delete / total;
+        return this;
+    }
+
+    public WorkloadSpec recordCount(long recordCount) {
+        this.recordCount = recordCount;
+        return this;
+    }
+
+    public WorkloadSpec keyDistribution(KeyDistribution keyDistribution) {
+        this.keyDistribution = keyDistribution;
+        return this;
+    }
+
+    public WorkloadSpec zipfianConstant(double zipfianConstant) {
+        this.zipfianConstant = zipfianConstant;
+        return this;
+    }
+
+    /**
+     * Sets how value sizes are chosen.
+     * @param distribution the value size distribution
+     * @param minSize the smallest value size in characters
+     * @param maxSize the largest value size in characters
+     * @return this spec
+     */
+    public WorkloadSpec valueSize(ValueSizeDistribution distribution, int minSize, int maxSize) {
+        if (minSize < 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid value size range: " + minSize + ".." + maxSize);
+        }
+        this.valueSizeDistribution = distribution;
+        this.minValueSize = minSize;
+        this.maxValueSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Sets the open-loop target rate. Operations are scheduled at this rate regardless of how
+     * long earlier ones took, and latency is measured from the scheduled start.
+     * @param targetOpsPerSecond the target rate across all threads
+     * @return this spec
+     */
+    public WorkloadSpec targetOpsPerSecond(double targetOpsPerSecond) {
+        this.targetOpsPerSecond = targetOpsPerSecond;
+        return this;
+    }
+
+    public WorkloadSpec durationSeconds(long durationSeconds) {
+        this.durationSeconds = durationSeconds;
+        return this;
+    }
+
+    public WorkloadSpec threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public WorkloadSpec seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Sets whether every record is written once before the measured run.
+     * @param preload true to load the key space first
+     * @return this spec
+     */
+    public WorkloadSpec preload(boolean preload) {
+        this.preload = preload;
+        return this;
+    }
+
+    /**
+     * Turns on seeded failure injection through the replication system's failure simulator.
+     * @param failureProbability the probability of a slave failing in each check
+     * @param recoveryProbability the probability of a failed slave recovering in each check
+     * @param checkIntervalSeconds the interval between checks in seconds
+     * @return this spec
+     */
+    public WorkloadSpec failures(double failureProbability, double recoveryProbability, int checkIntervalSeconds) {
+        this.failureProbability = failureProbability;
+        this.recoveryProbability = recoveryProbability;
+        this.failureCheckIntervalSeconds = checkIntervalSeconds;
+        return this;
+    }
+
+    public WorkloadSpec sampleIntervalMillis(long sampleIntervalMillis) {
+        this.sampleIntervalMillis = sampleIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Sets whether node logging is silenced. A load test run from the command line silences
+     * it for the whole process; a simulation silences it while it runs.
+     * @param quiet true to silence node logging
+     * @return this spec
+     */
+    public WorkloadSpec quiet(boolean quiet) {
+        this.quiet = quiet;
+        return this;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public double getReadProportion() {
+        return readProportion;
+    }
+
+    public double getWriteProportion() {
+        return writeProportion;
+    }
+
+    public double getDeleteProportion() {
+        return deleteProportion;
+    }
+
+    public KeyDistribution getKeyDistribution() {
+        return keyDistribution;
+    }
+
+    public double getZipfianConstant() {
+        return zipfianConstant;
+    }
+
+    public ValueSizeDistribution getValueSizeDistribution() {
+        return valueSizeDistribution;
+    }
+
+    public int getMinValueSize() {
+        return minValueSize;
+    }
+
+    public int getMaxValueSize() {
+        return maxValueSize;
+    }
+
+    public double getTargetOpsPerSecond() {
+        return targetOpsPerSecond;
+    }
+
+    public long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean isPreload() {
+        return preload;
+    }
+
+    public double getFailureProbability() {
+        return failureProbability;
+    }
+
+    public double getRecoveryProbability() {
+        return recoveryProbability;
+    }
+
+    public int getFailureCheckIntervalSeconds() {
+        return failureCheckIntervalSeconds;
+    }
+
+    public long getSampleIntervalMillis() {
+        return sampleIntervalMillis;
+    }
+
+    public boolean isQuiet() {
+        return quiet;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkloadSpec{" +
+                "records=" + recordCount +
+                String.format(", mix=%.2f/%.2f/%.2f", readProportion, writeProportion, deleteProportion) +
+                ", keys=" + keyDistribution +
+                (keyDistribution == KeyDistribution.ZIPFIAN ? "(" + zipfianConstant + ")" : "") +
+                ", values=" + valueSizeDistribution + "[" + minValueSize + ".." + maxValueSize + "]" +
+                ", target=" + targetOpsPerSecond + " ops/s" +
+                ", duration=" + durationSeconds + "s" +
+                ", threads=" + threads +
+                ", seed=" + seed +
+                (failureProbability > 0 ? ", failures=" + failureProbability + "/" + recoveryProbability : "") +
+                '}';
+    }
+}
@@ -0,0 +1,83 @@
+package com.replication.workload;
+
+import java.util.Random;
+
+/**
+ * Generates item numbers in {@code [0, items)} following a Zipfian distribution,
+ * using the algorithm from Gray et al., "Quickly Generating Billion-Record Synthetic
+ * Databases" (as in YCSB). Item 0 is the most popular unless scrambling is on, in which
+ * case the popular items are spread over the key space by hashing.
+ */
+public class ZipfianGenerator {
+    public static final double DEFAULT_ZIPFIAN_CONSTANT = 0.99;
+
+    private final long items;
+    private final double theta;
+    private final double zetan;
+    private final double alpha;
+    private final double eta;
+    private final double secondItemThreshold;
+    private final boolean scrambled;
+
+    /**
+     * Creates a Zipfian generator.
+     * @param items the number of items to choose from
+     * @param zipfianConstant the skew; higher is more skewed, 0.99 is YCSB's default
+     * @param scrambled whether to spread the popular items over the key space
+     */
+    public ZipfianGenerator(long items, double zipfianConstant, boolean scrambled) {
+        this.items = items;
+        this.theta = zipfianConstant;
+        this.zetan = zeta(items, zipfianConstant);
+        double zeta2 = zeta(2, zipfianConstant);
+        this.alpha = 1.0 / (1.0 - zipfianConstant);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - zipfianConstant)) / (1 - zeta2 / zetan);
+        this.secondItemThreshold = 1 + Math.pow(0.5, zipfianConstant);
+        this.scrambled = scrambled;
+    }
+
+    /**
+     * Draws the next item.
+     * @param random the random source to draw from
+     * @return an item number in {@code [0, items)}
+     */
+    public long next(Random random) {
+        double u = random.nextDouble();
+        double uz = u * zetan;
+        long item;
+        if (uz < 1.0) {
+            item = 0;
+        } else if (uz < secondItemThreshold) {
+            item = 1;
+        } else {
+            item = Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+        }
+        return scrambled ? Math.floorMod(fnvHash64(item), items) : item;
+    }
+
+    public long getItems() {
+        return items;
+    }
+
+    public double getZipfianConstant() {
+        return theta;
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, theta);
+        }
+        return sum;
+    }
+
+    private static long fnvHash64(long value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xFF;
+            hash *= 0x100000001B3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}